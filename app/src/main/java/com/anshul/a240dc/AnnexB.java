@@ -0,0 +1,141 @@
+package com.anshul.a240dc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * H.264/H.265 byte-stream helpers. MediaCodec emits Annex-B (start-code delimited) NAL units,
+ * while MP4 stores each NAL unit behind a 4-byte big-endian length.
+ */
+public final class AnnexB {
+
+    private AnnexB() {}
+
+    /** Upper bound on the length-prefixed size of an Annex-B buffer of {@code size} bytes. */
+    public static int maxLengthPrefixedSize(int size) {
+        // Worst case is a 3-byte start code in front of every 1-byte NAL unit
+        return size + size / 4 + 4;
+    }
+
+    /**
+     * Rewrites the remaining bytes of {@code src} (Annex-B) into {@code dst} as 4-byte
+     * length-prefixed NAL units. Data without any start code is taken as one NAL unit. Leaves
+     * {@code src}'s position alone and returns the number of bytes written to {@code dst}.
+     */
+    public static int toLengthPrefixed(ByteBuffer src, ByteBuffer dst) {
+        int start = src.position();
+        int end = src.limit();
+        int written = 0;
+        int nal = nextNal(src, start, end);
+        if (nal < 0) {
+            dst.putInt(end - start);
+            copy(src, start, end, dst);
+            return end - start + 4;
+        }
+        while (nal >= 0) {
+            int next = findStartCode(src, nal, end);
+            int nalEnd = next < 0 ? end : next;
+            // Trailing zeros belong to the next start code (or are padding)
+            while (nalEnd > nal && src.get(nalEnd - 1) == 0) nalEnd--;
+            if (nalEnd > nal) {
+                dst.putInt(nalEnd - nal);
+                copy(src, nal, nalEnd, dst);
+                written += nalEnd - nal + 4;
+            }
+            nal = next < 0 ? -1 : next + 3;
+        }
+        return written;
+    }
+
+    /**
+     * Turns the 4-byte length-prefixed NAL units in {@code buf}'s remaining bytes back into
+     * Annex-B in place, for feeding samples read from an MP4 to a decoder. Returns false, and
+     * leaves the rest alone, when a length runs past the limit.
+     */
+    public static boolean toStartCodes(ByteBuffer buf) {
+        int end = buf.limit();
+        for (int i = buf.position(); i < end; ) {
+            if (end - i < 4) return false;
+            long length = buf.getInt(i) & 0xFFFFFFFFL;
+            if (length > end - i - 4) return false;
+            buf.putInt(i, 1);
+            i += 4 + (int) length;
+        }
+        return true;
+    }
+
+    /** Splits an Annex-B buffer, such as MediaCodec's csd-0, into its NAL units. */
+    public static List<byte[]> nalUnits(byte[] annexB) {
+        ByteBuffer src = ByteBuffer.wrap(annexB);
+        List<byte[]> units = new ArrayList<>();
+        int nal = nextNal(src, 0, annexB.length);
+        if (nal < 0) {
+            if (annexB.length > 0) units.add(annexB.clone());
+            return units;
+        }
+        while (nal >= 0) {
+            int next = findStartCode(src, nal, annexB.length);
+            int nalEnd = next < 0 ? annexB.length : next;
+            while (nalEnd > nal && annexB[nalEnd - 1] == 0) nalEnd--;
+            if (nalEnd > nal) units.add(Arrays.copyOfRange(annexB, nal, nalEnd));
+            nal = next < 0 ? -1 : next + 3;
+        }
+        return units;
+    }
+
+    /** H.264 nal_unit_type. */
+    public static int avcType(byte[] nal) {
+        return nal[0] & 0x1F;
+    }
+
+    /** H.265 nal_unit_type. */
+    public static int hevcType(byte[] nal) {
+        return (nal[0] >> 1) & 0x3F;
+    }
+
+    /** Strips emulation-prevention bytes (00 00 03) so header fields can be read directly. */
+    static byte[] unescape(byte[] nal, int from, int max) {
+        byte[] out = new byte[Math.min(max, nal.length - from)];
+        int n = 0;
+        int zeros = 0;
+        for (int i = from; i < nal.length && n < out.length; i++) {
+            int b = nal[i] & 0xFF;
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            out[n++] = (byte) b;
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    // First byte after the first start code, or -1
+    private static int nextNal(ByteBuffer src, int from, int end) {
+        int sc = findStartCode(src, from, end);
+        return sc < 0 ? -1 : sc + 3;
+    }
+
+    // Position of the next 00 00 01 at or after from
+    private static int findStartCode(ByteBuffer src, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if ((src.get(i + 2) & 0xFF) > 1) {
+                i += 2;
+            } else if (src.get(i) == 0 && src.get(i + 1) == 0 && src.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Bulk copy through src's own position and limit, restored afterwards
+    private static void copy(ByteBuffer src, int from, int to, ByteBuffer dst) {
+        int pos = src.position();
+        int limit = src.limit();
+        src.limit(to).position(from);
+        dst.put(src);
+        src.limit(limit).position(pos);
+    }
+}
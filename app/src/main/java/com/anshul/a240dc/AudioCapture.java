@@ -0,0 +1,141 @@
+package com.anshul.a240dc;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Microphone to AAC on its own thread, feeding encoded frames into a {@link SampleQueue}.
+ * Timestamps are on the System.nanoTime() clock, like the camera's frame timestamps on the
+ * devices we record with.
+ */
+public class AudioCapture {
+
+    private static final int SAMPLE_RATE = 48_000;
+    static final int BITRATE = 128_000;
+    private static final long PUT_TIMEOUT_NANOS = 20_000_000L;
+
+    private final SampleQueue queue;
+    private final int track;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    private AudioRecord audioRecord;
+    private MediaCodec encoder;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile MediaFormat outputFormat;
+
+    public AudioCapture(SampleQueue queue, int track) {
+        this.queue = queue;
+        this.track = track;
+    }
+
+    /** Known once the encoder has produced its first output. */
+    public MediaFormat outputFormat() {
+        return outputFormat;
+    }
+
+    public void start() throws IOException {
+        int minBuffer = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        try {
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer, 8192) * 2);
+        } catch (SecurityException e) {
+            throw new IOException("No microphone permission", e);
+        }
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            audioRecord = null;
+            throw new IOException("Microphone unavailable");
+        }
+
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, SAMPLE_RATE, 1);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BITRATE);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 16384);
+        encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoder.start();
+        audioRecord.startRecording();
+
+        running = true;
+        thread = new Thread(this::run, "audio-capture");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    private void run() {
+        long startUs = System.nanoTime() / 1000;
+        long framesRead = 0;
+        try {
+            while (running) {
+                int in = encoder.dequeueInputBuffer(10_000);
+                if (in >= 0) {
+                    ByteBuffer input = encoder.getInputBuffer(in);
+                    int read = input == null ? 0 : audioRecord.read(input, input.capacity());
+                    long ptsUs = startUs + framesRead * 1_000_000L / SAMPLE_RATE;
+                    if (read > 0) framesRead += read / 2;
+                    encoder.queueInputBuffer(in, 0, Math.max(read, 0), ptsUs, 0);
+                }
+                drainEncoder();
+            }
+        } catch (IllegalStateException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void drainEncoder() throws InterruptedException {
+        while (true) {
+            int out = encoder.dequeueOutputBuffer(info, 0);
+            if (out == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                outputFormat = encoder.getOutputFormat();
+                continue;
+            }
+            if (out < 0) return;
+            ByteBuffer data = encoder.getOutputBuffer(out);
+            if (data != null && info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                data.limit(info.offset + info.size).position(info.offset);
+                queue.put(track, data, info.presentationTimeUs, 0, PUT_TIMEOUT_NANOS);
+            }
+            encoder.releaseOutputBuffer(out, false);
+        }
+    }
+
+    /** Stops capturing and waits for the capture thread; the last few ms of audio are discarded. */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (audioRecord != null) {
+            try {
+                audioRecord.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+            audioRecord.release();
+            audioRecord = null;
+        }
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+            encoder.release();
+            encoder = null;
+        }
+    }
+}
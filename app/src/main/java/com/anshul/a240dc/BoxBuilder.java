@@ -0,0 +1,123 @@
+package com.anshul.a240dc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds ISO-BMFF boxes into a reusable, growable big-endian buffer. {@link #start} writes a
+ * placeholder size that {@link #end} patches once the box's contents are known.
+ */
+final class BoxBuilder {
+
+    private ByteBuffer buf;
+
+    BoxBuilder(int initialCapacity) {
+        buf = ByteBuffer.allocate(initialCapacity).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    void reset() {
+        buf.clear();
+    }
+
+    int position() {
+        return buf.position();
+    }
+
+    /** The built bytes, from 0 to the current position. Valid until the next write. */
+    ByteBuffer flipped() {
+        ByteBuffer out = buf.duplicate();
+        out.flip();
+        return out;
+    }
+
+    byte[] toByteArray() {
+        byte[] out = new byte[buf.position()];
+        ByteBuffer view = flipped();
+        view.get(out);
+        return out;
+    }
+
+    int start(int type) {
+        int at = buf.position();
+        u32(0);
+        u32(type);
+        return at;
+    }
+
+    int startFull(int type, int version, int flags) {
+        int at = start(type);
+        u32((long) version << 24 | (flags & 0xFFFFFF));
+        return at;
+    }
+
+    void end(int at) {
+        buf.putInt(at, buf.position() - at);
+    }
+
+    BoxBuilder u8(int v) {
+        ensure(1);
+        buf.put((byte) v);
+        return this;
+    }
+
+    BoxBuilder u16(int v) {
+        ensure(2);
+        buf.putShort((short) v);
+        return this;
+    }
+
+    BoxBuilder u24(int v) {
+        ensure(3);
+        buf.put((byte) (v >>> 16)).put((byte) (v >>> 8)).put((byte) v);
+        return this;
+    }
+
+    BoxBuilder u32(long v) {
+        ensure(4);
+        buf.putInt((int) v);
+        return this;
+    }
+
+    BoxBuilder u64(long v) {
+        ensure(8);
+        buf.putLong(v);
+        return this;
+    }
+
+    BoxBuilder zeros(int n) {
+        ensure(n);
+        for (int i = 0; i < n; i++) buf.put((byte) 0);
+        return this;
+    }
+
+    BoxBuilder bytes(byte[] b) {
+        ensure(b.length);
+        buf.put(b);
+        return this;
+    }
+
+    BoxBuilder ascii(String s) {
+        return bytes(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Patches a 32-bit value written earlier at {@code at}. */
+    void setU32(int at, long v) {
+        buf.putInt(at, (int) v);
+    }
+
+    /** The unity transformation matrix used by mvhd and tkhd. */
+    BoxBuilder matrix() {
+        u32(0x00010000).u32(0).u32(0);
+        u32(0).u32(0x00010000).u32(0);
+        return u32(0).u32(0).u32(0x40000000);
+    }
+
+    private void ensure(int n) {
+        if (buf.remaining() >= n) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n)).order(ByteOrder.BIG_ENDIAN);
+        buf.flip();
+        bigger.put(buf);
+        buf = bigger;
+    }
+}
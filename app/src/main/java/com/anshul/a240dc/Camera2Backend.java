@@ -0,0 +1,662 @@
+package com.anshul.a240dc;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.hardware.camera2.params.SessionConfiguration;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.MediaCodec;
+import android.media.MediaScannerConnection;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Camera2 + {@link RecordingPipeline} implementation of {@link CameraBackend}. Every camera
+ * callback and every pipeline call runs on one dedicated "capture-engine" HandlerThread.
+ *
+ * The encoder draws from a persistent input surface, so the constrained high-speed session and
+ * the encoder both outlive any single take. With pre-warming on, they are set up while the
+ * camera sits idle, and a tap only has to open the output file and start the repeating burst.
+ *
+ * In pre-roll mode the camera streams into the encoder all the time it is open, and a take
+ * starts with the last few seconds before the tap.
+ *
+ * With a {@link RecordingGovernor}, each take is checked against the thermal status, the
+ * writer's backlog and the measured frame rate twice a second and the encoder's bitrate follows
+ * its decisions. When it picks another mode between takes, the session and encoder are rebuilt
+ * for it right away, so the next tap is still instant.
+ */
+public class Camera2Backend implements CameraBackend {
+
+    private static final String TAG = "Camera2Backend";
+    private static final long SETTLE_MS = 60;
+    // Below this share of the nominal rate a take is reported as falling behind
+    private static final float LOW_FPS_RATIO = 0.95f;
+    // Narrowest YUV stream worth running the motion detector on
+    private static final int WATCH_MIN_WIDTH = 320;
+    private static final long GOVERN_INTERVAL_MS = 500;
+
+    private final Context context;
+    private final String cameraId;
+    private final CameraManager cameraManager;
+    private final PowerManager powerManager;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Executor executor;
+    private final boolean prewarm;
+    private final double preRollSeconds;
+    private final RecordingGovernor governor;
+    private final Surface recorderSurface = MediaCodec.createPersistentInputSurface();
+
+    private CameraDevice cameraDevice;
+    // Bumped by close(), so a camera that finishes opening after it is closed right away; a
+    // released backend keeps its thread until that pending open has reported
+    private int openGeneration;
+    private boolean opening;
+    private boolean released;
+    private RecordingPipeline pipeline;
+    private CameraConstrainedHighSpeedCaptureSession captureSession;
+    private List<CaptureRequest> requestList;
+    private String currentVideoName;
+    private String currentVideoFilePath;
+    // Follows the governor's mode; capture thread only
+    private EncoderConfig config;
+
+    // Sensor timing of the current take; both only touched on the capture thread
+    private FrameTelemetry telemetry;
+    private boolean measuring;
+    private boolean warnedLowFps;
+    private Callback pendingStart;
+    // Gets the storage readings of the take in progress; capture thread only
+    private Callback takeCallback;
+    private StorageHealth storage;
+
+    // Motion watch: a regular session with a small YUV reader, since a high-speed session only
+    // takes preview and encoder surfaces. Only touched on the capture thread
+    private CameraCaptureSession watchSession;
+    private ImageReader watchReader;
+    private MotionDetector motionDetector;
+    private Callback watchCallback;
+
+    // One callback for every repeating burst, so no frame allocates anything
+    private final CameraCaptureSession.CaptureCallback frameCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                     long timestamp, long frameNumber) {
+            if (pendingStart != null) {
+                Callback callback = pendingStart;
+                pendingStart = null;
+                callback.onRecordingStarted(currentVideoFilePath, System.nanoTime());
+            }
+            if (!measuring) return;
+            telemetry.onFrame(timestamp);
+            if (!warnedLowFps && telemetry.liveFps() > 0 && telemetry.liveFps() < config.fps * LOW_FPS_RATIO) {
+                warnedLowFps = true;
+                Log.w(TAG, "Capture falling behind: " + telemetry.liveFps() + " fps of " + config.fps);
+            }
+        }
+    };
+
+    private final Runnable governTick = new Runnable() {
+        @Override
+        public void run() {
+            if (!measuring || pipeline == null || !governor.isInTake()) return;
+            RecordingGovernor.Decision d = governor.update(SystemClock.elapsedRealtime(),
+                    new RecordingGovernor.Conditions(thermalStatus(), pipeline.backlog(), telemetry.liveFps(),
+                            pipeline.dropped()));
+            if (d != null) {
+                Log.i(TAG, "Governor: " + d);
+                pipeline.setBitrate(governor.bitrate());
+            }
+            handler.postDelayed(this, GOVERN_INTERVAL_MS);
+        }
+    };
+
+    public Camera2Backend(Context context, boolean prewarm) {
+        this(context, prewarm, 0);
+    }
+
+    /** With {@code preRollSeconds > 0}, every take also keeps that much video from before the tap. */
+    public Camera2Backend(Context context, boolean prewarm, double preRollSeconds) {
+        this(context, prewarm, preRollSeconds, new EncoderConfig.Builder().build());
+    }
+
+    public Camera2Backend(Context context, boolean prewarm, double preRollSeconds, EncoderConfig config) {
+        this(context, null, prewarm, preRollSeconds, config);
+    }
+
+    /** Records from {@code cameraId}, or from the first camera when it is null. */
+    public Camera2Backend(Context context, String cameraId, boolean prewarm, double preRollSeconds, EncoderConfig config) {
+        this(context, cameraId, prewarm, preRollSeconds, config, null);
+    }
+
+    /** Lets {@code governor}, when not null, adjust takes that start out as {@code config}. */
+    public Camera2Backend(Context context, String cameraId, boolean prewarm, double preRollSeconds, EncoderConfig config,
+                          RecordingGovernor governor) {
+        this.context = context.getApplicationContext();
+        this.cameraId = cameraId;
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.prewarm = prewarm;
+        this.preRollSeconds = preRollSeconds;
+        this.governor = governor;
+        this.config = governor != null ? governor.config() : config;
+        this.telemetry = new FrameTelemetry(this.config.fps, FrameTelemetry.DEFAULT_CAPACITY);
+        thread = new HandlerThread("capture-engine", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        executor = handler::post;
+    }
+
+    @Override
+    public Executor executor() {
+        return executor;
+    }
+
+    @Override
+    public boolean isPrewarmed() {
+        return prewarm || isPreRoll();
+    }
+
+    private boolean isPreRoll() {
+        return preRollSeconds > 0;
+    }
+
+    @Override
+    public void open(Callback callback) {
+        try {
+            String id = cameraId != null ? cameraId : cameraManager.getCameraIdList()[0];
+            int generation = openGeneration;
+            opening = true;
+            cameraManager.openCamera(id, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(@NonNull CameraDevice camera) {
+                    opening = false;
+                    if (generation != openGeneration) {
+                        camera.close();
+                        quitIfReleased();
+                        return;
+                    }
+                    cameraDevice = camera;
+                    if (isPrewarmed()) {
+                        arm(callback, callback::onOpened);
+                    } else {
+                        callback.onOpened();
+                    }
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice camera) {
+                    opening = false;
+                    camera.close();
+                    if (camera == cameraDevice) cameraDevice = null;
+                    if (generation != openGeneration) {
+                        quitIfReleased();
+                        return;
+                    }
+                    callback.onError("Camera disconnected", true);
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice camera, int error) {
+                    opening = false;
+                    camera.close();
+                    if (camera == cameraDevice) cameraDevice = null;
+                    if (generation != openGeneration) {
+                        quitIfReleased();
+                        return;
+                    }
+                    callback.onError("Camera error " + error, true);
+                }
+            }, handler);
+        } catch (CameraAccessException | SecurityException e) {
+            opening = false;
+            callback.onError(e.getMessage(), true);
+        }
+    }
+
+    private void quitIfReleased() {
+        if (released) thread.quitSafely();
+    }
+
+    // The library lists DCIM/ProCamera; from Q on MediaStore creates it for the first entry
+    private File videoDir() {
+        File videoDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM), "ProCamera");
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q && !videoDir.exists()) {
+            videoDir.mkdirs();
+        }
+        return videoDir;
+    }
+
+    private void watchStorage(RecordingPipeline pipeline) {
+        if (storage == null) storage = StorageHealth.forRecordings(context);
+        WriteBenchmark.Result bench = storage.benchmark();
+        long needed = RecordingPipeline.expectedBytesPerSecond(config, true);
+        if (bench != null && !bench.sustains(needed, StorageMonitor.HEADROOM)) {
+            Log.w(TAG, "Storage may be too slow: " + bench + " for " + needed / 1_000_000 + " MB/s");
+        }
+        pipeline.watchStorage(storage::freeBytes, bench != null ? bench.bytesPerSecond : 0,
+                reading -> handler.post(() -> {
+                    if (takeCallback != null) takeCallback.onStorage(reading);
+                }));
+    }
+
+    private int thermalStatus() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || powerManager == null) return RecordingGovernor.THERMAL_NONE;
+        return powerManager.getCurrentThermalStatus();
+    }
+
+    /**
+     * From Q on, takes go straight into MediaStore as pending entries, with a private file to
+     * fall back on when the provider refuses one; before that, into public files that get
+     * scanned once the take is over.
+     */
+    private RecordingTarget newTarget(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            File local = fallbackDir(context);
+            return new FallbackRecordingTarget(
+                    new MediaStoreRecordingTarget(context.getContentResolver(), name, config.width, config.height,
+                            StorageHealth.FALLOCATE),
+                    new FileRecordingTarget(new File(local, name), StorageHealth.FALLOCATE));
+        }
+        return new FileRecordingTarget(new File(videoDir(), name), StorageHealth.FALLOCATE);
+    }
+
+    /**
+     * Where takes go when MediaStore refuses them, until
+     * {@link MediaStoreRecordingTarget#importStranded} moves them over. Holds nothing else.
+     */
+    static File fallbackDir(Context context) {
+        File root = context.getExternalFilesDir(null);
+        if (root == null) root = context.getFilesDir();
+        File dir = new File(root, "takes");
+        if (!dir.isDirectory()) dir.mkdirs();
+        return dir;
+    }
+
+    /**
+     * Prepares the encoder and, if there is none yet, configures the high-speed session around
+     * the persistent surface. Runs {@code onArmed} once both are ready.
+     */
+    private void arm(Callback callback, Runnable onArmed) {
+        if (cameraDevice == null) {
+            callback.onError("Camera not open", true);
+            return;
+        }
+        try {
+            if (pipeline == null) {
+                pipeline = new RecordingPipeline(recorderSurface, config, true, preRollSeconds);
+                watchStorage(pipeline);
+            }
+            pipeline.prepare();
+            if (captureSession != null) {
+                onArmed.run();
+                return;
+            }
+
+            CaptureRequest.Builder captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            captureRequestBuilder.addTarget(recorderSurface);
+
+            Range<Integer> fpsRange = new Range<>(config.fps, config.fps);
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+
+            List<Surface> surfaces = Collections.singletonList(recorderSurface);
+
+            cameraDevice.createConstrainedHighSpeedCaptureSession(
+                    surfaces,
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession session) {
+                            captureSession = (CameraConstrainedHighSpeedCaptureSession) session;
+                            try {
+                                requestList = captureSession.createHighSpeedRequestList(captureRequestBuilder.build());
+                                if (isPreRoll()) {
+                                    // The ring buffer needs frames before anyone taps record
+                                    captureSession.setRepeatingBurst(requestList, frameCallback, handler);
+                                }
+                                onArmed.run();
+                            } catch (CameraAccessException | IllegalStateException e) {
+                                releaseSession();
+                                releasePipeline();
+                                callback.onError("Failed to configure camera: " + e.getMessage(), false);
+                            }
+                        }
+
+                        @Override
+                        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                            releasePipeline();
+                            callback.onError("Failed to configure camera", false);
+                        }
+                    },
+                    handler
+            );
+        } catch (Exception e) {
+            releasePipeline();
+            callback.onError("Failed to prepare encoder: " + e.getMessage(), false);
+        }
+    }
+
+    @Override
+    public void startRecording(Callback callback) {
+        endWatch();
+        currentVideoName = "HighSpeed_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".mp4";
+        currentVideoFilePath = new File(videoDir(), currentVideoName).getAbsolutePath();
+
+        if (captureSession != null && pipeline != null && pipeline.isPrepared()) {
+            beginCapture(callback);
+        } else {
+            arm(callback, () -> beginCapture(callback));
+        }
+    }
+
+    // Writes straight to the final name: the output is fragmented, so whatever reached the disk
+    // before a crash is still a playable clip, and a pending entry is published at next start
+    private void beginCapture(Callback callback) {
+        try {
+            // Output first, so the very first frame the sensor delivers is kept
+            pipeline.beginTake(newTarget(currentVideoName));
+            takeCallback = callback;
+            telemetry.reset();
+            warnedLowFps = false;
+            measuring = true;
+            if (governor != null) {
+                // A take starts at its mode's full bitrate, wherever the last one left the encoder
+                governor.beginTake(SystemClock.elapsedRealtime());
+                pipeline.setBitrate(governor.bitrate());
+                handler.postDelayed(governTick, GOVERN_INTERVAL_MS);
+            }
+            if (isPreRoll()) {
+                // Frames are already flowing
+                callback.onRecordingStarted(currentVideoFilePath, System.nanoTime());
+                return;
+            }
+            pendingStart = callback;
+            captureSession.setRepeatingBurst(requestList, frameCallback, handler);
+        } catch (IOException | CameraAccessException | IllegalStateException e) {
+            measuring = false;
+            pendingStart = null;
+            takeCallback = null;
+            endGoverning();
+            pipeline.abortTake();
+            callback.onError("Failed to start recording: " + e.getMessage(), false);
+        }
+    }
+
+    @Override
+    public void stopRecording(Callback callback) {
+        List<String> paths = Collections.emptyList();
+        if (isPreRoll()) {
+            if (pipeline != null) paths = pipeline.endTake(0);
+        } else {
+            try {
+                if (captureSession != null) captureSession.stopRepeating();
+            } catch (CameraAccessException | IllegalStateException e) {
+                e.printStackTrace();
+            }
+            // Let the frames already on their way through the encoder reach the file
+            if (pipeline != null) paths = pipeline.endTake(SETTLE_MS);
+            if (!prewarm) {
+                releaseSession();
+                releasePipeline();
+            }
+        }
+        measuring = false;
+        pendingStart = null;
+        takeCallback = null;
+        List<RecordingGovernor.Decision> decisions = endGoverning();
+
+        if (paths.isEmpty()) {
+            callback.onError("Recording failed: no frames were encoded", false);
+            return;
+        }
+
+        // MediaStore entries are published with their metadata already; plain files need a scan
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            MediaScannerConnection.scanFile(context, paths.toArray(new String[0]), null, null);
+        }
+        String clipName = new File(paths.get(0)).getName();
+        writeTelemetry(clipName);
+        if (governor != null) writeDecisions(clipName, decisions);
+
+        // The session and encoder stay up when pre-warming, so the next tap is instant
+        callback.onRecordingStopped(paths.get(0));
+        retune(callback);
+    }
+
+    private List<RecordingGovernor.Decision> endGoverning() {
+        if (governor == null) return Collections.emptyList();
+        handler.removeCallbacks(governTick);
+        return governor.endTake(SystemClock.elapsedRealtime());
+    }
+
+    // Moves to the mode the governor picks for the next take, re-arming if the camera was armed
+    private void retune(Callback callback) {
+        if (governor == null) return;
+        RecordingGovernor.Decision d = governor.nextTake(thermalStatus());
+        if (d == null) return;
+        Log.i(TAG, "Governor: " + d);
+        boolean armed = captureSession != null || pipeline != null;
+        releaseSession();
+        releasePipeline();
+        config = governor.config();
+        telemetry = new FrameTelemetry(config.fps, FrameTelemetry.DEFAULT_CAPACITY);
+        if (armed && cameraDevice != null) arm(callback, () -> { });
+    }
+
+    @Override
+    public void watch(MotionDetector.Settings settings, Callback callback) {
+        if (cameraDevice == null) {
+            callback.onError("Camera not open", true);
+            return;
+        }
+        releaseSession();
+        try {
+            CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraDevice.getId());
+            Size size = watchSize(characteristics);
+            motionDetector = new MotionDetector(size.getWidth(), size.getHeight(), settings);
+            watchReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, 2);
+            watchReader.setOnImageAvailableListener(this::onWatchFrame, handler);
+            watchCallback = callback;
+
+            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(watchReader.getSurface());
+            Range<Integer> fps = fastestRange(characteristics);
+            if (fps != null) builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fps);
+
+            ImageReader reader = watchReader;
+            createSession(reader.getSurface(), new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    if (reader != watchReader) {
+                        session.close(); // The watch ended while this was configuring
+                        return;
+                    }
+                    watchSession = session;
+                    try {
+                        session.setRepeatingRequest(builder.build(), null, handler);
+                    } catch (CameraAccessException | IllegalStateException e) {
+                        endWatch();
+                        callback.onError("Failed to start motion watch: " + e.getMessage(), false);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    if (reader != watchReader) return;
+                    endWatch();
+                    callback.onError("Failed to start motion watch", false);
+                }
+            });
+        } catch (CameraAccessException | IllegalArgumentException | IllegalStateException e) {
+            endWatch();
+            callback.onError("Failed to start motion watch: " + e.getMessage(), false);
+        }
+    }
+
+    // SessionConfiguration replaces the list-based overload from P on
+    @SuppressWarnings("deprecation")
+    private void createSession(Surface surface, CameraCaptureSession.StateCallback state)
+            throws CameraAccessException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            cameraDevice.createCaptureSession(new SessionConfiguration(SessionConfiguration.SESSION_REGULAR,
+                    Collections.singletonList(new OutputConfiguration(surface)), executor, state));
+        } else {
+            cameraDevice.createCaptureSession(Collections.singletonList(surface), state, handler);
+        }
+    }
+
+    private void onWatchFrame(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        boolean motion;
+        try {
+            if (reader != watchReader) return;
+            Image.Plane luma = image.getPlanes()[0];
+            motion = motionDetector.process(luma.getBuffer(), luma.getRowStride());
+        } finally {
+            image.close();
+        }
+        if (motion) {
+            Callback callback = watchCallback;
+            Log.i(TAG, "Motion in " + motionDetector.changedBlocks() + " of " + motionDetector.blocks() + " blocks");
+            endWatch();
+            if (callback != null) callback.onMotion();
+        }
+    }
+
+    @Override
+    public void stopWatching(Callback callback) {
+        endWatch();
+        // Back to an armed high-speed session, so a tap records right away again
+        if (isPrewarmed() && cameraDevice != null) arm(callback, () -> { });
+    }
+
+    private void endWatch() {
+        watchCallback = null;
+        motionDetector = null;
+        if (watchSession != null) {
+            watchSession.close();
+            watchSession = null;
+        }
+        if (watchReader != null) {
+            watchReader.close();
+            watchReader = null;
+        }
+    }
+
+    // The smallest YUV size at least WATCH_MIN_WIDTH wide with the recording's aspect ratio
+    private Size watchSize(CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) throw new IllegalStateException("No stream configurations");
+        Size best = null;
+        Size smallest = null;
+        for (Size s : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            long pixels = (long) s.getWidth() * s.getHeight();
+            if (smallest == null || pixels < (long) smallest.getWidth() * smallest.getHeight()) smallest = s;
+            boolean sameAspect = (long) s.getWidth() * config.height == (long) s.getHeight() * config.width;
+            if (!sameAspect || s.getWidth() < WATCH_MIN_WIDTH) continue;
+            if (best == null || pixels < (long) best.getWidth() * best.getHeight()) best = s;
+        }
+        if (best == null) best = smallest;
+        if (best == null) throw new IllegalStateException("No YUV output");
+        return best;
+    }
+
+    // More frames means earlier triggers; regular sessions usually top out at 30 or 60 fps
+    private static Range<Integer> fastestRange(CameraCharacteristics characteristics) {
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) return null;
+        Range<Integer> best = null;
+        for (Range<Integer> r : ranges) {
+            if (best == null || r.getUpper() > best.getUpper()
+                    || (r.getUpper().equals(best.getUpper()) && r.getLower() > best.getLower())) {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    // Keyed by the take's first file, which is the name the library lists it under
+    private void writeTelemetry(String clipName) {
+        Log.i(TAG, clipName + ": " + telemetry.stats());
+        try {
+            telemetry.write(FrameTelemetry.sidecarFor(context.getFilesDir(), clipName));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeDecisions(String clipName, List<RecordingGovernor.Decision> decisions) {
+        try {
+            RecordingGovernor.write(RecordingGovernor.sidecarFor(context.getFilesDir(), clipName), decisions);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        openGeneration++;
+        endWatch();
+        endGoverning();
+        releaseSession();
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        releasePipeline();
+    }
+
+    @Override
+    public void release() {
+        close();
+        recorderSurface.release();
+        released = true;
+        // A camera still opening reports on this thread, and has to be closed when it does
+        if (!opening) thread.quitSafely();
+    }
+
+    private void releaseSession() {
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+            requestList = null;
+        }
+    }
+
+    private void releasePipeline() {
+        if (pipeline != null) {
+            pipeline.release();
+            pipeline = null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.anshul.a240dc;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The camera and encoder operations {@link CaptureEngine} drives. Implementations do the
+ * actual work; all state decisions stay in the engine. Every method is called on
+ * {@link #executor()}, and callbacks may be invoked from any thread.
+ */
+public interface CameraBackend {
+
+    interface Callback {
+        void onOpened();
+        /** {@code firstFrameNanos} is the {@link System#nanoTime()} at which the first frame was captured. */
+        void onRecordingStarted(String outputPath, long firstFrameNanos);
+        void onRecordingStopped(String outputPath);
+        /** A storage reading of the take in progress; {@link StorageMonitor.Status#FULL} asks for it to stop. */
+        void onStorage(StorageMonitor.Reading reading);
+        /** Motion was seen while watching; the watch has ended. */
+        void onMotion();
+        /** {@code fatal} means the camera is gone and has to be reopened. */
+        void onError(String message, boolean fatal);
+    }
+
+    /** The single thread the engine and the camera callbacks run on. */
+    Executor executor();
+
+    /** True if the session and encoder are kept prepared while idle, so starting a take is cheap. */
+    boolean isPrewarmed();
+
+    void open(Callback callback);
+
+    /** Configures the capture session and starts writing a new clip. */
+    void startRecording(Callback callback);
+
+    void stopRecording(Callback callback);
+
+    /**
+     * Streams frames to a {@link MotionDetector} built with {@code settings} and reports
+     * {@link Callback#onMotion} once it triggers. Starting a recording ends the watch.
+     */
+    void watch(MotionDetector.Settings settings, Callback callback);
+
+    /** Ends a watch without recording and goes back to how the camera idles. */
+    void stopWatching(Callback callback);
+
+    /**
+     * Closes the camera and drops any recording in progress. A camera still opening is closed
+     * as soon as it opens, without a callback.
+     */
+    void close();
+
+    /** Closes everything and stops the executor for good. */
+    void release();
+}
@@ -0,0 +1,232 @@
+package com.anshul.a240dc;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Range;
+import android.util.Size;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the constrained high-speed modes of every camera and ranks them by
+ * {@link HighSpeedMode#PREFERENCE}.
+ *
+ * Reading characteristics for every camera costs tens of milliseconds, so the ranked list is
+ * kept in a small tab-separated file tagged with a format version and the build fingerprint.
+ * Later launches read the file instead, until an OS update changes the fingerprint. A device
+ * without any mode is cached too (as an empty list), so it goes straight to the unsupported
+ * screen.
+ */
+public final class CapabilityProbe {
+
+    static final String MAGIC = "HSMODES";
+    static final int VERSION = 1;
+
+    /** The camera facts the probe needs; {@link #camera2} reads them from the framework. */
+    public interface Source {
+        List<String> cameraIds() throws IOException;
+
+        /** Whether the camera supports constrained high-speed video at all. */
+        boolean hasHighSpeed(String cameraId) throws IOException;
+
+        boolean isBackFacing(String cameraId) throws IOException;
+
+        /** High-speed sizes as {width, height}. */
+        List<int[]> highSpeedSizes(String cameraId) throws IOException;
+
+        /** Frame-rate ranges for one of those sizes, as {lower, upper}. */
+        List<int[]> fpsRanges(String cameraId, int width, int height) throws IOException;
+    }
+
+    private final Source source;
+    private final File cache;
+    private final String fingerprint;
+
+    public CapabilityProbe(Source source, File cache, String fingerprint) {
+        this.source = source;
+        this.cache = cache;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * The ranked modes, from the cache when it belongs to this build and from the cameras
+     * otherwise. Empty means the device cannot record high-speed video.
+     *
+     * @throws IOException if the cameras could not be read; nothing is cached then
+     */
+    public List<HighSpeedMode> modes() throws IOException {
+        List<HighSpeedMode> cached = load(cache, fingerprint);
+        if (cached != null) return cached;
+
+        List<HighSpeedMode> modes = probe(source);
+        try {
+            save(cache, fingerprint, modes);
+        } catch (IOException e) {
+            e.printStackTrace(); // Only costs a probe on the next launch
+        }
+        return modes;
+    }
+
+    /** The preferred mode, or null when there is none. */
+    public HighSpeedMode best() throws IOException {
+        List<HighSpeedMode> modes = modes();
+        return modes.isEmpty() ? null : modes.get(0);
+    }
+
+    /**
+     * Every fixed-rate high-speed mode of every camera, most preferred first. Recording needs a
+     * fixed range; the variable ones ({@code 30-240}) are for preview only.
+     */
+    static List<HighSpeedMode> probe(Source source) throws IOException {
+        Set<HighSpeedMode> modes = new LinkedHashSet<>();
+        for (String id : source.cameraIds()) {
+            if (!source.hasHighSpeed(id)) continue;
+            boolean back = source.isBackFacing(id);
+            for (int[] size : source.highSpeedSizes(id)) {
+                for (int[] range : source.fpsRanges(id, size[0], size[1])) {
+                    if (range[0] != range[1] || range[1] <= 0) continue;
+                    modes.add(new HighSpeedMode(id, size[0], size[1], range[1], back));
+                }
+            }
+        }
+        List<HighSpeedMode> ranked = new ArrayList<>(modes);
+        Collections.sort(ranked, HighSpeedMode.PREFERENCE);
+        return ranked;
+    }
+
+    /** The cached modes, or null if the cache is missing, unreadable or from another build. */
+    static List<HighSpeedMode> load(File file, String fingerprint) {
+        if (!file.isFile()) return null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String header = in.readLine();
+            if (!(MAGIC + '\t' + VERSION + '\t' + fingerprint).equals(header)) return null;
+            List<HighSpeedMode> modes = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length != 5) return null;
+                modes.add(new HighSpeedMode(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                        Integer.parseInt(parts[3]), "back".equals(parts[4])));
+            }
+            return modes;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static void save(File file, String fingerprint, List<HighSpeedMode> modes) throws IOException {
+        // Written aside and renamed, so a crash never leaves half a cache behind
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            out.write(MAGIC + '\t' + VERSION + '\t' + fingerprint + '\n');
+            for (HighSpeedMode m : modes) {
+                out.write(m.cameraId + '\t' + m.width + '\t' + m.height + '\t' + m.fps + '\t'
+                        + (m.backFacing ? "back" : "front") + '\n');
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /** The probe for this device, cached in the app's files directory. */
+    public static CapabilityProbe forDevice(Context context) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        return new CapabilityProbe(camera2(manager), new File(context.getFilesDir(), "highspeed_modes.tsv"),
+                Build.FINGERPRINT);
+    }
+
+    /** A {@link Source} backed by the device's cameras. */
+    public static Source camera2(CameraManager manager) {
+        return new Source() {
+            private final Map<String, CameraCharacteristics> characteristics = new HashMap<>();
+
+            @Override
+            public List<String> cameraIds() throws IOException {
+                try {
+                    List<String> ids = new ArrayList<>();
+                    Collections.addAll(ids, manager.getCameraIdList());
+                    return ids;
+                } catch (CameraAccessException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasHighSpeed(String cameraId) throws IOException {
+                int[] capabilities = characteristics(cameraId).get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+                if (capabilities == null) return false;
+                for (int c : capabilities) {
+                    if (c == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) return true;
+                }
+                return false;
+            }
+
+            @Override
+            public boolean isBackFacing(String cameraId) throws IOException {
+                Integer facing = characteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+                return facing != null && facing == CameraCharacteristics.LENS_FACING_BACK;
+            }
+
+            @Override
+            public List<int[]> highSpeedSizes(String cameraId) throws IOException {
+                List<int[]> sizes = new ArrayList<>();
+                StreamConfigurationMap map = streams(cameraId);
+                if (map == null) return sizes;
+                for (Size s : map.getHighSpeedVideoSizes()) sizes.add(new int[]{s.getWidth(), s.getHeight()});
+                return sizes;
+            }
+
+            @Override
+            public List<int[]> fpsRanges(String cameraId, int width, int height) throws IOException {
+                List<int[]> ranges = new ArrayList<>();
+                StreamConfigurationMap map = streams(cameraId);
+                if (map == null) return ranges;
+                try {
+                    for (Range<Integer> r : map.getHighSpeedVideoFpsRangesFor(new Size(width, height))) {
+                        ranges.add(new int[]{r.getLower(), r.getUpper()});
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Not a high-speed size after all
+                }
+                return ranges;
+            }
+
+            private StreamConfigurationMap streams(String cameraId) throws IOException {
+                return characteristics(cameraId).get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            }
+
+            private CameraCharacteristics characteristics(String cameraId) throws IOException {
+                CameraCharacteristics c = characteristics.get(cameraId);
+                if (c != null) return c;
+                try {
+                    c = manager.getCameraCharacteristics(cameraId);
+                    characteristics.put(cameraId, c);
+                    return c;
+                } catch (CameraAccessException | IllegalArgumentException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+}
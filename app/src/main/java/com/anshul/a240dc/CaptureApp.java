@@ -0,0 +1,21 @@
+package com.anshul.a240dc;
+
+import android.app.Application;
+import android.content.Context;
+
+/** Starts the cold-start work before the first activity is even created. */
+public class CaptureApp extends Application {
+
+    private StartupCoordinator startup;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        startup = new StartupCoordinator(this);
+        startup.start();
+    }
+
+    static StartupCoordinator startup(Context context) {
+        return ((CaptureApp) context.getApplicationContext()).startup;
+    }
+}
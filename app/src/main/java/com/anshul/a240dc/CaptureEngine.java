@@ -0,0 +1,267 @@
+package com.anshul.a240dc;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Owns the recording state machine:
+ *
+ * <pre>
+ * CLOSED → OPENING → READY → CONFIGURING → RECORDING → STOPPING → READY
+ *                      READY ⇄ WATCHING → CONFIGURING
+ * </pre>
+ *
+ * Commands may be issued from any thread; they and all backend callbacks are serialized onto
+ * the backend's executor, so the camera never blocks the UI thread. The UI only sees immutable
+ * {@link Event}s, delivered on the executor it registered with. Commands that make no sense in
+ * the current state (a second tap on record while the session is still configuring) are
+ * ignored.
+ *
+ * The time from a record command to the first captured frame is measured for every take and
+ * reported on the RECORDING event.
+ *
+ * In WATCHING the backend looks for motion instead of keeping the recorder armed, and the
+ * first motion it reports starts a take exactly like a record command would.
+ *
+ * While RECORDING, storage readings arrive as RECORDING → RECORDING events; one that says the
+ * volume is full stops the take like a stop command, with the reason as the error.
+ */
+public class CaptureEngine {
+
+    public enum State { CLOSED, OPENING, READY, WATCHING, CONFIGURING, RECORDING, STOPPING }
+
+    /** Snapshot of a state change. */
+    public static final class Event {
+        public final State state;
+        public final State previous;
+        /** The clip being written (RECORDING) or just finished (READY after STOPPING). */
+        public final String outputPath;
+        /** Set when the transition was caused by a failure. */
+        public final String error;
+        /** On entering RECORDING: nanoseconds from the record command to the first frame, else -1. */
+        public final long startLatencyNanos;
+        /** The latest storage reading while RECORDING, else null. */
+        public final StorageMonitor.Reading storage;
+
+        Event(State state, State previous, String outputPath, String error, long startLatencyNanos,
+              StorageMonitor.Reading storage) {
+            this.state = state;
+            this.previous = previous;
+            this.outputPath = outputPath;
+            this.error = error;
+            this.startLatencyNanos = startLatencyNanos;
+            this.storage = storage;
+        }
+
+        @Override
+        public String toString() {
+            return previous + " -> " + state + (error != null ? " (" + error + ")" : "");
+        }
+    }
+
+    public interface Listener {
+        void onCaptureEvent(Event event);
+    }
+
+    private final CameraBackend backend;
+    private final Executor engineExecutor;
+    private final Listener listener;
+    private final Executor listenerExecutor;
+    private final LatencyRecorder latencyRecorder;
+
+    // Only written on engineExecutor
+    private volatile State state = State.CLOSED;
+    // System.nanoTime() of the record command that started the current take
+    private long commandNanos;
+    // Whether the current take was started by motion, from a session that was not armed
+    private boolean motionStart;
+
+    private final CameraBackend.Callback callback = new CameraBackend.Callback() {
+        @Override
+        public void onOpened() {
+            engineExecutor.execute(() -> {
+                if (state == State.OPENING) moveTo(State.READY, null, null);
+            });
+        }
+
+        @Override
+        public void onRecordingStarted(String outputPath, long firstFrameNanos) {
+            engineExecutor.execute(() -> {
+                if (state != State.CONFIGURING) return;
+                long latency = firstFrameNanos - commandNanos;
+                if (latencyRecorder != null) {
+                    latencyRecorder.record(motionStart ? "motion" : backend.isPrewarmed() ? "prewarmed" : "cold", latency);
+                }
+                moveTo(State.RECORDING, outputPath, null, latency);
+            });
+        }
+
+        @Override
+        public void onRecordingStopped(String outputPath) {
+            engineExecutor.execute(() -> {
+                if (state != State.STOPPING) return;
+                moveTo(State.READY, outputPath, null);
+                flushLatencies();
+            });
+        }
+
+        @Override
+        public void onStorage(StorageMonitor.Reading reading) {
+            engineExecutor.execute(() -> {
+                if (state != State.RECORDING) return;
+                if (reading.status == StorageMonitor.Status.FULL) {
+                    moveTo(State.STOPPING, null, "Storage full, recording stopped", -1, reading);
+                    backend.stopRecording(callback);
+                } else {
+                    moveTo(State.RECORDING, null, null, -1, reading);
+                }
+            });
+        }
+
+        @Override
+        public void onMotion() {
+            long now = System.nanoTime();
+            engineExecutor.execute(() -> {
+                if (state == State.WATCHING) startRecordingAt(now);
+            });
+        }
+
+        @Override
+        public void onError(String message, boolean fatal) {
+            engineExecutor.execute(() -> {
+                if (state == State.CLOSED) return;
+                if (fatal) {
+                    backend.close();
+                    moveTo(State.CLOSED, null, message);
+                } else if (state == State.OPENING) {
+                    moveTo(State.CLOSED, null, message);
+                } else {
+                    moveTo(State.READY, null, message);
+                }
+            });
+        }
+    };
+
+    public CaptureEngine(CameraBackend backend, Listener listener, Executor listenerExecutor) {
+        this(backend, listener, listenerExecutor, null);
+    }
+
+    /** Also reports every take's tap-to-first-frame latency to {@code latencyRecorder}. */
+    public CaptureEngine(CameraBackend backend, Listener listener, Executor listenerExecutor,
+                         LatencyRecorder latencyRecorder) {
+        this.backend = backend;
+        this.engineExecutor = backend.executor();
+        this.listener = listener;
+        this.listenerExecutor = listenerExecutor;
+        this.latencyRecorder = latencyRecorder;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void open() {
+        engineExecutor.execute(() -> {
+            if (state != State.CLOSED) return;
+            moveTo(State.OPENING, null, null);
+            backend.open(callback);
+        });
+    }
+
+    public void startRecording() {
+        long now = System.nanoTime();
+        engineExecutor.execute(() -> startRecordingAt(now));
+    }
+
+    // Also from WATCHING: the backend drops the watch before it configures the recording
+    private void startRecordingAt(long nanos) {
+        if (state != State.READY && state != State.WATCHING) return;
+        motionStart = state == State.WATCHING;
+        commandNanos = nanos;
+        moveTo(State.CONFIGURING, null, null);
+        backend.startRecording(callback);
+    }
+
+    public void stopRecording() {
+        engineExecutor.execute(() -> {
+            if (state != State.RECORDING) return;
+            moveTo(State.STOPPING, null, null);
+            backend.stopRecording(callback);
+        });
+    }
+
+    /** Starts watching for motion; a take starts by itself once the backend sees some. */
+    public void watch(MotionDetector.Settings settings) {
+        engineExecutor.execute(() -> {
+            if (state != State.READY) return;
+            moveTo(State.WATCHING, null, null);
+            backend.watch(settings, callback);
+        });
+    }
+
+    public void stopWatching() {
+        engineExecutor.execute(() -> {
+            if (state != State.WATCHING) return;
+            moveTo(State.READY, null, null);
+            backend.stopWatching(callback);
+        });
+    }
+
+    /**
+     * Starts a take when ready or watching, stops it when recording, and ignores taps in
+     * between.
+     */
+    public void toggleRecording() {
+        long now = System.nanoTime();
+        engineExecutor.execute(() -> {
+            if (state == State.READY || state == State.WATCHING) {
+                startRecordingAt(now);
+            } else if (state == State.RECORDING) {
+                stopRecording();
+            }
+        });
+    }
+
+    public void close() {
+        engineExecutor.execute(() -> {
+            if (state == State.CLOSED) return;
+            backend.close();
+            moveTo(State.CLOSED, null, null);
+        });
+    }
+
+    /** Closes the camera and shuts the engine thread down; the engine cannot be reused. */
+    public void release() {
+        engineExecutor.execute(() -> {
+            if (state != State.CLOSED) {
+                moveTo(State.CLOSED, null, null);
+            }
+            backend.release();
+            flushLatencies();
+        });
+    }
+
+    private void flushLatencies() {
+        if (latencyRecorder == null) return;
+        try {
+            latencyRecorder.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void moveTo(State next, String outputPath, String error) {
+        moveTo(next, outputPath, error, -1);
+    }
+
+    private void moveTo(State next, String outputPath, String error, long startLatencyNanos) {
+        moveTo(next, outputPath, error, startLatencyNanos, null);
+    }
+
+    private void moveTo(State next, String outputPath, String error, long startLatencyNanos,
+                        StorageMonitor.Reading storage) {
+        Event event = new Event(next, state, outputPath, error, startLatencyNanos, storage);
+        state = next;
+        listenerExecutor.execute(() -> listener.onCaptureEvent(event));
+    }
+}
@@ -0,0 +1,39 @@
+package com.anshul.a240dc;
+
+/**
+ * Small helpers for turning clip metadata into display strings.
+ */
+public final class ClipFormat {
+
+    private ClipFormat() {}
+
+    /** Formats a duration as "m:ss", or "h:mm:ss" for clips of an hour or more. */
+    public static String formatDuration(long durationMs) {
+        long totalSeconds = Math.max(0, durationMs) / 1000;
+        long hours = totalSeconds / 3600;
+        long minutes = (totalSeconds / 60) % 60;
+        long seconds = totalSeconds % 60;
+
+        StringBuilder sb = new StringBuilder(8);
+        if (hours > 0) {
+            sb.append(hours).append(':');
+            if (minutes < 10) sb.append('0');
+        }
+        sb.append(minutes).append(':');
+        if (seconds < 10) sb.append('0');
+        sb.append(seconds);
+        return sb.toString();
+    }
+
+    /**
+     * Formats the spec line of a library row, e.g. "240 FPS  •  ISO 800  •  1/500s", leaving out
+     * what the camera didn't record. Runs on every bind, so it avoids {@code String.format}.
+     */
+    public static String formatSpecs(int fps, int iso, String shutter) {
+        StringBuilder sb = new StringBuilder(32);
+        sb.append(fps).append(" FPS");
+        if (iso > 0) sb.append("  •  ISO ").append(iso);
+        if (shutter != null && !shutter.isEmpty()) sb.append("  •  ").append(shutter);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,387 @@
+package com.anshul.a240dc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only on-disk index of recorded clips.
+ *
+ * The file is a 16 byte header followed by a log of entries. Strings (clip names, shutter
+ * labels) are interned once into the log and referenced by id, so every clip record has the
+ * same fixed width. Updating a clip appends a new record for the same name (last one wins) and
+ * deleting one appends a tombstone; the log is rewritten when dead records pile up.
+ * Loading is a single memory-mapped pass over the file.
+ */
+public final class ClipIndex {
+
+    static final int MAGIC = 0x43494458; // "CIDX"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+
+    static final byte TAG_STRING = 1;
+    static final byte TAG_RECORD = 2;
+    static final byte TAG_TOMBSTONE = 3;
+
+    // nameId, shutterId, size, lastModified, durationMs, fps, iso, width, height, bitrate
+    static final int RECORD_SIZE = 1 + 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+    static final int TOMBSTONE_SIZE = 1 + 4;
+
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int COMPACT_MIN_DEAD = 1024;
+
+    /** Resolves metadata for a clip that is new or changed since it was last indexed. */
+    public interface Resolver {
+        /** Returns the entry for {@code file}, or null if the clip should not be listed. */
+        Entry resolve(File file);
+    }
+
+    public static final class Entry {
+        public final String name;
+        public final long sizeBytes;
+        public final long lastModified;
+        public final int durationMs;
+        public final int fps;
+        public final int iso;
+        public final String shutter;
+        public final int width;
+        public final int height;
+        public final int bitrate;
+
+        public Entry(String name, long sizeBytes, long lastModified,
+                     int durationMs, int fps, int iso, String shutter) {
+            this(name, sizeBytes, lastModified, durationMs, fps, iso, shutter, 0, 0, 0);
+        }
+
+        public Entry(String name, long sizeBytes, long lastModified, int durationMs, int fps, int iso,
+                     String shutter, int width, int height, int bitrate) {
+            this.name = name;
+            this.sizeBytes = sizeBytes;
+            this.lastModified = lastModified;
+            this.durationMs = durationMs;
+            this.fps = fps;
+            this.iso = iso;
+            this.shutter = shutter == null ? "" : shutter;
+            this.width = width;
+            this.height = height;
+            this.bitrate = bitrate;
+        }
+
+        boolean matches(long size, long modified) {
+            return sizeBytes == size && lastModified == modified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry e = (Entry) o;
+            return sizeBytes == e.sizeBytes && lastModified == e.lastModified
+                    && durationMs == e.durationMs && fps == e.fps && iso == e.iso
+                    && width == e.width && height == e.height && bitrate == e.bitrate
+                    && name.equals(e.name) && shutter.equals(e.shutter);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + (int) (lastModified ^ (lastModified >>> 32));
+        }
+    }
+
+    private final File file;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // Entries appended since the last flush, already encoded.
+    private ByteBuffer pending = newBuffer(64 * 1024);
+    private long validLength;
+    private int deadRecords;
+
+    private ClipIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the index at {@code file}, creating it if needed. A missing, foreign or outdated
+     * file starts out empty; a torn tail left by a crash is dropped on the next flush.
+     */
+    public static ClipIndex open(File file) throws IOException {
+        ClipIndex index = new ClipIndex(file);
+        if (file.exists() && file.length() >= HEADER_SIZE) {
+            index.load();
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                return; // Rebuilt from scratch on the next flush
+            }
+            map.position(HEADER_SIZE);
+            while (map.remaining() > 0) {
+                int start = map.position();
+                byte tag = map.get();
+                if (tag == TAG_STRING) {
+                    if (map.remaining() < 2) { map.position(start); break; }
+                    int len = map.getShort() & 0xFFFF;
+                    if (map.remaining() < len) { map.position(start); break; }
+                    byte[] bytes = new byte[len];
+                    map.get(bytes);
+                    intern(new String(bytes, StandardCharsets.UTF_8));
+                } else if (tag == TAG_RECORD) {
+                    if (map.remaining() < RECORD_SIZE - 1) { map.position(start); break; }
+                    int nameId = map.getInt();
+                    int shutterId = map.getInt();
+                    long size = map.getLong();
+                    long modified = map.getLong();
+                    int durationMs = map.getInt();
+                    int fps = map.getInt();
+                    int iso = map.getInt();
+                    int width = map.getInt();
+                    int height = map.getInt();
+                    int bitrate = map.getInt();
+                    if (nameId >= strings.size() || shutterId >= strings.size()) {
+                        map.position(start);
+                        break;
+                    }
+                    String name = strings.get(nameId);
+                    if (entries.put(name, new Entry(name, size, modified, durationMs, fps, iso,
+                            strings.get(shutterId), width, height, bitrate)) != null) {
+                        deadRecords++;
+                    }
+                } else if (tag == TAG_TOMBSTONE) {
+                    if (map.remaining() < TOMBSTONE_SIZE - 1) { map.position(start); break; }
+                    int nameId = map.getInt();
+                    if (nameId >= strings.size()) { map.position(start); break; }
+                    if (entries.remove(strings.get(nameId)) != null) {
+                        deadRecords++;
+                    }
+                    deadRecords++;
+                } else {
+                    map.position(start);
+                    break;
+                }
+            }
+            validLength = map.position();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /** True if {@code name} is indexed with exactly this size and modification time. */
+    public boolean isCurrent(String name, long sizeBytes, long lastModified) {
+        Entry e = entries.get(name);
+        return e != null && e.matches(sizeBytes, lastModified);
+    }
+
+    public void put(Entry entry) {
+        Entry previous = entries.get(entry.name);
+        if (entry.equals(previous)) return;
+        if (previous != null) deadRecords++;
+
+        int nameId = internAndLog(entry.name);
+        int shutterId = internAndLog(entry.shutter);
+        ensurePending(RECORD_SIZE);
+        pending.put(TAG_RECORD)
+                .putInt(nameId)
+                .putInt(shutterId)
+                .putLong(entry.sizeBytes)
+                .putLong(entry.lastModified)
+                .putInt(entry.durationMs)
+                .putInt(entry.fps)
+                .putInt(entry.iso)
+                .putInt(entry.width)
+                .putInt(entry.height)
+                .putInt(entry.bitrate);
+        entries.put(entry.name, entry);
+    }
+
+    public void remove(String name) {
+        if (entries.remove(name) == null) return;
+        ensurePending(TOMBSTONE_SIZE);
+        pending.put(TAG_TOMBSTONE).putInt(stringIds.get(name));
+        deadRecords += 2;
+    }
+
+    /**
+     * Returns the entry for {@code file}, serving it from the index when its size and mtime are
+     * unchanged and going through {@code resolver} otherwise. Returns null (and forgets the
+     * clip) when the resolver rejects it.
+     */
+    public Entry lookup(File file, Resolver resolver) {
+        return lookup(file, file.length(), file.lastModified(), resolver);
+    }
+
+    /**
+     * Like {@link #lookup(File, Resolver)}, with the size and modification time already known,
+     * e.g. from a MediaStore row, so unchanged clips cost no file system call. Resolved entries
+     * are indexed with these values, so the next lookup with the same ones is a hit.
+     */
+    public Entry lookup(File file, long sizeBytes, long lastModified, Resolver resolver) {
+        String name = file.getName();
+        Entry e = entries.get(name);
+        if (e != null && e.matches(sizeBytes, lastModified)) {
+            return e;
+        }
+        e = resolver.resolve(file);
+        if (e == null) {
+            remove(name);
+            return null;
+        }
+        if (!e.matches(sizeBytes, lastModified)) {
+            e = new Entry(e.name, sizeBytes, lastModified, e.durationMs, e.fps, e.iso, e.shutter,
+                    e.width, e.height, e.bitrate);
+        }
+        put(e);
+        return e;
+    }
+
+    /** Drops every clip whose name is not in {@code names}. */
+    public void retain(Set<String> names) {
+        if (names.size() == entries.size() && names.containsAll(entries.keySet())) return;
+        for (String name : new ArrayList<>(entries.keySet())) {
+            if (!names.contains(name)) remove(name);
+        }
+    }
+
+    /**
+     * Brings the index in line with {@code files}: unchanged clips (same size and mtime) are
+     * served from the index, new or changed ones go through {@code resolver}, and clips that
+     * are no longer on disk are dropped. Returns the listed entries in {@code files} order.
+     */
+    public List<Entry> sync(File[] files, Resolver resolver) {
+        List<Entry> result = new ArrayList<>(files.length);
+        Set<String> seen = new HashSet<>(files.length * 2);
+        for (File f : files) {
+            if (!f.getName().endsWith(".mp4")) continue;
+            seen.add(f.getName());
+            Entry e = lookup(f, resolver);
+            if (e != null) result.add(e);
+        }
+        retain(seen);
+        return result;
+    }
+
+    /** Writes pending changes, compacting the log first if most of it is dead. */
+    public void flush() throws IOException {
+        if (deadRecords > COMPACT_MIN_DEAD && deadRecords > entries.size()) {
+            compact();
+            return;
+        }
+        if (pending.position() == 0 && validLength >= HEADER_SIZE) return;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (validLength < HEADER_SIZE) {
+                // New or unreadable file: start over with a fresh header and everything we hold
+                rewrite(channel);
+                return;
+            }
+            channel.truncate(validLength);
+            pending.flip();
+            long pos = validLength;
+            while (pending.hasRemaining()) {
+                pos += channel.write(pending, pos);
+            }
+            pending.clear();
+            validLength = pos;
+        }
+    }
+
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            rewrite(channel);
+            channel.force(false);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private void rewrite(FileChannel channel) throws IOException {
+        List<Entry> live = new ArrayList<>(entries.values());
+        strings.clear();
+        stringIds.clear();
+        entries.clear();
+        pending.clear();
+        deadRecords = 0;
+
+        ByteBuffer header = newBuffer(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        validLength = HEADER_SIZE;
+        for (Entry e : live) {
+            put(e);
+        }
+        pending.flip();
+        long pos = validLength;
+        while (pending.hasRemaining()) {
+            pos += channel.write(pending, pos);
+        }
+        pending.clear();
+        validLength = pos;
+    }
+
+    private int intern(String s) {
+        Integer id = stringIds.get(s);
+        if (id != null) return id;
+        strings.add(s);
+        stringIds.put(s, strings.size() - 1);
+        return strings.size() - 1;
+    }
+
+    private int internAndLog(String s) {
+        Integer id = stringIds.get(s);
+        if (id != null) return id;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("String too long for clip index: " + s.length());
+        }
+        ensurePending(3 + bytes.length);
+        pending.put(TAG_STRING).putShort((short) bytes.length).put(bytes);
+        return intern(s);
+    }
+
+    private void ensurePending(int bytes) {
+        if (pending.remaining() >= bytes) return;
+        ByteBuffer bigger = newBuffer(Math.max(pending.capacity() * 2, pending.position() + bytes));
+        pending.flip();
+        bigger.put(pending);
+        pending = bigger;
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,412 @@
+package com.anshul.a240dc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The clip library held as columns: one primitive array per field, with names, shutter
+ * strings and folders replaced by ids into a shared string dictionary.
+ *
+ * A {@link Query} filters by ranges on the numeric columns and by a name prefix, evaluated one
+ * column at a time over an array of row numbers, and sorts by any number of keys with stable
+ * counting sorts over each column's dense ranks. The ranks are worked out the first time a
+ * column is sorted on, or all at once by {@link #rankAll} on a background thread, so a
+ * snapshot that is only displayed never pays for them.
+ *
+ * Tables are immutable; {@link Builder} makes a new one for every snapshot of a load.
+ */
+public final class ClipTable {
+
+    public enum Column { NAME, DATE, SIZE, DURATION, FPS, ISO }
+
+    public static final ClipTable EMPTY = new Builder().build();
+
+    private final int size;
+    private final String[] strings; // In order of first appearance
+    private final int[] nameId;
+    private final int[] fileId;
+    private final int[] dirId; // -1 for a bare file name
+    private final int[] shutterId;
+    private final long[] lastModified;
+    private final long[] sizeBytes;
+    private final int[] durationMs;
+    private final int[] fps;
+    private final int[] iso;
+    private final long[] ids;
+
+    // Built on first use, guarded by this. Strings rank by their lower case, then as they are,
+    // so every string has its own rank and those with a common prefix rank next to each other.
+    private String[] folded;
+    private int[] stringRank;
+    private int[] stringAtRank;
+    private final int[][] ranks = new int[Column.values().length][];
+    private final int[] domains = new int[Column.values().length];
+
+    private ClipTable(Builder b) {
+        size = b.size;
+        strings = b.strings.toArray(new String[0]);
+        nameId = Arrays.copyOf(b.nameId, size);
+        fileId = Arrays.copyOf(b.fileId, size);
+        dirId = Arrays.copyOf(b.dirId, size);
+        shutterId = Arrays.copyOf(b.shutterId, size);
+        lastModified = Arrays.copyOf(b.lastModified, size);
+        sizeBytes = Arrays.copyOf(b.sizeBytes, size);
+        durationMs = Arrays.copyOf(b.durationMs, size);
+        fps = Arrays.copyOf(b.fps, size);
+        iso = Arrays.copyOf(b.iso, size);
+        ids = Arrays.copyOf(b.ids, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String name(int row) {
+        return strings[nameId[row]];
+    }
+
+    public String path(int row) {
+        String file = strings[fileId[row]];
+        return dirId[row] < 0 ? file : strings[dirId[row]] + '/' + file;
+    }
+
+    public String shutter(int row) {
+        return strings[shutterId[row]];
+    }
+
+    public long lastModified(int row) {
+        return lastModified[row];
+    }
+
+    public long sizeBytes(int row) {
+        return sizeBytes[row];
+    }
+
+    public int durationMs(int row) {
+        return durationMs[row];
+    }
+
+    public int fps(int row) {
+        return fps[row];
+    }
+
+    public int iso(int row) {
+        return iso[row];
+    }
+
+    /** Stable id of the row's clip, the same as {@link VideoItem#getId()} for its path. */
+    public long id(int row) {
+        return ids[row];
+    }
+
+    /** True if the two rows describe the same clip with the same displayed fields. */
+    public boolean sameContents(int row, ClipTable other, int otherRow) {
+        return ids[row] == other.ids[otherRow]
+                && lastModified[row] == other.lastModified[otherRow]
+                && sizeBytes[row] == other.sizeBytes[otherRow]
+                && durationMs[row] == other.durationMs[otherRow]
+                && fps[row] == other.fps[otherRow] && iso[row] == other.iso[otherRow]
+                && name(row).equals(other.name(otherRow)) && shutter(row).equals(other.shutter(otherRow))
+                && path(row).equals(other.path(otherRow));
+    }
+
+    /** Works out the ranks of every column now, so no later sort or search has to. */
+    public synchronized void rankAll() {
+        for (Column c : Column.values()) ranks(c);
+    }
+
+    /** Rows matching every condition of {@code query}, in its order (row order for ties). */
+    public int[] select(Query query) {
+        int[] rows = new int[size];
+        for (int r = 0; r < size; r++) rows[r] = r;
+        int n = size;
+        for (int i = 0; i < query.ranges.size(); i++) {
+            Range range = query.ranges.get(i);
+            switch (range.column) {
+                case DATE: n = filter(lastModified, range.min, range.max, rows, n); break;
+                case SIZE: n = filter(sizeBytes, range.min, range.max, rows, n); break;
+                case DURATION: n = filter(durationMs, range.min, range.max, rows, n); break;
+                case FPS: n = filter(fps, range.min, range.max, rows, n); break;
+                case ISO: n = filter(iso, range.min, range.max, rows, n); break;
+                default: throw new IllegalArgumentException("No range on " + range.column);
+            }
+        }
+        if (!query.prefix.isEmpty()) {
+            boolean[] match = prefixMatches(query.prefix);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int r = rows[i];
+                if (match[nameId[r]]) rows[k++] = r;
+            }
+            n = k;
+        }
+        if (!query.keys.isEmpty()) sort(rows, n, query.keys);
+        return n == rows.length ? rows : Arrays.copyOf(rows, n);
+    }
+
+    private static int filter(int[] column, long min, long max, int[] rows, int n) {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int r = rows[i];
+            int v = column[r];
+            if (v >= min && v < max) rows[k++] = r;
+        }
+        return k;
+    }
+
+    private static int filter(long[] column, long min, long max, int[] rows, int n) {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int r = rows[i];
+            long v = column[r];
+            if (v >= min && v < max) rows[k++] = r;
+        }
+        return k;
+    }
+
+    // Dictionary ids of the strings starting with prefix, which sit together in rank order
+    private boolean[] prefixMatches(String prefix) {
+        String[] lower;
+        int[] atRank;
+        synchronized (this) {
+            rankStrings();
+            lower = folded;
+            atRank = stringAtRank;
+        }
+        String p = prefix.toLowerCase(Locale.ROOT);
+        int lo = lowerBound(lower, atRank, p, 0);
+        int hi = lowerBound(lower, atRank, p, 1);
+        boolean[] match = new boolean[strings.length];
+        for (int i = lo; i < hi; i++) match[atRank[i]] = true;
+        return match;
+    }
+
+    // First rank whose string compares at or above bound against the prefix, 0 meaning it starts with it
+    private static int lowerBound(String[] lower, int[] atRank, String prefix, int bound) {
+        int lo = 0;
+        int hi = atRank.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            String s = lower[atRank[mid]];
+            int c = s.startsWith(prefix) ? 0 : Integer.signum(s.compareTo(prefix));
+            if (c < bound) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Least significant key first; each pass is stable, so earlier keys end up deciding
+    private void sort(int[] rows, int n, List<Key> keys) {
+        int[] buffer = new int[n];
+        int[] count = null;
+        for (int k = keys.size() - 1; k >= 0; k--) {
+            Key key = keys.get(k);
+            int[] rank;
+            int domain;
+            synchronized (this) {
+                rank = ranks(key.column);
+                domain = domains[key.column.ordinal()];
+            }
+            if (count == null || count.length < domain + 1) count = new int[domain + 1];
+            else Arrays.fill(count, 0, domain + 1, 0);
+
+            for (int i = 0; i < n; i++) {
+                int v = rank[rows[i]];
+                count[(key.descending ? domain - 1 - v : v) + 1]++;
+            }
+            for (int v = 0; v < domain; v++) count[v + 1] += count[v];
+            for (int i = 0; i < n; i++) {
+                int r = rows[i];
+                int v = rank[r];
+                buffer[count[key.descending ? domain - 1 - v : v]++] = r;
+            }
+            System.arraycopy(buffer, 0, rows, 0, n);
+        }
+    }
+
+    // Rank of every row's value in column, 0 for the smallest; equal values share a rank
+    private int[] ranks(Column column) {
+        int c = column.ordinal();
+        if (ranks[c] != null) return ranks[c];
+        int[] rank = new int[size];
+        if (column == Column.NAME) {
+            rankStrings();
+            for (int r = 0; r < size; r++) rank[r] = stringRank[nameId[r]];
+            domains[c] = strings.length;
+        } else {
+            long[] values = new long[size];
+            for (int r = 0; r < size; r++) values[r] = value(column, r);
+            long[] distinct = values.clone();
+            Arrays.sort(distinct);
+            int d = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (i == 0 || distinct[i] != distinct[d - 1]) distinct[d++] = distinct[i];
+            }
+            for (int r = 0; r < size; r++) rank[r] = Arrays.binarySearch(distinct, 0, d, values[r]);
+            domains[c] = d;
+        }
+        ranks[c] = rank;
+        return rank;
+    }
+
+    private long value(Column column, int row) {
+        switch (column) {
+            case DATE: return lastModified[row];
+            case SIZE: return sizeBytes[row];
+            case DURATION: return durationMs[row];
+            case FPS: return fps[row];
+            case ISO: return iso[row];
+            default: throw new IllegalArgumentException(column.toString());
+        }
+    }
+
+    private void rankStrings() {
+        if (stringRank != null) return;
+        String[] lower = new String[strings.length];
+        Integer[] order = new Integer[strings.length];
+        for (int id = 0; id < strings.length; id++) {
+            lower[id] = strings[id].toLowerCase(Locale.ROOT);
+            order[id] = id;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = lower[a].compareTo(lower[b]);
+            return c != 0 ? c : strings[a].compareTo(strings[b]);
+        });
+        int[] rank = new int[strings.length];
+        int[] atRank = new int[strings.length];
+        for (int r = 0; r < order.length; r++) {
+            atRank[r] = order[r];
+            rank[order[r]] = r;
+        }
+        folded = lower;
+        stringRank = rank;
+        stringAtRank = atRank;
+    }
+
+    /**
+     * Conditions and sort keys for {@link #select}. Ranges are half-open and all of them must
+     * hold; sort keys apply in the order they are added.
+     */
+    public static final class Query {
+        private final List<Range> ranges = new ArrayList<>();
+        private final List<Key> keys = new ArrayList<>();
+        private String prefix = "";
+
+        /** Keeps rows with {@code min <= value < max}. Not available for {@link Column#NAME}. */
+        public Query range(Column column, long min, long max) {
+            if (column == Column.NAME) throw new IllegalArgumentException("No range on " + column);
+            ranges.add(new Range(column, min, max));
+            return this;
+        }
+
+        public Query atLeast(Column column, long min) {
+            return range(column, min, Long.MAX_VALUE);
+        }
+
+        public Query below(Column column, long max) {
+            return range(column, Long.MIN_VALUE, max);
+        }
+
+        /** Keeps rows whose name starts with {@code prefix}, ignoring case. */
+        public Query namePrefix(String prefix) {
+            this.prefix = prefix == null ? "" : prefix;
+            return this;
+        }
+
+        public Query orderBy(Column column, boolean descending) {
+            keys.add(new Key(column, descending));
+            return this;
+        }
+    }
+
+    private static final class Range {
+        final Column column;
+        final long min;
+        final long max;
+
+        Range(Column column, long min, long max) {
+            this.column = column;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    private static final class Key {
+        final Column column;
+        final boolean descending;
+
+        Key(Column column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+    }
+
+    /** Collects rows for a table. Not thread-safe; {@link #build} copies, so it can keep going. */
+    public static final class Builder {
+        private final HashMap<String, Integer> dictionary = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int size;
+        private int[] nameId = new int[16];
+        private int[] fileId = new int[16];
+        private int[] dirId = new int[16];
+        private int[] shutterId = new int[16];
+        private long[] lastModified = new long[16];
+        private long[] sizeBytes = new long[16];
+        private int[] durationMs = new int[16];
+        private int[] fps = new int[16];
+        private int[] iso = new int[16];
+        private long[] ids = new long[16];
+
+        public Builder add(String path, ClipIndex.Entry e) {
+            if (size == ids.length) grow();
+            int slash = path.lastIndexOf('/');
+            nameId[size] = intern(e.name);
+            fileId[size] = intern(path.substring(slash + 1));
+            dirId[size] = slash < 0 ? -1 : intern(path.substring(0, slash));
+            shutterId[size] = intern(e.shutter);
+            lastModified[size] = e.lastModified;
+            sizeBytes[size] = e.sizeBytes;
+            durationMs[size] = e.durationMs;
+            fps[size] = e.fps;
+            iso[size] = e.iso;
+            ids[size] = VideoItem.idOf(path);
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public ClipTable build() {
+            return new ClipTable(this);
+        }
+
+        private int intern(String s) {
+            Integer id = dictionary.get(s);
+            if (id == null) {
+                id = strings.size();
+                strings.add(s);
+                dictionary.put(s, id);
+            }
+            return id;
+        }
+
+        private void grow() {
+            int capacity = ids.length * 2;
+            nameId = Arrays.copyOf(nameId, capacity);
+            fileId = Arrays.copyOf(fileId, capacity);
+            dirId = Arrays.copyOf(dirId, capacity);
+            shutterId = Arrays.copyOf(shutterId, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+            sizeBytes = Arrays.copyOf(sizeBytes, capacity);
+            durationMs = Arrays.copyOf(durationMs, capacity);
+            fps = Arrays.copyOf(fps, capacity);
+            iso = Arrays.copyOf(iso, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+    }
+}
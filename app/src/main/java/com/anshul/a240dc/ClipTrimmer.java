@@ -0,0 +1,534 @@
+package com.anshul.a240dc;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cuts a section out of a clip without decoding anything. The cut starts at the sync sample
+ * at or before the requested start, so the first frame needs no reference from before it,
+ * and ends after the last sample shown before the requested end. Samples are kept as a
+ * contiguous run in decode order, which keeps every B-frame's references in the file; frames
+ * the decoder needs but that fall outside the range are hidden by an edit list.
+ *
+ * The output is a plain MP4 with the moov up front. Sample tables are rebuilt from a
+ * {@link SampleTable}; codec configuration and the other track headers are copied as they
+ * are, and the selected bytes are copied from the source with positioned
+ * {@link FileChannel#transferTo} calls, merged into one transfer per contiguous range.
+ * Audio is kept and cut to the same span; other tracks are dropped.
+ */
+public final class ClipTrimmer {
+
+    private static final long MAX_MOOV_SIZE = 256L * 1024 * 1024;
+
+    /** The span actually written, in microseconds from the start of the source clip. */
+    public static final class Result {
+        public final long startUs;
+        public final long endUs;
+        public final long bytes;
+
+        Result(long startUs, long endUs, long bytes) {
+            this.startUs = startUs;
+            this.endUs = endUs;
+            this.bytes = bytes;
+        }
+
+        public long durationUs() {
+            return endUs - startUs;
+        }
+    }
+
+    // What gets written for one track
+    private static final class Cut {
+        final SampleTable table;
+        final int from;
+        final int to;
+        final long mediaTime;
+        final long editDuration;
+        long[] chunkOffsets;
+        int[] chunkSamples;
+
+        Cut(SampleTable table, int from, int to, long mediaTime, long editDuration) {
+            this.table = table;
+            this.from = from;
+            this.to = to;
+            this.mediaTime = mediaTime;
+            this.editDuration = editDuration;
+        }
+
+        long mediaDuration() {
+            return to > from ? table.endTimeOf(to - 1) - table.decodeTime(from) : 0;
+        }
+    }
+
+    private ClipTrimmer() {}
+
+    /** Where a trim of {@code source} goes, e.g. {@code clip_trim_1500_3000.mp4} (milliseconds). */
+    public static File targetFor(File source, long startUs, long endUs) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        return new File(source.getParentFile(),
+                String.format(Locale.US, "%s_trim_%d_%d.mp4", base, startUs / 1000, endUs / 1000));
+    }
+
+    /** Trims {@code source} into {@code target}. A partly written target is deleted on failure. */
+    public static Result trim(File source, File target, long startUs, long endUs) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            out.setLength(0);
+            return trim(in.getChannel(), out.getChannel(), startUs, endUs);
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    public static Result trim(FileChannel in, FileChannel out, long startUs, long endUs) throws IOException {
+        if (startUs < 0 || endUs <= startUs) {
+            throw new IllegalArgumentException("Bad trim range " + startUs + ".." + endUs);
+        }
+        ByteBuffer moov = readMoov(in);
+        List<SampleTable> tables = SampleTable.read(in, moov);
+        SampleTable video = null;
+        for (SampleTable t : tables) {
+            if (t.isVideo() && t.size() > 0) {
+                video = t;
+                break;
+            }
+        }
+        if (video == null) {
+            throw new IOException("No video samples");
+        }
+
+        long movieTimescale = movieTimescale(moov);
+        long origin = video.firstPresentationTime();
+        int[] range = selectVideo(video, origin + toTicks(startUs, video.timescale),
+                origin + toTicks(endUs, video.timescale));
+        long shownFrom = video.presentationTime(range[0]);
+        long shownTo = presentedEnd(video, range[0], range[1], origin + toTicks(endUs, video.timescale));
+        long editDuration = scale(shownTo - shownFrom, movieTimescale, video.timescale);
+
+        List<Cut> cuts = new ArrayList<>();
+        cuts.add(new Cut(video, range[0], range[1], shownFrom - video.decodeTime(range[0]), editDuration));
+        double fromSeconds = shownFrom / (double) video.timescale;
+        double toSeconds = shownTo / (double) video.timescale;
+        for (SampleTable t : tables) {
+            if (t.handler != Mp4Box.SOUN || t.size() == 0) continue;
+            int[] audio = selectByTime(t, Math.round(fromSeconds * t.timescale), Math.round(toSeconds * t.timescale));
+            if (audio[1] <= audio[0]) continue;
+            long mediaTime = Math.max(0, Math.round(fromSeconds * t.timescale) - t.decodeTime(audio[0]));
+            cuts.add(new Cut(t, audio[0], audio[1], mediaTime, editDuration));
+        }
+
+        long dataBytes = layoutChunks(cuts);
+        boolean wide = dataBytes + moov.limit() + (1 << 20) > 0xFFFFFFFFL;
+        byte[] ftyp = ftyp(in);
+        int mdatHeader = wide ? 16 : 8;
+
+        // Built twice: once to learn the moov's size, then with the real chunk offsets
+        byte[] sizing = buildMoov(moov, cuts, 0, wide, editDuration);
+        long dataStart = out.position() + ftyp.length + sizing.length + mdatHeader;
+        byte[] newMoov = buildMoov(moov, cuts, dataStart, wide, editDuration);
+
+        writeFully(out, ByteBuffer.wrap(ftyp));
+        writeFully(out, ByteBuffer.wrap(newMoov));
+        ByteBuffer header = ByteBuffer.allocate(mdatHeader);
+        if (wide) {
+            header.putInt(1).putInt(Mp4Box.MDAT).putLong(dataBytes + 16);
+        } else {
+            header.putInt((int) (dataBytes + 8)).putInt(Mp4Box.MDAT);
+        }
+        header.flip();
+        writeFully(out, header);
+        copySamples(in, out, cuts);
+
+        long written = ftyp.length + newMoov.length + mdatHeader + dataBytes;
+        return new Result(toUs(shownFrom - origin, video.timescale), toUs(shownTo - origin, video.timescale), written);
+    }
+
+    /**
+     * Decode-order sample range {from, to} for presentation times {@code [startPts, endPts)}:
+     * from the sync sample at or before the frame shown at {@code startPts} through the last
+     * sample presented before {@code endPts}.
+     */
+    static int[] selectVideo(SampleTable t, long startPts, long endPts) throws IOException {
+        int shown = Math.max(0, t.sampleAtPresentation(startPts));
+        int from = t.syncAtOrBefore(shown);
+        if (from < 0) {
+            // Nothing decodable before the start; begin at the first sync sample instead
+            for (int i = shown; i < t.size() && from < 0; i++) {
+                if (t.isSync(i)) from = i;
+            }
+            if (from < 0) throw new IOException("No sync sample to start from");
+        }
+        int to = from + 1;
+        for (int i = from + 1; i < t.size(); i++) {
+            if (t.presentationTime(i) < endPts) to = i + 1;
+        }
+        return new int[]{from, to};
+    }
+
+    /** Samples overlapping decode times {@code [start, end)} of a track without reordering, such as audio. */
+    static int[] selectByTime(SampleTable t, long start, long end) {
+        int from = 0;
+        while (from < t.size() && t.endTimeOf(from) <= start) from++;
+        int to = from;
+        while (to < t.size() && t.decodeTime(to) < end) to++;
+        return new int[]{from, to};
+    }
+
+    // End of the last frame that is shown before endPts
+    private static long presentedEnd(SampleTable t, int from, int to, long endPts) {
+        long start = t.presentationTime(from);
+        long end = start + t.duration(from);
+        for (int i = from; i < to; i++) {
+            long pts = t.presentationTime(i);
+            if (pts >= start && pts < endPts) end = Math.max(end, pts + t.duration(i));
+        }
+        return end;
+    }
+
+    // Contiguous samples of a track become one chunk; returns the total bytes to copy
+    private static long layoutChunks(List<Cut> cuts) {
+        long total = 0;
+        for (Cut c : cuts) {
+            SampleTable t = c.table;
+            List<long[]> chunks = new ArrayList<>();
+            long[] current = null;
+            for (int i = c.from; i < c.to; i++) {
+                long size = t.sampleSize(i) & 0xFFFFFFFFL;
+                if (current != null && current[0] + current[1] == t.offset(i)) {
+                    current[1] += size;
+                    current[2]++;
+                } else {
+                    current = new long[]{t.offset(i), size, 1};
+                    chunks.add(current);
+                }
+                total += size;
+            }
+            c.chunkOffsets = new long[chunks.size()];
+            c.chunkSamples = new int[chunks.size()];
+            for (int k = 0; k < chunks.size(); k++) {
+                c.chunkOffsets[k] = chunks.get(k)[0];
+                c.chunkSamples[k] = (int) chunks.get(k)[2];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Chunks of all tracks in source order, each as {source offset, length, cut, chunk}. The
+     * output keeps that order, so the copy reads the source front to back.
+     */
+    private static List<long[]> sourceOrder(List<Cut> cuts) {
+        List<long[]> all = new ArrayList<>();
+        for (int c = 0; c < cuts.size(); c++) {
+            Cut cut = cuts.get(c);
+            int sample = cut.from;
+            for (int k = 0; k < cut.chunkOffsets.length; k++) {
+                long length = 0;
+                for (int s = 0; s < cut.chunkSamples[k]; s++) length += cut.table.sampleSize(sample++) & 0xFFFFFFFFL;
+                all.add(new long[]{cut.chunkOffsets[k], length, c, k});
+            }
+        }
+        Collections.sort(all, (a, b) -> Long.compare(a[0], b[0]));
+        return all;
+    }
+
+    private static void copySamples(FileChannel in, FileChannel out, List<Cut> cuts) throws IOException {
+        long runStart = -1;
+        long runLength = 0;
+        for (long[] chunk : sourceOrder(cuts)) {
+            if (runStart >= 0 && runStart + runLength == chunk[0]) {
+                runLength += chunk[1];
+                continue;
+            }
+            if (runStart >= 0) transfer(in, runStart, runLength, out);
+            runStart = chunk[0];
+            runLength = chunk[1];
+        }
+        if (runStart >= 0) transfer(in, runStart, runLength, out);
+    }
+
+    private static byte[] buildMoov(ByteBuffer src, List<Cut> cuts, long dataStart, boolean wide, long movieDuration)
+            throws IOException {
+        // Output chunk offsets follow the copy order
+        long[][] outOffsets = new long[cuts.size()][];
+        for (int c = 0; c < cuts.size(); c++) outOffsets[c] = new long[cuts.get(c).chunkOffsets.length];
+        long pos = dataStart;
+        for (long[] chunk : sourceOrder(cuts)) {
+            outOffsets[(int) chunk[2]][(int) chunk[3]] = pos;
+            pos += chunk[1];
+        }
+
+        Mp4Box root = Mp4Box.read(src, 0, src.limit());
+        BoxBuilder b = new BoxBuilder(64 * 1024);
+        int moov = b.start(Mp4Box.MOOV);
+        Mp4Box mvhd = Mp4Box.find(src, root, Mp4Box.MVHD);
+        if (mvhd == null) throw new IOException("No mvhd");
+        int at = copy(src, mvhd, b);
+        patchDuration(b, at + mvhd.headerSize, version(src, mvhd), 16, 24, movieDuration);
+        for (int c = 0; c < cuts.size(); c++) {
+            writeTrak(b, src, cuts.get(c), outOffsets[c], wide);
+        }
+        int p = (int) root.bodyOffset();
+        while (p < root.end()) {
+            Mp4Box box = Mp4Box.read(src, p, (int) root.end());
+            p = (int) box.end();
+            // Anything else, such as udta with the capture frame rate, goes along as is
+            if (box.type != Mp4Box.MVHD && box.type != Mp4Box.TRAK && box.type != Mp4Box.MVEX) copy(src, box, b);
+        }
+        b.end(moov);
+        return b.toByteArray();
+    }
+
+    private static void writeTrak(BoxBuilder b, ByteBuffer src, Cut cut, long[] chunkOffsets, boolean wide)
+            throws IOException {
+        Mp4Box trak = cut.table.trak;
+        int start = b.start(Mp4Box.TRAK);
+        int p = (int) trak.bodyOffset();
+        while (p < trak.end()) {
+            Mp4Box box = Mp4Box.read(src, p, (int) trak.end());
+            p = (int) box.end();
+            if (box.type == Mp4Box.TKHD) {
+                int at = copy(src, box, b);
+                patchDuration(b, at + box.headerSize, version(src, box), 20, 28, cut.editDuration);
+                writeEdit(b, cut);
+            } else if (box.type == Mp4Box.MDIA) {
+                writeMdia(b, src, box, cut, chunkOffsets, wide);
+            } else if (box.type != Mp4Box.EDTS) {
+                copy(src, box, b);
+            }
+        }
+        b.end(start);
+    }
+
+    private static void writeEdit(BoxBuilder b, Cut cut) {
+        boolean v1 = cut.editDuration > 0xFFFFFFFFL || cut.mediaTime > Integer.MAX_VALUE;
+        int edts = b.start(Mp4Box.EDTS);
+        int elst = b.startFull(Mp4Box.ELST, v1 ? 1 : 0, 0);
+        b.u32(1);
+        if (v1) b.u64(cut.editDuration).u64(cut.mediaTime);
+        else b.u32(cut.editDuration).u32(cut.mediaTime);
+        b.u32(0x00010000);
+        b.end(elst);
+        b.end(edts);
+    }
+
+    private static void writeMdia(BoxBuilder b, ByteBuffer src, Mp4Box mdia, Cut cut, long[] chunkOffsets,
+                                  boolean wide) throws IOException {
+        int start = b.start(Mp4Box.MDIA);
+        int p = (int) mdia.bodyOffset();
+        while (p < mdia.end()) {
+            Mp4Box box = Mp4Box.read(src, p, (int) mdia.end());
+            p = (int) box.end();
+            if (box.type == Mp4Box.MDHD) {
+                int at = copy(src, box, b);
+                patchDuration(b, at + box.headerSize, version(src, box), 16, 24, cut.mediaDuration());
+            } else if (box.type == Mp4Box.MINF) {
+                int minf = b.start(Mp4Box.MINF);
+                int q = (int) box.bodyOffset();
+                while (q < box.end()) {
+                    Mp4Box child = Mp4Box.read(src, q, (int) box.end());
+                    q = (int) child.end();
+                    if (child.type == Mp4Box.STBL) writeStbl(b, src, child, cut, chunkOffsets, wide);
+                    else copy(src, child, b);
+                }
+                b.end(minf);
+            } else {
+                copy(src, box, b);
+            }
+        }
+        b.end(start);
+    }
+
+    private static void writeStbl(BoxBuilder b, ByteBuffer src, Mp4Box stbl, Cut cut, long[] chunkOffsets,
+                                  boolean wide) throws IOException {
+        SampleTable t = cut.table;
+        int start = b.start(Mp4Box.STBL);
+        Mp4Box stsd = Mp4Box.find(src, stbl, Mp4Box.STSD);
+        if (stsd == null) throw new IOException("Track " + t.trackId + " has no stsd");
+        copy(src, stsd, b);
+
+        int stts = b.startFull(Mp4Box.STTS, 0, 0);
+        int count = b.position();
+        b.u32(0);
+        int entries = 0;
+        for (int i = cut.from; i < cut.to; ) {
+            int j = i;
+            while (j < cut.to && t.duration(j) == t.duration(i)) j++;
+            b.u32(j - i).u32(t.duration(i));
+            entries++;
+            i = j;
+        }
+        b.setU32(count, entries);
+        b.end(stts);
+
+        if (t.hasCompositionOffsets()) {
+            int ctts = b.startFull(Mp4Box.CTTS, 1, 0);
+            count = b.position();
+            b.u32(0);
+            entries = 0;
+            for (int i = cut.from; i < cut.to; ) {
+                int j = i;
+                while (j < cut.to && t.compositionOffset(j) == t.compositionOffset(i)) j++;
+                b.u32(j - i).u32(t.compositionOffset(i));
+                entries++;
+                i = j;
+            }
+            b.setU32(count, entries);
+            b.end(ctts);
+        }
+
+        if (!t.allSync()) {
+            int stss = b.startFull(Mp4Box.STSS, 0, 0);
+            count = b.position();
+            b.u32(0);
+            entries = 0;
+            for (int i = cut.from; i < cut.to; i++) {
+                if (t.isSync(i)) {
+                    b.u32(i - cut.from + 1);
+                    entries++;
+                }
+            }
+            b.setU32(count, entries);
+            b.end(stss);
+        }
+
+        int stsc = b.startFull(Mp4Box.STSC, 0, 0);
+        count = b.position();
+        b.u32(0);
+        entries = 0;
+        for (int k = 0; k < cut.chunkSamples.length; k++) {
+            if (k == 0 || cut.chunkSamples[k] != cut.chunkSamples[k - 1]) {
+                b.u32(k + 1).u32(cut.chunkSamples[k]).u32(1);
+                entries++;
+            }
+        }
+        b.setU32(count, entries);
+        b.end(stsc);
+
+        int stsz = b.startFull(Mp4Box.STSZ, 0, 0);
+        b.u32(0).u32(cut.to - cut.from);
+        for (int i = cut.from; i < cut.to; i++) b.u32(t.sampleSize(i));
+        b.end(stsz);
+
+        int co = b.startFull(wide ? Mp4Box.CO64 : Mp4Box.STCO, 0, 0);
+        b.u32(chunkOffsets.length);
+        for (long offset : chunkOffsets) {
+            if (wide) b.u64(offset);
+            else b.u32(offset);
+        }
+        b.end(co);
+        b.end(start);
+    }
+
+    private static ByteBuffer readMoov(FileChannel in) throws IOException {
+        long fileSize = in.size();
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long pos = 0;
+        while (pos + 8 <= fileSize) {
+            Mp4Box box = Mp4Parser.readTopLevel(in, pos, fileSize, scratch);
+            if (box == null) break;
+            if (box.type == Mp4Box.MOOV) {
+                if (box.size > MAX_MOOV_SIZE) throw new IOException("moov box too large: " + box.size);
+                return read(in, box.offset, (int) box.size);
+            }
+            pos = box.end();
+        }
+        throw new IOException("No moov box");
+    }
+
+    // The source's ftyp if it starts with one, otherwise a generic one
+    private static byte[] ftyp(FileChannel in) throws IOException {
+        Mp4Box box = in.size() >= 8 ? Mp4Parser.readTopLevel(in, 0, in.size(), ByteBuffer.allocate(16)) : null;
+        if (box != null && box.type == Mp4Box.FTYP && box.size <= 1024) {
+            return read(in, 0, (int) box.size).array();
+        }
+        BoxBuilder b = new BoxBuilder(32);
+        int ftyp = b.start(Mp4Box.FTYP);
+        b.ascii("isom").u32(0x200).ascii("isom").ascii("iso2").ascii("mp41");
+        b.end(ftyp);
+        return b.toByteArray();
+    }
+
+    private static long movieTimescale(ByteBuffer moov) throws IOException {
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+        Mp4Box mvhd = Mp4Box.find(moov, root, Mp4Box.MVHD);
+        if (mvhd == null) throw new IOException("No mvhd");
+        int p = (int) mvhd.bodyOffset();
+        long timescale = moov.getInt(p + (version(moov, mvhd) == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+        if (timescale == 0) throw new IOException("Zero movie timescale");
+        return timescale;
+    }
+
+    private static int version(ByteBuffer buf, Mp4Box fullBox) {
+        return buf.get((int) fullBox.bodyOffset()) & 0xFF;
+    }
+
+    // Sets a duration field of a box copied to `body`, at v0Offset or v1Offset into its body
+    private static void patchDuration(BoxBuilder b, int body, int version, int v0Offset, int v1Offset, long value)
+            throws IOException {
+        if (version == 1) {
+            b.setU32(body + v1Offset, value >>> 32);
+            b.setU32(body + v1Offset + 4, value);
+        } else if (value > 0xFFFFFFFFL) {
+            throw new IOException("Duration does not fit a version 0 box");
+        } else {
+            b.setU32(body + v0Offset, value);
+        }
+    }
+
+    // Appends box verbatim, returning where it starts in b
+    private static int copy(ByteBuffer src, Mp4Box box, BoxBuilder b) {
+        int at = b.position();
+        byte[] bytes = new byte[(int) box.size];
+        ByteBuffer view = src.duplicate();
+        view.position((int) box.offset);
+        view.get(bytes);
+        b.bytes(bytes);
+        return at;
+    }
+
+    private static ByteBuffer read(FileChannel in, long pos, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, pos + buf.position()) < 0) throw new EOFException("Truncated at " + pos);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) out.write(buf);
+    }
+
+    private static void transfer(FileChannel in, long pos, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(pos, count, out);
+            if (n <= 0) throw new EOFException("Source ended at " + pos);
+            pos += n;
+            count -= n;
+        }
+    }
+
+    private static long toTicks(long us, long timescale) {
+        return Math.round(us * (double) timescale / 1_000_000);
+    }
+
+    private static long toUs(long ticks, long timescale) {
+        return Math.round(ticks * 1_000_000.0 / timescale);
+    }
+
+    private static long scale(long ticks, long toTimescale, long fromTimescale) {
+        return Math.round(ticks * (double) toTimescale / fromTimescale);
+    }
+}
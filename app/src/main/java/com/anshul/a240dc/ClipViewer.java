@@ -0,0 +1,235 @@
+package com.anshul.a240dc;
+
+import android.graphics.Bitmap;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Steps through a clip one frame at a time, forwards and backwards.
+ *
+ * On open the clip's sample table is split into GOP units, which is the keyframe index the
+ * viewer works from. A decoder thread keeps the frames around the playhead decoded, as
+ * {@link FrameCachePolicy} directs, into bitmaps that are reused once evicted. Once the window
+ * is warm a step only looks up a bitmap that is already there.
+ */
+public class ClipViewer extends AppCompatActivity {
+
+    public static final String EXTRA_PATH = "path";
+
+    private ImageView frameView;
+    private TextView infoView;
+    private SeekBar seekBar;
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private FrameCachePolicy policy;
+    private Bitmap[] frames;
+    private final ArrayDeque<Bitmap> spare = new ArrayDeque<>();
+    private int displayed = -1;
+    private boolean running = true;
+
+    // Written once by the decoder thread before the controls are enabled
+    private long[] frameTimesUs;
+    private Thread decoderThread;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_clip_viewer);
+        frameView = findViewById(R.id.img_frame);
+        infoView = findViewById(R.id.tv_frame_info);
+        seekBar = findViewById(R.id.seek_frame);
+        Button prev = findViewById(R.id.btn_prev_frame);
+        Button next = findViewById(R.id.btn_next_frame);
+        seekBar.setEnabled(false);
+
+        prev.setOnClickListener(v -> step(-1));
+        next.setOnClickListener(v -> step(1));
+        seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
+                if (fromUser) moveTo(progress);
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar bar) {}
+
+            @Override
+            public void onStopTrackingTouch(SeekBar bar) {}
+        });
+
+        File clip = new File(getIntent().getStringExtra(EXTRA_PATH));
+        setTitle(clip.getName());
+        decoderThread = new Thread(() -> decodeLoop(clip), "clip-viewer-decoder");
+        decoderThread.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        decoderThread.interrupt();
+    }
+
+    private void step(int delta) {
+        int playhead;
+        synchronized (lock) {
+            if (policy == null) return;
+            playhead = policy.playhead();
+        }
+        moveTo(playhead + delta);
+    }
+
+    private void moveTo(int frame) {
+        synchronized (lock) {
+            if (policy == null) return;
+            policy.moveTo(frame);
+            frame = policy.playhead();
+            lock.notifyAll();
+        }
+        seekBar.setProgress(frame);
+        infoView.setText(String.format(Locale.US, "Frame %d / %d  •  %.4f s", frame + 1, frameTimesUs.length,
+                frameTimesUs[frame] / 1e6));
+        show(frame);
+    }
+
+    // Main thread; a frame that is not decoded yet is shown by the decoder thread when it is
+    private void show(int frame) {
+        Bitmap bitmap;
+        synchronized (lock) {
+            if (policy == null || policy.playhead() != frame || frames[frame] == null) return;
+            bitmap = frames[frame];
+            displayed = frame;
+        }
+        frameView.setImageBitmap(bitmap);
+    }
+
+    private void decodeLoop(File clip) {
+        try (RandomAccessFile raf = new RandomAccessFile(clip, "r")) {
+            FileChannel channel = raf.getChannel();
+            SampleTable video = null;
+            for (SampleTable t : SampleTable.read(channel, Mp4Parser.mapMoov(channel))) {
+                if (t.isVideo() && t.size() > 0) {
+                    video = t;
+                    break;
+                }
+            }
+            if (video == null) throw new IOException("No video samples");
+            List<GopSharder.Shard> units = GopSharder.shard(video, 0, 0, 0, 1);
+            if (units.isEmpty()) throw new IOException("No decodable frames");
+            MediaFormat format = ShardDecoder.videoFormat(clip);
+            int width = format.getInteger(MediaFormat.KEY_WIDTH);
+            int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+            start(video, units, width, height);
+
+            try (ShardDecoder decoder = new ShardDecoder(channel, video, format)) {
+                int[] argb = new int[width * height];
+                while (true) {
+                    int unit = -1;
+                    synchronized (lock) {
+                        while (running && (unit = policy.nextUnit()) < 0) lock.wait();
+                        if (!running) return;
+                        policy.decodeStarted(unit);
+                    }
+                    int u = unit;
+                    decoder.decode(units.get(u), (number, image) -> {
+                        synchronized (lock) {
+                            if (!running || !policy.isUseful(u)) return false;
+                            if (!policy.wants(number)) return true;
+                        }
+                        int w = image.getCropRect().width();
+                        int h = image.getCropRect().height();
+                        if (argb.length < w * h) throw new IOException("Frame larger than the track's size");
+                        ShardDecoder.toArgb(image, 1, argb);
+                        Bitmap bitmap = obtain(w, h);
+                        bitmap.setPixels(argb, 0, w, 0, 0, w, h);
+                        keep(number, bitmap);
+                        return true;
+                    });
+                    synchronized (lock) {
+                        policy.decodeFinished(u);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (IOException e) {
+            e.printStackTrace();
+            runOnUiThread(() -> {
+                Toast.makeText(this, "Cannot decode: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                finish();
+            });
+        }
+    }
+
+    // Decoder thread; sizes the cache and enables the controls
+    private void start(SampleTable video, List<GopSharder.Shard> units, int width, int height) {
+        int[] unitOf = FrameCachePolicy.unitsOf(units);
+        long[] times = new long[unitOf.length];
+        long origin = video.firstPresentationTime();
+        for (GopSharder.Shard s : units) {
+            for (int k = 0; k < s.frames(); k++) {
+                times[s.frameNumbers[k]] = Math.round((video.presentationTime(s.samples[k]) - origin)
+                        * 1_000_000.0 / video.timescale);
+            }
+        }
+        // A third of the heap, leaving room for the views and the codec's own buffers
+        long budget = Math.min(Runtime.getRuntime().maxMemory() / 3, 384L << 20);
+        synchronized (lock) {
+            policy = new FrameCachePolicy(unitOf, budget, (long) width * height * 4);
+            frames = new Bitmap[unitOf.length];
+        }
+        frameTimesUs = times;
+        runOnUiThread(() -> {
+            seekBar.setMax(times.length - 1);
+            seekBar.setEnabled(true);
+            moveTo(0);
+        });
+    }
+
+    private Bitmap obtain(int width, int height) {
+        synchronized (lock) {
+            Bitmap b = spare.poll();
+            if (b != null && b.getWidth() == width && b.getHeight() == height) return b;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    // Decoder thread: stores a decoded frame and recycles whatever the policy evicts for it
+    private void keep(int number, Bitmap bitmap) {
+        boolean showNow;
+        synchronized (lock) {
+            if (!policy.wants(number)) {
+                spare.offer(bitmap);
+                return;
+            }
+            frames[number] = bitmap;
+            int victim = policy.admit(number);
+            if (victim >= 0) {
+                // The bitmap on screen is left to the GC rather than drawn over
+                if (victim != displayed) spare.offer(frames[victim]);
+                frames[victim] = null;
+            }
+            showNow = number == policy.playhead();
+        }
+        if (showNow) runOnUiThread(() -> show(number));
+    }
+}
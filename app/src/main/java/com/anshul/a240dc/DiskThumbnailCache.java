@@ -0,0 +1,113 @@
+package com.anshul.a240dc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Persistent cache of encoded thumbnails, one file per {@link ThumbnailKey}.
+ *
+ * Reads bump the file's modification time, so trimming by oldest mtime evicts the least
+ * recently used thumbnails once the directory grows past its byte budget.
+ */
+public class DiskThumbnailCache {
+
+    private static final String SUFFIX = ".thumb";
+
+    private final File dir;
+    private final long maxBytes;
+    private long bytes = -1;
+
+    public DiskThumbnailCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized byte[] get(String key) {
+        File f = fileFor(key);
+        if (!f.isFile()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            //noinspection ResultOfMethodCallIgnored
+            f.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, byte[] data) {
+        ensureScanned();
+        File f = fileFor(key);
+        File tmp = new File(dir, key + ".tmp");
+        long previous = f.isFile() ? f.length() : 0;
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        }
+        bytes += data.length - previous;
+        if (bytes > maxBytes) {
+            trim(maxBytes * 3 / 4);
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return fileFor(key).isFile();
+    }
+
+    public synchronized long bytes() {
+        ensureScanned();
+        return bytes;
+    }
+
+    /** Deletes least recently used thumbnails until at most {@code targetBytes} remain. */
+    public synchronized void trim(long targetBytes) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) return;
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            total += files[i].length();
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+        for (int i = 0; i < order.length && total > targetBytes; i++) {
+            File f = files[order[i]];
+            long len = f.length();
+            if (f.delete()) total -= len;
+        }
+        bytes = total;
+    }
+
+    private void ensureScanned() {
+        if (bytes >= 0) return;
+        if (!dir.isDirectory()) {
+            //noinspection ResultOfMethodCallIgnored
+            dir.mkdirs();
+        }
+        long total = 0;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File f : files) total += f.length();
+        }
+        bytes = total;
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+}
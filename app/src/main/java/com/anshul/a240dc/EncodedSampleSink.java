@@ -0,0 +1,16 @@
+package com.anshul.a240dc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives encoded access units in decode order. {@code data} is only valid for the duration
+ * of the call; sinks that keep samples must copy them.
+ */
+public interface EncodedSampleSink {
+
+    /** Same value as MediaCodec.BUFFER_FLAG_KEY_FRAME. */
+    int FLAG_KEY_FRAME = 1;
+
+    void writeSample(ByteBuffer data, long presentationTimeUs, int flags) throws IOException;
+}
@@ -0,0 +1,117 @@
+package com.anshul.a240dc;
+
+import java.util.Locale;
+
+/**
+ * Video encoder settings for a recording. Immutable; build one with {@link Builder}.
+ *
+ * {@link #fps} is the capture rate the encoder is told to expect, and {@link #operatingRate}
+ * the rate it should be clocked for, which is what keeps high-speed sessions from dropping
+ * frames on encoders that otherwise assume 30 fps.
+ */
+public final class EncoderConfig {
+
+    public enum Codec {
+        AVC("video/avc", 0.08), HEVC("video/hevc", 0.05);
+
+        public final String mime;
+        /** Bits per pixel per frame that still looks clean at high frame rates. */
+        final double bitsPerPixel;
+
+        Codec(String mime, double bitsPerPixel) {
+            this.mime = mime;
+            this.bitsPerPixel = bitsPerPixel;
+        }
+    }
+
+    public enum BitrateMode { CBR, VBR, CQ }
+
+    public final Codec codec;
+    public final BitrateMode bitrateMode;
+    public final int width;
+    public final int height;
+    public final int fps;
+    public final int bitrate;
+    /** Seconds between sync frames; fractions are allowed. */
+    public final float iFrameIntervalSeconds;
+    /** Rate the codec should be clocked for, in frames per second; 0 leaves it to the codec. */
+    public final int operatingRate;
+    /** 0 asks for realtime scheduling, 1 for best effort. */
+    public final int priority;
+    /** Quality level for {@link BitrateMode#CQ}, 0-100. */
+    public final int quality;
+
+    private EncoderConfig(Builder b) {
+        codec = b.codec;
+        bitrateMode = b.bitrateMode;
+        width = b.width;
+        height = b.height;
+        fps = b.fps;
+        bitrate = b.bitrate > 0 ? b.bitrate : suggestedBitrate(b.codec, b.width, b.height, b.fps);
+        iFrameIntervalSeconds = b.iFrameIntervalSeconds;
+        operatingRate = b.operatingRate;
+        priority = b.priority;
+        quality = b.quality;
+    }
+
+    /** A bitrate that holds up at {@code fps} without the headroom MediaRecorder defaulted to. */
+    public static int suggestedBitrate(Codec codec, int width, int height, int fps) {
+        double bits = (double) width * height * fps * codec.bitsPerPixel;
+        return (int) Math.min(200_000_000, Math.max(2_000_000, bits));
+    }
+
+    /** Rough size of one encoded frame at this bitrate, for sizing buffers. */
+    public int averageFrameBytes() {
+        return Math.max(1, bitrate / 8 / Math.max(1, fps));
+    }
+
+    public Builder buildUpon() {
+        return new Builder()
+                .codec(codec).bitrateMode(bitrateMode).size(width, height).fps(fps).bitrate(bitrate)
+                .iFrameInterval(iFrameIntervalSeconds).operatingRate(operatingRate).priority(priority)
+                .quality(quality);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s %dx%d@%d %s %.1fMbps gop=%.2fs",
+                codec, width, height, fps, bitrateMode, bitrate / 1e6, iFrameIntervalSeconds);
+    }
+
+    public static final class Builder {
+        private Codec codec = Codec.AVC;
+        private BitrateMode bitrateMode = BitrateMode.VBR;
+        private int width = 1920;
+        private int height = 1080;
+        private int fps = 120;
+        private int bitrate;
+        private float iFrameIntervalSeconds = 1f;
+        private int operatingRate = -1;
+        private int priority = 0;
+        private int quality = 80;
+
+        public Builder codec(Codec codec) { this.codec = codec; return this; }
+        public Builder bitrateMode(BitrateMode mode) { this.bitrateMode = mode; return this; }
+        public Builder size(int width, int height) { this.width = width; this.height = height; return this; }
+        public Builder fps(int fps) { this.fps = fps; return this; }
+        /** 0 picks {@link #suggestedBitrate}. */
+        public Builder bitrate(int bitrate) { this.bitrate = bitrate; return this; }
+        public Builder iFrameInterval(float seconds) { this.iFrameIntervalSeconds = seconds; return this; }
+        public Builder operatingRate(int rate) { this.operatingRate = rate; return this; }
+        public Builder priority(int priority) { this.priority = priority; return this; }
+        public Builder quality(int quality) { this.quality = quality; return this; }
+
+        public EncoderConfig build() {
+            if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+                throw new IllegalArgumentException("Bad video size " + width + "x" + height);
+            }
+            if (fps <= 0) throw new IllegalArgumentException("Bad frame rate " + fps);
+            if (bitrate < 0) throw new IllegalArgumentException("Bad bitrate " + bitrate);
+            if (iFrameIntervalSeconds < 0) throw new IllegalArgumentException("Bad I-frame interval " + iFrameIntervalSeconds);
+            if (priority != 0 && priority != 1) throw new IllegalArgumentException("Bad priority " + priority);
+            if (quality < 0 || quality > 100) throw new IllegalArgumentException("Bad quality " + quality);
+            if (operatingRate < 0) operatingRate = fps;
+            return new EncoderConfig(this);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.anshul.a240dc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes to {@code primary} and switches to {@code fallback}, a local file target, the first
+ * time the primary cannot open a segment. The switch is per take: once it happened, later
+ * segments go straight to the fallback, so a failing MediaStore does not cost the writer one
+ * failed call per segment.
+ *
+ * At publish, a segment that went to the fallback is copied into a fresh primary segment and
+ * the local file removed. If the primary still refuses it, the local file is published instead,
+ * so a take is never lost to the switch, and {@link #importStranded} moves it over on a later
+ * start.
+ */
+public class FallbackRecordingTarget implements RecordingTarget {
+
+    /** Opens the primary segment a stranded local file moves into. */
+    public interface Importer {
+        /** {@code info} is what the file parsed as, or null if it did not parse. */
+        Segment open(File local, Mp4Info info) throws IOException;
+    }
+
+    private final RecordingTarget primary;
+    private final RecordingTarget fallback;
+    private volatile boolean switched;
+
+    public FallbackRecordingTarget(RecordingTarget primary, RecordingTarget fallback) {
+        this.primary = primary;
+        this.fallback = fallback;
+    }
+
+    /** True once a segment of this take had to go to the fallback. */
+    public boolean switched() {
+        return switched;
+    }
+
+    @Override
+    public Segment open(int index) throws IOException {
+        if (!switched) {
+            try {
+                return primary.open(index);
+            } catch (IOException e) {
+                switched = true;
+            }
+        }
+        return new Imported(index, fallback.open(index));
+    }
+
+    /**
+     * Moves every {@code .mp4} a refused take left in {@code dir} into the segment
+     * {@code importer} opens for it, publishes it there and deletes the local file. Files the
+     * primary still refuses stay for the next try. Returns where the moved files ended up. Only
+     * call this while nothing is recording into {@code dir}.
+     */
+    public static List<String> importStranded(File dir, Importer importer) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".mp4"));
+        if (files == null || files.length == 0) return Collections.emptyList();
+        Arrays.sort(files);
+        List<String> moved = new ArrayList<>();
+        for (File local : files) {
+            Mp4Info info;
+            try {
+                info = Mp4Parser.parse(local);
+            } catch (IOException e) {
+                info = null; // Still a take; the gallery works out the rest
+            }
+            Segment target;
+            try {
+                target = importer.open(local, info);
+                copy(local, target);
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            try {
+                moved.add(target.publish(info != null ? info.durationMs() : 0));
+            } catch (IOException e) {
+                e.printStackTrace();
+                target.discard();
+                continue;
+            }
+            local.delete();
+        }
+        return moved;
+    }
+
+    // Copies local into target and closes it; on failure discards target
+    private static void copy(File local, Segment target) throws IOException {
+        try (FileChannel in = FileChannel.open(local.toPath(), StandardOpenOption.READ)) {
+            FileChannel out = target.channel();
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+                done += in.transferTo(done, size - done, out);
+            }
+            target.close();
+        } catch (IOException e) {
+            try {
+                target.close();
+            } catch (IOException ignored) {
+            }
+            target.discard();
+            throw e;
+        }
+    }
+
+    private final class Imported implements Segment {
+        private final int index;
+        private final Segment local;
+
+        Imported(int index, Segment local) {
+            this.index = index;
+            this.local = local;
+        }
+
+        @Override
+        public FileChannel channel() {
+            return local.channel();
+        }
+
+        @Override
+        public String location() {
+            return local.location();
+        }
+
+        @Override
+        public void preallocate(long length) throws IOException {
+            local.preallocate(length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            local.close();
+        }
+
+        @Override
+        public String publish(long durationMs) throws IOException {
+            Segment target;
+            try {
+                target = primary.open(index);
+                copy(new File(local.location()), target);
+            } catch (IOException e) {
+                return local.publish(durationMs);
+            }
+            String published = target.publish(durationMs);
+            local.discard();
+            return published;
+        }
+
+        @Override
+        public void discard() {
+            local.discard();
+        }
+    }
+}
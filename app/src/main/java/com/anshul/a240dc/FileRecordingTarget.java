@@ -0,0 +1,82 @@
+package com.anshul.a240dc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a take's segments as plain files next to {@code first}, named by
+ * {@link SegmentedMp4Writer#segmentFile}. Publishing leaves them where they are; anything that
+ * should index them, like the media scanner, is up to the caller. Segments are only
+ * preallocated when a {@link Preallocator} is given.
+ */
+public class FileRecordingTarget implements RecordingTarget {
+
+    private final File first;
+    private final Preallocator preallocator;
+
+    public FileRecordingTarget(File first) {
+        this(first, null);
+    }
+
+    public FileRecordingTarget(File first, Preallocator preallocator) {
+        this.first = first;
+        this.preallocator = preallocator;
+    }
+
+    @Override
+    public Segment open(int index) throws IOException {
+        File file = SegmentedMp4Writer.segmentFile(first, index);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        return new FileSegment(file, raf, preallocator);
+    }
+
+    private static final class FileSegment implements Segment {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final Preallocator preallocator;
+
+        FileSegment(File file, RandomAccessFile raf, Preallocator preallocator) {
+            this.file = file;
+            this.raf = raf;
+            this.preallocator = preallocator;
+        }
+
+        @Override
+        public FileChannel channel() {
+            return raf.getChannel();
+        }
+
+        @Override
+        public String location() {
+            return file.getAbsolutePath();
+        }
+
+        @Override
+        public void preallocate(long length) throws IOException {
+            if (preallocator != null) preallocator.allocate(raf.getFD(), length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+
+        @Override
+        public String publish(long durationMs) {
+            return location();
+        }
+
+        @Override
+        public void discard() {
+            file.delete();
+        }
+    }
+}
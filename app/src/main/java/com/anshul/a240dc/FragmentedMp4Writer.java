@@ -0,0 +1,512 @@
+package com.anshul.a240dc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a fragmented MP4: an init segment ({@code ftyp} + {@code moov} with empty sample
+ * tables and an {@code mvex}), then a {@code moof}/{@code mdat} pair every
+ * {@code fragmentFrames} video frames or {@code fragmentDurationUs}, whichever comes first.
+ *
+ * Everything written so far stays playable if the process dies or the disk fills up: only the
+ * fragment being assembled in memory is lost. Samples are expected in decode order with
+ * increasing timestamps (no B-frames); each sample's duration is the gap to the next one, so
+ * the newest sample of each track is held back until its successor or {@link #close} arrives.
+ *
+ * Per-track sample storage and the per-fragment bookkeeping are reused between fragments. The
+ * storage only grows when a fragment is bigger than any before it; apart from that, writing a
+ * fragment allocates nothing but a few small buffer views.
+ */
+public class FragmentedMp4Writer implements Closeable {
+
+    static final int VIDEO_TIMESCALE = 90_000;
+
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    /** Description of one track, written into the init segment. */
+    public static final class Track {
+        final int handler;
+        final String sampleEntry;
+        final int width;
+        final int height;
+        final int sampleRate;
+        final int channels;
+        final int timescale;
+        /** Body of the avcC/hvcC box, or the AudioSpecificConfig for AAC. */
+        final byte[] codecConfig;
+        /** Samples arrive as Annex-B and need converting to length-prefixed NAL units. */
+        final boolean annexB;
+
+        private Track(int handler, String sampleEntry, int width, int height, int sampleRate, int channels,
+                      int timescale, byte[] codecConfig, boolean annexB) {
+            this.handler = handler;
+            this.sampleEntry = sampleEntry;
+            this.width = width;
+            this.height = height;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.timescale = timescale;
+            this.codecConfig = codecConfig;
+            this.annexB = annexB;
+        }
+
+        boolean isVideo() {
+            return handler == Mp4Box.VIDE;
+        }
+
+        /** H.264 from its SPS and PPS NAL units (without start codes). */
+        public static Track avc(int width, int height, byte[] sps, byte[] pps) {
+            BoxBuilder b = new BoxBuilder(64 + sps.length + pps.length);
+            b.u8(1).u8(sps[1]).u8(sps[2]).u8(sps[3]);
+            b.u8(0xFF);                       // 4-byte NAL lengths
+            b.u8(0xE1).u16(sps.length).bytes(sps);
+            b.u8(1).u16(pps.length).bytes(pps);
+            return new Track(Mp4Box.VIDE, "avc1", width, height, 0, 0, VIDEO_TIMESCALE, b.toByteArray(), true);
+        }
+
+        /**
+         * H.265 from its VPS, SPS and PPS NAL units. The profile, tier and level are copied from
+         * the SPS; chroma format and bit depth are written as 4:2:0 8-bit, which is all the
+         * camera records.
+         */
+        public static Track hevc(int width, int height, byte[] vps, byte[] sps, byte[] pps) {
+            // Skip the 2-byte NAL header; then 1 byte of ids and sub-layer count, 12 bytes of
+            // general profile_tier_level
+            byte[] ptl = AnnexB.unescape(sps, 2, 13);
+            if (ptl.length < 13) throw new IllegalArgumentException("SPS too short");
+            int maxSubLayersMinus1 = (ptl[0] >> 1) & 0x7;
+            int temporalIdNested = ptl[0] & 0x1;
+
+            BoxBuilder b = new BoxBuilder(128 + vps.length + sps.length + pps.length);
+            b.u8(1);
+            for (int i = 1; i <= 12; i++) b.u8(ptl[i]);
+            b.u16(0xF000);                    // min_spatial_segmentation_idc
+            b.u8(0xFC);                       // parallelismType
+            b.u8(0xFC | 1);                   // chroma_format_idc 4:2:0
+            b.u8(0xF8).u8(0xF8);              // 8-bit luma and chroma
+            b.u16(0);                         // avgFrameRate
+            b.u8((maxSubLayersMinus1 + 1) << 3 | temporalIdNested << 2 | 3);
+            b.u8(3);
+            byte[][] arrays = {vps, sps, pps};
+            for (byte[] nal : arrays) {
+                b.u8(0x80 | AnnexB.hevcType(nal)).u16(1).u16(nal.length).bytes(nal);
+            }
+            return new Track(Mp4Box.VIDE, "hvc1", width, height, 0, 0, VIDEO_TIMESCALE, b.toByteArray(), true);
+        }
+
+        /** AAC-LC from its AudioSpecificConfig. */
+        public static Track aac(int sampleRate, int channels, byte[] audioSpecificConfig) {
+            return new Track(Mp4Box.SOUN, "mp4a", 0, 0, sampleRate, channels, sampleRate,
+                    audioSpecificConfig.clone(), false);
+        }
+    }
+
+    /** Samples of one track waiting for the next fragment. */
+    private static final class Pending {
+        ByteBuffer data = ByteBuffer.allocateDirect(256 * 1024);
+        long[] ticks = new long[256];
+        int[] offsets = new int[256];
+        int[] sizes = new int[256];
+        boolean[] sync = new boolean[256];
+        int count;
+        /** Decode time of the first sample of this track, in track ticks. */
+        long originTicks = -1;
+        long durationTicks;
+
+        void ensureSamples(int n) {
+            if (n <= ticks.length) return;
+            int cap = Math.max(n, ticks.length * 2);
+            ticks = Arrays.copyOf(ticks, cap);
+            offsets = Arrays.copyOf(offsets, cap);
+            sizes = Arrays.copyOf(sizes, cap);
+            sync = Arrays.copyOf(sync, cap);
+        }
+
+        void ensureBytes(int n) {
+            if (data.remaining() >= n) return;
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(data.capacity() * 2, data.position() + n));
+            data.flip();
+            bigger.put(data);
+            data = bigger;
+        }
+    }
+
+    private final FileChannel out;
+    private final List<Track> tracks;
+    private final Pending[] pending;
+    private final int videoTrack;
+    private final int fragmentFrames;
+    private final long fragmentDurationUs;
+    private final BoxBuilder moof = new BoxBuilder(16 * 1024);
+    private final ByteBuffer mdatHeader = ByteBuffer.allocate(16);
+    private final ByteBuffer[] gather;
+    private final int[] counts;
+    private final int[] dataOffsetFields;
+    private final long[] mdatSizes;
+
+    private long originUs = -1;
+    private int sequence;
+    private long bytesWritten;
+    private long fragmentStartUs = -1;
+    private int fragmentVideoFrames;
+    private long videoSamplesWritten;
+    private boolean closed;
+
+    /**
+     * Writes the init segment to {@code out} at its current position. Fragments are cut on
+     * whichever of {@code fragmentFrames} (video frames) or {@code fragmentDurationUs} is
+     * reached first; pass 0 to disable either.
+     */
+    public FragmentedMp4Writer(FileChannel out, List<Track> tracks, int fragmentFrames, long fragmentDurationUs)
+            throws IOException {
+        if (tracks.isEmpty()) throw new IllegalArgumentException("No tracks");
+        this.out = out;
+        this.tracks = tracks;
+        this.fragmentFrames = fragmentFrames;
+        this.fragmentDurationUs = fragmentDurationUs;
+        this.pending = new Pending[tracks.size()];
+        int video = -1;
+        for (int i = 0; i < tracks.size(); i++) {
+            pending[i] = new Pending();
+            if (video < 0 && tracks.get(i).isVideo()) video = i;
+        }
+        this.videoTrack = video < 0 ? 0 : video;
+        this.gather = new ByteBuffer[2 + tracks.size()];
+        this.counts = new int[tracks.size()];
+        this.dataOffsetFields = new int[tracks.size()];
+        this.mdatSizes = new long[tracks.size()];
+        writeFully(initSegment());
+    }
+
+    /** Bytes written to the file so far, init segment included. */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Video samples already on disk (not counting ones still held for the next fragment). */
+    public long videoSamplesWritten() {
+        return videoSamplesWritten;
+    }
+
+    /** Span of the video track so far, in microseconds. */
+    public long durationUs() {
+        int t = videoTrack >= 0 ? videoTrack : 0;
+        Pending p = pending[t];
+        if (p.originTicks < 0) return 0;
+        long last = p.count > 0 ? p.ticks[p.count - 1] : p.originTicks + p.durationTicks;
+        return (last - p.originTicks) * 1_000_000L / tracks.get(t).timescale;
+    }
+
+    /**
+     * Adds one encoded sample of track {@code track}; {@code flags} uses
+     * {@link EncodedSampleSink#FLAG_KEY_FRAME}. Leaves {@code data}'s position alone.
+     */
+    public void writeSample(int track, ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        if (closed) throw new IOException("Writer closed");
+        Track t = tracks.get(track);
+        Pending p = pending[track];
+        if (originUs < 0) originUs = presentationTimeUs;
+        boolean key = !t.isVideo() || (flags & EncodedSampleSink.FLAG_KEY_FRAME) != 0;
+
+        long ticks = Math.max(0, presentationTimeUs - originUs) * t.timescale / 1_000_000L;
+        if (p.count > 0 && ticks <= p.ticks[p.count - 1]) {
+            ticks = p.ticks[p.count - 1] + 1; // keep decode times strictly increasing
+        }
+        if (p.originTicks < 0) p.originTicks = ticks;
+
+        p.ensureSamples(p.count + 1);
+        int size;
+        if (t.annexB) {
+            p.ensureBytes(AnnexB.maxLengthPrefixedSize(data.remaining()));
+            int at = p.data.position();
+            size = AnnexB.toLengthPrefixed(data, p.data);
+            p.offsets[p.count] = at;
+        } else {
+            size = data.remaining();
+            p.ensureBytes(size);
+            p.offsets[p.count] = p.data.position();
+            int pos = data.position();
+            p.data.put(data);
+            data.position(pos);
+        }
+        p.ticks[p.count] = ticks;
+        p.sizes[p.count] = size;
+        p.sync[p.count] = key;
+        p.count++;
+
+        if (track == videoTrack) {
+            if (fragmentStartUs < 0) fragmentStartUs = presentationTimeUs;
+            fragmentVideoFrames++;
+            // This sample completes the one before it, so everything older can go out
+            if (shouldCut(presentationTimeUs)) flushFragment();
+        }
+    }
+
+    // Counts frames before the newest one, which always stays behind
+    private boolean shouldCut(long ptsUs) {
+        return (fragmentFrames > 0 && fragmentVideoFrames - 1 >= fragmentFrames)
+                || (fragmentDurationUs > 0 && ptsUs - fragmentStartUs >= fragmentDurationUs);
+    }
+
+    /**
+     * Writes everything but the newest sample of each track as one fragment. The newest samples
+     * stay behind because their durations are not known yet.
+     */
+    public void flushFragment() throws IOException {
+        writeFragment(false);
+    }
+
+    private void writeFragment(boolean includeLast) throws IOException {
+        boolean any = false;
+        for (int i = 0; i < pending.length; i++) {
+            counts[i] = includeLast ? pending[i].count : Math.max(0, pending[i].count - 1);
+            any |= counts[i] > 0;
+        }
+        if (!any) return;
+
+        sequence++;
+        moof.reset();
+        int moofAt = moof.start(Mp4Box.MOOF);
+        int mfhd = moof.startFull(Mp4Box.MFHD, 0, 0);
+        moof.u32(sequence);
+        moof.end(mfhd);
+
+        for (int i = 0; i < pending.length; i++) {
+            dataOffsetFields[i] = -1;
+            mdatSizes[i] = 0;
+            int n = counts[i];
+            if (n == 0) continue;
+            Pending p = pending[i];
+            Track t = tracks.get(i);
+
+            int traf = moof.start(Mp4Box.TRAF);
+            int tfhd = moof.startFull(Mp4Box.TFHD, 0, 0x020000); // default-base-is-moof
+            moof.u32(i + 1);
+            moof.end(tfhd);
+            int tfdt = moof.startFull(Mp4Box.TFDT, 1, 0);
+            // Decode times share one origin across tracks, which keeps audio and video in sync
+            moof.u64(p.ticks[0]);
+            moof.end(tfdt);
+
+            int trun = moof.startFull(Mp4Box.TRUN, 0, 0x000001 | 0x000100 | 0x000200 | 0x000400);
+            moof.u32(n);
+            dataOffsetFields[i] = moof.position();
+            moof.u32(0);
+            long bytes = 0;
+            for (int s = 0; s < n; s++) {
+                long duration = s + 1 < p.count ? p.ticks[s + 1] - p.ticks[s] : lastDuration(p, t);
+                moof.u32(duration);
+                moof.u32(p.sizes[s]);
+                moof.u32(p.sync[s] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+                bytes += p.sizes[s];
+                p.durationTicks += duration;
+            }
+            moof.end(trun);
+            moof.end(traf);
+            mdatSizes[i] = bytes;
+        }
+        moof.end(moofAt);
+
+        // Sample data of each track follows the mdat header in track order
+        long dataStart = moof.position() + 8;
+        for (int i = 0; i < pending.length; i++) {
+            if (dataOffsetFields[i] < 0) continue;
+            moof.setU32(dataOffsetFields[i], dataStart);
+            dataStart += mdatSizes[i];
+        }
+        long mdatSize = dataStart - moof.position();
+        if (mdatSize > 0xFFFFFFFFL) throw new IOException("Fragment too large: " + mdatSize);
+        mdatHeader.clear();
+        mdatHeader.putInt((int) mdatSize).putInt(Mp4Box.MDAT).flip();
+
+        gather[0] = moof.flipped();
+        gather[1] = mdatHeader;
+        int g = 2;
+        for (int i = 0; i < pending.length; i++) {
+            if (counts[i] == 0) continue;
+            Pending p = pending[i];
+            ByteBuffer view = p.data.duplicate();
+            int end = p.offsets[counts[i] - 1] + p.sizes[counts[i] - 1];
+            view.limit(end).position(0);
+            gather[g++] = view;
+        }
+        for (int k = g; k < gather.length; k++) gather[k] = null;
+        writeFully(gather, g);
+
+        for (int i = 0; i < pending.length; i++) {
+            keepRemainder(pending[i], counts[i]);
+            if (i == videoTrack) videoSamplesWritten += counts[i];
+        }
+        fragmentVideoFrames = videoTrack >= 0 ? pending[videoTrack].count : 0;
+        fragmentStartUs = fragmentVideoFrames > 0
+                ? originUs + pending[videoTrack].ticks[0] * 1_000_000L / tracks.get(videoTrack).timescale : -1;
+    }
+
+    // The final sample of a track gets the same duration as the one before it
+    private static long lastDuration(Pending p, Track t) {
+        if (p.count >= 2) return p.ticks[p.count - 1] - p.ticks[p.count - 2];
+        return t.isVideo() ? VIDEO_TIMESCALE / 30 : 1024;
+    }
+
+    // Moves the samples that were held back to the front of the track's storage
+    private static void keepRemainder(Pending p, int written) {
+        int left = p.count - written;
+        if (left == 0) {
+            p.count = 0;
+            p.data.clear();
+            return;
+        }
+        int from = p.offsets[written];
+        int to = p.data.position();
+        ByteBuffer src = p.data.duplicate();
+        src.limit(to).position(from);
+        p.data.clear();
+        p.data.put(src);
+        for (int s = 0; s < left; s++) {
+            p.ticks[s] = p.ticks[written + s];
+            p.offsets[s] = p.offsets[written + s] - from;
+            p.sizes[s] = p.sizes[written + s];
+            p.sync[s] = p.sync[written + s];
+        }
+        p.count = left;
+    }
+
+    /** Writes the remaining samples as a last fragment. Does not close the channel. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        writeFragment(true);
+        closed = true;
+    }
+
+    private ByteBuffer initSegment() {
+        BoxBuilder b = new BoxBuilder(1024);
+        int ftyp = b.start(Mp4Box.FTYP);
+        b.ascii("isom").u32(0x200).ascii("isom").ascii("iso6").ascii("mp41");
+        b.end(ftyp);
+
+        int moov = b.start(Mp4Box.MOOV);
+        int mvhd = b.startFull(Mp4Box.MVHD, 0, 0);
+        b.u32(0).u32(0).u32(1000).u32(0);
+        b.u32(0x00010000).u16(0x0100).zeros(10).matrix().zeros(24);
+        b.u32(tracks.size() + 1);
+        b.end(mvhd);
+
+        for (int i = 0; i < tracks.size(); i++) {
+            writeTrak(b, i + 1, tracks.get(i));
+        }
+
+        int mvex = b.start(Mp4Box.MVEX);
+        for (int i = 0; i < tracks.size(); i++) {
+            int trex = b.startFull(Mp4Box.TREX, 0, 0);
+            b.u32(i + 1).u32(1).u32(0).u32(0).u32(0);
+            b.end(trex);
+        }
+        b.end(mvex);
+        b.end(moov);
+        return b.flipped();
+    }
+
+    private static void writeTrak(BoxBuilder b, int trackId, Track t) {
+        int trak = b.start(Mp4Box.TRAK);
+        int tkhd = b.startFull(Mp4Box.TKHD, 0, 0x3);
+        b.u32(0).u32(0).u32(trackId).u32(0).u32(0);
+        b.zeros(8).u16(0).u16(0).u16(t.isVideo() ? 0 : 0x0100).u16(0);
+        b.matrix();
+        b.u32((long) t.width << 16).u32((long) t.height << 16);
+        b.end(tkhd);
+
+        int mdia = b.start(Mp4Box.MDIA);
+        int mdhd = b.startFull(Mp4Box.MDHD, 0, 0);
+        b.u32(0).u32(0).u32(t.timescale).u32(0).u16(0x55C4).u16(0);
+        b.end(mdhd);
+        int hdlr = b.startFull(Mp4Box.HDLR, 0, 0);
+        b.u32(0).u32(t.handler).zeros(12).ascii(t.isVideo() ? "VideoHandler" : "SoundHandler").u8(0);
+        b.end(hdlr);
+
+        int minf = b.start(Mp4Box.MINF);
+        if (t.isVideo()) {
+            int vmhd = b.startFull(type("vmhd"), 0, 1);
+            b.zeros(8);
+            b.end(vmhd);
+        } else {
+            int smhd = b.startFull(type("smhd"), 0, 0);
+            b.zeros(4);
+            b.end(smhd);
+        }
+        int dinf = b.start(type("dinf"));
+        int dref = b.startFull(type("dref"), 0, 0);
+        b.u32(1);
+        int url = b.startFull(type("url "), 0, 1);
+        b.end(url);
+        b.end(dref);
+        b.end(dinf);
+
+        int stbl = b.start(Mp4Box.STBL);
+        int stsd = b.startFull(Mp4Box.STSD, 0, 0);
+        b.u32(1);
+        writeSampleEntry(b, trackId, t);
+        b.end(stsd);
+        for (String empty : new String[]{"stts", "stsc", "stco"}) {
+            int box = b.startFull(type(empty), 0, 0);
+            b.u32(0);
+            b.end(box);
+        }
+        int stsz = b.startFull(Mp4Box.STSZ, 0, 0);
+        b.u32(0).u32(0);
+        b.end(stsz);
+        b.end(stbl);
+        b.end(minf);
+        b.end(mdia);
+        b.end(trak);
+    }
+
+    private static void writeSampleEntry(BoxBuilder b, int trackId, Track t) {
+        int entry = b.start(type(t.sampleEntry));
+        b.zeros(6).u16(1);
+        if (t.isVideo()) {
+            b.u16(0).u16(0).zeros(12);
+            b.u16(t.width).u16(t.height);
+            b.u32(0x00480000).u32(0x00480000).u32(0).u16(1);
+            b.zeros(32).u16(0x0018).u16(0xFFFF);
+            int config = b.start(type(t.sampleEntry.equals("hvc1") ? "hvcC" : "avcC"));
+            b.bytes(t.codecConfig);
+            b.end(config);
+        } else {
+            b.zeros(8).u16(t.channels).u16(16).u16(0).u16(0).u32((long) t.sampleRate << 16);
+            int esds = b.startFull(type("esds"), 0, 0);
+            byte[] asc = t.codecConfig;
+            b.u8(0x03).u8(3 + 15 + 2 + asc.length + 3).u16(trackId).u8(0);
+            b.u8(0x04).u8(13 + 2 + asc.length).u8(0x40).u8(0x15).u24(0).u32(0).u32(0);
+            b.u8(0x05).u8(asc.length).bytes(asc);
+            b.u8(0x06).u8(1).u8(0x02);
+            b.end(esds);
+        }
+        b.end(entry);
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            bytesWritten += out.write(buf);
+        }
+    }
+
+    private void writeFully(ByteBuffer[] bufs, int count) throws IOException {
+        long total = 0;
+        for (int i = 0; i < count; i++) total += bufs[i].remaining();
+        long done = 0;
+        while (done < total) {
+            done += out.write(bufs, 0, count);
+        }
+        bytesWritten += total;
+    }
+
+    private static int type(String fourcc) {
+        return Mp4Box.type(fourcc);
+    }
+}
@@ -0,0 +1,214 @@
+package com.anshul.a240dc;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Decides which decoded frames of a clip the scrubbing viewer keeps and what it decodes next.
+ *
+ * Frames are numbered in presentation order and decode in units, one per GOP shard of
+ * {@link GopSharder}: stepping back into the previous GOP means decoding all of it. The cache
+ * holds as many frames as fit the byte budget, in a window around the playhead that reaches
+ * three times further in the direction of the last move than behind it. {@link #nextUnit}
+ * picks the unit of the nearest missing frame, looking ahead first, and {@link #admit} makes
+ * room by evicting the frame furthest outside the window, or the one furthest behind.
+ *
+ * Moving the playhead and admitting a frame only touch the window bounds and a bit set, so
+ * stepping onto a cached frame costs the same however large the cache is. Not thread-safe.
+ */
+final class FrameCachePolicy {
+
+    private final int[] unitOf;
+    private final int[] unitFirst;
+    private final int[] unitLast;
+    private final int frames;
+    private final int capacity;
+    private final BitSet cached;
+    private int count;
+
+    private int playhead;
+    private int direction = 1;
+    private int windowStart;
+    private int windowEnd;
+
+    // A unit that decoded without adding anything is not retried until the playhead moves
+    private int decoding = -1;
+    private boolean admittedWhileDecoding;
+    private boolean movedWhileDecoding;
+    private int stalled = -1;
+
+    /** {@code unitOf[f]} is the unit that decodes frame {@code f}; see {@link #unitsOf}. */
+    FrameCachePolicy(int[] unitOf, long budgetBytes, long frameBytes) {
+        if (frameBytes <= 0) throw new IllegalArgumentException("Bad frame size " + frameBytes);
+        this.unitOf = unitOf;
+        this.frames = unitOf.length;
+        this.capacity = (int) Math.max(1, Math.min(frames, budgetBytes / frameBytes));
+        this.cached = new BitSet(frames);
+        int units = 0;
+        for (int u : unitOf) units = Math.max(units, u + 1);
+        unitFirst = new int[units];
+        unitLast = new int[units];
+        Arrays.fill(unitFirst, Integer.MAX_VALUE);
+        Arrays.fill(unitLast, -1);
+        for (int f = 0; f < frames; f++) {
+            unitFirst[unitOf[f]] = Math.min(unitFirst[unitOf[f]], f);
+            unitLast[unitOf[f]] = f;
+        }
+        updateWindow();
+    }
+
+    /** Unit of every frame for units decoding the shards of a whole clip. */
+    static int[] unitsOf(List<GopSharder.Shard> shards) {
+        int[] unitOf = new int[GopSharder.frameCount(shards)];
+        for (GopSharder.Shard s : shards) {
+            for (int number : s.frameNumbers) unitOf[number] = s.index;
+        }
+        return unitOf;
+    }
+
+    int frames() {
+        return frames;
+    }
+
+    /** Frames that fit the budget. */
+    int capacity() {
+        return capacity;
+    }
+
+    int playhead() {
+        return playhead;
+    }
+
+    /** 1 after moving forward (and at the start), -1 after moving back. */
+    int direction() {
+        return direction;
+    }
+
+    int windowStart() {
+        return windowStart;
+    }
+
+    /** Exclusive. */
+    int windowEnd() {
+        return windowEnd;
+    }
+
+    int cachedCount() {
+        return count;
+    }
+
+    int unitOf(int frame) {
+        return unitOf[frame];
+    }
+
+    /** Moves the playhead, clamped to the clip; a move to the same frame keeps the direction. */
+    void moveTo(int frame) {
+        frame = Math.max(0, Math.min(frames - 1, frame));
+        if (frame == playhead) return;
+        direction = frame > playhead ? 1 : -1;
+        playhead = frame;
+        updateWindow();
+        movedWhileDecoding = true;
+        stalled = -1;
+    }
+
+    boolean inWindow(int frame) {
+        return frame >= windowStart && frame < windowEnd;
+    }
+
+    boolean isCached(int frame) {
+        return cached.get(frame);
+    }
+
+    /** Whether any frame of {@code unit} is in the window, so decoding it is still worthwhile. */
+    boolean isUseful(int unit) {
+        return unitFirst[unit] < windowEnd && unitLast[unit] >= windowStart;
+    }
+
+    /** Whether a frame that was just decoded is worth keeping. */
+    boolean wants(int frame) {
+        return inWindow(frame) && !cached.get(frame);
+    }
+
+    /**
+     * Records {@code frame} as cached. Returns the frame to drop to stay within the budget, or
+     * -1 if there was room; the returned frame is no longer counted as cached.
+     */
+    int admit(int frame) {
+        if (cached.get(frame)) return -1;
+        cached.set(frame);
+        count++;
+        admittedWhileDecoding = true;
+        if (count <= capacity) return -1;
+        int victim = victim();
+        cached.clear(victim);
+        count--;
+        return victim;
+    }
+
+    /** Forgets a cached frame, for example one whose memory was taken back. */
+    void remove(int frame) {
+        if (!cached.get(frame)) return;
+        cached.clear(frame);
+        count--;
+    }
+
+    /**
+     * The unit to decode next: the one holding the missing window frame nearest the playhead,
+     * ahead of it before behind it. Returns -1 when the window is complete.
+     */
+    int nextUnit() {
+        for (int f = playhead; f >= windowStart && f < windowEnd; f += direction) {
+            if (!cached.get(f) && unitOf[f] != stalled) return unitOf[f];
+        }
+        for (int f = playhead - direction; f >= windowStart && f < windowEnd; f -= direction) {
+            if (!cached.get(f) && unitOf[f] != stalled) return unitOf[f];
+        }
+        return -1;
+    }
+
+    void decodeStarted(int unit) {
+        decoding = unit;
+        admittedWhileDecoding = false;
+        movedWhileDecoding = false;
+    }
+
+    /** Ends a decode; a unit that yielded nothing for an unchanged window is not picked again. */
+    void decodeFinished(int unit) {
+        if (unit == decoding && !admittedWhileDecoding && !movedWhileDecoding) stalled = unit;
+        decoding = -1;
+    }
+
+    // Furthest outside the window, or else furthest behind the playhead; never the playhead
+    private int victim() {
+        int low = cached.nextSetBit(0);
+        int high = cached.previousSetBit(frames - 1);
+        int outsideLow = windowStart - low;
+        int outsideHigh = high - (windowEnd - 1);
+        if (outsideLow > 0 || outsideHigh > 0) {
+            if (outsideLow == outsideHigh) return direction > 0 ? low : high;
+            return outsideLow > outsideHigh ? low : high;
+        }
+        if (direction > 0) return low != playhead ? low : high;
+        return high != playhead ? high : low;
+    }
+
+    private void updateWindow() {
+        int ahead = capacity * 3 / 4;
+        int behind = capacity - 1 - ahead;
+        int start = direction > 0 ? playhead - behind : playhead - ahead;
+        int end = start + capacity;
+        // Against either end of the clip the window keeps its size
+        if (start < 0) {
+            end -= start;
+            start = 0;
+        }
+        if (end > frames) {
+            start = Math.max(0, start - (end - frames));
+            end = frames;
+        }
+        windowStart = start;
+        windowEnd = end;
+    }
+}
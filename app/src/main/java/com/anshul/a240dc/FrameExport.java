@@ -0,0 +1,228 @@
+package com.anshul.a240dc;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Exports the frames of a clip, or of a range of it, as numbered PNG or JPEG files or as one
+ * contact sheet. The range is split into GOP shards by {@link GopSharder}; each shard gets its
+ * own {@link ShardDecoder}, and {@link FrameExtractor} runs the decoders and the image writers
+ * side by side.
+ */
+final class FrameExport {
+
+    enum Kind { PNG, JPEG, CONTACT_SHEET }
+
+    static final int SHEET_COLUMNS = 6;
+    static final int SHEET_FRAMES = 36;
+    private static final int SHEET_CELL_WIDTH = 320;
+    private static final int JPEG_QUALITY = 92;
+    private static final int MIN_FRAMES_PER_SHARD = 8;
+
+    private FrameExport() {}
+
+    /**
+     * Where an export of {@code source} goes: a folder such as {@code clip_frames_0_1500} next
+     * to it for image sequences, or {@code clip_sheet_0_1500.jpg} (milliseconds).
+     */
+    static File targetFor(File source, Kind kind, long startUs, long endUs) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        String range = String.format(Locale.US, "%d_%d", startUs / 1000, endUs / 1000);
+        return new File(source.getParentFile(), kind == Kind.CONTACT_SHEET
+                ? base + "_sheet_" + range + ".jpg" : base + "_frames_" + range);
+    }
+
+    /**
+     * Writes the frames shown in {@code [startUs, endUs)} of {@code source} into {@code target};
+     * {@code endUs <= 0} means to the end. Returns the files written. {@code progress} may be
+     * null and is called from the writer threads.
+     */
+    static List<File> export(File source, File target, Kind kind, long startUs, long endUs,
+                             FrameExtractor.Progress progress) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(source, "r")) {
+            FileChannel channel = raf.getChannel();
+            SampleTable video = null;
+            for (SampleTable t : SampleTable.read(channel, Mp4Parser.mapMoov(channel))) {
+                if (t.isVideo() && t.size() > 0) {
+                    video = t;
+                    break;
+                }
+            }
+            if (video == null) throw new IOException("No video samples");
+
+            boolean sheet = kind == Kind.CONTACT_SHEET;
+            List<GopSharder.Shard> shards = GopSharder.shard(video, startUs, endUs, sheet ? SHEET_FRAMES : 0,
+                    MIN_FRAMES_PER_SHARD);
+            int frames = GopSharder.frameCount(shards);
+            if (frames == 0) throw new IOException("No frames in that range");
+
+            MediaFormat format = ShardDecoder.videoFormat(source);
+            int width = format.getInteger(MediaFormat.KEY_WIDTH);
+            // Sheet cells only need a thumbnail, so those frames are scaled down while converting
+            int step = sheet ? Math.max(1, (width + SHEET_CELL_WIDTH - 1) / SHEET_CELL_WIDTH) : 1;
+            FrameExtractor.Decoder<Bitmap> decoder = bitmaps(channel, video, format, step);
+
+            int[] threads = FrameExtractor.threadsFor(Runtime.getRuntime().availableProcessors());
+            FrameExtractor<Bitmap> extractor = new FrameExtractor<>(threads[0], threads[1], threads[1] * 2);
+            if (sheet) {
+                ContactSheet writer = new ContactSheet(frames);
+                try {
+                    extractor.run(shards, decoder, writer, progress);
+                    writer.write(target);
+                } finally {
+                    writer.recycle();
+                }
+                List<File> written = new ArrayList<>();
+                written.add(target);
+                return written;
+            }
+
+            if (!target.isDirectory() && !target.mkdirs()) throw new IOException("Cannot create " + target);
+            ImageSequence writer = new ImageSequence(target, kind == Kind.PNG, frames);
+            try {
+                extractor.run(shards, decoder, writer, progress);
+            } catch (IOException | RuntimeException e) {
+                writer.deleteAll();
+                throw e;
+            }
+            return writer.files();
+        }
+    }
+
+    /** Converts the shard decoder's images to bitmaps, scaled down by {@code step}. */
+    private static FrameExtractor.Decoder<Bitmap> bitmaps(FileChannel channel, SampleTable video, MediaFormat format,
+                                                          int step) {
+        return (shard, out) -> {
+            int[][] argb = new int[1][];
+            try (ShardDecoder decoder = new ShardDecoder(channel, video, format)) {
+                decoder.decode(shard, (number, image) -> {
+                    int w = image.getCropRect().width() / step;
+                    int h = image.getCropRect().height() / step;
+                    if (argb[0] == null || argb[0].length < w * h) argb[0] = new int[w * h];
+                    ShardDecoder.toArgb(image, step, argb[0]);
+                    out.frame(number, Bitmap.createBitmap(argb[0], w, h, Bitmap.Config.ARGB_8888));
+                    return true;
+                });
+            }
+            // Frames the codec skipped are reported as missing by the extractor
+        };
+    }
+
+    /** One numbered image file per frame. */
+    private static final class ImageSequence implements FrameExtractor.Encoder<Bitmap> {
+        private final File dir;
+        private final boolean png;
+        private final String pattern;
+        private final int frames;
+
+        ImageSequence(File dir, boolean png, int frames) {
+            this.dir = dir;
+            this.png = png;
+            this.frames = frames;
+            // Wide enough that the names sort in frame order
+            int digits = Math.max(4, String.valueOf(frames).length());
+            this.pattern = "frame_%0" + digits + "d" + (png ? ".png" : ".jpg");
+        }
+
+        @Override
+        public void encode(int frameNumber, Bitmap frame) throws IOException {
+            File file = file(frameNumber);
+            try (OutputStream out = new FileOutputStream(file)) {
+                if (!frame.compress(png ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                    throw new IOException("Could not encode " + file.getName());
+                }
+            } finally {
+                frame.recycle();
+            }
+        }
+
+        @Override
+        public void discard(Bitmap frame) {
+            frame.recycle();
+        }
+
+        List<File> files() {
+            List<File> files = new ArrayList<>(frames);
+            for (int i = 0; i < frames; i++) files.add(file(i));
+            return files;
+        }
+
+        void deleteAll() {
+            for (File f : files()) f.delete();
+            dir.delete();
+        }
+
+        private File file(int frameNumber) {
+            return new File(dir, String.format(Locale.US, pattern, frameNumber + 1));
+        }
+    }
+
+    /** Frames scaled into a grid on one bitmap, written as a JPEG at the end. */
+    private static final class ContactSheet implements FrameExtractor.Encoder<Bitmap> {
+        private final int rows;
+        private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private Bitmap sheet;
+        private Canvas canvas;
+        private int cellHeight;
+
+        ContactSheet(int frames) {
+            this.rows = (frames + SHEET_COLUMNS - 1) / SHEET_COLUMNS;
+        }
+
+        @Override
+        public synchronized void encode(int frameNumber, Bitmap frame) {
+            try {
+                if (sheet == null) {
+                    // Cells take the frames' aspect ratio
+                    cellHeight = Math.max(1, SHEET_CELL_WIDTH * frame.getHeight() / frame.getWidth());
+                    sheet = Bitmap.createBitmap(SHEET_COLUMNS * SHEET_CELL_WIDTH, rows * cellHeight, Bitmap.Config.ARGB_8888);
+                    sheet.eraseColor(Color.BLACK);
+                    canvas = new Canvas(sheet);
+                }
+                int left = (frameNumber % SHEET_COLUMNS) * SHEET_CELL_WIDTH;
+                int top = (frameNumber / SHEET_COLUMNS) * cellHeight;
+                canvas.drawBitmap(frame, null, new Rect(left, top, left + SHEET_CELL_WIDTH, top + cellHeight), paint);
+            } finally {
+                frame.recycle();
+            }
+        }
+
+        @Override
+        public void discard(Bitmap frame) {
+            frame.recycle();
+        }
+
+        synchronized void write(File target) throws IOException {
+            if (sheet == null) throw new IOException("No frames decoded");
+            try (OutputStream out = new FileOutputStream(target)) {
+                if (!sheet.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                    throw new IOException("Could not encode " + target.getName());
+                }
+            } catch (IOException e) {
+                target.delete();
+                throw e;
+            }
+        }
+
+        synchronized void recycle() {
+            if (sheet != null) sheet.recycle();
+            sheet = null;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.anshul.a240dc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs an export as two pipelined stages: shards from {@link GopSharder} are decoded in
+ * parallel on a bounded pool, and the decoded frames are written by encoder threads that take
+ * them from a bounded queue. A decoder that gets ahead of the encoders blocks in
+ * {@link Output#frame}, so no more than {@code queueCapacity} decoded frames are ever waiting.
+ *
+ * Decoding and writing are plugged in through {@link Decoder} and {@link Encoder}; this class
+ * knows nothing about codecs or image formats. The first failure of either stage stops both
+ * and is rethrown from {@link #run}, as is a shard that did not deliver all of its frames.
+ *
+ * @param <F> a decoded frame
+ */
+final class FrameExtractor<F> {
+
+    /** Decodes one shard, handing over its frames through {@code out}. */
+    interface Decoder<F> {
+        void decode(GopSharder.Shard shard, Output<F> out) throws IOException, InterruptedException;
+    }
+
+    /** Where a decoder puts its frames. */
+    interface Output<F> {
+        /** Queues a frame for the encoders; blocks while they are behind. */
+        void frame(int frameNumber, F frame) throws InterruptedException;
+    }
+
+    /** Writes frames; called from several threads at once when there are several encoders. */
+    interface Encoder<F> {
+        void encode(int frameNumber, F frame) throws IOException;
+
+        /** A frame that will not be encoded because the export failed, so it can be freed. */
+        default void discard(F frame) {}
+    }
+
+    interface Progress {
+        void onProgress(int framesDone, int framesTotal);
+    }
+
+    // A queued frame; number -1 tells an encoder thread to stop
+    private static final class Item<F> {
+        final int number;
+        final F frame;
+
+        Item(int number, F frame) {
+            this.number = number;
+            this.frame = frame;
+        }
+    }
+
+    private final int decodeThreads;
+    private final int encodeThreads;
+    private final int queueCapacity;
+
+    FrameExtractor(int decodeThreads, int encodeThreads, int queueCapacity) {
+        if (decodeThreads < 1 || encodeThreads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Need at least one thread of each and a queue");
+        }
+        this.decodeThreads = decodeThreads;
+        this.encodeThreads = encodeThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /** Decoder and encoder threads for a device with {@code cores} cores. */
+    static int[] threadsFor(int cores) {
+        // Decoding runs mostly in the hardware codec, so half the cores keep it busy
+        int decode = Math.max(1, Math.min(4, cores / 2));
+        int encode = Math.max(1, Math.min(4, cores - decode));
+        return new int[]{decode, encode};
+    }
+
+    /**
+     * Decodes and encodes every frame of {@code shards}; returns the number of frames written.
+     * {@code progress} may be null.
+     */
+    int run(List<GopSharder.Shard> shards, Decoder<F> decoder, Encoder<F> encoder, Progress progress)
+            throws IOException {
+        int total = GopSharder.frameCount(shards);
+        BlockingQueue<Item<F>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger done = new AtomicInteger();
+        BitSet delivered = new BitSet(total);
+
+        List<Thread> encoders = new ArrayList<>();
+        for (int i = 0; i < encodeThreads; i++) {
+            Thread t = new Thread(() -> encodeLoop(queue, encoder, failure, done, total, progress), "frame-encoder-" + i);
+            encoders.add(t);
+            t.start();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(decodeThreads, Math.max(1, shards.size())), r -> {
+            Thread t = new Thread(r, "frame-decoder");
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (GopSharder.Shard shard : shards) {
+            futures.add(pool.submit(() -> {
+                if (failure.get() != null) return null;
+                Output<F> out = (number, frame) -> {
+                    if (failure.get() != null) {
+                        encoder.discard(frame);
+                        throw new InterruptedException("Export failed");
+                    }
+                    synchronized (delivered) {
+                        delivered.set(number);
+                    }
+                    queue.put(new Item<>(number, frame));
+                };
+                decoder.decode(shard, out);
+                checkDelivered(shard, delivered);
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        try {
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    fail(failure, e.getCause(), futures, encoders, queue, encoder);
+                } catch (CancellationException e) {
+                    // Cancelled by the failure already recorded
+                }
+            }
+            if (failure.get() != null) {
+                // An encoder failed; the others are still discarding
+                fail(failure, failure.get(), futures, encoders, queue, encoder);
+            } else {
+                for (int i = 0; i < encodeThreads; i++) queue.put(new Item<>(-1, null));
+            }
+            for (Thread t : encoders) t.join();
+        } catch (InterruptedException e) {
+            fail(failure, e, futures, encoders, queue, encoder);
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            if (error instanceof IOException) throw (IOException) error;
+            if (error instanceof InterruptedException) throw new InterruptedIOException("Export interrupted");
+            if (error instanceof RuntimeException) throw (RuntimeException) error;
+            throw new IOException(error);
+        }
+        return done.get();
+    }
+
+    private void encodeLoop(BlockingQueue<Item<F>> queue, Encoder<F> encoder, AtomicReference<Throwable> failure,
+                            AtomicInteger done, int total, Progress progress) {
+        try {
+            while (true) {
+                Item<F> item = queue.take();
+                if (item.number < 0) return;
+                if (failure.get() != null) {
+                    encoder.discard(item.frame);
+                    continue;
+                }
+                try {
+                    encoder.encode(item.number, item.frame);
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    continue;
+                }
+                int n = done.incrementAndGet();
+                if (progress != null) progress.onProgress(n, total);
+            }
+        } catch (InterruptedException e) {
+            // Stopped by fail()
+        }
+    }
+
+    // A decoder that skips output would leave gaps in the numbering
+    private static void checkDelivered(GopSharder.Shard shard, BitSet delivered) throws IOException {
+        synchronized (delivered) {
+            for (int number : shard.frameNumbers) {
+                if (!delivered.get(number)) throw new IOException(shard + " did not deliver frame " + number);
+            }
+        }
+    }
+
+    // Keeps the first error, stops both stages and frees what was still queued
+    private static <F> void fail(AtomicReference<Throwable> failure, Throwable error, List<Future<?>> decodes,
+                                 List<Thread> encoders, BlockingQueue<Item<F>> queue, Encoder<F> encoder) {
+        failure.compareAndSet(null, error);
+        for (Future<?> f : decodes) f.cancel(true);
+        for (Thread t : encoders) t.interrupt();
+        Item<F> item;
+        while ((item = queue.poll()) != null) {
+            if (item.frame != null) encoder.discard(item.frame);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.anshul.a240dc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Per-frame capture statistics for one take: effective frame rate, frames the sensor never
+ * delivered, and how far inter-frame intervals stray from the nominal rate.
+ *
+ * {@link #onFrame} is called once per sensor timestamp on the capture thread and never
+ * allocates: timestamps go into a preallocated ring and interval deviations into a fixed
+ * histogram, so whole-take percentiles survive even after the ring has wrapped.
+ * {@link #liveFps} may be read from any thread.
+ *
+ * {@link #write} stores the summary plus the timestamps still in the ring as a small binary
+ * sidecar next to the app's private data, keyed by clip name.
+ */
+public final class FrameTelemetry {
+
+    static final int MAGIC = 0x4654454C; // "FTEL"
+    static final int VERSION = 1;
+    static final int DEFAULT_CAPACITY = 1 << 16; // about 4.5 minutes at 240 fps
+
+    // Deviation histogram: 10 µs buckets, the last one collects everything from 20 ms up
+    static final long BUCKET_NS = 10_000;
+    static final int BUCKETS = 2000;
+
+    // An interval this many times the nominal one means at least one frame went missing
+    private static final double DROP_FACTOR = 1.5;
+    private static final long LIVE_WINDOW_NS = 1_000_000_000L;
+
+    private final int nominalFps;
+    private final long nominalIntervalNs;
+    private final long[] ring;
+    private final int[] deviations = new int[BUCKETS];
+    private final int liveEvery;
+
+    private long frames;
+    private long dropped;
+    private long intervals;
+    private long firstNs;
+    private long lastNs;
+    private long maxIntervalNs;
+    private volatile float liveFps;
+
+    public FrameTelemetry(int nominalFps, int capacity) {
+        if (nominalFps <= 0 || capacity < 2) throw new IllegalArgumentException("fps " + nominalFps + ", capacity " + capacity);
+        this.nominalFps = nominalFps;
+        this.nominalIntervalNs = 1_000_000_000L / nominalFps;
+        this.ring = new long[capacity];
+        // Refresh the live rate about four times a second
+        this.liveEvery = Math.max(1, nominalFps / 4);
+    }
+
+    public void reset() {
+        frames = 0;
+        dropped = 0;
+        intervals = 0;
+        firstNs = 0;
+        lastNs = 0;
+        maxIntervalNs = 0;
+        liveFps = 0;
+        Arrays.fill(deviations, 0);
+    }
+
+    /** Records one frame by its sensor timestamp; repeated or out-of-order timestamps are ignored. */
+    public void onFrame(long timestampNs) {
+        if (frames > 0) {
+            long interval = timestampNs - lastNs;
+            if (interval <= 0) return;
+            if (interval > maxIntervalNs) maxIntervalNs = interval;
+            if (interval > nominalIntervalNs * DROP_FACTOR) {
+                // A gap of n intervals stands for n - 1 frames that never arrived
+                dropped += Math.max(1, (interval + nominalIntervalNs / 2) / nominalIntervalNs - 1);
+            } else {
+                long bucket = Math.abs(interval - nominalIntervalNs) / BUCKET_NS;
+                deviations[(int) Math.min(BUCKETS - 1, bucket)]++;
+                intervals++;
+            }
+        } else {
+            firstNs = timestampNs;
+        }
+        ring[(int) (frames % ring.length)] = timestampNs;
+        lastNs = timestampNs;
+        frames++;
+        if (frames % liveEvery == 0) liveFps = windowFps();
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    /** Frame rate over roughly the last second, or 0 before there is enough to measure. */
+    public float liveFps() {
+        return liveFps;
+    }
+
+    public Stats stats() {
+        return new Stats(nominalFps, frames, dropped, frames > 1 ? lastNs - firstNs : 0,
+                deviation(50), deviation(95), deviation(99), maxIntervalNs);
+    }
+
+    // Walks back from the newest timestamp while it stays inside the live window
+    private float windowFps() {
+        long stored = Math.min(frames, ring.length);
+        int n = 1;
+        long oldest = lastNs;
+        while (n < stored) {
+            long t = ring[(int) ((frames - 1 - n) % ring.length)];
+            if (lastNs - t > LIVE_WINDOW_NS) break;
+            oldest = t;
+            n++;
+        }
+        return n < 2 ? 0 : (float) ((n - 1) * 1e9 / (lastNs - oldest));
+    }
+
+    /** Lower edge of the bucket holding the p-th percentile deviation, in nanoseconds. */
+    private long deviation(double p) {
+        if (intervals == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * intervals));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += deviations[i];
+            if (seen >= rank) return i * BUCKET_NS;
+        }
+        return (BUCKETS - 1) * BUCKET_NS;
+    }
+
+    /** Where the sidecar for {@code clipName} lives under the app's files directory. */
+    public static File sidecarFor(File filesDir, String clipName) {
+        return new File(new File(filesDir, "telemetry"), clipName + ".ftel");
+    }
+
+    public void write(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        Stats s = stats();
+        int stored = (int) Math.min(frames, ring.length);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(s.nominalFps);
+            out.writeLong(s.frames);
+            out.writeLong(s.dropped);
+            out.writeLong(s.durationNs);
+            out.writeLong(s.jitterP50Ns);
+            out.writeLong(s.jitterP95Ns);
+            out.writeLong(s.jitterP99Ns);
+            out.writeLong(s.maxIntervalNs);
+            // The newest frames, oldest first: one absolute timestamp, then int deltas
+            out.writeInt(stored);
+            long previous = 0;
+            for (long i = frames - stored; i < frames; i++) {
+                long t = ring[(int) (i % ring.length)];
+                if (i == frames - stored) out.writeLong(t);
+                else out.writeInt((int) Math.min(Integer.MAX_VALUE, t - previous));
+                previous = t;
+            }
+        }
+    }
+
+    /** Reads just the summary of a sidecar. */
+    public static Stats read(File file) throws IOException {
+        try (DataInputStream in = open(file)) {
+            return readStats(in);
+        }
+    }
+
+    /** Reads the sensor timestamps a sidecar kept, oldest first. */
+    static long[] readTimestamps(File file) throws IOException {
+        try (DataInputStream in = open(file)) {
+            readStats(in);
+            int stored = in.readInt();
+            long[] timestamps = new long[stored];
+            for (int i = 0; i < stored; i++) {
+                timestamps[i] = i == 0 ? in.readLong() : timestamps[i - 1] + in.readInt();
+            }
+            return timestamps;
+        }
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            in.close();
+            throw new IOException("Not a telemetry sidecar: " + file);
+        }
+        return in;
+    }
+
+    private static Stats readStats(DataInputStream in) throws IOException {
+        return new Stats(in.readInt(), in.readLong(), in.readLong(), in.readLong(),
+                in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    public static final class Stats {
+        public final int nominalFps;
+        public final long frames;
+        public final long dropped;
+        public final long durationNs; // First to last sensor timestamp
+        public final long jitterP50Ns;
+        public final long jitterP95Ns;
+        public final long jitterP99Ns;
+        public final long maxIntervalNs;
+
+        Stats(int nominalFps, long frames, long dropped, long durationNs,
+              long jitterP50Ns, long jitterP95Ns, long jitterP99Ns, long maxIntervalNs) {
+            this.nominalFps = nominalFps;
+            this.frames = frames;
+            this.dropped = dropped;
+            this.durationNs = durationNs;
+            this.jitterP50Ns = jitterP50Ns;
+            this.jitterP95Ns = jitterP95Ns;
+            this.jitterP99Ns = jitterP99Ns;
+            this.maxIntervalNs = maxIntervalNs;
+        }
+
+        /** Frames actually delivered per second of sensor time, or 0 for fewer than two frames. */
+        public double effectiveFps() {
+            return durationNs <= 0 ? 0 : (frames - 1) * 1e9 / durationNs;
+        }
+
+        public int roundedFps() {
+            return (int) Math.round(effectiveFps());
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d frames, %.2f fps of %d, %d dropped, jitter p50=%.2fms p95=%.2fms p99=%.2fms max gap=%.2fms",
+                    frames, effectiveFps(), nominalFps, dropped, jitterP50Ns / 1e6, jitterP95Ns / 1e6,
+                    jitterP99Ns / 1e6, maxIntervalNs / 1e6);
+        }
+    }
+}
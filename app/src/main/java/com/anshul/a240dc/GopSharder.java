@@ -0,0 +1,178 @@
+package com.anshul.a240dc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the frames of a video range into shards that decode independently of each other.
+ *
+ * Every shard starts on a sync sample, so a decoder can start on it cold. Shards cover
+ * disjoint decode-order runs of samples, and each frame to export belongs to exactly one shard:
+ * the one holding its sample. Frames are numbered by presentation order across the whole range.
+ * Short GOPs are merged until a shard has at least {@code minFramesPerShard} frames, so an
+ * all-intra clip does not pay a decoder start-up for every frame.
+ *
+ * With open GOPs, B-frames decoded after a sync sample but shown before it reference the GOP
+ * before. Shards are never cut in front of such a sync sample, and a shard that starts with
+ * one of those frames starts decoding at the previous sync sample.
+ */
+final class GopSharder {
+
+    /** A decode-order sample run starting on a sync sample, and the frames it yields. */
+    static final class Shard {
+        final int index;
+        /** Sync sample the decoder starts at. */
+        final int firstSample;
+        /** Decode stops before this sample; everything after the last frame is left out. */
+        final int endSample;
+        /** Samples to export, in presentation order. */
+        final int[] samples;
+        /** Number of each of those frames within the export. */
+        final int[] frameNumbers;
+
+        Shard(int index, int firstSample, int endSample, int[] samples, int[] frameNumbers) {
+            this.index = index;
+            this.firstSample = firstSample;
+            this.endSample = endSample;
+            this.samples = samples;
+            this.frameNumbers = frameNumbers;
+        }
+
+        int frames() {
+            return samples.length;
+        }
+
+        /** Samples fed to the decoder, including the ones only decoded as references. */
+        int decodeLength() {
+            return endSample - firstSample;
+        }
+
+        @Override
+        public String toString() {
+            return "shard " + index + " [" + firstSample + ", " + endSample + ") " + samples.length + " frames";
+        }
+    }
+
+    private GopSharder() {}
+
+    /**
+     * Shards for the frames shown in {@code [startUs, endUs)}, measured from the clip's first
+     * frame; {@code endUs <= 0} means to the end. At most {@code maxFrames} frames are picked,
+     * evenly spread over the range, when that is positive. Samples before the first sync sample
+     * cannot be decoded and are left out.
+     */
+    static List<Shard> shard(SampleTable video, long startUs, long endUs, int maxFrames, int minFramesPerShard) {
+        List<Shard> shards = new ArrayList<>();
+        int n = video.size();
+        int firstSync = 0;
+        while (firstSync < n && !video.isSync(firstSync)) firstSync++;
+        if (firstSync == n) return shards;
+
+        long origin = video.firstPresentationTime();
+        long startPts = origin + toTicks(startUs, video.timescale);
+        long endPts = endUs <= 0 ? Long.MAX_VALUE : origin + toTicks(endUs, video.timescale);
+
+        // The frame on screen at the start belongs to the range even if it began earlier
+        int shownAtStart = video.sampleAtPresentation(startPts);
+        if (shownAtStart >= 0 && video.presentationTime(shownAtStart) + video.duration(shownAtStart) <= startPts) {
+            shownAtStart = -1; // The range starts after the last frame
+        }
+        List<Integer> picked = new ArrayList<>();
+        for (int i = firstSync; i < n; i++) {
+            long pts = video.presentationTime(i);
+            if (!(pts >= startPts && pts < endPts) && i != shownAtStart) continue;
+            // Leading frames of the first GOP reference samples that come before it
+            if (isLeading(video, i) && video.syncAtOrBefore(i) == firstSync) continue;
+            picked.add(i);
+        }
+        if (picked.isEmpty()) return shards;
+
+        Integer[] byTime = picked.toArray(new Integer[0]);
+        Arrays.sort(byTime, (a, b) -> Long.compare(video.presentationTime(a), video.presentationTime(b)));
+        byTime = spread(byTime, maxFrames);
+
+        // Frame number of each picked sample, by sample index
+        int[] frameOf = new int[n];
+        Arrays.fill(frameOf, -1);
+        for (int f = 0; f < byTime.length; f++) frameOf[byTime[f]] = f;
+
+        int runStart = -1;
+        List<Integer> runSamples = new ArrayList<>();
+        int lastWanted = -1;
+        for (int i = firstSync; i <= n; i++) {
+            boolean boundary = i == n || (video.isSync(i) && isClean(video, i));
+            if (boundary && runStart >= 0 && runSamples.size() >= Math.max(1, minFramesPerShard)) {
+                shards.add(build(shards.size(), runStart, lastWanted + 1, runSamples, frameOf, video));
+                runStart = -1;
+                runSamples.clear();
+            }
+            if (i == n) break;
+            if (frameOf[i] >= 0) {
+                // Leading frames need the GOP before theirs decoded as well
+                int from = video.syncAtOrBefore(i);
+                if (isLeading(video, i)) from = video.syncAtOrBefore(from - 1);
+                runStart = runStart < 0 ? from : Math.min(runStart, from);
+                runSamples.add(i);
+                lastWanted = i;
+            }
+        }
+        // A short tail joins the shard before it
+        if (runStart >= 0) {
+            if (shards.isEmpty()) {
+                shards.add(build(0, runStart, lastWanted + 1, runSamples, frameOf, video));
+            } else {
+                Shard last = shards.remove(shards.size() - 1);
+                List<Integer> merged = new ArrayList<>();
+                for (int s : last.samples) merged.add(s);
+                merged.addAll(runSamples);
+                shards.add(build(last.index, last.firstSample, lastWanted + 1, merged, frameOf, video));
+            }
+        }
+        return shards;
+    }
+
+    private static Shard build(int index, int first, int end, List<Integer> samples, int[] frameOf, SampleTable video) {
+        Integer[] ordered = samples.toArray(new Integer[0]);
+        Arrays.sort(ordered, (a, b) -> Long.compare(video.presentationTime(a), video.presentationTime(b)));
+        int[] s = new int[ordered.length];
+        int[] f = new int[ordered.length];
+        for (int k = 0; k < ordered.length; k++) {
+            s[k] = ordered[k];
+            f[k] = frameOf[ordered[k]];
+        }
+        return new Shard(index, first, end, s, f);
+    }
+
+    // Shown before the sync sample it is decoded after
+    private static boolean isLeading(SampleTable video, int i) {
+        return video.presentationTime(i) < video.presentationTime(video.syncAtOrBefore(i));
+    }
+
+    // No frame of the GOP starting at sync needs one from before it
+    private static boolean isClean(SampleTable video, int sync) {
+        for (int i = sync + 1; i < video.size() && !video.isSync(i); i++) {
+            if (video.presentationTime(i) < video.presentationTime(sync)) return false;
+        }
+        return true;
+    }
+
+    // Every k-th frame so that at most max remain, always keeping the first
+    private static Integer[] spread(Integer[] frames, int max) {
+        if (max <= 0 || frames.length <= max) return frames;
+        Integer[] out = new Integer[max];
+        for (int k = 0; k < max; k++) out[k] = frames[(int) ((long) k * frames.length / max)];
+        return out;
+    }
+
+    /** Total frames across {@code shards}. */
+    static int frameCount(List<Shard> shards) {
+        int total = 0;
+        for (Shard s : shards) total += s.frames();
+        return total;
+    }
+
+    private static long toTicks(long us, long timescale) {
+        return Math.round(us * (double) timescale / 1_000_000);
+    }
+}
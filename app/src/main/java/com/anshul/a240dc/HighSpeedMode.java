@@ -0,0 +1,59 @@
+package com.anshul.a240dc;
+
+import java.util.Comparator;
+import java.util.Locale;
+
+/** One constrained high-speed recording mode a camera offers: a size at a fixed frame rate. */
+public final class HighSpeedMode {
+
+    /** Most preferred first: highest frame rate, then most pixels, then back cameras. */
+    public static final Comparator<HighSpeedMode> PREFERENCE = (a, b) -> {
+        if (a.fps != b.fps) return Integer.compare(b.fps, a.fps);
+        if (a.pixels() != b.pixels()) return Long.compare(b.pixels(), a.pixels());
+        if (a.backFacing != b.backFacing) return a.backFacing ? -1 : 1;
+        return a.cameraId.compareTo(b.cameraId);
+    };
+
+    public final String cameraId;
+    public final int width;
+    public final int height;
+    public final int fps;
+    public final boolean backFacing;
+
+    public HighSpeedMode(String cameraId, int width, int height, int fps, boolean backFacing) {
+        this.cameraId = cameraId;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.backFacing = backFacing;
+    }
+
+    public long pixels() {
+        return (long) width * height;
+    }
+
+    /** Encoder settings for this mode, everything else left at the defaults. */
+    public EncoderConfig encoderConfig() {
+        return new EncoderConfig.Builder().size(width, height).fps(fps).build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HighSpeedMode)) return false;
+        HighSpeedMode m = (HighSpeedMode) o;
+        return width == m.width && height == m.height && fps == m.fps && backFacing == m.backFacing
+                && cameraId.equals(m.cameraId);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((cameraId.hashCode() * 31 + width) * 31 + height) * 31 + fps;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "camera %s %dx%d@%d%s", cameraId, width, height, fps,
+                backFacing ? "" : " (front)");
+    }
+}
@@ -0,0 +1,123 @@
+package com.anshul.a240dc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps tap-to-first-frame latencies per recording mode and persists them, tagged with the app
+ * version, to a small tab-separated log so they can be compared across releases.
+ *
+ * {@link #record} only touches memory; {@link #flush} appends new samples to the file and
+ * keeps it from growing past {@link #MAX_LINES}.
+ */
+public class LatencyRecorder {
+
+    static final int CAPACITY = 256;
+    static final int MAX_LINES = 2000;
+
+    private final File file;
+    private final String build;
+    private final Map<String, long[]> samples = new HashMap<>();
+    private final Map<String, Integer> counts = new HashMap<>();
+    private final List<String> pending = new ArrayList<>();
+
+    public LatencyRecorder(File file, String build) {
+        this.file = file;
+        this.build = build;
+        load();
+    }
+
+    public synchronized void record(String mode, long nanos) {
+        add(mode, nanos);
+        pending.add(build + '\t' + mode + '\t' + nanos / 1000);
+    }
+
+    public synchronized int count(String mode) {
+        Integer n = counts.get(mode);
+        return n == null ? 0 : Math.min(n, CAPACITY);
+    }
+
+    /** Percentile (0-100) of the most recent samples for {@code mode} in this build, or -1. */
+    public synchronized long percentile(String mode, double p) {
+        int n = count(mode);
+        if (n == 0) return -1;
+        long[] sorted = Arrays.copyOf(samples.get(mode), n);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100.0 * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, rank))];
+    }
+
+    public synchronized String summary(String mode) {
+        int n = count(mode);
+        if (n == 0) return mode + ": no samples";
+        return String.format(Locale.US, "%s %s: n=%d p50=%.1fms p90=%.1fms max=%.1fms", build, mode, n,
+                percentile(mode, 50) / 1e6, percentile(mode, 90) / 1e6, percentile(mode, 100) / 1e6);
+    }
+
+    public synchronized void flush() throws IOException {
+        if (pending.isEmpty()) return;
+        List<String> lines = readLines();
+        lines.addAll(pending);
+        pending.clear();
+        if (lines.size() > MAX_LINES) {
+            lines = new ArrayList<>(lines.subList(lines.size() - MAX_LINES / 2, lines.size()));
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+    }
+
+    private void add(String mode, long nanos) {
+        long[] ring = samples.get(mode);
+        if (ring == null) {
+            ring = new long[CAPACITY];
+            samples.put(mode, ring);
+        }
+        Integer n = counts.get(mode);
+        int count = n == null ? 0 : n;
+        ring[count % CAPACITY] = nanos;
+        counts.put(mode, count + 1);
+    }
+
+    // Seeds the in-memory samples with what earlier sessions of this build recorded
+    private void load() {
+        for (String line : readLines()) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3 || !parts[0].equals(build)) continue;
+            try {
+                add(parts[1], Long.parseLong(parts[2]) * 1000);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    private List<String> readLines() {
+        List<String> lines = new ArrayList<>();
+        if (!file.isFile()) return lines;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return lines;
+    }
+}
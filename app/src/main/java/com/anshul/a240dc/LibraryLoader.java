@@ -0,0 +1,115 @@
+package com.anshul.a240dc;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans the clip library on a background executor and streams the results to a listener in
+ * growing batches: a first screenful as soon as it is ready, then batches that double in size.
+ *
+ * Every batch is a fresh immutable {@link ClipTable} of everything found so far, so the adapter
+ * can diff it against the one it shows. Starting a new load supersedes the previous one;
+ * batches from a superseded load are never delivered.
+ */
+public class LibraryLoader {
+
+    /** Produces the library's clips in scan order. Runs on the background executor. */
+    public interface Source {
+        void scan(Sink sink) throws Exception;
+    }
+
+    public interface Sink {
+        /** Returns false once the load has been superseded and scanning should stop. */
+        boolean accept(String path, ClipIndex.Entry entry);
+    }
+
+    public interface Listener {
+        void onClips(ClipTable clips, boolean complete);
+    }
+
+    public static final int FIRST_BATCH = 12;
+    public static final int MAX_BATCH = 1024;
+
+    private final Executor background;
+    private final Executor callbacks;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public LibraryLoader(Executor background, Executor callbacks) {
+        this.background = background;
+        this.callbacks = callbacks;
+    }
+
+    public void load(Source source, Listener listener) {
+        int gen = generation.incrementAndGet();
+        background.execute(() -> run(gen, source, listener));
+    }
+
+    /** Drops any load in flight; its remaining batches are discarded. */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Feeds the {@code .mp4} clips in {@code folder} to {@code sink}, newest name first, serving
+     * unchanged ones from {@code index} and resolving the rest. Clips no longer there are dropped
+     * from the index once the scan completes; flushing it is left to the caller.
+     */
+    public static void scanFolder(File folder, ClipIndex index, ClipIndex.Resolver resolver, Sink sink) {
+        File[] files = folder.listFiles();
+        if (files == null) return; // Not there, or not a folder
+
+        // Names carry the recording timestamp, so this puts the newest clips on the first screen
+        Arrays.sort(files, (a, b) -> b.getName().compareTo(a.getName()));
+
+        Set<String> seen = new HashSet<>(files.length * 2);
+        for (File file : files) {
+            if (!file.getName().endsWith(".mp4")) continue;
+            seen.add(file.getName());
+
+            // Only clips that are new or changed since the last visit get parsed
+            ClipIndex.Entry e = index.lookup(file, resolver);
+            if (e == null) continue;
+            if (!sink.accept(file.getAbsolutePath(), e)) return;
+        }
+        index.retain(seen);
+    }
+
+    private void run(int gen, Source source, Listener listener) {
+        if (gen != generation.get()) return;
+
+        ClipTable.Builder clips = new ClipTable.Builder();
+        int[] nextEmit = {FIRST_BATCH};
+        int[] batch = {FIRST_BATCH};
+        try {
+            source.scan((path, entry) -> {
+                if (gen != generation.get()) return false;
+                clips.add(path, entry);
+                if (clips.size() >= nextEmit[0]) {
+                    deliver(gen, listener, clips, false);
+                    batch[0] = Math.min(batch[0] * 2, MAX_BATCH);
+                    nextEmit[0] = clips.size() + batch[0];
+                }
+                return true;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        deliver(gen, listener, clips, true);
+    }
+
+    private void deliver(int gen, Listener listener, ClipTable.Builder clips, boolean complete) {
+        if (gen != generation.get()) return;
+        ClipTable snapshot = clips.build();
+        // The last snapshot stays up until the next load, so it gets sorted and searched most
+        if (complete) snapshot.rankAll();
+        callbacks.execute(() -> {
+            if (gen == generation.get()) {
+                listener.onClips(snapshot, complete);
+            }
+        });
+    }
+}
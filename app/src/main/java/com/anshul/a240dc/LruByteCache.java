@@ -0,0 +1,87 @@
+package com.anshul.a240dc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU cache bounded by the total byte size of its values rather than their count.
+ * Thread-safe; values bigger than the whole budget are never cached.
+ */
+public class LruByteCache<K, V> {
+
+    /** Reports how many bytes a cached value occupies. */
+    public interface Sizer<V> {
+        long sizeOf(V value);
+    }
+
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final Sizer<V> sizer;
+    private final long maxBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruByteCache(long maxBytes, Sizer<V> sizer) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+    }
+
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value != null) hits++; else misses++;
+        return value;
+    }
+
+    public synchronized boolean contains(K key) {
+        return map.containsKey(key);
+    }
+
+    /** Caches {@code value}, evicting least recently used entries to stay within budget. */
+    public synchronized void put(K key, V value) {
+        long size = sizer.sizeOf(value);
+        V previous = map.remove(key);
+        if (previous != null) {
+            bytes -= sizer.sizeOf(previous);
+        }
+        if (size > maxBytes) return;
+
+        map.put(key, value);
+        bytes += size;
+        trimTo(maxBytes);
+    }
+
+    public synchronized V remove(K key) {
+        V value = map.remove(key);
+        if (value != null) bytes -= sizer.sizeOf(value);
+        return value;
+    }
+
+    public synchronized void trimTo(long targetBytes) {
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (bytes > targetBytes && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            bytes -= sizer.sizeOf(eldest.getValue());
+            it.remove();
+            evictions++;
+            onEvicted(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    /** Called with the cache lock held whenever an entry is pushed out for space. */
+    protected void onEvicted(K key, V value) {
+    }
+
+    public synchronized long bytes() { return bytes; }
+    public long maxBytes() { return maxBytes; }
+    public synchronized int size() { return map.size(); }
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+    public synchronized long evictions() { return evictions; }
+}
@@ -1,17 +1,13 @@
 package com.anshul.a240dc;
 
 import android.Manifest;
-import android.content.Context;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
-import android.hardware.camera2.*;
-import android.media.MediaRecorder;
-import android.media.MediaScannerConnection;
 import android.os.Bundle;
-import android.os.Environment;
-import android.util.Range;
-import android.view.Surface;
+import android.util.Log;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -19,26 +15,29 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Collections;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
     private static final int CAMERA_PERMISSION_CODE = 101;
+    static final String PREFS = "Settings";
+    static final String KEY_PRE_ROLL = "preRollSeconds";
+    private static final float DEFAULT_PRE_ROLL_SECONDS = 2f;
+    static final String KEY_MOTION_SENSITIVITY = "motionSensitivity";
+    static final String KEY_MOTION_ROI = "motionRoi"; // "left,top,right,bottom" as fractions
+    private static final float[] SENSITIVITIES = {0.4f, 0.7f, 0.9f};
+    // Takes started by motion stop by themselves after this long
+    private static final long AUTO_TAKE_MS = 3000;
     private Button btnRecord;
-    private boolean isRecording = false;
-
-    private CameraManager cameraManager;
-    private CameraDevice cameraDevice;
-    private MediaRecorder mediaRecorder;
-    private CameraConstrainedHighSpeedCaptureSession captureSession;
+    private Button btnAuto;
+    private TextView tvStorage;
+    private boolean autoArmed;
+    private HighSpeedMode mode;
+    private StartupCoordinator startup;
 
-    // Store the path globally so we can show it when recording stops
-    private String currentVideoFilePath = "";
+    // All camera and recorder work happens on the engine's own thread
+    private CaptureEngine captureEngine;
+    private LatencyRecorder latencyRecorder;
+    private final Runnable autoStop = () -> captureEngine.stopRecording();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,37 +45,107 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         btnRecord = findViewById(R.id.btnRecord);
-        cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        btnAuto = findViewById(R.id.btnAuto);
+        tvStorage = findViewById(R.id.tvStorage);
+
+        // Normally the probe finished while the splash was showing; without one in front it may
+        // still be running, so the camera is set up once it is done
+        startup = CaptureApp.startup(this);
+        startup.mode().thenAcceptAsync(this::onMode, ContextCompat.getMainExecutor(this));
+    }
+
+    private void onMode(HighSpeedMode mode) {
+        if (isFinishing() || isDestroyed()) return;
+        if (mode == null) {
+            startActivity(new Intent(this, UnsupportedDeviceActivity.class));
+            finish();
+            return;
+        }
+        this.mode = mode;
+        Log.i(TAG, "Recording mode: " + mode);
+
+        latencyRecorder = startup.latencyRecorder();
+        captureEngine = startup.takeEngine(this::onCaptureEvent);
+        if (captureEngine == null) captureEngine = createEngine();
 
         checkPermissions();
 
-        btnRecord.setOnClickListener(v -> {
-            if (isRecording) {
-                stopRecording();
-            } else {
-                startRecording();
-            }
+        btnRecord.setOnClickListener(v -> captureEngine.toggleRecording());
+        btnRecord.setOnLongClickListener(v -> {
+            togglePreRoll();
+            return true;
+        });
+        btnAuto.setOnClickListener(v -> toggleAuto());
+        btnAuto.setOnLongClickListener(v -> {
+            cycleSensitivity();
+            return true;
         });
     }
 
-    private void checkPermissions() {
-        String[] permissions = {
-                Manifest.permission.CAMERA,
-                Manifest.permission.RECORD_AUDIO,
-                Manifest.permission.WRITE_EXTERNAL_STORAGE
-        };
-
-        boolean needsPermission = false;
-        for (String p : permissions) {
-            if (ContextCompat.checkSelfPermission(this, p) != PackageManager.PERMISSION_GRANTED) {
-                needsPermission = true;
-                break;
+    private CaptureEngine createEngine() {
+        return startup.newEngine(mode, this::onCaptureEvent);
+    }
+
+    // Long-pressing record switches pre-roll on or off; the camera is reopened in the new mode
+    private void togglePreRoll() {
+        if (captureEngine.getState() == CaptureEngine.State.RECORDING) return;
+        float current = getSharedPreferences(PREFS, MODE_PRIVATE).getFloat(KEY_PRE_ROLL, 0f);
+        float next = current > 0 ? 0f : DEFAULT_PRE_ROLL_SECONDS;
+        getSharedPreferences(PREFS, MODE_PRIVATE).edit().putFloat(KEY_PRE_ROLL, next).apply();
+
+        captureEngine.release();
+        captureEngine = createEngine();
+        openCamera();
+        Toast.makeText(this, next > 0 ? "Pre-roll: " + (int) next + "s" : "Pre-roll off",
+                Toast.LENGTH_SHORT).show();
+    }
+
+    // Auto mode re-arms the motion watch every time the engine comes back to READY
+    private void toggleAuto() {
+        autoArmed = !autoArmed;
+        btnAuto.setText(autoArmed ? "AUTO ON" : "AUTO");
+        if (autoArmed) {
+            captureEngine.watch(motionSettings());
+        } else {
+            btnRecord.removeCallbacks(autoStop);
+            captureEngine.stopWatching();
+        }
+    }
+
+    private void cycleSensitivity() {
+        float current = getSharedPreferences(PREFS, MODE_PRIVATE).getFloat(KEY_MOTION_SENSITIVITY, SENSITIVITIES[1]);
+        int next = 0;
+        for (int i = 0; i < SENSITIVITIES.length; i++) {
+            if (SENSITIVITIES[i] == current) next = (i + 1) % SENSITIVITIES.length;
+        }
+        getSharedPreferences(PREFS, MODE_PRIVATE).edit().putFloat(KEY_MOTION_SENSITIVITY, SENSITIVITIES[next]).apply();
+        Toast.makeText(this, "Motion sensitivity: " + (next == 0 ? "low" : next == 1 ? "medium" : "high")
+                + (autoArmed ? " (next watch)" : ""), Toast.LENGTH_SHORT).show();
+    }
+
+    private MotionDetector.Settings motionSettings() {
+        MotionDetector.Settings.Builder builder = new MotionDetector.Settings.Builder()
+                .sensitivity(getSharedPreferences(PREFS, MODE_PRIVATE).getFloat(KEY_MOTION_SENSITIVITY, SENSITIVITIES[1]));
+        String roi = getSharedPreferences(PREFS, MODE_PRIVATE).getString(KEY_MOTION_ROI, null);
+        if (roi != null) {
+            String[] parts = roi.split(",");
+            try {
+                builder.roi(Float.parseFloat(parts[0]), Float.parseFloat(parts[1]),
+                        Float.parseFloat(parts[2]), Float.parseFloat(parts[3]));
+                return builder.build();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Ignoring motion region " + roi, e);
+                builder.roi(0, 0, 1, 1);
             }
         }
+        return builder.build();
+    }
 
-        if (needsPermission) {
-            ActivityCompat.requestPermissions(this, permissions, CAMERA_PERMISSION_CODE);
+    private void checkPermissions() {
+        if (!StartupCoordinator.missingPermissions(this).isEmpty()) {
+            ActivityCompat.requestPermissions(this, StartupCoordinator.PERMISSIONS, CAMERA_PERMISSION_CODE);
         } else {
+            // A no-op for an engine the startup coordinator already opened
             openCamera();
         }
     }
@@ -94,151 +163,79 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void openCamera() {
-        try {
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
-                String cameraId = cameraManager.getCameraIdList()[0];
-                cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
-                    @Override
-                    public void onOpened(@NonNull CameraDevice camera) {
-                        cameraDevice = camera;
-                    }
-
-                    @Override
-                    public void onDisconnected(@NonNull CameraDevice camera) {
-                        camera.close();
-                    }
-
-                    @Override
-                    public void onError(@NonNull CameraDevice camera, int error) {
-                        camera.close();
-                    }
-                }, null);
-            }
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
+            captureEngine.open();
         }
     }
 
-    private void setupMediaRecorder() {
-        try {
-            mediaRecorder = new MediaRecorder();
-            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-            mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-            mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-
-            File videoDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM);
-            if (!videoDir.exists()) {
-                videoDir.mkdirs();
-            }
-
-            File videoFile = new File(
-                    videoDir,
-                    "HighSpeed_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".mp4"
-            );
-
-            // Save the path to the global variable
-            currentVideoFilePath = videoFile.getAbsolutePath();
-            mediaRecorder.setOutputFile(currentVideoFilePath);
-
-            // Set for 1080p at 240fps
-            mediaRecorder.setVideoEncodingBitRate(100_000_000);
-            mediaRecorder.setVideoFrameRate(120);
-            mediaRecorder.setVideoSize(1920, 1080);
-            mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-            mediaRecorder.prepare();
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Runs on the main thread; only ever touches views
+    private void onCaptureEvent(CaptureEngine.Event event) {
+        if (event.error != null) {
+            Toast.makeText(this, event.error, Toast.LENGTH_SHORT).show();
+            // A watch that cannot start would otherwise be retried on every READY
+            if (autoArmed && event.previous == CaptureEngine.State.WATCHING) toggleAuto();
         }
-    }
 
-    private void startRecording() {
-        if (cameraDevice == null) return;
-        setupMediaRecorder();
-
-        try {
-            Surface recorderSurface = mediaRecorder.getSurface();
-            CaptureRequest.Builder captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
-            captureRequestBuilder.addTarget(recorderSurface);
-
-            Range<Integer> fpsRange = new Range<>(120, 120);
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
-
-            List<Surface> surfaces = Collections.singletonList(recorderSurface);
-
-            cameraDevice.createConstrainedHighSpeedCaptureSession(
-                    surfaces,
-                    new CameraCaptureSession.StateCallback() {
-                        @Override
-                        public void onConfigured(@NonNull CameraCaptureSession session) {
-                            captureSession = (CameraConstrainedHighSpeedCaptureSession) session;
-                            try {
-                                List<CaptureRequest> requestList = captureSession.createHighSpeedRequestList(captureRequestBuilder.build());
-                                captureSession.setRepeatingBurst(requestList, null, null);
-                                mediaRecorder.start();
-
-                                runOnUiThread(() -> {
-                                    isRecording = true;
-                                    btnRecord.setText("STOP");
-                                    btnRecord.setBackgroundColor(Color.DKGRAY);
-                                    Toast.makeText(MainActivity.this, "Recording 240FPS...", Toast.LENGTH_SHORT).show();
-                                });
-                            } catch (CameraAccessException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                        @Override
-                        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-                            Toast.makeText(MainActivity.this, "Failed to configure camera", Toast.LENGTH_SHORT).show();
-                        }
-                    },
-                    null
-            );
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+        switch (event.state) {
+            case RECORDING:
+                if (event.previous == CaptureEngine.State.RECORDING) {
+                    if (event.storage != null) showStorage(event.storage);
+                    break;
+                }
+                btnRecord.setText("STOP");
+                btnRecord.setBackgroundColor(Color.DKGRAY);
+                Toast.makeText(this, "Recording...", Toast.LENGTH_SHORT).show();
+                if (autoArmed) {
+                    btnAuto.setText("AUTO ON");
+                    btnRecord.postDelayed(autoStop, AUTO_TAKE_MS);
+                }
+                if (event.startLatencyNanos >= 0) {
+                    Log.i(TAG, "Tap to first frame: " + event.startLatencyNanos / 1_000_000 + " ms ("
+                            + latencyRecorder.summary("prewarmed") + ")");
+                }
+                break;
+            case READY:
+                tvStorage.setText("");
+                btnRecord.setText("RECORD");
+                btnRecord.setBackgroundColor(Color.RED);
+                btnRecord.removeCallbacks(autoStop);
+                if (autoArmed) captureEngine.watch(motionSettings());
+                if (event.previous == CaptureEngine.State.STOPPING && event.outputPath != null) {
+                    // Show the exact file path in the Toast
+                    Toast.makeText(this, "Saved: " + event.outputPath, Toast.LENGTH_LONG).show();
+                }
+                break;
+            case WATCHING:
+                btnAuto.setText("WATCHING");
+                break;
+            case CLOSED:
+                tvStorage.setText("");
+                btnRecord.setText("RECORD");
+                btnRecord.setBackgroundColor(Color.RED);
+                btnRecord.removeCallbacks(autoStop);
+                break;
+            default:
+                // OPENING, CONFIGURING and STOPPING keep the current button
+                break;
         }
     }
 
-    private void stopRecording() {
-        try {
-            if (captureSession != null) {
-                captureSession.stopRepeating();
-                captureSession.close();
-            }
-            if (mediaRecorder != null) {
-                mediaRecorder.stop();
-                mediaRecorder.reset();
-            }
-
-            isRecording = false;
-            btnRecord.setText("RECORD");
-            btnRecord.setBackgroundColor(Color.RED);
-
-            // Show the exact file path in the Toast
-            Toast.makeText(this, "Saved: " + currentVideoFilePath, Toast.LENGTH_LONG).show();
-
-            // Notify the Android gallery that a new video has been created
-            MediaScannerConnection.scanFile(this,
-                    new String[]{currentVideoFilePath}, null,
-                    (path, uri) -> {
-                        // The gallery now knows about the file
-                    });
-
-            openCamera();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    private void showStorage(StorageMonitor.Reading reading) {
+        String text = reading.remaining();
+        if (reading.status == StorageMonitor.Status.SLOW) text += " - storage too slow, frames may drop";
+        tvStorage.setText(text);
+        tvStorage.setTextColor(reading.status == StorageMonitor.Status.OK ? Color.WHITE
+                : reading.status == StorageMonitor.Status.SLOW ? Color.YELLOW : Color.RED);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (cameraDevice != null) {
-            cameraDevice.close();
-        }
-        if (mediaRecorder != null) {
-            mediaRecorder.release();
+        if (captureEngine != null) {
+            captureEngine.release();
+        } else if (!isChangingConfigurations()) {
+            // Gone before the probe was done: the engine the splash had opened is nobody's now
+            startup.releaseUnclaimedEngine();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package com.anshul.a240dc;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lists the library from the video collection the recorder publishes into, instead of listing
+ * the folder. One query reads just the columns the index needs, name-ordered like
+ * {@link LibraryLoader#scanFolder}, and the cursor hands them over a window at a time, so
+ * unchanged clips never touch the file system and the first screen does not wait for the rest.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+public final class MediaStoreLibrary {
+
+    @SuppressWarnings("deprecation")
+    private static final String[] PROJECTION = {
+            MediaStore.Video.Media.DATA,
+            MediaStore.Video.Media.SIZE,
+            MediaStore.Video.Media.DATE_MODIFIED
+    };
+
+    private MediaStoreLibrary() {}
+
+    /**
+     * Feeds the published {@code .mp4} clips under {@link MediaStoreRecordingTarget#RELATIVE_PATH}
+     * to {@code sink}, newest name first, with the same index handling as
+     * {@link LibraryLoader#scanFolder}. Pending entries of a take still recording are left out.
+     */
+    public static void scan(ContentResolver contentResolver, ClipIndex index, ClipIndex.Resolver resolver,
+                            LibraryLoader.Sink sink) {
+        String selection = MediaStore.Video.Media.RELATIVE_PATH + "=? AND "
+                + MediaStore.Video.Media.DISPLAY_NAME + " LIKE '%.mp4'";
+        String[] args = {MediaStoreRecordingTarget.RELATIVE_PATH};
+        try (Cursor c = contentResolver.query(MediaStoreRecordingTarget.collection(), PROJECTION, selection, args,
+                MediaStore.Video.Media.DISPLAY_NAME + " DESC")) {
+            if (c == null) return;
+            Set<String> seen = new HashSet<>(c.getCount() * 2);
+            while (c.moveToNext()) {
+                if (c.isNull(0)) continue;
+                File file = new File(c.getString(0));
+                seen.add(file.getName());
+                // DATE_MODIFIED is in seconds; kept in milliseconds like file times
+                ClipIndex.Entry e = index.lookup(file, c.getLong(1), c.getLong(2) * 1000, resolver);
+                if (e == null) continue;
+                if (!sink.accept(file.getAbsolutePath(), e)) return;
+            }
+            index.retain(seen);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.anshul.a240dc;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Records straight into the shared video collection: each segment is inserted up front as a
+ * pending entry under {@code DCIM/ProCamera}, streamed into through its file descriptor, and
+ * published at the end of the take together with its duration and frame size, so the gallery sees
+ * it at once without a media scan and never sees a half-written file.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+public class MediaStoreRecordingTarget implements RecordingTarget {
+
+    private static final String TAG = "MediaStoreTarget";
+    public static final String RELATIVE_PATH = "DCIM/ProCamera/";
+
+    private final ContentResolver resolver;
+    private final File first;
+    private final int width;
+    private final int height;
+    private final long dateTaken;
+    private final Preallocator preallocator;
+
+    /** Segments are named after {@code firstName} the way {@link SegmentedMp4Writer#segmentFile} names files. */
+    public MediaStoreRecordingTarget(ContentResolver resolver, String firstName, int width, int height,
+                                     Preallocator preallocator) {
+        this.resolver = resolver;
+        this.first = new File(firstName);
+        this.width = width;
+        this.height = height;
+        this.dateTaken = System.currentTimeMillis();
+        this.preallocator = preallocator;
+    }
+
+    static Uri collection() {
+        return MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+    }
+
+    @Override
+    public Segment open(int index) throws IOException {
+        String name = SegmentedMp4Writer.segmentFile(first, index).getName();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Video.Media.DISPLAY_NAME, name);
+        values.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
+        values.put(MediaStore.Video.Media.RELATIVE_PATH, RELATIVE_PATH);
+        values.put(MediaStore.Video.Media.DATE_TAKEN, dateTaken);
+        values.put(MediaStore.Video.Media.IS_PENDING, 1);
+        Uri uri;
+        try {
+            uri = resolver.insert(collection(), values);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("MediaStore insert failed: " + e.getMessage(), e);
+        }
+        if (uri == null) throw new IOException("MediaStore refused " + name);
+
+        ParcelFileDescriptor pfd;
+        try {
+            pfd = resolver.openFileDescriptor(uri, "rw");
+        } catch (FileNotFoundException | IllegalStateException e) {
+            resolver.delete(uri, null, null);
+            throw new IOException("Cannot open " + uri, e);
+        }
+        if (pfd == null) {
+            resolver.delete(uri, null, null);
+            throw new IOException("Cannot open " + uri);
+        }
+        return new PendingSegment(uri, name, pfd);
+    }
+
+    private final class PendingSegment implements Segment {
+        private final Uri uri;
+        private final String name;
+        private final ParcelFileDescriptor pfd;
+        private final ParcelFileDescriptor.AutoCloseOutputStream out;
+
+        PendingSegment(Uri uri, String name, ParcelFileDescriptor pfd) {
+            this.uri = uri;
+            this.name = name;
+            this.pfd = pfd;
+            this.out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+        }
+
+        @Override
+        public FileChannel channel() {
+            return out.getChannel();
+        }
+
+        @Override
+        public String location() {
+            return RELATIVE_PATH + name;
+        }
+
+        @Override
+        public void preallocate(long length) throws IOException {
+            if (preallocator != null) preallocator.allocate(pfd.getFileDescriptor(), length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public String publish(long durationMs) throws IOException {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Video.Media.IS_PENDING, 0);
+            values.put(MediaStore.Video.Media.DURATION, durationMs);
+            values.put(MediaStore.Video.Media.WIDTH, width);
+            values.put(MediaStore.Video.Media.HEIGHT, height);
+            if (resolver.update(uri, values, null, null) != 1) throw new IOException("Cannot publish " + uri);
+            return pathOf(uri, location());
+        }
+
+        @Override
+        public void discard() {
+            try {
+                resolver.delete(uri, null, null);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // The provider may have renamed the entry to avoid a clash, so ask where it ended up
+    @SuppressWarnings("deprecation")
+    private String pathOf(Uri uri, String fallback) {
+        try (Cursor c = resolver.query(uri, new String[]{MediaStore.Video.Media.DATA}, null, null, null)) {
+            if (c != null && c.moveToFirst() && !c.isNull(0)) return c.getString(0);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return fallback;
+    }
+
+    /**
+     * Publishes entries a previous process left pending, which the provider would otherwise
+     * delete after a week. The output is fragmented MP4, so whatever reached the disk before
+     * the crash plays. Apps only ever see their own pending entries, so this never touches
+     * another app's. Only call this while nothing is recording.
+     */
+    @SuppressWarnings("deprecation")
+    public static int publishOrphans(ContentResolver resolver) {
+        String selection = MediaStore.Video.Media.RELATIVE_PATH + "=? AND "
+                + MediaStore.Video.Media.IS_PENDING + "=1";
+        String[] args = {RELATIVE_PATH};
+        String[] projection = {MediaStore.Video.Media._ID, MediaStore.Video.Media.DISPLAY_NAME};
+        int published = 0;
+        try (Cursor c = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? resolver.query(collection(), projection, pendingQuery(selection, args), null)
+                : resolver.query(MediaStore.setIncludePending(collection()), projection, selection, args, null)) {
+            if (c == null) return 0;
+            while (c.moveToNext()) {
+                Uri uri = Uri.withAppendedPath(collection(), Long.toString(c.getLong(0)));
+                ContentValues values = new ContentValues();
+                values.put(MediaStore.Video.Media.IS_PENDING, 0);
+                if (resolver.update(uri, values, null, null) == 1) {
+                    Log.i(TAG, "Recovered " + c.getString(1));
+                    published++;
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return published;
+    }
+
+    /**
+     * Moves takes a previous process had to keep in {@code dir}, because the provider refused
+     * them, into the collection, so the gallery and the library list them. Returns how many
+     * made it; the rest stay for the next start. Only call this while nothing is recording.
+     */
+    public static int importStranded(ContentResolver resolver, File dir) {
+        List<String> moved = FallbackRecordingTarget.importStranded(dir, (local, info) ->
+                new MediaStoreRecordingTarget(resolver, local.getName(), info != null ? info.width : 0,
+                        info != null ? info.height : 0, null).open(1));
+        for (String path : moved) Log.i(TAG, "Imported " + path);
+        return moved.size();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private static Bundle pendingQuery(String selection, String[] args) {
+        Bundle query = new Bundle();
+        query.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        query.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, args);
+        query.putInt(MediaStore.QUERY_ARG_MATCH_PENDING, MediaStore.MATCH_INCLUDE);
+        return query;
+    }
+}
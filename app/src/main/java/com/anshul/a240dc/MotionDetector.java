@@ -0,0 +1,230 @@
+package com.anshul.a240dc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block-wise frame differencing on the luma plane against a slowly adapting background.
+ *
+ * The region of interest is split into square blocks. A block has changed when the sum of
+ * absolute differences between the frame and the background over it exceeds a threshold
+ * derived from {@link Settings#sensitivity}; motion is reported once enough blocks changed
+ * for {@link Settings#confirmFrames} frames in a row. The background follows every frame with
+ * an exponential moving average, so lighting drift and objects that stop moving fade into it.
+ *
+ * All buffers are sized in the constructor: {@link #process} allocates nothing, which keeps
+ * it fast enough for every frame of a 240 fps stream. Not thread-safe.
+ */
+public final class MotionDetector {
+
+    /** Detection settings. Immutable; build one with {@link Builder}. */
+    public static final class Settings {
+        /** Region of interest as fractions of the frame, left/top inclusive. */
+        public final float roiLeft, roiTop, roiRight, roiBottom;
+        /** 0 reacts only to strong changes, 1 to faint ones. */
+        public final float sensitivity;
+        public final int blockSize;
+        /** Share of the region's blocks that must change; at least one block always must. */
+        public final float minChangedFraction;
+        /** Background learns 1/2^learnShift of each new frame. */
+        public final int learnShift;
+        public final int confirmFrames;
+        /** Frames to build the background from before motion can be reported. */
+        public final int warmupFrames;
+
+        private Settings(Builder b) {
+            roiLeft = b.roiLeft;
+            roiTop = b.roiTop;
+            roiRight = b.roiRight;
+            roiBottom = b.roiBottom;
+            sensitivity = b.sensitivity;
+            blockSize = b.blockSize;
+            minChangedFraction = b.minChangedFraction;
+            learnShift = b.learnShift;
+            confirmFrames = b.confirmFrames;
+            warmupFrames = b.warmupFrames;
+        }
+
+        /** Mean absolute luma difference per pixel above which a block counts as changed. */
+        int pixelThreshold() {
+            return Math.round(4 + (1 - sensitivity) * 60);
+        }
+
+        public static final class Builder {
+            private float roiLeft = 0, roiTop = 0, roiRight = 1, roiBottom = 1;
+            private float sensitivity = 0.7f;
+            private int blockSize = 16;
+            private float minChangedFraction = 0.01f;
+            private int learnShift = 5;
+            private int confirmFrames = 2;
+            private int warmupFrames = 8;
+
+            public Builder roi(float left, float top, float right, float bottom) {
+                roiLeft = left;
+                roiTop = top;
+                roiRight = right;
+                roiBottom = bottom;
+                return this;
+            }
+
+            public Builder sensitivity(float sensitivity) { this.sensitivity = sensitivity; return this; }
+            public Builder blockSize(int blockSize) { this.blockSize = blockSize; return this; }
+            public Builder minChangedFraction(float fraction) { this.minChangedFraction = fraction; return this; }
+            public Builder learnShift(int shift) { this.learnShift = shift; return this; }
+            public Builder confirmFrames(int frames) { this.confirmFrames = frames; return this; }
+            public Builder warmupFrames(int frames) { this.warmupFrames = frames; return this; }
+
+            public Settings build() {
+                if (!(roiLeft >= 0 && roiLeft < roiRight && roiRight <= 1 && roiTop >= 0 && roiTop < roiBottom && roiBottom <= 1)) {
+                    throw new IllegalArgumentException("Bad region " + roiLeft + "," + roiTop + "-" + roiRight + "," + roiBottom);
+                }
+                if (!(sensitivity >= 0 && sensitivity <= 1)) throw new IllegalArgumentException("Bad sensitivity " + sensitivity);
+                if (blockSize < 2) throw new IllegalArgumentException("Bad block size " + blockSize);
+                if (!(minChangedFraction >= 0 && minChangedFraction <= 1)) throw new IllegalArgumentException("Bad fraction " + minChangedFraction);
+                if (learnShift < 1 || learnShift > 12) throw new IllegalArgumentException("Bad learn shift " + learnShift);
+                if (confirmFrames < 1 || warmupFrames < 0) throw new IllegalArgumentException("Bad frame counts");
+                return new Settings(this);
+            }
+        }
+    }
+
+    // Background is luma in 12.4 fixed point, so slow learning rates don't round away
+    private static final int FRACTION_BITS = 4;
+
+    private final Settings settings;
+    private final int width;
+    private final int height;
+    private final int left;
+    private final int top;
+    private final int columns;
+    private final int rows;
+    private final int blockThreshold;
+    private final int minChanged;
+
+    private final int[] background;
+    private final int[] blockSad;
+    private final byte[] row;
+
+    private long frames;
+    private int changed;
+    private int streak;
+    private boolean motion;
+
+    public MotionDetector(int width, int height, Settings settings) {
+        this.settings = settings;
+        this.width = width;
+        this.height = height;
+        int b = settings.blockSize;
+        // The region snaps inwards to whole blocks
+        left = (int) Math.ceil(settings.roiLeft * width);
+        top = (int) Math.ceil(settings.roiTop * height);
+        columns = ((int) (settings.roiRight * width) - left) / b;
+        rows = ((int) (settings.roiBottom * height) - top) / b;
+        if (columns <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("Region of " + width + "x" + height + " holds no " + b + "px block");
+        }
+        blockThreshold = settings.pixelThreshold() * b * b;
+        minChanged = Math.max(1, (int) Math.ceil(settings.minChangedFraction * columns * rows));
+        background = new int[columns * b * rows * b];
+        blockSad = new int[columns * rows];
+        row = new byte[columns * b];
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Number of blocks in the region of interest. */
+    public int blocks() {
+        return columns * rows;
+    }
+
+    /** Blocks that changed in the last frame. */
+    public int changedBlocks() {
+        return changed;
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    /** Whether the last frame confirmed motion. */
+    public boolean isMotion() {
+        return motion;
+    }
+
+    /** Forgets the background; the next frame starts a new warm-up. */
+    public void reset() {
+        frames = 0;
+        changed = 0;
+        streak = 0;
+        motion = false;
+    }
+
+    /**
+     * Processes the luma plane of one frame, as an {@code Image} plane hands it out (pixel
+     * stride 1). The buffer's position is left as it was. Returns {@link #isMotion()}.
+     */
+    public boolean process(ByteBuffer luma, int rowStride) {
+        int position = luma.position();
+        int span = row.length;
+        for (int y = 0; y < rows * settings.blockSize; y++) {
+            luma.position(position + (top + y) * rowStride + left);
+            luma.get(row, 0, span);
+            accumulate(y, row, 0);
+        }
+        luma.position(position);
+        return finish();
+    }
+
+    /** Same as {@link #process(ByteBuffer, int)} for a frame in an array. */
+    public boolean process(byte[] luma, int offset, int rowStride) {
+        for (int y = 0; y < rows * settings.blockSize; y++) {
+            accumulate(y, luma, offset + (top + y) * rowStride + left);
+        }
+        return finish();
+    }
+
+    // Adds one region row to its blocks' sums and lets the background learn it
+    private void accumulate(int y, byte[] src, int from) {
+        int b = settings.blockSize;
+        int shift = settings.learnShift;
+        int round = (1 << shift) - 1;
+        int bg = y * row.length;
+        int sadBase = (y / b) * columns;
+        if (y == 0) {
+            for (int i = 0; i < blockSad.length; i++) blockSad[i] = 0;
+        }
+        if (frames == 0) {
+            for (int x = 0; x < row.length; x++) background[bg + x] = (src[from + x] & 0xFF) << FRACTION_BITS;
+            return;
+        }
+        for (int c = 0, x = 0; c < columns; c++) {
+            int sad = 0;
+            for (int end = x + b; x < end; x++) {
+                int value = (src[from + x] & 0xFF) << FRACTION_BITS;
+                int diff = value - background[bg + x];
+                sad += Math.abs(diff);
+                // Rounds toward zero, so noise doesn't drag the background down
+                background[bg + x] += (diff + ((diff >> 31) & round)) >> shift;
+            }
+            blockSad[sadBase + c] += sad >> FRACTION_BITS;
+        }
+    }
+
+    private boolean finish() {
+        frames++;
+        if (frames == 1) return motion = false;
+        int n = 0;
+        for (int sad : blockSad) {
+            if (sad > blockThreshold) n++;
+        }
+        changed = n;
+        streak = n >= minChanged ? streak + 1 : 0;
+        motion = frames > settings.warmupFrames && streak >= settings.confirmFrames;
+        return motion;
+    }
+}
@@ -0,0 +1,159 @@
+package com.anshul.a240dc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Header of an ISO-BMFF box: where it starts, how long its header is and its total size.
+ * Box payloads are never read here; callers seek to {@link #bodyOffset()} themselves.
+ */
+public final class Mp4Box {
+
+    public static final int FTYP = type("ftyp");
+    public static final int MOOV = type("moov");
+    public static final int MDAT = type("mdat");
+    public static final int MOOF = type("moof");
+    public static final int MVHD = type("mvhd");
+    public static final int TRAK = type("trak");
+    public static final int TKHD = type("tkhd");
+    public static final int MDIA = type("mdia");
+    public static final int MDHD = type("mdhd");
+    public static final int HDLR = type("hdlr");
+    public static final int MINF = type("minf");
+    public static final int STBL = type("stbl");
+    public static final int STSD = type("stsd");
+    public static final int STTS = type("stts");
+    public static final int STSZ = type("stsz");
+    public static final int STSS = type("stss");
+    public static final int STSC = type("stsc");
+    public static final int CTTS = type("ctts");
+    public static final int STCO = type("stco");
+    public static final int CO64 = type("co64");
+    public static final int EDTS = type("edts");
+    public static final int ELST = type("elst");
+    public static final int MVEX = type("mvex");
+    public static final int MEHD = type("mehd");
+    public static final int TREX = type("trex");
+    public static final int MFHD = type("mfhd");
+    public static final int TRAF = type("traf");
+    public static final int TFHD = type("tfhd");
+    public static final int TFDT = type("tfdt");
+    public static final int TRUN = type("trun");
+    public static final int SIDX = type("sidx");
+    public static final int MFRA = type("mfra");
+
+    public static final int VIDE = type("vide");
+    public static final int SOUN = type("soun");
+
+    public final int type;
+    public final long offset;
+    public final int headerSize;
+    public final long size;
+
+    public Mp4Box(int type, long offset, int headerSize, long size) {
+        this.type = type;
+        this.offset = offset;
+        this.headerSize = headerSize;
+        this.size = size;
+    }
+
+    public long bodyOffset() { return offset + headerSize; }
+    public long bodySize() { return size - headerSize; }
+    public long end() { return offset + size; }
+
+    /**
+     * Reads the box header at {@code pos} with a positioned read. {@code limit} is the end of
+     * the enclosing box (or file) and is used for size-0 "extends to the end" boxes.
+     */
+    public static Mp4Box read(FileChannel channel, long pos, long limit, ByteBuffer scratch) throws IOException {
+        scratch.clear().limit(16);
+        while (scratch.hasRemaining()) {
+            int n = channel.read(scratch, pos + scratch.position());
+            if (n < 0) break;
+        }
+        scratch.flip();
+        if (scratch.remaining() < 8) {
+            throw new EOFException("Truncated box header at " + pos);
+        }
+        scratch.order(ByteOrder.BIG_ENDIAN);
+        long size = scratch.getInt() & 0xFFFFFFFFL;
+        int type = scratch.getInt();
+        int headerSize = 8;
+        if (size == 1) {
+            if (scratch.remaining() < 8) {
+                throw new EOFException("Truncated 64-bit box header at " + pos);
+            }
+            size = scratch.getLong();
+            headerSize = 16;
+        } else if (size == 0) {
+            size = limit - pos;
+        }
+        if (size < headerSize || pos + size > limit) {
+            throw new IOException("Bad size " + size + " for box '" + name(type) + "' at " + pos);
+        }
+        return new Mp4Box(type, pos, headerSize, size);
+    }
+
+    /** Same as {@link #read(FileChannel, long, long, ByteBuffer)} for a box inside a buffer. */
+    public static Mp4Box read(ByteBuffer buf, int pos, int limit) throws IOException {
+        if (limit - pos < 8) {
+            throw new EOFException("Truncated box header at " + pos);
+        }
+        long size = buf.getInt(pos) & 0xFFFFFFFFL;
+        int type = buf.getInt(pos + 4);
+        int headerSize = 8;
+        if (size == 1) {
+            if (limit - pos < 16) {
+                throw new EOFException("Truncated 64-bit box header at " + pos);
+            }
+            size = buf.getLong(pos + 8);
+            headerSize = 16;
+        } else if (size == 0) {
+            size = limit - pos;
+        }
+        if (size < headerSize || pos + size > limit) {
+            throw new IOException("Bad size " + size + " for box '" + name(type) + "' at " + pos);
+        }
+        return new Mp4Box(type, pos, headerSize, size);
+    }
+
+    /** Finds the first direct child of type {@code type} between {@code start} and {@code end}. */
+    public static Mp4Box find(ByteBuffer buf, int start, int end, int type) throws IOException {
+        int pos = start;
+        while (pos < end) {
+            Mp4Box box = read(buf, pos, end);
+            if (box.type == type) return box;
+            pos = (int) box.end();
+        }
+        return null;
+    }
+
+    /** Finds a nested box by following {@code path} from the children of {@code parent}. */
+    public static Mp4Box find(ByteBuffer buf, Mp4Box parent, int... path) throws IOException {
+        Mp4Box box = parent;
+        for (int type : path) {
+            box = find(buf, (int) box.bodyOffset(), (int) box.end(), type);
+            if (box == null) return null;
+        }
+        return box;
+    }
+
+    public static int type(String fourcc) {
+        byte[] b = fourcc.getBytes(StandardCharsets.US_ASCII);
+        return (b[0] & 0xFF) << 24 | (b[1] & 0xFF) << 16 | (b[2] & 0xFF) << 8 | (b[3] & 0xFF);
+    }
+
+    public static String name(int type) {
+        return new String(new byte[]{(byte) (type >>> 24), (byte) (type >>> 16), (byte) (type >>> 8), (byte) type},
+                StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return name(type) + "@" + offset + "+" + size;
+    }
+}
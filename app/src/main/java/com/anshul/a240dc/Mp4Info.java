@@ -0,0 +1,48 @@
+package com.anshul.a240dc;
+
+/**
+ * Clip metadata read from the MP4 container by {@link Mp4Parser}.
+ */
+public final class Mp4Info {
+    public final long durationUs;
+    public final int width;
+    public final int height;
+    /** Frames per second derived from the sample timestamps, not the nominal encoder setting. */
+    public final double frameRate;
+    public final long sampleCount;
+    /** Total size of the video samples in bytes. */
+    public final long videoBytes;
+    /** Average video bitrate in bits per second. */
+    public final long bitrate;
+    /** Sample entry type of the video track, e.g. "avc1" or "hvc1". */
+    public final String codec;
+    public final boolean hasAudio;
+
+    public Mp4Info(long durationUs, int width, int height, double frameRate, long sampleCount,
+                   long videoBytes, long bitrate, String codec, boolean hasAudio) {
+        this.durationUs = durationUs;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.sampleCount = sampleCount;
+        this.videoBytes = videoBytes;
+        this.bitrate = bitrate;
+        this.codec = codec;
+        this.hasAudio = hasAudio;
+    }
+
+    public int durationMs() {
+        return (int) Math.min(Integer.MAX_VALUE, durationUs / 1000);
+    }
+
+    /** Frame rate rounded to the nearest whole number, as shown in the library. */
+    public int roundedFps() {
+        return (int) Math.round(frameRate);
+    }
+
+    @Override
+    public String toString() {
+        return codec + " " + width + "x" + height + " @ " + String.format(java.util.Locale.US, "%.2f", frameRate)
+                + " fps, " + sampleCount + " samples, " + durationUs + " us, " + bitrate + " bps";
+    }
+}
@@ -0,0 +1,336 @@
+package com.anshul.a240dc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads clip metadata straight out of an MP4 file without decoding anything.
+ *
+ * Top-level boxes are walked with positioned reads of their headers only, so {@code mdat} is
+ * skipped no matter how large it is (64-bit box sizes included). The {@code moov} box is then
+ * memory-mapped on its own and the video track's {@code tkhd}, {@code mdhd}, {@code stts} and
+ * {@code stsz} tables are read from that window.
+ *
+ * Fragmented files ({@code moov} with an {@code mvex}) get their samples from the {@code trun}
+ * boxes of every {@code moof} whose {@code mdat} is complete; a torn fragment at the end of
+ * the file, as left by a crash mid-take, is ignored.
+ */
+public final class Mp4Parser {
+
+    // moov holds 4 bytes per sample in stsz; this is hours of 240 fps video
+    private static final long MAX_MOOV_SIZE = 256L * 1024 * 1024;
+    // A moof carries up to 16 bytes per sample; far more than any fragment we write
+    private static final long MAX_MOOF_SIZE = 16L * 1024 * 1024;
+
+    private Mp4Parser() {}
+
+    public static Mp4Info parse(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return parse(channel);
+        }
+    }
+
+    public static Mp4Info parse(FileChannel channel) throws IOException {
+        ByteBuffer moov = mapMoov(channel);
+        if (moov == null) {
+            throw new IOException("No moov box");
+        }
+        return parseMoov(moov, channel);
+    }
+
+    /**
+     * Finds the top-level moov box and maps it read-only, or returns null if there is none
+     * before the end of the file or a box cut short by it.
+     */
+    static ByteBuffer mapMoov(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long pos = 0;
+        while (pos + 8 <= fileSize) {
+            Mp4Box box = readTopLevel(channel, pos, fileSize, scratch);
+            if (box == null) return null;
+            if (box.type == Mp4Box.MOOV) {
+                if (box.size > MAX_MOOV_SIZE) {
+                    throw new IOException("moov box too large: " + box.size);
+                }
+                ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, box.offset, box.size);
+                return map.order(ByteOrder.BIG_ENDIAN);
+            }
+            pos = box.end();
+        }
+        return null;
+    }
+
+    static Mp4Info parseMoov(ByteBuffer moov) throws IOException {
+        return parseMoov(moov, null);
+    }
+
+    /** With {@code file} set, samples of a fragmented file are read from its moof boxes too. */
+    static Mp4Info parseMoov(ByteBuffer moov, FileChannel file) throws IOException {
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+
+        long movieDuration = 0;
+        long movieTimescale = 0;
+        Mp4Box mvhd = Mp4Box.find(moov, root, Mp4Box.MVHD);
+        if (mvhd != null) {
+            int p = (int) mvhd.bodyOffset();
+            int version = moov.get(p) & 0xFF;
+            if (version == 1) {
+                movieTimescale = moov.getInt(p + 20) & 0xFFFFFFFFL;
+                movieDuration = moov.getLong(p + 24);
+            } else {
+                movieTimescale = moov.getInt(p + 12) & 0xFFFFFFFFL;
+                movieDuration = moov.getInt(p + 16) & 0xFFFFFFFFL;
+            }
+        }
+
+        Mp4Box video = null;
+        boolean hasAudio = false;
+        int pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box trak = Mp4Box.read(moov, pos, (int) root.end());
+            if (trak.type == Mp4Box.TRAK) {
+                int handler = handlerType(moov, trak);
+                if (handler == Mp4Box.VIDE && video == null) {
+                    video = trak;
+                } else if (handler == Mp4Box.SOUN) {
+                    hasAudio = true;
+                }
+            }
+            pos = (int) trak.end();
+        }
+        if (video == null) {
+            throw new IOException("No video track");
+        }
+
+        // Track header: presentation size as 16.16 fixed point
+        int width = 0;
+        int height = 0;
+        Mp4Box tkhd = Mp4Box.find(moov, video, Mp4Box.TKHD);
+        if (tkhd != null) {
+            int p = (int) tkhd.bodyOffset();
+            int sizeAt = p + ((moov.get(p) & 0xFF) == 1 ? 88 : 76);
+            width = moov.getInt(sizeAt) >>> 16;
+            height = moov.getInt(sizeAt + 4) >>> 16;
+        }
+
+        Mp4Box mdia = Mp4Box.find(moov, video, Mp4Box.MDIA);
+        Mp4Box mdhd = mdia == null ? null : Mp4Box.find(moov, mdia, Mp4Box.MDHD);
+        if (mdhd == null) {
+            throw new IOException("Video track has no mdhd");
+        }
+        long timescale;
+        long mediaDuration;
+        int p = (int) mdhd.bodyOffset();
+        if ((moov.get(p) & 0xFF) == 1) {
+            timescale = moov.getInt(p + 20) & 0xFFFFFFFFL;
+            mediaDuration = moov.getLong(p + 24);
+        } else {
+            timescale = moov.getInt(p + 12) & 0xFFFFFFFFL;
+            mediaDuration = moov.getInt(p + 16) & 0xFFFFFFFFL;
+        }
+        if (timescale == 0) {
+            throw new IOException("Video track has zero timescale");
+        }
+
+        Mp4Box stbl = Mp4Box.find(moov, mdia, Mp4Box.MINF, Mp4Box.STBL);
+        if (stbl == null) {
+            throw new IOException("Video track has no sample table");
+        }
+
+        String codec = "";
+        Mp4Box stsd = Mp4Box.find(moov, stbl, Mp4Box.STSD);
+        if (stsd != null && moov.getInt((int) stsd.bodyOffset() + 4) > 0) {
+            Mp4Box entry = Mp4Box.read(moov, (int) stsd.bodyOffset() + 8, (int) stsd.end());
+            codec = Mp4Box.name(entry.type);
+            if (width == 0 || height == 0) {
+                // Visual sample entry: 8 reserved/index bytes and 16 predefined bytes first
+                width = moov.getShort((int) entry.bodyOffset() + 24) & 0xFFFF;
+                height = moov.getShort((int) entry.bodyOffset() + 26) & 0xFFFF;
+            }
+        }
+
+        // Decode deltas: their sum is the real span covered by the samples
+        long sttsSamples = 0;
+        long sttsTicks = 0;
+        Mp4Box stts = Mp4Box.find(moov, stbl, Mp4Box.STTS);
+        if (stts != null) {
+            int q = (int) stts.bodyOffset() + 4;
+            long entries = moov.getInt(q) & 0xFFFFFFFFL;
+            q += 4;
+            for (long i = 0; i < entries && q + 8 <= stts.end(); i++, q += 8) {
+                long count = moov.getInt(q) & 0xFFFFFFFFL;
+                long delta = moov.getInt(q + 4) & 0xFFFFFFFFL;
+                sttsSamples += count;
+                sttsTicks += count * delta;
+            }
+        }
+
+        long sampleCount = sttsSamples;
+        long videoBytes = 0;
+        Mp4Box stsz = Mp4Box.find(moov, stbl, Mp4Box.STSZ);
+        if (stsz != null) {
+            int q = (int) stsz.bodyOffset() + 4;
+            long fixedSize = moov.getInt(q) & 0xFFFFFFFFL;
+            long count = moov.getInt(q + 4) & 0xFFFFFFFFL;
+            sampleCount = count;
+            if (fixedSize != 0) {
+                videoBytes = fixedSize * count;
+            } else {
+                q += 8;
+                long available = Math.min(count, (stsz.end() - q) / 4);
+                for (long i = 0; i < available; i++, q += 4) {
+                    videoBytes += moov.getInt(q) & 0xFFFFFFFFL;
+                }
+            }
+        }
+
+        Mp4Box mvex = Mp4Box.find(moov, root, Mp4Box.MVEX);
+        if (mvex != null && file != null && tkhd != null) {
+            int q = (int) tkhd.bodyOffset();
+            int trackId = moov.getInt(q + ((moov.get(q) & 0xFF) == 1 ? 20 : 12));
+            long[] totals = fragmentTotals(file, trackId, trexDefaults(moov, mvex, trackId));
+            sampleCount += totals[0];
+            sttsTicks += totals[1];
+            videoBytes += totals[2];
+        }
+
+        long spanTicks = sttsTicks > 0 ? sttsTicks : mediaDuration;
+        double frameRate = spanTicks > 0 ? sampleCount * (double) timescale / spanTicks : 0;
+
+        long durationUs;
+        if (movieDuration > 0 && movieTimescale > 0) {
+            durationUs = movieDuration * 1_000_000L / movieTimescale;
+        } else if (mediaDuration > 0) {
+            durationUs = mediaDuration * 1_000_000L / timescale;
+        } else {
+            // Fragmented files usually leave the header durations at 0
+            durationUs = spanTicks * 1_000_000L / timescale;
+        }
+        long trackUs = spanTicks * 1_000_000L / timescale;
+        long bitrate = trackUs > 0 ? videoBytes * 8_000_000L / trackUs : 0;
+
+        return new Mp4Info(durationUs, width, height, frameRate, sampleCount, videoBytes, bitrate, codec, hasAudio);
+    }
+
+    // default_sample_duration and default_sample_size from the track's trex
+    private static long[] trexDefaults(ByteBuffer moov, Mp4Box mvex, int trackId) throws IOException {
+        int pos = (int) mvex.bodyOffset();
+        while (pos < mvex.end()) {
+            Mp4Box box = Mp4Box.read(moov, pos, (int) mvex.end());
+            int p = (int) box.bodyOffset();
+            if (box.type == Mp4Box.TREX && box.bodySize() >= 24 && moov.getInt(p + 4) == trackId) {
+                return new long[]{moov.getInt(p + 12) & 0xFFFFFFFFL, moov.getInt(p + 16) & 0xFFFFFFFFL};
+            }
+            pos = (int) box.end();
+        }
+        return new long[]{0, 0};
+    }
+
+    /**
+     * Sums {samples, ticks, bytes} of track {@code trackId} over every complete moof + mdat
+     * pair, stopping at the first box the end of the file cuts short.
+     */
+    private static long[] fragmentTotals(FileChannel channel, int trackId, long[] trex) throws IOException {
+        long[] totals = new long[3];
+        long fileSize = channel.size();
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long pos = 0;
+        while (pos + 8 <= fileSize) {
+            Mp4Box box = readTopLevel(channel, pos, fileSize, scratch);
+            if (box == null) break;
+            if (box.type == Mp4Box.MOOF) {
+                Mp4Box mdat = box.end() + 8 <= fileSize ? readTopLevel(channel, box.end(), fileSize, scratch) : null;
+                if (mdat == null || mdat.type != Mp4Box.MDAT || box.size > MAX_MOOF_SIZE) break;
+                ByteBuffer moof = ByteBuffer.allocate((int) box.size);
+                while (moof.hasRemaining()) {
+                    if (channel.read(moof, box.offset + moof.position()) < 0) break;
+                }
+                moof.flip();
+                addRuns(moof, trackId, trex, totals);
+                pos = mdat.end();
+                continue;
+            }
+            pos = box.end();
+        }
+        return totals;
+    }
+
+    private static void addRuns(ByteBuffer moof, int trackId, long[] trex, long[] totals) throws IOException {
+        Mp4Box root = Mp4Box.read(moof, 0, moof.limit());
+        int pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box traf = Mp4Box.read(moof, pos, (int) root.end());
+            pos = (int) traf.end();
+            if (traf.type != Mp4Box.TRAF) continue;
+            Mp4Box tfhd = Mp4Box.find(moof, traf, Mp4Box.TFHD);
+            if (tfhd == null) continue;
+            int p = (int) tfhd.bodyOffset();
+            int flags = moof.getInt(p) & 0xFFFFFF;
+            if (moof.getInt(p + 4) != trackId) continue;
+            p += 8;
+            if ((flags & 0x01) != 0) p += 8;       // base_data_offset
+            if ((flags & 0x02) != 0) p += 4;       // sample_description_index
+            long defaultDuration = trex[0];
+            long defaultSize = trex[1];
+            if ((flags & 0x08) != 0) {
+                defaultDuration = moof.getInt(p) & 0xFFFFFFFFL;
+                p += 4;
+            }
+            if ((flags & 0x10) != 0) defaultSize = moof.getInt(p) & 0xFFFFFFFFL;
+
+            int q = (int) traf.bodyOffset();
+            while (q < traf.end()) {
+                Mp4Box trun = Mp4Box.read(moof, q, (int) traf.end());
+                q = (int) trun.end();
+                if (trun.type != Mp4Box.TRUN) continue;
+                int r = (int) trun.bodyOffset();
+                int runFlags = moof.getInt(r) & 0xFFFFFF;
+                long count = moof.getInt(r + 4) & 0xFFFFFFFFL;
+                r += 8;
+                if ((runFlags & 0x001) != 0) r += 4;   // data_offset
+                if ((runFlags & 0x004) != 0) r += 4;   // first_sample_flags
+                boolean hasDuration = (runFlags & 0x100) != 0;
+                boolean hasSize = (runFlags & 0x200) != 0;
+                int stride = 4 * Integer.bitCount(runFlags & 0xF00);
+                if (r + count * stride > trun.end()) {
+                    throw new IOException("trun overruns its box");
+                }
+                for (long i = 0; i < count; i++, r += stride) {
+                    int field = r;
+                    long duration = defaultDuration;
+                    long size = defaultSize;
+                    if (hasDuration) {
+                        duration = moof.getInt(field) & 0xFFFFFFFFL;
+                        field += 4;
+                    }
+                    if (hasSize) size = moof.getInt(field) & 0xFFFFFFFFL;
+                    totals[1] += duration;
+                    totals[2] += size;
+                }
+                totals[0] += count;
+            }
+        }
+    }
+
+    // Header of the top-level box at pos, or null if the end of the file cuts it short
+    static Mp4Box readTopLevel(FileChannel channel, long pos, long fileSize, ByteBuffer scratch) {
+        try {
+            return Mp4Box.read(channel, pos, fileSize, scratch);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static int handlerType(ByteBuffer moov, Mp4Box trak) throws IOException {
+        Mp4Box hdlr = Mp4Box.find(moov, trak, Mp4Box.MDIA, Mp4Box.HDLR);
+        if (hdlr == null || hdlr.bodySize() < 12) return 0;
+        // version/flags, pre_defined, then handler_type
+        return moov.getInt((int) hdlr.bodyOffset() + 8);
+    }
+}
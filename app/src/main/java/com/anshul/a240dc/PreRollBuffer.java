@@ -0,0 +1,174 @@
+package com.anshul.a240dc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size circular buffer of encoded video samples, used to keep the last few seconds
+ * before the record button is pressed.
+ *
+ * Sample bytes live in one direct {@link ByteBuffer} arena allocated up front; per-sample
+ * metadata lives in parallel primitive rings. A sample is always stored contiguously, so when
+ * it does not fit before the end of the arena the write head wraps to the start. Writing
+ * evicts the oldest samples whose bytes or metadata slot are needed. Nothing is allocated per
+ * sample, on write or on drain.
+ *
+ * Not thread-safe; feed and drain it from the encoder's output thread.
+ */
+public class PreRollBuffer {
+
+    private final ByteBuffer arena;
+    private final ByteBuffer view;
+    private final int maxSamples;
+
+    // Metadata rings, indexed by sequence number % maxSamples
+    private final long[] ptsUs;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final int[] flags;
+
+    // Retained samples are [head, tail) in sequence numbers
+    private long head;
+    private long tail;
+    private int writePos;
+    private long droppedForSpace;
+
+    public PreRollBuffer(int capacityBytes, int maxSamples) {
+        this.arena = ByteBuffer.allocateDirect(capacityBytes);
+        this.view = arena.duplicate();
+        this.maxSamples = maxSamples;
+        this.ptsUs = new long[maxSamples];
+        this.offsets = new int[maxSamples];
+        this.sizes = new int[maxSamples];
+        this.flags = new int[maxSamples];
+    }
+
+    /** Sizes a buffer for {@code seconds} of video at {@code bitrate} and {@code fps}, plus one GOP of slack. */
+    public static PreRollBuffer forStream(int bitrate, int fps, double seconds, double gopSeconds) {
+        double span = seconds + gopSeconds + 0.5;
+        long bytes = (long) (bitrate / 8.0 * span * 1.25);
+        int samples = (int) Math.ceil(fps * span * 1.25);
+        return new PreRollBuffer((int) Math.min(Integer.MAX_VALUE - 8, bytes), samples);
+    }
+
+    public int capacityBytes() { return arena.capacity(); }
+    public int sampleCount() { return (int) (tail - head); }
+    public boolean isEmpty() { return head == tail; }
+    /** Samples evicted because the arena or metadata ring was full. */
+    public long droppedForSpace() { return droppedForSpace; }
+
+    /** Presentation time of the newest sample, or -1 when empty. */
+    public long newestPtsUs() {
+        return isEmpty() ? -1 : ptsUs[slot(tail - 1)];
+    }
+
+    public long oldestPtsUs() {
+        return isEmpty() ? -1 : ptsUs[slot(head)];
+    }
+
+    /**
+     * Copies the remaining bytes of {@code data} in as the newest sample. Samples larger than the
+     * whole arena are rejected and also clear the buffer, since the stream has a hole.
+     */
+    public boolean write(ByteBuffer data, long presentationTimeUs, int sampleFlags) {
+        int size = data.remaining();
+        if (size > arena.capacity()) {
+            clear();
+            return false;
+        }
+
+        int start = writePos;
+        if (start + size > arena.capacity()) {
+            start = 0; // keep each sample contiguous
+        }
+        int end = start + size;
+
+        // Evict anything whose bytes overlap [start, end) or whose metadata slot we need
+        while (head < tail) {
+            int s = slot(head);
+            int o = offsets[s];
+            boolean overlaps = o < end && o + sizes[s] > start;
+            boolean slotNeeded = tail - head >= maxSamples;
+            if (!overlaps && !slotNeeded) break;
+            head++;
+            droppedForSpace++;
+        }
+        if (head == tail) {
+            start = 0;
+            end = size;
+        }
+
+        int pos = data.position();
+        arena.limit(end).position(start);
+        arena.put(data);
+        data.position(pos);
+
+        int s = slot(tail);
+        ptsUs[s] = presentationTimeUs;
+        offsets[s] = start;
+        sizes[s] = size;
+        flags[s] = sampleFlags;
+        tail++;
+        writePos = end;
+        return true;
+    }
+
+    /**
+     * Drops samples that are no longer needed to serve a pre-roll of {@code preRollUs}: everything
+     * before the newest keyframe that is at least that far behind the newest sample.
+     */
+    public void trimTo(long preRollUs) {
+        long keep = findStart(preRollUs);
+        if (keep > head) head = keep;
+    }
+
+    /**
+     * Returns the sequence number of the sample a flush for {@code preRollUs} would start at: the
+     * newest keyframe at least {@code preRollUs} before the newest sample, else the oldest
+     * keyframe held. Returns {@code tail} if no keyframe is held at all.
+     */
+    long findStart(long preRollUs) {
+        if (isEmpty()) return tail;
+        long target = newestPtsUs() - preRollUs;
+        long oldestKey = -1;
+        for (long seq = tail - 1; seq >= head; seq--) {
+            int s = slot(seq);
+            if ((flags[s] & EncodedSampleSink.FLAG_KEY_FRAME) == 0) continue;
+            if (ptsUs[s] <= target) return seq;
+            oldestKey = seq;
+        }
+        return oldestKey >= 0 ? oldestKey : tail;
+    }
+
+    /** Presentation time a flush for {@code preRollUs} would start at, or -1 if nothing is usable. */
+    public long flushStartPtsUs(long preRollUs) {
+        long start = findStart(preRollUs);
+        return start == tail ? -1 : ptsUs[slot(start)];
+    }
+
+    /**
+     * Writes the retained samples starting at the keyframe chosen for {@code preRollUs} to
+     * {@code sink}, oldest first, then empties the buffer. Returns the number of samples written.
+     */
+    public int drainTo(EncodedSampleSink sink, long preRollUs) throws IOException {
+        long start = findStart(preRollUs);
+        int written = 0;
+        for (long seq = start; seq < tail; seq++) {
+            int s = slot(seq);
+            view.limit(offsets[s] + sizes[s]).position(offsets[s]);
+            sink.writeSample(view, ptsUs[s], flags[s]);
+            written++;
+        }
+        clear();
+        return written;
+    }
+
+    public void clear() {
+        head = tail;
+        writePos = 0;
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % maxSamples);
+    }
+}
@@ -0,0 +1,376 @@
+package com.anshul.a240dc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps long takes from overheating the device or outrunning the writer, by trading quality
+ * for headroom and taking it back once things recover.
+ *
+ * During a take, {@link #update} gets the thermal status, the writer queue's fill and drops,
+ * and the measured frame rate about twice a second. Pressure that lasts
+ * {@link Policy#stepDownAfterMs} lowers the bitrate one step; calm that lasts the much longer
+ * {@link Policy#stepUpAfterMs} raises it one step. Pressure and calm have separate thresholds,
+ * and anything between them holds the current setting, so a reading near a limit cannot make
+ * the bitrate flap.
+ *
+ * Size and frame rate need a new session, so they only change between takes, in
+ * {@link #nextTake}: one rung down the {@link #ladder} if the last take ran out of bitrate to
+ * give or the device is already hot, one rung back up after a take that ended calm on a cool
+ * device. Every take starts at its mode's full bitrate.
+ *
+ * Each change is a {@link Decision}; a take's decisions, including the mode change it started
+ * with, are written next to the clip's telemetry by {@link #write}. Time only comes in through
+ * the arguments, so a scripted trace always gives the same decisions. Not thread-safe.
+ */
+public final class RecordingGovernor {
+
+    // PowerManager.THERMAL_STATUS_* values, repeated so the policy runs on a plain JVM
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_LIGHT = 1;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+
+    static final String MAGIC = "GOVLOG";
+    static final int VERSION = 1;
+
+    public enum Action { BITRATE_DOWN, BITRATE_UP, MODE_DOWN, MODE_UP }
+
+    /** Thresholds and timings. Immutable; build one with {@link Builder}. */
+    public static final class Policy {
+        /** Thermal status from which on the device counts as hot. */
+        public final int hotThermal;
+        /** Thermal status up to which it counts as cool again. */
+        public final int coolThermal;
+        /** Writer queue fill, 0-1, from which the writer counts as falling behind. */
+        public final float highBacklog;
+        /** Fill up to which it counts as keeping up. */
+        public final float lowBacklog;
+        /** Share of the nominal rate below which capture counts as falling behind. */
+        public final float lowFpsRatio;
+        /** Share it has to be back at to count as keeping up. */
+        public final float okFpsRatio;
+        public final long stepDownAfterMs;
+        public final long stepUpAfterMs;
+        /** Each step down multiplies the bitrate by this. */
+        public final float bitrateStep;
+        /** Lowest share of a mode's bitrate a step may go to. */
+        public final float minBitrateRatio;
+        /** Modes below this rate are left off the ladder, to keep takes slow-motion. */
+        public final int minFps;
+
+        private Policy(Builder b) {
+            hotThermal = b.hotThermal;
+            coolThermal = b.coolThermal;
+            highBacklog = b.highBacklog;
+            lowBacklog = b.lowBacklog;
+            lowFpsRatio = b.lowFpsRatio;
+            okFpsRatio = b.okFpsRatio;
+            stepDownAfterMs = b.stepDownAfterMs;
+            stepUpAfterMs = b.stepUpAfterMs;
+            bitrateStep = b.bitrateStep;
+            minBitrateRatio = b.minBitrateRatio;
+            minFps = b.minFps;
+        }
+
+        public static final class Builder {
+            private int hotThermal = THERMAL_MODERATE;
+            private int coolThermal = THERMAL_LIGHT;
+            private float highBacklog = 0.5f;
+            private float lowBacklog = 0.15f;
+            private float lowFpsRatio = 0.95f;
+            private float okFpsRatio = 0.98f;
+            private long stepDownAfterMs = 1500;
+            private long stepUpAfterMs = 15_000;
+            private float bitrateStep = 0.8f;
+            private float minBitrateRatio = 0.5f;
+            private int minFps = 120;
+
+            public Builder thermal(int hot, int cool) { hotThermal = hot; coolThermal = cool; return this; }
+            public Builder backlog(float high, float low) { highBacklog = high; lowBacklog = low; return this; }
+            public Builder fpsRatio(float low, float ok) { lowFpsRatio = low; okFpsRatio = ok; return this; }
+            public Builder stepDownAfter(long ms) { stepDownAfterMs = ms; return this; }
+            public Builder stepUpAfter(long ms) { stepUpAfterMs = ms; return this; }
+            public Builder bitrateStep(float step) { bitrateStep = step; return this; }
+            public Builder minBitrateRatio(float ratio) { minBitrateRatio = ratio; return this; }
+            public Builder minFps(int fps) { minFps = fps; return this; }
+
+            public Policy build() {
+                if (coolThermal >= hotThermal) throw new IllegalArgumentException("Bad thermal band " + coolThermal + "-" + hotThermal);
+                if (!(lowBacklog >= 0 && lowBacklog < highBacklog && highBacklog <= 1)) {
+                    throw new IllegalArgumentException("Bad backlog band " + lowBacklog + "-" + highBacklog);
+                }
+                if (!(lowFpsRatio > 0 && lowFpsRatio < okFpsRatio && okFpsRatio <= 1)) {
+                    throw new IllegalArgumentException("Bad fps band " + lowFpsRatio + "-" + okFpsRatio);
+                }
+                if (stepDownAfterMs < 0 || stepUpAfterMs < 0) throw new IllegalArgumentException("Bad step timing");
+                if (!(bitrateStep > 0 && bitrateStep < 1)) throw new IllegalArgumentException("Bad bitrate step " + bitrateStep);
+                if (!(minBitrateRatio > 0 && minBitrateRatio <= 1)) throw new IllegalArgumentException("Bad minimum bitrate " + minBitrateRatio);
+                return new Policy(this);
+            }
+        }
+    }
+
+    /** One reading of what the take is up against. */
+    public static final class Conditions {
+        /** A {@code PowerManager.THERMAL_STATUS_*} value. */
+        public final int thermalStatus;
+        /** Writer queue fill, 0-1. */
+        public final float backlog;
+        /** Measured capture rate, or 0 before there is one. */
+        public final float fps;
+        /** Samples the writer queue dropped so far; only increases count. */
+        public final long dropped;
+
+        public Conditions(int thermalStatus, float backlog, float fps, long dropped) {
+            this.thermalStatus = thermalStatus;
+            this.backlog = backlog;
+            this.fps = fps;
+            this.dropped = dropped;
+        }
+    }
+
+    public static final class Decision {
+        /** Milliseconds into the take; 0 for a mode change made before it. */
+        public final long atMs;
+        public final Action action;
+        /** The new bitrate or mode, e.g. {@code 19.9Mbps} or {@code 1280x720@240}. */
+        public final String setting;
+        public final String reason;
+
+        public Decision(long atMs, Action action, String setting, String reason) {
+            this.atMs = atMs;
+            this.action = action;
+            this.setting = setting;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1fs %s %s (%s)", atMs / 1000.0, action, setting, reason);
+        }
+    }
+
+    private final Policy policy;
+    private final EncoderConfig base;
+    private final List<HighSpeedMode> ladder;
+    private final List<Decision> decisions = new ArrayList<>();
+
+    private int modeIndex;
+    private EncoderConfig config;
+    private int level;
+    private boolean inTake;
+    private long takeStartMs;
+    private long pressureSinceMs = -1;
+    private long calmSinceMs = -1;
+    private long lastDropped = -1;
+
+    // How the last take ended, for the choice between takes
+    private boolean endedAtFloor;
+    private boolean endedCalm;
+
+    /**
+     * Governs takes that start out as {@code base}. {@code ladder} is what {@link #ladder}
+     * returned for base's mode; an empty one leaves size and frame rate alone.
+     */
+    public RecordingGovernor(Policy policy, EncoderConfig base, List<HighSpeedMode> ladder) {
+        this.policy = policy;
+        this.base = base;
+        this.ladder = new ArrayList<>(ladder);
+        this.config = base;
+    }
+
+    /**
+     * The modes of {@code start}'s camera a take may step down to, {@code start} first, then by
+     * pixels per second. A rung is never bigger or faster than {@code start}, nor slower than
+     * {@code minFps}.
+     */
+    public static List<HighSpeedMode> ladder(List<HighSpeedMode> modes, HighSpeedMode start, int minFps) {
+        List<HighSpeedMode> rungs = new ArrayList<>();
+        for (HighSpeedMode m : modes) {
+            if (m.equals(start) || !m.cameraId.equals(start.cameraId) || m.fps < minFps) continue;
+            if (m.fps > start.fps || m.pixels() > start.pixels()) continue;
+            rungs.add(m);
+        }
+        Collections.sort(rungs, (a, b) -> {
+            int byLoad = Long.compare(b.pixels() * b.fps, a.pixels() * a.fps);
+            return byLoad != 0 ? byLoad : Integer.compare(b.fps, a.fps);
+        });
+        rungs.add(0, start);
+        return rungs;
+    }
+
+    /** Encoder settings for the next take: base, or base moved to the current rung. */
+    public EncoderConfig config() {
+        return config;
+    }
+
+    /** The bitrate the encoder should run at right now. */
+    public int bitrate() {
+        return (int) (config.bitrate * Math.max(policy.minBitrateRatio, Math.pow(policy.bitrateStep, level)));
+    }
+
+    private boolean atFloor() {
+        return Math.pow(policy.bitrateStep, level) <= policy.minBitrateRatio;
+    }
+
+    public boolean isInTake() {
+        return inTake;
+    }
+
+    /** Starts a take at the current mode's full bitrate. Keeps a mode change made just before. */
+    public void beginTake(long nowMs) {
+        inTake = true;
+        takeStartMs = nowMs;
+        level = 0;
+        pressureSinceMs = -1;
+        calmSinceMs = -1;
+        lastDropped = -1;
+    }
+
+    /**
+     * Folds in one reading and returns the change it calls for, if any; the caller applies
+     * {@link #bitrate()}. Readings outside a take are ignored.
+     */
+    public Decision update(long nowMs, Conditions c) {
+        if (!inTake) return null;
+        String pressure = pressure(c);
+        boolean calm = pressure == null && calm(c);
+        lastDropped = c.dropped;
+
+        if (pressure == null) {
+            pressureSinceMs = -1;
+        } else if (pressureSinceMs < 0) {
+            pressureSinceMs = nowMs;
+        }
+        if (!calm) {
+            calmSinceMs = -1;
+        } else if (calmSinceMs < 0) {
+            calmSinceMs = nowMs;
+        }
+
+        if (pressure != null && !atFloor() && nowMs - pressureSinceMs >= policy.stepDownAfterMs) {
+            level++;
+            pressureSinceMs = nowMs; // The next step has to wait out its own stretch of pressure
+            return log(nowMs - takeStartMs, Action.BITRATE_DOWN, bitrateSetting(), pressure);
+        }
+        if (calm && level > 0 && nowMs - calmSinceMs >= policy.stepUpAfterMs) {
+            level--;
+            calmSinceMs = nowMs;
+            return log(nowMs - takeStartMs, Action.BITRATE_UP, bitrateSetting(),
+                    "calm for " + policy.stepUpAfterMs / 1000 + "s");
+        }
+        return null;
+    }
+
+    // Why the take is under pressure, or null if it is not
+    private String pressure(Conditions c) {
+        List<String> reasons = new ArrayList<>();
+        if (c.thermalStatus >= policy.hotThermal) reasons.add("thermal " + c.thermalStatus);
+        if (c.backlog >= policy.highBacklog) reasons.add("backlog " + Math.round(c.backlog * 100) + "%");
+        if (c.fps > 0 && c.fps < config.fps * policy.lowFpsRatio) {
+            reasons.add(String.format(Locale.US, "%.0f of %d fps", c.fps, config.fps));
+        }
+        if (lastDropped >= 0 && c.dropped > lastDropped) reasons.add((c.dropped - lastDropped) + " samples dropped");
+        return reasons.isEmpty() ? null : String.join(", ", reasons);
+    }
+
+    private boolean calm(Conditions c) {
+        return c.thermalStatus <= policy.coolThermal && c.backlog <= policy.lowBacklog
+                && (c.fps <= 0 || c.fps >= config.fps * policy.okFpsRatio);
+    }
+
+    /** Ends the take and returns its decisions, oldest first. */
+    public List<Decision> endTake(long nowMs) {
+        if (!inTake) return Collections.emptyList();
+        inTake = false;
+        endedAtFloor = level > 0 && atFloor();
+        endedCalm = level == 0 && calmSinceMs >= 0 && nowMs - calmSinceMs >= policy.stepUpAfterMs;
+        List<Decision> take = new ArrayList<>(decisions);
+        decisions.clear();
+        return take;
+    }
+
+    /**
+     * Picks the mode for the next take, going by how the last one ended and how hot the device
+     * is now. Returns the change, if any; the caller rebuilds its session for {@link #config()}.
+     */
+    public Decision nextTake(int thermalStatus) {
+        if (inTake || ladder.size() < 2) return null;
+        boolean hot = thermalStatus >= policy.hotThermal;
+        if ((endedAtFloor || hot) && modeIndex < ladder.size() - 1) {
+            String reason = endedAtFloor ? "last take ended at minimum bitrate" : "thermal " + thermalStatus;
+            return changeMode(modeIndex + 1, Action.MODE_DOWN, reason);
+        }
+        if (endedCalm && thermalStatus <= policy.coolThermal && modeIndex > 0) {
+            return changeMode(modeIndex - 1, Action.MODE_UP, "last take ended calm");
+        }
+        return null;
+    }
+
+    private Decision changeMode(int index, Action action, String reason) {
+        modeIndex = index;
+        HighSpeedMode m = ladder.get(index);
+        config = index == 0 ? base
+                : base.buildUpon().size(m.width, m.height).fps(m.fps).operatingRate(m.fps).bitrate(0).build();
+        endedAtFloor = false;
+        endedCalm = false;
+        // Goes into the log of the take it applies to
+        return log(0, action, m.width + "x" + m.height + "@" + m.fps, reason);
+    }
+
+    private String bitrateSetting() {
+        return String.format(Locale.US, "%.1fMbps", bitrate() / 1e6);
+    }
+
+    private Decision log(long atMs, Action action, String setting, String reason) {
+        Decision d = new Decision(atMs, action, setting, reason);
+        decisions.add(d);
+        return d;
+    }
+
+    /** Where the decision log for {@code clipName} lives, next to its telemetry sidecar. */
+    public static File sidecarFor(File filesDir, String clipName) {
+        return new File(new File(filesDir, "telemetry"), clipName + ".gov");
+    }
+
+    public static void write(File file, List<Decision> decisions) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(MAGIC + '\t' + VERSION + '\n');
+            for (Decision d : decisions) {
+                out.write(d.atMs + "\t" + d.action + '\t' + d.setting + '\t' + d.reason + '\n');
+            }
+        }
+    }
+
+    public static List<Decision> read(File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!(MAGIC + '\t' + VERSION).equals(in.readLine())) throw new IOException("Not a decision log: " + file);
+            List<Decision> decisions = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split("\t", 4);
+                if (parts.length != 4) throw new IOException("Bad decision log line: " + line);
+                try {
+                    decisions.add(new Decision(Long.parseLong(parts[0]), Action.valueOf(parts[1]), parts[2], parts[3]));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Bad decision log line: " + line, e);
+                }
+            }
+            return decisions;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.anshul.a240dc;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Surface → MediaCodec → {@link SampleQueue} → {@link SegmentedMp4Writer}, replacing MediaRecorder.
+ *
+ * The video encoder reads the camera's persistent surface and runs for as long as the pipeline
+ * is prepared; its callbacks arrive on an "encoder" thread. Between takes its output is either
+ * dropped or, with pre-roll on, kept in a {@link PreRollBuffer}. During a take, video and audio
+ * samples go through a bounded queue to a "sample-writer" thread that owns the file, so a slow
+ * flash write stalls the encoder briefly instead of losing frames or growing the heap.
+ *
+ * Output is fragmented MP4 cut every {@link #FRAGMENT_US}, so if the app dies or storage runs
+ * out mid-take, everything up to the last fragment is still a playable clip. With
+ * {@link #watchStorage} set, the writer preallocates ahead of itself, keeps a
+ * {@link StorageMonitor} on the volume, and stops writing on its own before the volume fills.
+ */
+public class RecordingPipeline {
+
+    /** Gets a take's storage readings, on the writer thread. */
+    public interface StorageListener {
+        void onStorage(StorageMonitor.Reading reading);
+    }
+
+    private static final String TAG = "RecordingPipeline";
+    static final int TRACK_VIDEO = 0;
+    static final int TRACK_AUDIO = 1;
+
+    private static final int QUEUE_SLOTS = 120;
+    private static final long PUT_TIMEOUT_NANOS = 50_000_000L;
+    private static final long FORMAT_TIMEOUT_MS = 2000;
+    private static final long FRAGMENT_US = 250_000;
+    // Left free on the volume, for the system and for the fragment in flight when a take stops
+    private static final long RESERVE_BYTES = 64L << 20;
+    private static final long PREALLOCATE_SECONDS = 4;
+
+    private final Surface inputSurface;
+    private final EncoderConfig config;
+    private final boolean recordAudio;
+    private final long preRollUs;
+    private final HandlerThread encoderThread;
+    private final Handler encoderHandler;
+    private final SampleQueue queue;
+    // Only touched on the encoder thread
+    private final PreRollBuffer preRoll;
+
+    private volatile MediaCodec videoEncoder;
+    private volatile MediaFormat videoFormat;
+    private AudioCapture audio;
+    private Thread writer;
+    private volatile List<String> takeOutputs = Collections.emptyList();
+    // Stay clear of FAT32's 4 GB file limit on SD cards
+    private volatile long maxSegmentBytes = 3_500_000_000L;
+    private volatile long maxSegmentDurationUs;
+    private volatile boolean stopping;
+    private volatile boolean discardTake;
+    private volatile LongSupplier freeBytes;
+    private volatile long sustainedBytesPerSecond;
+    private volatile StorageListener storageListener;
+
+    private volatile long lastVideoNanos;
+
+    // Encoder-thread state
+    private boolean takeActive;
+    private boolean waitingForKeyframe;
+
+    // The pre-roll goes in while the writer may still be waiting for the audio format
+    private final EncodedSampleSink queueSink = (data, ptsUs, flags) ->
+            enqueueVideo(data, ptsUs, flags, TimeUnit.MILLISECONDS.toNanos(FORMAT_TIMEOUT_MS));
+
+    public RecordingPipeline(Surface inputSurface, EncoderConfig config, boolean recordAudio, double preRollSeconds) {
+        this.inputSurface = inputSurface;
+        this.config = config;
+        this.recordAudio = recordAudio;
+        this.preRollUs = (long) (preRollSeconds * 1_000_000);
+        this.preRoll = preRollSeconds > 0
+                ? PreRollBuffer.forStream(config.bitrate, config.fps, preRollSeconds, config.iFrameIntervalSeconds)
+                : null;
+        this.queue = new SampleQueue(QUEUE_SLOTS, Math.max(64 * 1024, config.averageFrameBytes() * 2));
+        encoderThread = new HandlerThread("encoder", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        encoderThread.start();
+        encoderHandler = new Handler(encoderThread.getLooper());
+    }
+
+    public boolean isPrepared() {
+        return videoEncoder != null;
+    }
+
+    public boolean isInTake() {
+        return writer != null;
+    }
+
+    /** Creates and starts the video encoder on the input surface. */
+    public void prepare() throws IOException {
+        if (videoEncoder != null) return;
+        MediaFormat format = toMediaFormat(config);
+        MediaCodec codec = MediaCodec.createEncoderByType(config.codec.mime);
+        codec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec c, int index) {
+                // Surface input
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec c, int index, @NonNull MediaCodec.BufferInfo info) {
+                if (c != videoEncoder) return;
+                ByteBuffer data = c.getOutputBuffer(index);
+                if (data != null && info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                    data.limit(info.offset + info.size).position(info.offset);
+                    onVideoSample(data, info.presentationTimeUs,
+                            (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0 ? EncodedSampleSink.FLAG_KEY_FRAME : 0);
+                }
+                c.releaseOutputBuffer(index, false);
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec c, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "Video encoder error", e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec c, @NonNull MediaFormat f) {
+                videoFormat = f;
+            }
+        }, encoderHandler);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.setInputSurface(inputSurface);
+            codec.start();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            codec.release();
+            throw new IOException("Encoder rejected " + config + ": " + e.getMessage(), e);
+        }
+        videoEncoder = codec;
+    }
+
+    private void onVideoSample(ByteBuffer data, long ptsUs, int flags) {
+        lastVideoNanos = System.nanoTime();
+        if (takeActive) {
+            enqueueVideo(data, ptsUs, flags, PUT_TIMEOUT_NANOS);
+        } else if (preRoll != null) {
+            preRoll.write(data, ptsUs, flags);
+            preRoll.trimTo(preRollUs);
+        }
+    }
+
+    // A dropped video sample breaks every frame up to the next keyframe, so skip to one
+    private void enqueueVideo(ByteBuffer data, long ptsUs, int flags, long timeoutNanos) {
+        boolean key = (flags & EncodedSampleSink.FLAG_KEY_FRAME) != 0;
+        if (waitingForKeyframe && !key) return;
+        try {
+            if (queue.put(TRACK_VIDEO, data, ptsUs, flags, timeoutNanos)) {
+                waitingForKeyframe = false;
+            } else {
+                waitingForKeyframe = true;
+                requestKeyframe();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void requestKeyframe() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            videoEncoder.setParameters(params);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Moves the running encoder to {@code bitrate} without a new keyframe. Encoders in
+     * {@link EncoderConfig.BitrateMode#CQ} ignore it.
+     */
+    public void setBitrate(int bitrate) {
+        MediaCodec codec = videoEncoder;
+        if (codec == null) return;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        try {
+            codec.setParameters(params);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** How full the writer's queue is right now, 0 to 1. */
+    public float backlog() {
+        return (float) queue.depth() / queue.capacity();
+    }
+
+    /** Video and audio samples dropped for lack of a queue slot, over the pipeline's life. */
+    public long dropped() {
+        return queue.dropped();
+    }
+
+    /**
+     * Splits later takes into numbered files of at most about this size or length (0 = no
+     * limit). The cut waits for the next keyframe, so each file plays on its own.
+     */
+    public void setSegmentLimits(long maxSegmentBytes, long maxSegmentDurationUs) {
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentDurationUs = maxSegmentDurationUs;
+    }
+
+    /**
+     * Watches later takes against the volume they go to. {@code freeBytes} reports the space
+     * left on it and is called on the writer thread about twice a second;
+     * {@code sustainedBytesPerSecond} is what the volume benchmarked at, or 0 if unknown.
+     */
+    public void watchStorage(LongSupplier freeBytes, long sustainedBytesPerSecond, StorageListener listener) {
+        this.freeBytes = freeBytes;
+        this.sustainedBytesPerSecond = sustainedBytesPerSecond;
+        this.storageListener = listener;
+    }
+
+    /** How fast a take with {@code config} grows, going by the bitrates asked for. */
+    static long expectedBytesPerSecond(EncoderConfig config, boolean audio) {
+        return ((long) config.bitrate + (audio ? AudioCapture.BITRATE : 0)) / 8;
+    }
+
+    /**
+     * Starts writing to {@code output}: any pre-roll first, then live video, plus audio when
+     * enabled. Returns once the take is set up; the segments fill in on the writer thread.
+     */
+    public void beginTake(RecordingTarget output) throws IOException {
+        if (videoEncoder == null) throw new IOException("Encoder not running");
+        if (writer != null) throw new IOException("Take already running");
+        queue.clear();
+        stopping = false;
+        discardTake = false;
+        takeOutputs = Collections.emptyList();
+
+        if (recordAudio) {
+            audio = new AudioCapture(queue, TRACK_AUDIO);
+            try {
+                audio.start();
+            } catch (IOException e) {
+                Log.w(TAG, "Recording without audio: " + e.getMessage());
+                audio.stop();
+                audio = null;
+            }
+        }
+        AudioCapture takeAudio = audio;
+        writer = new Thread(() -> writeLoop(output, takeAudio), "sample-writer");
+        writer.setPriority(Thread.MAX_PRIORITY - 1);
+        writer.start();
+
+        encoderHandler.post(() -> {
+            takeActive = true;
+            waitingForKeyframe = true;
+            if (preRoll != null && !preRoll.isEmpty()) {
+                try {
+                    preRoll.drainTo(queueSink, preRollUs);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (waitingForKeyframe) requestKeyframe();
+        });
+    }
+
+    /**
+     * Finishes the take, waits for the writer and publishes the segments. Returns where they
+     * ended up, first segment first, or an empty list if nothing usable was recorded.
+     * With {@code settleMs > 0}, first waits until the encoder has been quiet that long, so
+     * frames still in flight after the camera stopped end up in the file.
+     */
+    public List<String> endTake(long settleMs) {
+        if (writer == null) return Collections.emptyList();
+        long giveUp = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settleMs * 4);
+        try {
+            while (settleMs > 0 && System.nanoTime() < giveUp
+                    && System.nanoTime() - lastVideoNanos < TimeUnit.MILLISECONDS.toNanos(settleMs)) {
+                Thread.sleep(5);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CountDownLatch detached = new CountDownLatch(1);
+        encoderHandler.post(() -> {
+            takeActive = false;
+            detached.countDown();
+        });
+        try {
+            detached.await(1, TimeUnit.SECONDS);
+            if (audio != null) {
+                audio.stop();
+                audio = null;
+            }
+            stopping = true;
+            queue.putEndOfStream();
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        if (queue.dropped() > 0 || queue.waits() > 0) {
+            Log.i(TAG, "Take done: " + queue.dropped() + " samples dropped, " + queue.waits()
+                    + " writer stalls, queue high water " + queue.highWater() + "/" + queue.capacity());
+        }
+        return takeOutputs;
+    }
+
+    /** Ends the take right away and removes whatever it wrote. */
+    public void abortTake() {
+        discardTake = true;
+        endTake(0);
+    }
+
+    private void writeLoop(RecordingTarget output, AudioCapture takeAudio) {
+        SegmentedMp4Writer out = null;
+        int[] tracks = {-1, -1};
+        long written = 0;
+        try {
+            // The init segment needs every track, so wait for the formats
+            long deadline = System.currentTimeMillis() + FORMAT_TIMEOUT_MS;
+            while (!stopping && System.currentTimeMillis() < deadline
+                    && (videoFormat == null || (takeAudio != null && takeAudio.outputFormat() == null))) {
+                Thread.sleep(5);
+            }
+            if (videoFormat != null) {
+                List<FragmentedMp4Writer.Track> list = new ArrayList<>();
+                tracks[TRACK_VIDEO] = list.size();
+                list.add(videoTrack(videoFormat, config));
+                MediaFormat audioFormat = takeAudio != null ? takeAudio.outputFormat() : null;
+                if (audioFormat != null) {
+                    tracks[TRACK_AUDIO] = list.size();
+                    list.add(audioTrack(audioFormat));
+                }
+                out = new SegmentedMp4Writer(output, list, 0, FRAGMENT_US, maxSegmentBytes, maxSegmentDurationUs);
+            }
+            LongSupplier free = freeBytes;
+            StorageMonitor monitor = null;
+            if (out != null && free != null) {
+                long expected = expectedBytesPerSecond(config, tracks[TRACK_AUDIO] >= 0);
+                out.setPreallocation(expected * PREALLOCATE_SECONDS);
+                monitor = new StorageMonitor(expected, sustainedBytesPerSecond, RESERVE_BYTES);
+            }
+
+            boolean full = false;
+            while (true) {
+                SampleQueue.Sample s = queue.take();
+                if (s.endOfStream) {
+                    queue.recycle(s);
+                    break;
+                }
+                // Once the volume is nearly full the rest of the take is dropped, not half-written
+                if (out != null && tracks[s.track] >= 0 && !full) {
+                    out.writeSample(tracks[s.track], s.data, s.presentationTimeUs, s.flags);
+                    if (s.track == TRACK_VIDEO) {
+                        written++;
+                        if (monitor != null) full = checkStorage(monitor, out, free);
+                    }
+                }
+                queue.recycle(s);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | IllegalArgumentException e) {
+            // Out of space or the like: what already reached the disk stays playable
+            Log.e(TAG, "Writer failed", e);
+            drainUntilEndOfStream();
+        } finally {
+            if (out != null) {
+                if (written > 0 && !discardTake) {
+                    takeOutputs = out.publish();
+                } else {
+                    out.discard();
+                }
+            }
+        }
+    }
+
+    // True once the take has to stop for lack of space
+    private boolean checkStorage(StorageMonitor monitor, SegmentedMp4Writer out, LongSupplier free) {
+        long now = System.nanoTime();
+        if (!monitor.due(now)) return false;
+        // Space already reserved for the segment is the take's own, so it counts as free
+        StorageMonitor.Reading reading = monitor.update(now, out.bytesWritten(),
+                free.getAsLong() + out.preallocatedUnused(), queue.waits());
+        StorageListener listener = storageListener;
+        if (listener != null) listener.onStorage(reading);
+        if (reading.status != StorageMonitor.Status.FULL) return false;
+        Log.w(TAG, "Ending take, storage nearly full: " + reading);
+        return true;
+    }
+
+    // Keeps the producers from stalling after the writer has given up
+    private void drainUntilEndOfStream() {
+        try {
+            while (true) {
+                SampleQueue.Sample s = queue.take();
+                boolean end = s.endOfStream;
+                queue.recycle(s);
+                if (end) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static FragmentedMp4Writer.Track videoTrack(MediaFormat format, EncoderConfig config) throws IOException {
+        List<byte[]> nals = new ArrayList<>(AnnexB.nalUnits(csd(format, "csd-0")));
+        if (format.containsKey("csd-1")) nals.addAll(AnnexB.nalUnits(csd(format, "csd-1")));
+        int width = format.getInteger(MediaFormat.KEY_WIDTH);
+        int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        if (config.codec == EncoderConfig.Codec.HEVC) {
+            byte[] vps = null, sps = null, pps = null;
+            for (byte[] nal : nals) {
+                int type = AnnexB.hevcType(nal);
+                if (type == 32 && vps == null) vps = nal;
+                else if (type == 33 && sps == null) sps = nal;
+                else if (type == 34 && pps == null) pps = nal;
+            }
+            if (vps == null || sps == null || pps == null) throw new IOException("HEVC codec config incomplete");
+            return FragmentedMp4Writer.Track.hevc(width, height, vps, sps, pps);
+        }
+        byte[] sps = null, pps = null;
+        for (byte[] nal : nals) {
+            int type = AnnexB.avcType(nal);
+            if (type == 7 && sps == null) sps = nal;
+            else if (type == 8 && pps == null) pps = nal;
+        }
+        if (sps == null || pps == null || sps.length < 4) throw new IOException("AVC codec config incomplete");
+        return FragmentedMp4Writer.Track.avc(width, height, sps, pps);
+    }
+
+    static FragmentedMp4Writer.Track audioTrack(MediaFormat format) throws IOException {
+        return FragmentedMp4Writer.Track.aac(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), csd(format, "csd-0"));
+    }
+
+    private static byte[] csd(MediaFormat format, String key) throws IOException {
+        ByteBuffer buf = format.getByteBuffer(key);
+        if (buf == null) throw new IOException("Encoder output has no " + key);
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public void release() {
+        endTake(0);
+        if (videoEncoder != null) {
+            MediaCodec codec = videoEncoder;
+            videoEncoder = null;
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+            codec.release();
+        }
+        videoFormat = null;
+        encoderHandler.post(() -> {
+            if (preRoll != null) preRoll.clear();
+        });
+        encoderThread.quitSafely();
+    }
+
+    /**
+     * Builds the encoder format for {@code config}, falling back to VBR when the device's
+     * encoder does not support the requested bitrate mode.
+     */
+    static MediaFormat toMediaFormat(EncoderConfig config) {
+        MediaFormat format = MediaFormat.createVideoFormat(config.codec.mime, config.width, config.height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, config.fps);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1) {
+            format.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, config.iFrameIntervalSeconds);
+        } else {
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, Math.max(1, Math.round(config.iFrameIntervalSeconds)));
+        }
+        if (config.operatingRate > 0) format.setInteger(MediaFormat.KEY_OPERATING_RATE, config.operatingRate);
+        format.setInteger(MediaFormat.KEY_PRIORITY, config.priority);
+
+        EncoderConfig.BitrateMode mode = supportsBitrateMode(config) ? config.bitrateMode : EncoderConfig.BitrateMode.VBR;
+        switch (mode) {
+            case CBR:
+                format.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
+                format.setInteger(MediaFormat.KEY_BIT_RATE, config.bitrate);
+                break;
+            case CQ:
+                format.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    format.setInteger(MediaFormat.KEY_QUALITY, config.quality);
+                }
+                break;
+            default:
+                format.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR);
+                format.setInteger(MediaFormat.KEY_BIT_RATE, config.bitrate);
+                break;
+        }
+        return format;
+    }
+
+    private static boolean supportsBitrateMode(EncoderConfig config) {
+        int wanted;
+        switch (config.bitrateMode) {
+            case CBR: wanted = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR; break;
+            case CQ: wanted = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ; break;
+            default: wanted = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR; break;
+        }
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) continue;
+            for (String type : info.getSupportedTypes()) {
+                if (!type.equalsIgnoreCase(config.codec.mime)) continue;
+                MediaCodecInfo.EncoderCapabilities caps = info.getCapabilitiesForType(type).getEncoderCapabilities();
+                if (caps != null && caps.isBitrateModeSupported(wanted)) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package com.anshul.a240dc;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Where the segments of one take are written. {@link SegmentedMp4Writer} opens one
+ * {@link Segment} per file and, once the take is over, either publishes or discards them all;
+ * whether a segment is a plain file or a pending MediaStore entry is up to the target.
+ */
+public interface RecordingTarget {
+
+    /** Opens segment {@code index} (1-based), empty and positioned at its start. */
+    Segment open(int index) throws IOException;
+
+    /** Reserves disk blocks for a file, e.g. with {@code posix_fallocate}. */
+    interface Preallocator {
+        void allocate(FileDescriptor fd, long length) throws IOException;
+    }
+
+    interface Segment {
+        /** Sequential output for the segment's bytes; valid until {@link #close()}. */
+        FileChannel channel();
+
+        /** Path the segment is listed under, for logs, the telemetry sidecar and the UI. */
+        String location();
+
+        /**
+         * Reserves space for the segment to grow to {@code length} bytes, so the volume does not
+         * have to find blocks while frames are waiting. Does nothing where that is not possible.
+         * The writer truncates the file to what it wrote before closing it.
+         */
+        void preallocate(long length) throws IOException;
+
+        /** Releases the channel. Called once the segment is full or the take ends. */
+        void close() throws IOException;
+
+        /**
+         * Makes the closed segment visible to the gallery and the library, with its length
+         * filled in, and returns where it ended up.
+         */
+        String publish(long durationMs) throws IOException;
+
+        /** Removes the closed segment, e.g. because no frame made it in. */
+        void discard();
+    }
+}
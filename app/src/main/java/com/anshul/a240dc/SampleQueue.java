@@ -0,0 +1,116 @@
+package com.anshul.a240dc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded hand-off of encoded samples from encoder threads to the file writer.
+ *
+ * A fixed set of {@link Sample} slots, each with its own direct buffer, circulates between a
+ * free list and a filled list. A producer that finds no free slot waits, which holds the
+ * encoder's output buffer and so slows the encoder down instead of growing memory; if the
+ * writer stays stuck past the timeout, the sample is dropped and counted. A slot's buffer only
+ * grows when a sample bigger than any before it comes along.
+ */
+public class SampleQueue {
+
+    public static final class Sample {
+        public int track;
+        public long presentationTimeUs;
+        public int flags;
+        public boolean endOfStream;
+        /** Holds the sample bytes between position 0 and the limit. */
+        public ByteBuffer data;
+
+        Sample(int capacity) {
+            data = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    private final BlockingQueue<Sample> free;
+    private final BlockingQueue<Sample> filled;
+    private final int slots;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private volatile int highWater;
+
+    public SampleQueue(int slots, int slotBytes) {
+        this.slots = slots;
+        free = new ArrayBlockingQueue<>(slots);
+        filled = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) free.add(new Sample(slotBytes));
+    }
+
+    /**
+     * Copies the remaining bytes of {@code data} into a free slot and queues it, leaving
+     * {@code data}'s position untouched. Returns false if no slot freed up within the timeout.
+     */
+    public boolean put(int track, ByteBuffer data, long presentationTimeUs, int flags, long timeoutNanos)
+            throws InterruptedException {
+        Sample s = free.poll();
+        if (s == null) {
+            waits.incrementAndGet();
+            s = free.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+            if (s == null) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        int size = data.remaining();
+        if (s.data.capacity() < size) {
+            s.data = ByteBuffer.allocateDirect(size + size / 4);
+        }
+        s.data.clear();
+        int pos = data.position();
+        s.data.put(data);
+        data.position(pos);
+        s.data.flip();
+        s.track = track;
+        s.presentationTimeUs = presentationTimeUs;
+        s.flags = flags;
+        s.endOfStream = false;
+        filled.put(s);
+        int depth = filled.size();
+        if (depth > highWater) highWater = depth;
+        return true;
+    }
+
+    /** Queues a marker after everything put so far; waits as long as it takes for a slot. */
+    public void putEndOfStream() throws InterruptedException {
+        Sample s = free.take();
+        s.data.clear().flip();
+        s.endOfStream = true;
+        filled.put(s);
+    }
+
+    /** Next sample in order. Hand it back with {@link #recycle} once written. */
+    public Sample take() throws InterruptedException {
+        return filled.take();
+    }
+
+    /** Like {@link #take}, but gives up after the timeout and returns null. */
+    public Sample poll(long timeoutNanos) throws InterruptedException {
+        return filled.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recycle(Sample sample) {
+        free.add(sample);
+    }
+
+    /** Drops anything queued, returning the slots to the free list. */
+    public void clear() {
+        Sample s;
+        while ((s = filled.poll()) != null) free.add(s);
+    }
+
+    public int capacity() { return slots; }
+    public int depth() { return filled.size(); }
+    public long dropped() { return dropped.get(); }
+    /** Times a producer had to wait for the writer. */
+    public long waits() { return waits.get(); }
+    public int highWater() { return highWater; }
+}
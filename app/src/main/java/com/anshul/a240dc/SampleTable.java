@@ -0,0 +1,412 @@
+package com.anshul.a240dc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where every sample of one track lives and when it plays, expanded from the compact MP4
+ * tables into flat arrays indexed by decode order.
+ *
+ * Plain files are read from {@code stts}, {@code ctts}, {@code stss}, {@code stsc},
+ * {@code stsz} and {@code stco}/{@code co64}; fragmented files from the {@code trun}s of every
+ * complete {@code moof}/{@code mdat} pair. A high-speed clip has at most a few hundred
+ * thousand samples, so this costs a few megabytes at most.
+ */
+public final class SampleTable {
+
+    // A moof carries up to 16 bytes per sample; far more than any fragment we write
+    private static final long MAX_MOOF_SIZE = 16L * 1024 * 1024;
+    private static final int SAMPLE_IS_NON_SYNC = 0x10000;
+
+    public final int trackId;
+    public final int handler;
+    public final long timescale;
+    /** The track's box within the moov it was read from, so callers can copy its headers. */
+    final Mp4Box trak;
+
+    private int count;
+    private long[] offsets;
+    private int[] sizes;
+    private long[] decodeTimes;
+    private int[] durations;
+    /** Composition offsets, or null when every sample is presented at its decode time. */
+    private int[] compositionOffsets;
+    /** Sync flags, or null when every sample is a sync sample. */
+    private boolean[] sync;
+
+    private SampleTable(int trackId, int handler, long timescale, Mp4Box trak) {
+        this.trackId = trackId;
+        this.handler = handler;
+        this.timescale = timescale;
+        this.trak = trak;
+    }
+
+    public int size() { return count; }
+    public long offset(int i) { return offsets[i]; }
+    public int sampleSize(int i) { return sizes[i]; }
+    public long decodeTime(int i) { return decodeTimes[i]; }
+    public int duration(int i) { return durations[i]; }
+    public int compositionOffset(int i) { return compositionOffsets == null ? 0 : compositionOffsets[i]; }
+    public long presentationTime(int i) { return decodeTimes[i] + compositionOffset(i); }
+    public long endTimeOf(int i) { return decodeTimes[i] + (durations[i] & 0xFFFFFFFFL); }
+    public boolean isSync(int i) { return sync == null || sync[i]; }
+    public boolean hasCompositionOffsets() { return compositionOffsets != null; }
+    public boolean allSync() { return sync == null; }
+
+    public boolean isVideo() {
+        return handler == Mp4Box.VIDE;
+    }
+
+    /** Decode time just past the last sample. */
+    public long endTime() {
+        return count == 0 ? 0 : endTimeOf(count - 1);
+    }
+
+    /** Earliest presentation time of any sample; with B-frames this is not sample 0's. */
+    public long firstPresentationTime() {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) first = Math.min(first, presentationTime(i));
+        return count == 0 ? 0 : first;
+    }
+
+    /** Nearest sync sample at or before {@code i} in decode order, or -1 if there is none. */
+    public int syncAtOrBefore(int i) {
+        if (sync == null) return i;
+        for (; i >= 0; i--) {
+            if (sync[i]) return i;
+        }
+        return -1;
+    }
+
+    /** The sample shown at presentation time {@code t}: the latest one starting at or before it, or -1. */
+    public int sampleAtPresentation(long t) {
+        int best = -1;
+        long bestTime = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long pts = presentationTime(i);
+            if (pts <= t && pts > bestTime) {
+                best = i;
+                bestTime = pts;
+            }
+        }
+        return best;
+    }
+
+    /** Reads every track of the file whose moov is {@code moov}, as returned by {@link Mp4Parser#mapMoov}. */
+    public static List<SampleTable> read(FileChannel file, ByteBuffer moov) throws IOException {
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+        List<SampleTable> tracks = new ArrayList<>();
+        int pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box trak = Mp4Box.read(moov, pos, (int) root.end());
+            pos = (int) trak.end();
+            if (trak.type == Mp4Box.TRAK) tracks.add(readTrak(moov, trak));
+        }
+        Mp4Box mvex = Mp4Box.find(moov, root, Mp4Box.MVEX);
+        if (mvex != null) {
+            readFragments(file, moov, mvex, tracks);
+        }
+        for (SampleTable t : tracks) {
+            t.checkWithin(file.size());
+        }
+        return tracks;
+    }
+
+    private static SampleTable readTrak(ByteBuffer moov, Mp4Box trak) throws IOException {
+        Mp4Box tkhd = Mp4Box.find(moov, trak, Mp4Box.TKHD);
+        Mp4Box mdhd = Mp4Box.find(moov, trak, Mp4Box.MDIA, Mp4Box.MDHD);
+        if (tkhd == null || mdhd == null) {
+            throw new IOException("Track without tkhd or mdhd");
+        }
+        int p = (int) tkhd.bodyOffset();
+        int trackId = moov.getInt(p + ((moov.get(p) & 0xFF) == 1 ? 20 : 12));
+        p = (int) mdhd.bodyOffset();
+        long timescale = moov.getInt(p + ((moov.get(p) & 0xFF) == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+        if (timescale == 0) {
+            throw new IOException("Track " + trackId + " has zero timescale");
+        }
+        SampleTable t = new SampleTable(trackId, Mp4Parser.handlerType(moov, trak), timescale, trak);
+
+        Mp4Box stbl = Mp4Box.find(moov, trak, Mp4Box.MDIA, Mp4Box.MINF, Mp4Box.STBL);
+        Mp4Box stsz = stbl == null ? null : Mp4Box.find(moov, stbl, Mp4Box.STSZ);
+        if (stsz == null) {
+            t.allocate(0);
+            return t;
+        }
+
+        // Sizes first: they fix the sample count everything else is checked against
+        int q = (int) stsz.bodyOffset() + 4;
+        int fixedSize = moov.getInt(q);
+        int n = moov.getInt(q + 4);
+        if (n < 0 || (fixedSize == 0 && q + 8 + 4L * n > stsz.end())) {
+            throw new IOException("stsz overruns its box");
+        }
+        t.allocate(n);
+        t.count = n;
+        for (int i = 0; i < n; i++) {
+            t.sizes[i] = fixedSize != 0 ? fixedSize : moov.getInt(q + 8 + 4 * i);
+        }
+
+        Mp4Box stts = Mp4Box.find(moov, stbl, Mp4Box.STTS);
+        if (stts == null) throw new IOException("Track " + trackId + " has no stts");
+        int filled = 0;
+        long time = 0;
+        for (int[] run : entries(moov, stts, 2)) {
+            for (int k = 0; k < run[0] && filled < n; k++, filled++) {
+                t.decodeTimes[filled] = time;
+                t.durations[filled] = run[1];
+                time += run[1] & 0xFFFFFFFFL;
+            }
+        }
+        if (filled < n) throw new IOException("stts covers " + filled + " of " + n + " samples");
+
+        Mp4Box ctts = Mp4Box.find(moov, stbl, Mp4Box.CTTS);
+        if (ctts != null) {
+            t.compositionOffsets = new int[n];
+            filled = 0;
+            // Version 0 is nominally unsigned, but encoders write negative offsets there too
+            for (int[] run : entries(moov, ctts, 2)) {
+                for (int k = 0; k < run[0] && filled < n; k++) t.compositionOffsets[filled++] = run[1];
+            }
+        }
+
+        Mp4Box stss = Mp4Box.find(moov, stbl, Mp4Box.STSS);
+        if (stss != null) {
+            t.sync = new boolean[n];
+            for (int[] e : entries(moov, stss, 1)) {
+                if (e[0] >= 1 && e[0] <= n) t.sync[e[0] - 1] = true;
+            }
+        }
+
+        long[] chunks = chunkOffsets(moov, stbl);
+        Mp4Box stsc = Mp4Box.find(moov, stbl, Mp4Box.STSC);
+        if (stsc == null) throw new IOException("Track " + trackId + " has no stsc");
+        List<int[]> runs = entries(moov, stsc, 3);
+        int sample = 0;
+        for (int r = 0; r < runs.size() && sample < n; r++) {
+            int firstChunk = runs.get(r)[0] - 1;
+            int lastChunk = r + 1 < runs.size() ? runs.get(r + 1)[0] - 1 : chunks.length;
+            int perChunk = runs.get(r)[1];
+            for (int c = Math.max(firstChunk, 0); c < Math.min(lastChunk, chunks.length) && sample < n; c++) {
+                long offset = chunks[c];
+                for (int k = 0; k < perChunk && sample < n; k++, sample++) {
+                    t.offsets[sample] = offset;
+                    offset += t.sizes[sample] & 0xFFFFFFFFL;
+                }
+            }
+        }
+        if (sample < n) throw new IOException("Chunks cover " + sample + " of " + n + " samples");
+        return t;
+    }
+
+    private static long[] chunkOffsets(ByteBuffer moov, Mp4Box stbl) throws IOException {
+        Mp4Box stco = Mp4Box.find(moov, stbl, Mp4Box.STCO);
+        boolean wide = stco == null;
+        Mp4Box box = wide ? Mp4Box.find(moov, stbl, Mp4Box.CO64) : stco;
+        if (box == null) throw new IOException("No chunk offsets");
+        int q = (int) box.bodyOffset() + 4;
+        int n = moov.getInt(q);
+        int stride = wide ? 8 : 4;
+        if (n < 0 || q + 4 + (long) stride * n > box.end()) throw new IOException("Chunk offsets overrun their box");
+        long[] offsets = new long[n];
+        for (int i = 0; i < n; i++) {
+            int at = q + 4 + stride * i;
+            offsets[i] = wide ? moov.getLong(at) : moov.getInt(at) & 0xFFFFFFFFL;
+        }
+        return offsets;
+    }
+
+    // The entry_count-prefixed table of a full box, each entry being `fields` 32-bit values
+    private static List<int[]> entries(ByteBuffer moov, Mp4Box box, int fields) throws IOException {
+        int q = (int) box.bodyOffset() + 4;
+        int n = moov.getInt(q);
+        if (n < 0 || q + 4 + 4L * fields * n > box.end()) {
+            throw new IOException(Mp4Box.name(box.type) + " overruns its box");
+        }
+        List<int[]> out = new ArrayList<>(n);
+        q += 4;
+        for (int i = 0; i < n; i++) {
+            int[] e = new int[fields];
+            for (int f = 0; f < fields; f++, q += 4) e[f] = moov.getInt(q);
+            out.add(e);
+        }
+        return out;
+    }
+
+    private static void readFragments(FileChannel file, ByteBuffer moov, Mp4Box mvex, List<SampleTable> tracks)
+            throws IOException {
+        // trex: default duration, size and flags per track
+        int[][] trex = new int[tracks.size()][3];
+        int pos = (int) mvex.bodyOffset();
+        while (pos < mvex.end()) {
+            Mp4Box box = Mp4Box.read(moov, pos, (int) mvex.end());
+            pos = (int) box.end();
+            if (box.type != Mp4Box.TREX || box.bodySize() < 24) continue;
+            int p = (int) box.bodyOffset();
+            int t = indexOf(tracks, moov.getInt(p + 4));
+            if (t >= 0) trex[t] = new int[]{moov.getInt(p + 12), moov.getInt(p + 16), moov.getInt(p + 20)};
+        }
+
+        long fileSize = file.size();
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long filePos = 0;
+        while (filePos + 8 <= fileSize) {
+            Mp4Box box = Mp4Parser.readTopLevel(file, filePos, fileSize, scratch);
+            if (box == null) break;
+            if (box.type == Mp4Box.MOOF) {
+                Mp4Box mdat = box.end() + 8 <= fileSize ? Mp4Parser.readTopLevel(file, box.end(), fileSize, scratch) : null;
+                if (mdat == null || mdat.type != Mp4Box.MDAT || box.size > MAX_MOOF_SIZE) break;
+                ByteBuffer moof = ByteBuffer.allocate((int) box.size).order(ByteOrder.BIG_ENDIAN);
+                while (moof.hasRemaining()) {
+                    if (file.read(moof, box.offset + moof.position()) < 0) break;
+                }
+                moof.flip();
+                readMoof(moof, box.offset, tracks, trex);
+                filePos = mdat.end();
+                continue;
+            }
+            filePos = box.end();
+        }
+    }
+
+    private static void readMoof(ByteBuffer moof, long moofOffset, List<SampleTable> tracks, int[][] trex)
+            throws IOException {
+        Mp4Box root = Mp4Box.read(moof, 0, moof.limit());
+        int pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box traf = Mp4Box.read(moof, pos, (int) root.end());
+            pos = (int) traf.end();
+            if (traf.type != Mp4Box.TRAF) continue;
+            Mp4Box tfhd = Mp4Box.find(moof, traf, Mp4Box.TFHD);
+            if (tfhd == null) continue;
+            int p = (int) tfhd.bodyOffset();
+            int flags = moof.getInt(p) & 0xFFFFFF;
+            int index = indexOf(tracks, moof.getInt(p + 4));
+            if (index < 0) continue;
+            SampleTable t = tracks.get(index);
+            p += 8;
+            long base = moofOffset;
+            if ((flags & 0x01) != 0) {
+                base = moof.getLong(p);
+                p += 8;
+            }
+            if ((flags & 0x02) != 0) p += 4;       // sample_description_index
+            int defaultDuration = trex[index][0];
+            int defaultSize = trex[index][1];
+            int defaultFlags = trex[index][2];
+            if ((flags & 0x08) != 0) {
+                defaultDuration = moof.getInt(p);
+                p += 4;
+            }
+            if ((flags & 0x10) != 0) {
+                defaultSize = moof.getInt(p);
+                p += 4;
+            }
+            if ((flags & 0x20) != 0) defaultFlags = moof.getInt(p);
+
+            Mp4Box tfdt = Mp4Box.find(moof, traf, Mp4Box.TFDT);
+            long time = t.endTime();
+            if (tfdt != null) {
+                int q = (int) tfdt.bodyOffset();
+                time = (moof.get(q) & 0xFF) == 1 ? moof.getLong(q + 4) : moof.getInt(q + 4) & 0xFFFFFFFFL;
+            }
+
+            long dataPos = base;
+            int q = (int) traf.bodyOffset();
+            while (q < traf.end()) {
+                Mp4Box trun = Mp4Box.read(moof, q, (int) traf.end());
+                q = (int) trun.end();
+                if (trun.type != Mp4Box.TRUN) continue;
+                int r = (int) trun.bodyOffset();
+                int runFlags = moof.getInt(r) & 0xFFFFFF;
+                int n = moof.getInt(r + 4);
+                r += 8;
+                if ((runFlags & 0x001) != 0) {
+                    dataPos = base + moof.getInt(r);
+                    r += 4;
+                }
+                int firstFlags = -1;
+                if ((runFlags & 0x004) != 0) {
+                    firstFlags = moof.getInt(r);
+                    r += 4;
+                }
+                int stride = 4 * Integer.bitCount(runFlags & 0xF00);
+                if (n < 0 || r + (long) n * stride > trun.end()) {
+                    throw new IOException("trun overruns its box");
+                }
+                t.ensure(t.count + n);
+                for (int i = 0; i < n; i++) {
+                    int duration = defaultDuration;
+                    int size = defaultSize;
+                    int sampleFlags = i == 0 && firstFlags != -1 ? firstFlags : defaultFlags;
+                    int cto = 0;
+                    if ((runFlags & 0x100) != 0) { duration = moof.getInt(r); r += 4; }
+                    if ((runFlags & 0x200) != 0) { size = moof.getInt(r); r += 4; }
+                    if ((runFlags & 0x400) != 0) {
+                        int f = moof.getInt(r);
+                        r += 4;
+                        if (!(i == 0 && firstFlags != -1)) sampleFlags = f;
+                    }
+                    if ((runFlags & 0x800) != 0) { cto = moof.getInt(r); r += 4; }
+                    t.add(dataPos, size, time, duration, cto, (sampleFlags & SAMPLE_IS_NON_SYNC) == 0);
+                    dataPos += size & 0xFFFFFFFFL;
+                    time += duration & 0xFFFFFFFFL;
+                }
+            }
+        }
+    }
+
+    private static int indexOf(List<SampleTable> tracks, int trackId) {
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.get(i).trackId == trackId) return i;
+        }
+        return -1;
+    }
+
+    // A sample table pointing past the end of the file is a truncated file, not a trimmable one
+    private void checkWithin(long fileSize) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] < 0 || offsets[i] + (sizes[i] & 0xFFFFFFFFL) > fileSize) {
+                throw new IOException("Sample " + i + " of track " + trackId + " lies outside the file");
+            }
+        }
+    }
+
+    private void allocate(int n) {
+        offsets = new long[n];
+        sizes = new int[n];
+        decodeTimes = new long[n];
+        durations = new int[n];
+    }
+
+    private void ensure(int n) {
+        if (n <= offsets.length) return;
+        int capacity = Math.max(n, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        decodeTimes = Arrays.copyOf(decodeTimes, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        if (compositionOffsets != null) compositionOffsets = Arrays.copyOf(compositionOffsets, capacity);
+        if (sync != null) sync = Arrays.copyOf(sync, capacity);
+    }
+
+    private void add(long offset, int size, long decodeTime, int duration, int compositionOffset, boolean isSync) {
+        int i = count++;
+        offsets[i] = offset;
+        sizes[i] = size;
+        decodeTimes[i] = decodeTime;
+        durations[i] = duration;
+        if (compositionOffset != 0 && compositionOffsets == null) compositionOffsets = new int[offsets.length];
+        if (compositionOffsets != null) compositionOffsets[i] = compositionOffset;
+        if (!isSync && sync == null) {
+            sync = new boolean[offsets.length];
+            Arrays.fill(sync, 0, i, true);
+        }
+        if (sync != null) sync[i] = isSync;
+    }
+}
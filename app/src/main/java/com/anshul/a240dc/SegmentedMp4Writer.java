@@ -0,0 +1,199 @@
+package com.anshul.a240dc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Spreads one take over numbered fragmented-MP4 files, starting a new one at the first video
+ * keyframe after the current file reaches {@code maxSegmentBytes} or {@code maxSegmentDurationUs}.
+ * Every segment has its own init segment and plays on its own.
+ *
+ * The first segment is written to the file the take was started with; later ones get a
+ * {@code _002}, {@code _003}, ... suffix before the extension. With both limits at 0 there is
+ * only ever one file. Where the segments go is up to the {@link RecordingTarget}; once the
+ * take is closed they are either all published or all discarded.
+ *
+ * With {@link #setPreallocation} on, each segment reserves space a step ahead of what has
+ * been written, and is truncated to its real length when it is closed.
+ */
+public class SegmentedMp4Writer implements Closeable {
+
+    private final RecordingTarget target;
+    private final List<FragmentedMp4Writer.Track> tracks;
+    private final int fragmentFrames;
+    private final long fragmentDurationUs;
+    private final long maxSegmentBytes;
+    private final long maxSegmentDurationUs;
+    private final List<RecordingTarget.Segment> segments = new ArrayList<>();
+    private final List<Long> durationsUs = new ArrayList<>();
+
+    private RecordingTarget.Segment segment;
+    private FragmentedMp4Writer writer;
+    private int videoTrack = -1;
+    private long totalBytes;
+    private long preallocateStep;
+    private long preallocated;
+
+    public SegmentedMp4Writer(File first, List<FragmentedMp4Writer.Track> tracks, int fragmentFrames,
+                              long fragmentDurationUs, long maxSegmentBytes, long maxSegmentDurationUs)
+            throws IOException {
+        this(new FileRecordingTarget(first), tracks, fragmentFrames, fragmentDurationUs, maxSegmentBytes,
+                maxSegmentDurationUs);
+    }
+
+    public SegmentedMp4Writer(RecordingTarget target, List<FragmentedMp4Writer.Track> tracks, int fragmentFrames,
+                              long fragmentDurationUs, long maxSegmentBytes, long maxSegmentDurationUs)
+            throws IOException {
+        this.target = target;
+        this.tracks = tracks;
+        this.fragmentFrames = fragmentFrames;
+        this.fragmentDurationUs = fragmentDurationUs;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentDurationUs = maxSegmentDurationUs;
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.get(i).isVideo()) {
+                videoTrack = i;
+                break;
+            }
+        }
+        openSegment();
+    }
+
+    /** Name of segment {@code index} (1-based) of a take started as {@code first}. */
+    public static File segmentFile(File first, int index) {
+        if (index <= 1) return first;
+        String name = first.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        String ext = dot < 0 ? "" : name.substring(dot);
+        return new File(first.getParentFile(), String.format(Locale.US, "%s_%03d%s", base, index, ext));
+    }
+
+    /** Every file written so far, in order. */
+    public List<File> files() {
+        List<File> files = new ArrayList<>(segments.size());
+        for (RecordingTarget.Segment s : segments) files.add(new File(s.location()));
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Closes the take and publishes every segment with its duration. Returns where they
+     * ended up, first segment first; a segment that fails to publish is left out. A failed
+     * close still publishes: everything up to the last fragment plays.
+     */
+    public List<String> publish() {
+        try {
+            close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        List<String> published = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            try {
+                published.add(segments.get(i).publish(durationsUs.get(i) / 1000));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return published;
+    }
+
+    /** Closes the take and removes every segment. */
+    public void discard() {
+        try {
+            close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (RecordingTarget.Segment s : segments) s.discard();
+    }
+
+    /**
+     * Reserves space {@code stepBytes} at a time, a step before the current segment needs it,
+     * never past the segment size limit. 0 turns it off. If the volume refuses once, later
+     * segments of the take are not preallocated either.
+     */
+    public void setPreallocation(long stepBytes) {
+        preallocateStep = stepBytes;
+    }
+
+    /** Space reserved for the current segment that it has not used yet. */
+    public long preallocatedUnused() {
+        return writer != null ? Math.max(0, preallocated - writer.bytesWritten()) : 0;
+    }
+
+    /** Bytes written across all segments. */
+    public long bytesWritten() {
+        return totalBytes + (writer != null ? writer.bytesWritten() : 0);
+    }
+
+    public void writeSample(int track, ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        if (track == videoTrack && (flags & EncodedSampleSink.FLAG_KEY_FRAME) != 0 && segmentFull()) {
+            closeSegment();
+            openSegment();
+        }
+        writer.writeSample(track, data, presentationTimeUs, flags);
+        if (preallocateStep > 0 && writer.bytesWritten() + preallocateStep / 2 >= preallocated) preallocate();
+    }
+
+    private void preallocate() {
+        // A segment overshoots its limit by up to a GOP, so the step that crosses it is still taken
+        if (maxSegmentBytes > 0 && preallocated >= maxSegmentBytes) return;
+        long next = Math.max(preallocated, writer.bytesWritten()) + preallocateStep;
+        try {
+            segment.preallocate(next);
+            preallocated = next;
+        } catch (IOException e) {
+            e.printStackTrace();
+            preallocateStep = 0;
+        }
+    }
+
+    private boolean segmentFull() {
+        return (maxSegmentBytes > 0 && writer.bytesWritten() >= maxSegmentBytes)
+                || (maxSegmentDurationUs > 0 && writer.durationUs() >= maxSegmentDurationUs);
+    }
+
+    private void openSegment() throws IOException {
+        RecordingTarget.Segment next = target.open(segments.size() + 1);
+        try {
+            writer = new FragmentedMp4Writer(next.channel(), tracks, fragmentFrames, fragmentDurationUs);
+        } catch (IOException e) {
+            next.close();
+            next.discard();
+            throw e;
+        }
+        segment = next;
+        segments.add(next);
+        durationsUs.add(0L);
+    }
+
+    private void closeSegment() throws IOException {
+        try {
+            writer.close();
+            totalBytes += writer.bytesWritten();
+            durationsUs.set(segments.size() - 1, writer.durationUs());
+        } finally {
+            try {
+                // Also after a failed close: the reserved tail must not look like part of the clip
+                if (preallocated > writer.bytesWritten()) segment.channel().truncate(writer.bytesWritten());
+            } finally {
+                writer = null;
+                preallocated = 0;
+                segment.close();
+                segment = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) closeSegment();
+    }
+}
@@ -0,0 +1,208 @@
+package com.anshul.a240dc;
+
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes {@link GopSharder.Shard}s of a clip with one {@link MediaCodec}, fed straight from
+ * the sample table instead of through a {@link MediaExtractor}. The codec is created on the
+ * first shard and flushed between shards, so a caller decoding many of them, such as the
+ * scrubbing viewer, pays for codec start-up once. One instance per thread; the channel may be
+ * shared, as samples are read with positioned reads.
+ */
+final class ShardDecoder implements Closeable {
+
+    private static final long DEQUEUE_TIMEOUT_US = 10_000;
+
+    /** Receives the decoded frames of a shard. */
+    interface ImageSink {
+        /**
+         * Called for each of the shard's frames while its image is valid. Returning false
+         * stops the shard early.
+         */
+        boolean onImage(int frameNumber, Image image) throws IOException, InterruptedException;
+    }
+
+    private final FileChannel channel;
+    private final SampleTable video;
+    private final MediaFormat format;
+    private MediaCodec codec;
+
+    ShardDecoder(FileChannel channel, SampleTable video, MediaFormat format) {
+        this.channel = channel;
+        this.video = video;
+        this.format = format;
+    }
+
+    /** The video track's format, with the codec config a decoder needs. */
+    static MediaFormat videoFormat(File source) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(source.getAbsolutePath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                            MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+                    return format;
+                }
+            }
+            throw new IOException("No video track");
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * Decodes {@code shard}, handing its frames to {@code sink} in presentation order. Frames
+     * the codec never produced are simply not handed over. Returns false if the sink stopped.
+     */
+    boolean decode(GopSharder.Shard shard, ImageSink sink) throws IOException, InterruptedException {
+        // Output buffers carry the input's timestamp, which finds the frame they show
+        Map<Long, Integer> wanted = new HashMap<>();
+        for (int k = 0; k < shard.frames(); k++) wanted.put(timeUs(shard.samples[k]), shard.frameNumbers[k]);
+
+        MediaCodec c = codec();
+        boolean stopped = false;
+        boolean clean = false;
+        try {
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int next = shard.firstSample;
+            boolean inputDone = false;
+            while (!wanted.isEmpty() && !stopped) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (!inputDone) {
+                    int in = c.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (in >= 0) {
+                        if (next < shard.endSample) {
+                            int size = readSample(next, c.getInputBuffer(in));
+                            c.queueInputBuffer(in, 0, size, timeUs(next),
+                                    video.isSync(next) ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                            next++;
+                        } else {
+                            c.queueInputBuffer(in, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        }
+                    }
+                }
+                int o = c.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (o < 0) continue;
+                try {
+                    Integer number = info.size > 0 ? wanted.remove(info.presentationTimeUs) : null;
+                    if (number != null) {
+                        try (Image image = c.getOutputImage(o)) {
+                            if (image == null) throw new IOException("No image for frame " + number);
+                            stopped = !sink.onImage(number, image);
+                        }
+                    }
+                } finally {
+                    c.releaseOutputBuffer(o, false);
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+            }
+            // Drops whatever is still in flight, ready for the next shard
+            c.flush();
+            clean = true;
+        } catch (IllegalStateException e) {
+            throw new IOException("Decoder failed on " + shard, e);
+        } finally {
+            // A codec left mid-shard is not reused
+            if (!clean) close();
+        }
+        return !stopped;
+    }
+
+    @Override
+    public void close() {
+        if (codec != null) {
+            codec.release();
+            codec = null;
+        }
+    }
+
+    private MediaCodec codec() throws IOException {
+        if (codec == null) {
+            MediaCodec c = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            try {
+                // configure() reads the format, which other threads' decoders share
+                synchronized (format) {
+                    c.configure(format, null, null, 0);
+                }
+                c.start();
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                c.release();
+                throw new IOException("Cannot start decoder", e);
+            }
+            codec = c;
+        }
+        return codec;
+    }
+
+    private long timeUs(int sample) {
+        return Math.round(video.presentationTime(sample) * 1_000_000.0 / video.timescale);
+    }
+
+    private int readSample(int i, ByteBuffer buf) throws IOException {
+        int size = video.sampleSize(i);
+        if (size > buf.capacity()) throw new IOException("Sample " + i + " larger than the decoder's buffer");
+        buf.clear().limit(size);
+        long pos = video.offset(i);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) throw new IOException("Sample " + i + " cut short");
+        }
+        buf.flip();
+        if (!AnnexB.toStartCodes(buf)) throw new IOException("Sample " + i + " is not length-prefixed");
+        return size;
+    }
+
+    /**
+     * Converts a BT.601 limited-range YUV 4:2:0 image to ARGB, keeping every {@code step}-th
+     * pixel of the crop rectangle. {@code out} must hold {@code (w / step) * (h / step)} pixels.
+     */
+    static void toArgb(Image image, int step, int[] out) {
+        Rect crop = image.getCropRect();
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer y = planes[0].getBuffer();
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int yRow = planes[0].getRowStride();
+        int yPixel = planes[0].getPixelStride();
+        int cRow = planes[1].getRowStride();
+        int cPixel = planes[1].getPixelStride();
+        int w = crop.width() / step;
+        int h = crop.height() / step;
+        for (int row = 0; row < h; row++) {
+            int sy = crop.top + row * step;
+            int yBase = sy * yRow;
+            int cBase = (sy >> 1) * cRow;
+            for (int col = 0; col < w; col++) {
+                int sx = crop.left + col * step;
+                int luma = ((y.get(yBase + sx * yPixel) & 0xFF) - 16) * 1192;
+                int ci = cBase + (sx >> 1) * cPixel;
+                int cb = (u.get(ci) & 0xFF) - 128;
+                int cr = (v.get(ci) & 0xFF) - 128;
+                int r = clamp((luma + 1634 * cr) >> 10);
+                int g = clamp((luma - 833 * cr - 400 * cb) >> 10);
+                int b = clamp((luma + 2066 * cb) >> 10);
+                out[row * w + col] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static int clamp(int c) {
+        return c < 0 ? 0 : Math.min(c, 255);
+    }
+}
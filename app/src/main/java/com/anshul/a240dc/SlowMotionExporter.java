@@ -0,0 +1,403 @@
+package com.anshul.a240dc;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes a slow-motion copy of a clip by rewriting its timing tables only. Not a single frame
+ * is decoded: each kept track gets a smaller {@code mdhd} timescale, so the same sample
+ * deltas span more wall-clock time, and the movie-level durations ({@code mvhd},
+ * {@code tkhd}, {@code elst}, {@code mehd}) are stretched to match. Media data is copied with
+ * {@link FileChannel#transferTo}, so exporting costs about as much as copying the file.
+ *
+ * Audio tracks are dropped: slowed down without resampling they would only play back as noise.
+ * Their bytes stay in {@code mdat}, unreferenced, rather than being cut out of it.
+ *
+ * Works for plain MP4 (chunk offsets are shifted when the moov in front of the media changes
+ * size) and for the fragmented files we record (audio {@code traf}s are removed and the
+ * remaining run offsets corrected). A fragment cut short by a crash is left out.
+ */
+public final class SlowMotionExporter {
+
+    private static final long MAX_MOOV_SIZE = 256L * 1024 * 1024;
+    private static final long MAX_MOOF_SIZE = 16L * 1024 * 1024;
+    private static final long UNKNOWN_DURATION_32 = 0xFFFFFFFFL;
+
+    private SlowMotionExporter() {}
+
+    /** Where the export of {@code source} at {@code speed} goes, e.g. {@code clip_slow4x.mp4}. */
+    public static File targetFor(File source, double speed) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        double factor = 1 / speed;
+        String label = Math.abs(factor - Math.rint(factor)) < 1e-6
+                ? String.format(Locale.US, "%d", (long) Math.rint(factor))
+                : String.format(Locale.US, "%.2f", factor).replaceAll("0+$", "");
+        return new File(source.getParentFile(), base + "_slow" + label + "x.mp4");
+    }
+
+    /**
+     * Exports {@code source} to {@code target} playing at {@code speed} times the capture
+     * rate, e.g. 0.25 for quarter speed. A partly written target is deleted on failure.
+     */
+    public static void export(File source, File target, double speed) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            out.setLength(0);
+            export(in.getChannel(), out.getChannel(), speed);
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    /** Same as {@link #export(File, File, double)}, writing from {@code out}'s position on. */
+    public static void export(FileChannel in, FileChannel out, double speed) throws IOException {
+        if (!(speed > 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Bad speed " + speed);
+        }
+        List<Mp4Box> boxes = topLevelBoxes(in);
+        Mp4Box moovBox = null;
+        for (Mp4Box box : boxes) {
+            if (box.type == Mp4Box.MOOV) {
+                moovBox = box;
+                break;
+            }
+        }
+        if (moovBox == null) {
+            throw new IOException("No moov box");
+        }
+        if (moovBox.size > MAX_MOOV_SIZE) {
+            throw new IOException("moov box too large: " + moovBox.size);
+        }
+
+        Set<Integer> dropped = new HashSet<>();
+        ByteBuffer moov = retimeMoov(read(in, moovBox), speed, dropped);
+        long moovGrowth = moov.limit() - moovBox.size;
+        if (moovGrowth != 0) {
+            // Everything after the moov moves with it
+            shiftChunkOffsets(moov, moovBox.offset, moovGrowth);
+        }
+
+        long start = out.position();
+        for (Mp4Box box : boxes) {
+            if (box == moovBox) {
+                writeFully(out, moov);
+            } else if (box.type == Mp4Box.MOOF) {
+                if (box.size > MAX_MOOF_SIZE) {
+                    throw new IOException("moof box too large: " + box.size);
+                }
+                long moved = out.position() - start - box.offset;
+                writeFully(out, retimeMoof(read(in, box), dropped, moved));
+            } else if (box.type == Mp4Box.SIDX || box.type == Mp4Box.MFRA) {
+                // Indexes hold byte offsets into the old layout; players do fine without them
+                continue;
+            } else {
+                transfer(in, box.offset, box.size, out);
+            }
+        }
+    }
+
+    // Complete top-level boxes; a trailing moof whose mdat never made it to disk is left out
+    private static List<Mp4Box> topLevelBoxes(FileChannel in) throws IOException {
+        long fileSize = in.size();
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        List<Mp4Box> boxes = new ArrayList<>();
+        long pos = 0;
+        while (pos + 8 <= fileSize) {
+            Mp4Box box = Mp4Parser.readTopLevel(in, pos, fileSize, scratch);
+            if (box == null) break;
+            boxes.add(box);
+            pos = box.end();
+        }
+        if (!boxes.isEmpty() && boxes.get(boxes.size() - 1).type == Mp4Box.MOOF) {
+            boxes.remove(boxes.size() - 1);
+        }
+        return boxes;
+    }
+
+    /**
+     * Rebuilds moov without its audio tracks (their ids go into {@code dropped}) and with every
+     * remaining track retimed.
+     */
+    private static ByteBuffer retimeMoov(ByteBuffer moov, double speed, Set<Integer> dropped) throws IOException {
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+        boolean hasVideo = false;
+        long longestTrack = 0;
+        int pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box box = Mp4Box.read(moov, pos, (int) root.end());
+            pos = (int) box.end();
+            if (box.type != Mp4Box.TRAK) continue;
+            int handler = Mp4Parser.handlerType(moov, box);
+            if (handler == Mp4Box.SOUN) {
+                dropped.add(trackId(moov, box));
+            } else {
+                longestTrack = Math.max(longestTrack, retimeTrak(moov, box, speed));
+                hasVideo |= handler == Mp4Box.VIDE;
+            }
+        }
+        if (!hasVideo) {
+            throw new IOException("No video track");
+        }
+
+        // The movie lasts as long as its longest remaining track, which audio often was
+        Mp4Box mvhd = Mp4Box.find(moov, root, Mp4Box.MVHD);
+        if (mvhd != null) {
+            int p = (int) mvhd.bodyOffset();
+            boolean wide = version(moov, p) == 1;
+            int at = p + (wide ? 24 : 16);
+            if (longestTrack > 0) {
+                if (wide) moov.putLong(at, longestTrack);
+                else moov.putInt(at, (int) longestTrack);
+            } else {
+                stretch(moov, at, wide, speed);
+            }
+        }
+        Mp4Box mehd = Mp4Box.find(moov, root, Mp4Box.MVEX, Mp4Box.MEHD);
+        if (mehd != null) {
+            int p = (int) mehd.bodyOffset();
+            stretch(moov, p + 4, version(moov, p) == 1, speed);
+        }
+
+        BoxBuilder b = new BoxBuilder((int) root.size);
+        int at = b.start(Mp4Box.MOOV);
+        pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box box = Mp4Box.read(moov, pos, (int) root.end());
+            pos = (int) box.end();
+            if (box.type == Mp4Box.TRAK && dropped.contains(trackId(moov, box))) continue;
+            if (box.type == Mp4Box.MVEX) {
+                int mvex = b.start(Mp4Box.MVEX);
+                int q = (int) box.bodyOffset();
+                while (q < box.end()) {
+                    Mp4Box child = Mp4Box.read(moov, q, (int) box.end());
+                    q = (int) child.end();
+                    if (child.type == Mp4Box.TREX && dropped.contains(moov.getInt((int) child.bodyOffset() + 4))) {
+                        continue;
+                    }
+                    copy(moov, child, b);
+                }
+                b.end(mvex);
+            } else {
+                copy(moov, box, b);
+            }
+        }
+        b.end(at);
+        return ByteBuffer.wrap(b.toByteArray()).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Smaller timescale for the media, longer durations for the movie. Returns the new track
+     * duration in the movie timescale, or 0 if the header does not give one.
+     */
+    private static long retimeTrak(ByteBuffer moov, Mp4Box trak, double speed) throws IOException {
+        long duration = 0;
+        Mp4Box tkhd = Mp4Box.find(moov, trak, Mp4Box.TKHD);
+        if (tkhd != null) {
+            int p = (int) tkhd.bodyOffset();
+            boolean wide = version(moov, p) == 1;
+            int at = p + (wide ? 28 : 20);
+            stretch(moov, at, wide, speed);
+            duration = wide ? moov.getLong(at) : moov.getInt(at) & 0xFFFFFFFFL;
+            if (duration == -1 || (!wide && duration == UNKNOWN_DURATION_32)) duration = 0;
+        }
+
+        Mp4Box mdhd = Mp4Box.find(moov, trak, Mp4Box.MDIA, Mp4Box.MDHD);
+        if (mdhd == null) {
+            throw new IOException("Track has no mdhd");
+        }
+        int p = (int) mdhd.bodyOffset();
+        int at = p + (version(moov, p) == 1 ? 20 : 12);
+        long timescale = Math.round((moov.getInt(at) & 0xFFFFFFFFL) * speed);
+        if (timescale < 1 || timescale > 0xFFFFFFFFL) {
+            throw new IOException("Speed " + speed + " does not fit the track timescale");
+        }
+        moov.putInt(at, (int) timescale);
+
+        // Segment durations are in the movie timescale; media_time stays in media ticks
+        Mp4Box elst = Mp4Box.find(moov, trak, Mp4Box.EDTS, Mp4Box.ELST);
+        if (elst != null) {
+            int q = (int) elst.bodyOffset();
+            boolean wide = version(moov, q) == 1;
+            long entries = moov.getInt(q + 4) & 0xFFFFFFFFL;
+            int entrySize = wide ? 20 : 12;
+            q += 8;
+            for (long i = 0; i < entries && q + entrySize <= elst.end(); i++, q += entrySize) {
+                stretch(moov, q, wide, speed);
+            }
+        }
+        return duration;
+    }
+
+    private static void shiftChunkOffsets(ByteBuffer moov, long after, long shift) throws IOException {
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+        int pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box trak = Mp4Box.read(moov, pos, (int) root.end());
+            pos = (int) trak.end();
+            if (trak.type != Mp4Box.TRAK) continue;
+            Mp4Box stbl = Mp4Box.find(moov, trak, Mp4Box.MDIA, Mp4Box.MINF, Mp4Box.STBL);
+            if (stbl == null) continue;
+            Mp4Box stco = Mp4Box.find(moov, stbl, Mp4Box.STCO);
+            if (stco != null) {
+                int q = (int) stco.bodyOffset() + 4;
+                long entries = moov.getInt(q) & 0xFFFFFFFFL;
+                q += 4;
+                for (long i = 0; i < entries && q + 4 <= stco.end(); i++, q += 4) {
+                    long offset = moov.getInt(q) & 0xFFFFFFFFL;
+                    if (offset <= after) continue;
+                    if (offset + shift > 0xFFFFFFFFL) {
+                        throw new IOException("Chunk offset overflows stco");
+                    }
+                    moov.putInt(q, (int) (offset + shift));
+                }
+            }
+            Mp4Box co64 = Mp4Box.find(moov, stbl, Mp4Box.CO64);
+            if (co64 != null) {
+                int q = (int) co64.bodyOffset() + 4;
+                long entries = moov.getInt(q) & 0xFFFFFFFFL;
+                q += 4;
+                for (long i = 0; i < entries && q + 8 <= co64.end(); i++, q += 8) {
+                    long offset = moov.getLong(q);
+                    if (offset > after) moov.putLong(q, offset + shift);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the trafs of {@code dropped} tracks. The mdat after this moof moves by
+     * {@code moved} minus whatever the moof shrinks by, and data offsets follow it.
+     */
+    private static ByteBuffer retimeMoof(ByteBuffer moof, Set<Integer> dropped, long moved) throws IOException {
+        Mp4Box root = Mp4Box.read(moof, 0, moof.limit());
+        BoxBuilder b = new BoxBuilder((int) root.size);
+        int at = b.start(Mp4Box.MOOF);
+        int pos = (int) root.bodyOffset();
+        while (pos < root.end()) {
+            Mp4Box box = Mp4Box.read(moof, pos, (int) root.end());
+            pos = (int) box.end();
+            if (box.type == Mp4Box.TRAF && dropped.contains(trafTrackId(moof, box))) continue;
+            copy(moof, box, b);
+        }
+        b.end(at);
+        long removed = root.size - b.position();
+        if (removed == 0 && moved == 0) {
+            moof.rewind();
+            return moof;
+        }
+
+        ByteBuffer out = ByteBuffer.wrap(b.toByteArray()).order(ByteOrder.BIG_ENDIAN);
+        Mp4Box newRoot = Mp4Box.read(out, 0, out.limit());
+        pos = (int) newRoot.bodyOffset();
+        while (pos < newRoot.end()) {
+            Mp4Box traf = Mp4Box.read(out, pos, (int) newRoot.end());
+            pos = (int) traf.end();
+            if (traf.type != Mp4Box.TRAF) continue;
+            Mp4Box tfhd = Mp4Box.find(out, traf, Mp4Box.TFHD);
+            if (tfhd == null) continue;
+            int p = (int) tfhd.bodyOffset();
+            int flags = out.getInt(p) & 0xFFFFFF;
+            if ((flags & 0x01) != 0) {
+                // Absolute base_data_offset
+                out.putLong(p + 8, out.getLong(p + 8) + moved - removed);
+                continue;
+            }
+            if (removed == 0) continue;
+            if ((flags & 0x020000) == 0) {
+                throw new IOException("Cannot drop tracks from fragments without default-base-is-moof");
+            }
+            // Relative to the moof, which is now shorter
+            int q = (int) traf.bodyOffset();
+            while (q < traf.end()) {
+                Mp4Box trun = Mp4Box.read(out, q, (int) traf.end());
+                q = (int) trun.end();
+                int r = (int) trun.bodyOffset();
+                if (trun.type == Mp4Box.TRUN && (out.getInt(r) & 0x001) != 0) {
+                    out.putInt(r + 8, (int) (out.getInt(r + 8) - removed));
+                }
+            }
+        }
+        return out;
+    }
+
+    private static int trackId(ByteBuffer moov, Mp4Box trak) throws IOException {
+        Mp4Box tkhd = Mp4Box.find(moov, trak, Mp4Box.TKHD);
+        if (tkhd == null) {
+            throw new IOException("Track has no tkhd");
+        }
+        int p = (int) tkhd.bodyOffset();
+        return moov.getInt(p + (version(moov, p) == 1 ? 20 : 12));
+    }
+
+    private static int trafTrackId(ByteBuffer moof, Mp4Box traf) throws IOException {
+        Mp4Box tfhd = Mp4Box.find(moof, traf, Mp4Box.TFHD);
+        return tfhd == null ? 0 : moof.getInt((int) tfhd.bodyOffset() + 4);
+    }
+
+    private static int version(ByteBuffer buf, int fullBoxBody) {
+        return buf.get(fullBoxBody) & 0xFF;
+    }
+
+    // Stretches a movie-timescale duration in place; all-ones means unknown and is kept
+    private static void stretch(ByteBuffer buf, int at, boolean wide, double speed) throws IOException {
+        if (wide) {
+            long v = buf.getLong(at);
+            if (v != -1) buf.putLong(at, Math.round(v / speed));
+            return;
+        }
+        long v = buf.getInt(at) & 0xFFFFFFFFL;
+        if (v == UNKNOWN_DURATION_32) return;
+        long stretched = Math.round(v / speed);
+        if (stretched >= UNKNOWN_DURATION_32) {
+            throw new IOException("Duration overflows a version 0 box");
+        }
+        buf.putInt(at, (int) stretched);
+    }
+
+    private static void copy(ByteBuffer src, Mp4Box box, BoxBuilder dst) {
+        byte[] bytes = new byte[(int) box.size];
+        ByteBuffer view = src.duplicate();
+        view.position((int) box.offset);
+        view.get(bytes);
+        dst.bytes(bytes);
+    }
+
+    private static ByteBuffer read(FileChannel in, Mp4Box box) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) box.size).order(ByteOrder.BIG_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, box.offset + buf.position()) < 0) {
+                throw new EOFException("Truncated box " + box);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) out.write(buf);
+    }
+
+    private static void transfer(FileChannel in, long pos, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(pos, count, out);
+            if (n <= 0) {
+                throw new EOFException("Source ended at " + pos);
+            }
+            pos += n;
+            count -= n;
+        }
+    }
+}
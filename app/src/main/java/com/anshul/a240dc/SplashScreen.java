@@ -10,14 +10,19 @@ import android.view.WindowManager;
 
 import androidx.activity.EdgeToEdge;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import com.airbnb.lottie.LottieAnimationView;
 
+import java.util.concurrent.Executor;
+
 public class SplashScreen extends AppCompatActivity {
 
+    private boolean routed;
+
     private void changeStatusBarColor(String colorHex) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             Window window = getWindow();
@@ -36,6 +41,15 @@ public class SplashScreen extends AppCompatActivity {
         changeStatusBarColor("#241515"); // Pass your hex code here
         LottieAnimationView lottieAnimationView = findViewById(R.id.lottie_splash);
 
+        // The probe started with the process and the camera opens as soon as it is done; once
+        // the camera is ready there is nothing left to wait for, so the rest of the animation is skipped
+        StartupCoordinator startup = CaptureApp.startup(this);
+        startup.prewarmCamera();
+        Executor main = ContextCompat.getMainExecutor(this);
+        startup.cameraReady().thenAcceptAsync(ready -> {
+            if (ready) route(true);
+        }, main);
+
         // Listen for when the animation finishes
         lottieAnimationView.addAnimatorListener(new Animator.AnimatorListener() {
             @Override
@@ -45,9 +59,8 @@ public class SplashScreen extends AppCompatActivity {
 
             @Override
             public void onAnimationEnd(Animator animation) {
-                // Animation finished, navigate to MainActivity
-                startActivity(new Intent(SplashScreen.this, MainActivity.class));
-                finish(); // Close SplashActivity so user can't go back to it
+                // Animation finished; go on as soon as the probe has decided
+                startup.mode().thenAcceptAsync(mode -> route(mode != null), main);
             }
 
             @Override
@@ -57,4 +70,19 @@ public class SplashScreen extends AppCompatActivity {
             public void onAnimationRepeat(Animator animation) { }
         });
     }
-}
\ No newline at end of file
+
+    private void route(boolean supported) {
+        if (routed || isFinishing() || isDestroyed()) return;
+        routed = true;
+        // Navigate to MainActivity, or explain why it cannot record
+        startActivity(new Intent(this, supported ? MainActivity.class : UnsupportedDeviceActivity.class));
+        finish(); // Close SplashActivity so user can't go back to it
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Left without going on to MainActivity: don't keep the camera open in the background
+        if (!routed && !isChangingConfigurations()) CaptureApp.startup(this).releaseUnclaimedEngine();
+    }
+}
@@ -0,0 +1,333 @@
+package com.anshul.a240dc;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+import androidx.core.content.pm.PackageInfoCompat;
+
+import com.airbnb.lottie.LottieCompositionFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts the independent parts of a cold start as soon as the process exists, instead of one
+ * after another behind the splash animation: the permission check, decoding the splash
+ * composition, probing high-speed modes and loading the library index. Opening the camera in
+ * the chosen mode waits for {@link SplashScreen} to ask with {@link #prewarmCamera}, since a
+ * process restored straight into another activity must not hold the camera.
+ *
+ * Activities pick up what is already done: {@link MainActivity} adopts the pre-opened engine
+ * with {@link #takeEngine} and {@link VideoList} the loaded index with {@link #takeClipIndex}.
+ * Each phase is timed from process start and the times are kept in {@code startup.tsv}.
+ */
+public final class StartupCoordinator {
+
+    private static final String TAG = "Startup";
+
+    static final String PHASE_PERMISSIONS = "permissions";
+    static final String PHASE_ANIMATION = "animation";
+    static final String PHASE_PROBE = "probe";
+    static final String PHASE_CAMERA = "camera";
+    static final String PHASE_LIBRARY = "library";
+
+    static final String[] PERMISSIONS = permissions();
+
+    private final Context context;
+    private final StartupTrace trace;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final LatencyRecorder latencyRecorder;
+
+    private final CompletableFuture<HighSpeedMode> mode = new CompletableFuture<>();
+    // True once a pre-opened camera is ready to record, false if none was opened
+    private final CompletableFuture<Boolean> cameraReady = new CompletableFuture<>();
+    private final CompletableFuture<ClipIndex> library = new CompletableFuture<>();
+    private final CompletableFuture<Void> animation = new CompletableFuture<>();
+
+    // Guarded by this; null once handed over or released
+    private CaptureEngine engine;
+    private CaptureEngine.Listener engineListener;
+    private boolean clipIndexTaken;
+    // Also guarded by this: what the probe found, and whether the splash asked for the camera
+    // and later let it go
+    private boolean probed;
+    private HighSpeedMode best;
+    private boolean cameraWanted;
+    private boolean cameraDropped;
+    // Every mode the probe found, for the governor's ladder
+    private volatile List<HighSpeedMode> modes = Collections.emptyList();
+    // Set by start() before the tasks that read it are submitted
+    private boolean granted;
+
+    public StartupCoordinator(Context context) {
+        this.context = context.getApplicationContext();
+        // Process start on the nanoTime clock, so phases include what ran before onCreate
+        long sinceStartMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        this.trace = new StartupTrace(System.nanoTime() - sinceStartMs * 1_000_000);
+        this.latencyRecorder = new LatencyRecorder(new File(this.context.getFilesDir(), "start_latency.tsv"), versionName());
+    }
+
+    public void start() {
+        trace.begin(PHASE_PERMISSIONS);
+        granted = missingPermissions(context).isEmpty();
+        trace.end(PHASE_PERMISSIONS);
+
+        // The splash view asks for the same raw resource and gets this task from Lottie's cache
+        trace.begin(PHASE_ANIMATION);
+        LottieCompositionFactory.fromRawRes(context, R.raw.splash)
+                .addListener(composition -> finish(PHASE_ANIMATION))
+                .addFailureListener(error -> finish(PHASE_ANIMATION));
+
+        trace.begin(PHASE_PROBE);
+        executor.execute(() -> {
+            HighSpeedMode found = null;
+            try {
+                modes = CapabilityProbe.forDevice(context).modes();
+                if (!modes.isEmpty()) found = modes.get(0);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            trace.end(PHASE_PROBE);
+            boolean wanted;
+            synchronized (this) {
+                best = found;
+                probed = true;
+                wanted = cameraWanted;
+            }
+            // The engine exists before the mode is published, so MainActivity never builds a second one
+            if (wanted) openCameraIfAllowed(found);
+            mode.complete(found);
+        });
+
+        trace.begin(PHASE_LIBRARY);
+        executor.execute(() -> {
+            // Takes a previous process left pending or had to keep aside, before the library lists the collection
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                MediaStoreRecordingTarget.publishOrphans(context.getContentResolver());
+                MediaStoreRecordingTarget.importStranded(context.getContentResolver(), Camera2Backend.fallbackDir(context));
+            }
+            ClipIndex index = null;
+            try {
+                index = ClipIndex.open(new File(context.getFilesDir(), "clips.idx"));
+            } catch (IOException e) {
+                e.printStackTrace(); // VideoList opens its own then
+            }
+            trace.end(PHASE_LIBRARY);
+            library.complete(index);
+        });
+
+        // The camera phase only counts when the splash asked for it, which it has by the time
+        // its animation is decoded
+        CompletableFuture.allOf(mode, library, animation)
+                .thenCompose(v -> isCameraWanted() ? cameraReady.thenApply(ready -> v) : CompletableFuture.completedFuture(v))
+                .thenRunAsync(this::report, executor);
+    }
+
+    /**
+     * Opens the camera in the best mode as soon as the probe has found it, for
+     * {@link MainActivity} to take over. Only for launches that go on to record; whoever calls
+     * this must {@link #releaseUnclaimedEngine} if they end up not going there.
+     */
+    void prewarmCamera() {
+        HighSpeedMode found;
+        synchronized (this) {
+            if (cameraWanted) return;
+            cameraWanted = true;
+            // Otherwise the probe opens it once it is done
+            if (!probed) return;
+            found = best;
+        }
+        openCameraIfAllowed(found);
+    }
+
+    private synchronized boolean isCameraWanted() {
+        return cameraWanted;
+    }
+
+    // Without the permission MainActivity asks first and opens the camera itself
+    private void openCameraIfAllowed(HighSpeedMode found) {
+        if (found != null && granted) {
+            openCamera(found);
+        } else {
+            cameraReady.complete(false);
+        }
+    }
+
+    private void finish(String phase) {
+        trace.end(phase);
+        animation.complete(null);
+    }
+
+    private void openCamera(HighSpeedMode best) {
+        trace.begin(PHASE_CAMERA);
+        CaptureEngine e = newEngine(best, this::onEngineEvent);
+        boolean dropped;
+        synchronized (this) {
+            dropped = cameraDropped;
+            if (!dropped) engine = e;
+        }
+        if (dropped) {
+            // The splash went away while the probe was still running
+            e.release();
+            trace.end(PHASE_CAMERA);
+            cameraReady.complete(false);
+            return;
+        }
+        e.open();
+    }
+
+    // Runs on the main thread for the engine's whole life, also after MainActivity took it over
+    private void onEngineEvent(CaptureEngine.Event event) {
+        if (!cameraReady.isDone()) {
+            if (event.state == CaptureEngine.State.READY) {
+                trace.end(PHASE_CAMERA);
+                cameraReady.complete(true);
+            } else if (event.state == CaptureEngine.State.CLOSED) {
+                trace.end(PHASE_CAMERA);
+                cameraReady.complete(false);
+            }
+        }
+        CaptureEngine.Listener listener;
+        synchronized (this) {
+            listener = engineListener;
+        }
+        if (listener != null) listener.onCaptureEvent(event);
+    }
+
+    private void report() {
+        Log.i(TAG, trace.summary());
+        LatencyRecorder startup = new LatencyRecorder(new File(context.getFilesDir(), "startup.tsv"), versionName());
+        trace.report(startup);
+        try {
+            startup.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Out of the startup's way; usually cached, otherwise a few seconds of writing about weekly
+        StorageHealth.forRecordings(context).measureIfStale();
+        executor.shutdown();
+    }
+
+    /**
+     * Engine for {@code mode} honouring the pre-roll setting, with the shared latency log and a
+     * governor that may step down to the camera's smaller or slower modes.
+     */
+    CaptureEngine newEngine(HighSpeedMode mode, CaptureEngine.Listener listener) {
+        SharedPreferences prefs = context.getSharedPreferences(MainActivity.PREFS, Context.MODE_PRIVATE);
+        float preRoll = prefs.getFloat(MainActivity.KEY_PRE_ROLL, 0f);
+        RecordingGovernor.Policy policy = new RecordingGovernor.Policy.Builder().build();
+        RecordingGovernor governor = new RecordingGovernor(policy, mode.encoderConfig(),
+                RecordingGovernor.ladder(modes, mode, policy.minFps));
+        // Keep the session and next recorder prepared so a tap starts recording right away
+        return new CaptureEngine(new Camera2Backend(context, mode.cameraId, true, preRoll, mode.encoderConfig(), governor),
+                listener, ContextCompat.getMainExecutor(context), latencyRecorder);
+    }
+
+    /** Tap-to-first-frame latencies, shared by every engine of the process. */
+    LatencyRecorder latencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /** Completes with the best high-speed mode, or null on a device without one. */
+    CompletableFuture<HighSpeedMode> mode() {
+        return mode;
+    }
+
+    /**
+     * Completes with true once a camera opened by {@link #prewarmCamera} is ready to record, or
+     * false if none was opened. Never completes without that call.
+     */
+    CompletableFuture<Boolean> cameraReady() {
+        return cameraReady;
+    }
+
+    /**
+     * Hands the pre-opened engine over to {@code listener}, once. Returns null when there is
+     * none, in which case the caller builds its own.
+     */
+    synchronized CaptureEngine takeEngine(CaptureEngine.Listener listener) {
+        CaptureEngine e = engine;
+        engine = null;
+        if (e != null) engineListener = listener;
+        return e;
+    }
+
+    /** Closes a pre-opened engine nobody took, so the camera is not held in the background. */
+    void releaseUnclaimedEngine() {
+        CaptureEngine e;
+        synchronized (this) {
+            // One the probe has yet to open is released as soon as it exists
+            cameraDropped = true;
+            e = engine;
+            engine = null;
+        }
+        if (e != null) e.release();
+    }
+
+    /** The index loaded at startup, once; later callers get null and open their own. */
+    ClipIndex takeClipIndex() {
+        ClipIndex index = await(library);
+        synchronized (this) {
+            if (clipIndexTaken) return null;
+            clipIndexTaken = true;
+        }
+        return index;
+    }
+
+    // Writing needs no permission from Q on, since takes go through MediaStore; reading is only
+    // needed for clips an earlier install of the app recorded
+    private static String[] permissions() {
+        String storage;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            storage = Manifest.permission.READ_MEDIA_VIDEO;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            storage = Manifest.permission.READ_EXTERNAL_STORAGE;
+        } else {
+            storage = Manifest.permission.WRITE_EXTERNAL_STORAGE;
+        }
+        return new String[]{Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO, storage};
+    }
+
+    static List<String> missingPermissions(Context context) {
+        List<String> missing = new ArrayList<>();
+        for (String p : PERMISSIONS) {
+            if (ContextCompat.checkSelfPermission(context, p) != PackageManager.PERMISSION_GRANTED) missing.add(p);
+        }
+        return missing;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private String versionName() {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionName + "(" + PackageInfoCompat.getLongVersionCode(info) + ")";
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+}
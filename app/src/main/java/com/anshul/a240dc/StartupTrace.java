@@ -0,0 +1,86 @@
+package com.anshul.a240dc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Start and end times of the phases of a cold start, measured from process start.
+ *
+ * Phases overlap and finish on different threads, so each one is reported both by its own
+ * duration and by when it finished relative to the origin; the latter is what the user waits
+ * for. Finished phases can be handed to a {@link LatencyRecorder} to compare across releases.
+ */
+final class StartupTrace {
+
+    private final long originNanos;
+    private final List<String> order = new ArrayList<>();
+    private final Map<String, long[]> phases = new HashMap<>();
+
+    /** {@code originNanos} is process start on the {@link System#nanoTime()} clock. */
+    StartupTrace(long originNanos) {
+        this.originNanos = originNanos;
+    }
+
+    void begin(String phase) {
+        begin(phase, System.nanoTime());
+    }
+
+    void end(String phase) {
+        end(phase, System.nanoTime());
+    }
+
+    synchronized void begin(String phase, long nanos) {
+        if (phases.containsKey(phase)) return;
+        order.add(phase);
+        phases.put(phase, new long[]{nanos, -1});
+    }
+
+    /** Ends a phase once; later calls and phases that never began are ignored. */
+    synchronized void end(String phase, long nanos) {
+        long[] p = phases.get(phase);
+        if (p == null || p[1] >= 0) return;
+        p[1] = Math.max(nanos, p[0]);
+    }
+
+    synchronized boolean isFinished(String phase) {
+        long[] p = phases.get(phase);
+        return p != null && p[1] >= 0;
+    }
+
+    /** Nanoseconds the phase itself took, or -1 while it is running. */
+    synchronized long durationNanos(String phase) {
+        long[] p = phases.get(phase);
+        return p == null || p[1] < 0 ? -1 : p[1] - p[0];
+    }
+
+    /** Nanoseconds from process start until the phase finished, or -1 while it is running. */
+    synchronized long finishedAtNanos(String phase) {
+        long[] p = phases.get(phase);
+        return p == null || p[1] < 0 ? -1 : p[1] - originNanos;
+    }
+
+    /** Records when every finished phase completed, under {@code "startup:<phase>"}. */
+    synchronized void report(LatencyRecorder recorder) {
+        for (String phase : order) {
+            long at = finishedAtNanos(phase);
+            if (at >= 0) recorder.record("startup:" + phase, at);
+        }
+    }
+
+    synchronized String summary() {
+        StringBuilder sb = new StringBuilder("startup");
+        for (String phase : order) {
+            long[] p = phases.get(phase);
+            if (p[1] < 0) {
+                sb.append(String.format(Locale.US, " %s=running since %.1fms", phase, (p[0] - originNanos) / 1e6));
+            } else {
+                sb.append(String.format(Locale.US, " %s=%.1fms (done at %.1fms)", phase,
+                        (p[1] - p[0]) / 1e6, (p[1] - originNanos) / 1e6));
+            }
+        }
+        return sb.toString();
+    }
+}
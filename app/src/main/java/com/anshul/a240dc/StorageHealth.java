@@ -0,0 +1,81 @@
+package com.anshul.a240dc;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The volume takes are recorded to, as {@link RecordingPipeline#watchStorage} and the
+ * recording targets need it: its free space, its cached {@link WriteBenchmark} result and a
+ * {@link RecordingTarget.Preallocator} backed by {@code posix_fallocate}.
+ */
+final class StorageHealth {
+
+    private static final String TAG = "StorageHealth";
+    // Cards slow down as they fill up and wear, so the benchmark is redone now and then
+    private static final long MAX_AGE_MS = TimeUnit.DAYS.toMillis(7);
+
+    static final RecordingTarget.Preallocator FALLOCATE = (fd, length) -> {
+        try {
+            Os.posix_fallocate(fd, 0, length);
+        } catch (ErrnoException e) {
+            throw new IOException("fallocate: " + e.getMessage(), e);
+        }
+    };
+
+    private final File volumeRoot;
+    private final File scratchDir;
+    private final String volume;
+    private final WriteBenchmark.Cache cache;
+
+    private StorageHealth(File volumeRoot, File scratchDir, String volume, WriteBenchmark.Cache cache) {
+        this.volumeRoot = volumeRoot;
+        this.scratchDir = scratchDir;
+        this.volume = volume;
+        this.cache = cache;
+    }
+
+    /** The shared storage DCIM lives on, which is where every take goes. */
+    @SuppressWarnings("deprecation")
+    static StorageHealth forRecordings(Context context) {
+        File root = Environment.getExternalStorageDirectory();
+        String volume = "primary";
+        StorageManager manager = context.getSystemService(StorageManager.class);
+        StorageVolume sv = manager != null ? manager.getStorageVolume(root) : null;
+        if (sv != null && sv.getUuid() != null) volume = sv.getUuid();
+        // App-specific storage on the same volume needs no permission to write to
+        File scratch = context.getExternalFilesDir(null);
+        return new StorageHealth(root, scratch, volume,
+                new WriteBenchmark.Cache(new File(context.getFilesDir(), "write_bench.tsv"), MAX_AGE_MS));
+    }
+
+    long freeBytes() {
+        return volumeRoot.getUsableSpace();
+    }
+
+    /** The volume's recent benchmark, or null if it has not been measured lately. */
+    WriteBenchmark.Result benchmark() {
+        return cache.get(volume, System.currentTimeMillis());
+    }
+
+    /** Measures the volume unless a recent result is cached. Takes a few seconds; never call it on the main thread. */
+    WriteBenchmark.Result measureIfStale() {
+        if (scratchDir == null) return null; // Not mounted
+        try {
+            WriteBenchmark.Result r = cache.getOrMeasure(volume, scratchDir);
+            Log.i(TAG, volume + ": " + r);
+            return r;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
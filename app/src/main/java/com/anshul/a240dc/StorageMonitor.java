@@ -0,0 +1,127 @@
+package com.anshul.a240dc;
+
+import java.util.Locale;
+
+/**
+ * Watches one take's output against the volume it goes to: how fast bytes actually reach the
+ * file compared with the bitrate the encoder was asked for, how long the free space lasts at
+ * that rate, and when the take has to end so the last fragment still fits.
+ *
+ * The time left is based on the smoothed measured rate, which follows what a VBR encoder
+ * really produces for the scene. The stop decision uses the highest rate seen (and at least
+ * the expected one), so a sudden busy scene near the end cannot run the volume out first.
+ */
+public final class StorageMonitor {
+
+    public enum Status {
+        OK,
+        /** The volume cannot keep up: it benchmarked too slow, or the writer stalled the encoder. */
+        SLOW,
+        /** Less than {@link #LOW_SECONDS} left. */
+        LOW,
+        /** Stop now; what is written still fits. */
+        FULL
+    }
+
+    public static final long INTERVAL_NANOS = 500_000_000L;
+    public static final long LOW_SECONDS = 60;
+    static final double STOP_SECONDS = 2;
+    // The volume should manage this much more than the encoder produces
+    static final double HEADROOM = 1.25;
+    private static final double SMOOTHING = 0.2;
+
+    /** One look at the take, made every {@link #INTERVAL_NANOS} at most. */
+    public static final class Reading {
+        public final Status status;
+        public final long bytesWritten;
+        /** Smoothed rate the file grows at. */
+        public final long bytesPerSecond;
+        public final long expectedBytesPerSecond;
+        /** Seconds until the volume is full at the current rate, or -1 if it is unknown. */
+        public final long remainingSeconds;
+
+        Reading(Status status, long bytesWritten, long bytesPerSecond, long expectedBytesPerSecond,
+                long remainingSeconds) {
+            this.status = status;
+            this.bytesWritten = bytesWritten;
+            this.bytesPerSecond = bytesPerSecond;
+            this.expectedBytesPerSecond = expectedBytesPerSecond;
+            this.remainingSeconds = remainingSeconds;
+        }
+
+        /** "12:34 left" style readout of {@link #remainingSeconds}. */
+        public String remaining() {
+            if (remainingSeconds < 0) return "";
+            long s = remainingSeconds;
+            return s >= 3600
+                    ? String.format(Locale.US, "%d:%02d:%02d left", s / 3600, s / 60 % 60, s % 60)
+                    : String.format(Locale.US, "%d:%02d left", s / 60, s % 60);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.1f of %.1f MB/s, %s", status, bytesPerSecond / 1e6,
+                    expectedBytesPerSecond / 1e6, remaining());
+        }
+    }
+
+    private final long expectedBytesPerSecond;
+    private final long sustainedBytesPerSecond;
+    private final long reserveBytes;
+
+    private long lastNanos = -1;
+    private long lastBytes;
+    private long lastStalls;
+    private double smoothed;
+    private double peak;
+
+    /**
+     * @param sustainedBytesPerSecond what the volume benchmarked at, or 0 if unknown
+     * @param reserveBytes space to leave free on the volume
+     */
+    public StorageMonitor(long expectedBytesPerSecond, long sustainedBytesPerSecond, long reserveBytes) {
+        this.expectedBytesPerSecond = expectedBytesPerSecond;
+        this.sustainedBytesPerSecond = sustainedBytesPerSecond;
+        this.reserveBytes = reserveBytes;
+        this.smoothed = expectedBytesPerSecond;
+        this.peak = expectedBytesPerSecond;
+    }
+
+    /** True if a reading is due, so the caller only asks the volume for its free space then. */
+    public boolean due(long nowNanos) {
+        return lastNanos < 0 || nowNanos - lastNanos >= INTERVAL_NANOS;
+    }
+
+    /**
+     * Takes a reading. {@code freeBytes} is what the volume still has, counting space already
+     * preallocated for the take as free; {@code writerStalls} counts, over the whole take, the
+     * times the encoder had to wait for the writer.
+     */
+    public Reading update(long nowNanos, long bytesWritten, long freeBytes, long writerStalls) {
+        boolean stalled = false;
+        if (lastNanos >= 0 && nowNanos > lastNanos) {
+            double rate = (bytesWritten - lastBytes) * 1e9 / (nowNanos - lastNanos);
+            smoothed += SMOOTHING * (rate - smoothed);
+            peak = Math.max(peak, rate);
+            stalled = writerStalls > lastStalls;
+        }
+        lastNanos = nowNanos;
+        lastBytes = bytesWritten;
+        lastStalls = writerStalls;
+
+        long spare = freeBytes - reserveBytes;
+        long remaining = smoothed > 0 ? (long) (Math.max(0, spare) / smoothed) : -1;
+        Status status;
+        if (spare <= peak * STOP_SECONDS) {
+            status = Status.FULL;
+        } else if (remaining >= 0 && remaining < LOW_SECONDS) {
+            status = Status.LOW;
+        } else if (stalled || (sustainedBytesPerSecond > 0
+                && sustainedBytesPerSecond < expectedBytesPerSecond * HEADROOM)) {
+            status = Status.SLOW;
+        } else {
+            status = Status.OK;
+        }
+        return new Reading(status, bytesWritten, (long) smoothed, expectedBytesPerSecond, remaining);
+    }
+}
@@ -0,0 +1,35 @@
+package com.anshul.a240dc;
+
+/**
+ * Cache key for a clip thumbnail. It covers the path, modification time and size, so a clip
+ * that is re-recorded or trimmed under the same name never shows a stale preview.
+ */
+public final class ThumbnailKey {
+
+    private ThumbnailKey() {}
+
+    /** Returns a 16 character hex key that is also safe to use as a file name. */
+    public static String of(String path, long lastModified, long sizeBytes) {
+        // 64-bit FNV-1a over the path, then folded with mtime and size
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            h = (h ^ (c & 0xFF)) * 0x100000001b3L;
+            h = (h ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        h = mix(h, lastModified);
+        h = mix(h, sizeBytes);
+
+        String hex = Long.toHexString(h);
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) sb.append('0');
+        return sb.append(hex).toString();
+    }
+
+    private static long mix(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h = (h ^ ((value >>> (i * 8)) & 0xFF)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,209 @@
+package com.anshul.a240dc;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads clip thumbnails off the main thread.
+ *
+ * Lookups go memory LRU → disk cache → frame extraction. Decoding runs on a small bounded
+ * pool; when the queue is full the oldest request is dropped and cancelled, which during a
+ * fling is always a row that has already scrolled away. A request is cancelled as soon as its
+ * ImageView is rebound or recycled.
+ *
+ * Prefetches run on their own lower-priority thread and queue, so they never push out a load
+ * for a visible row. A key is only queued for prefetch once until its fetch is done.
+ */
+public class ThumbnailLoader {
+
+    private static final int THUMB_WIDTH = 320;
+    private static final int THUMB_HEIGHT = 180;
+    private static final int JPEG_QUALITY = 80;
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int QUEUE_CAPACITY = 48;
+    private static final int PREFETCH_CAPACITY = 16;
+
+    private final LruByteCache<String, Bitmap> memory;
+    private final DiskThumbnailCache disk;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor prefetcher;
+    // Keys queued or being fetched for prefetch, so a fling asks for each row once
+    private final Set<String> prefetching = ConcurrentHashMap.newKeySet();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public ThumbnailLoader(Context context) {
+        // An eighth of the heap, but never more than 32 MB however many clips there are
+        long budget = Math.min(Runtime.getRuntime().maxMemory() / 8, 32L * 1024 * 1024);
+        memory = new LruByteCache<>(budget, Bitmap::getAllocationByteCount);
+        disk = new DiskThumbnailCache(new File(context.getCacheDir(), "thumbs"), DISK_CACHE_BYTES);
+
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<>(QUEUE_CAPACITY),
+                threads("thumbnail-decoder", Process.THREAD_PRIORITY_BACKGROUND), discardOldest);
+        executor.allowCoreThreadTimeOut(true);
+        prefetcher = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<>(PREFETCH_CAPACITY),
+                threads("thumbnail-prefetch", Process.THREAD_PRIORITY_LOWEST), discardOldest);
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory threads(String name, int priority) {
+        return r -> {
+            Thread t = new Thread(() -> {
+                Process.setThreadPriority(priority);
+                r.run();
+            }, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Drops the oldest queued request for the new one, settling what was dropped so nothing
+    // waits on it: a load's future is cancelled, a prefetch's key can be asked for again
+    private final RejectedExecutionHandler discardOldest = (r, e) -> {
+        if (e.isShutdown()) return;
+        Runnable dropped = e.getQueue().poll();
+        if (dropped instanceof Future) ((Future<?>) dropped).cancel(false);
+        if (dropped instanceof Prefetch) prefetching.remove(((Prefetch) dropped).key);
+        e.execute(r);
+    };
+
+    /** Shows the thumbnail for {@code video} in {@code view}, or the placeholder until it is ready. */
+    public void load(ImageView view, VideoItem video) {
+        cancel(view);
+        String key = keyFor(video);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageResource(video.getThumbnailResId());
+
+        Object token = new Object();
+        Future<?> task = executor.submit(() -> {
+            Bitmap bitmap = fetch(key, video.getPath());
+            if (bitmap == null || Thread.currentThread().isInterrupted()) return;
+            mainHandler.post(() -> {
+                // The view may have been rebound to another clip in the meantime
+                if (view.getTag(R.id.thumbnail_request) == token) {
+                    view.setTag(R.id.thumbnail_request, null);
+                    view.setTag(R.id.thumbnail_task, null);
+                    view.setImageBitmap(bitmap);
+                }
+            });
+        });
+        view.setTag(R.id.thumbnail_request, token);
+        view.setTag(R.id.thumbnail_task, task);
+    }
+
+    /** Cancels any pending load for {@code view}. */
+    public void cancel(ImageView view) {
+        Object task = view.getTag(R.id.thumbnail_task);
+        if (task instanceof Future) {
+            ((Future<?>) task).cancel(true);
+        }
+        view.setTag(R.id.thumbnail_request, null);
+        view.setTag(R.id.thumbnail_task, null);
+    }
+
+    /** Warms the caches for a row that is about to scroll into view. */
+    public void prefetch(VideoItem video) {
+        String key = keyFor(video);
+        if (memory.contains(key) || !prefetching.add(key)) return;
+        prefetcher.execute(new Prefetch(key, video.getPath()));
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        prefetcher.shutdownNow();
+        prefetching.clear();
+        memory.clear();
+    }
+
+    private final class Prefetch implements Runnable {
+        final String key;
+        final String path;
+
+        Prefetch(String key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            try {
+                fetch(key, path);
+            } finally {
+                prefetching.remove(key);
+            }
+        }
+    }
+
+    private Bitmap fetch(String key, String path) {
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) return bitmap;
+
+        byte[] encoded = disk.get(key);
+        if (encoded != null) {
+            bitmap = BitmapFactory.decodeByteArray(encoded, 0, encoded.length);
+        }
+        if (bitmap == null) {
+            if (Thread.currentThread().isInterrupted()) return null;
+            bitmap = extractFrame(path);
+            if (bitmap == null) return null;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            disk.put(key, out.toByteArray());
+        }
+        memory.put(key, bitmap);
+        return bitmap;
+    }
+
+    private static Bitmap extractFrame(String path) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                return retriever.getScaledFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                        THUMB_WIDTH, THUMB_HEIGHT);
+            }
+            Bitmap frame = retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            if (frame == null) return null;
+            float scale = Math.min(THUMB_WIDTH / (float) frame.getWidth(), THUMB_HEIGHT / (float) frame.getHeight());
+            Bitmap scaled = Bitmap.createScaledBitmap(frame, Math.round(frame.getWidth() * scale),
+                    Math.round(frame.getHeight() * scale), true);
+            if (scaled != frame) frame.recycle();
+            return scaled;
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private static String keyFor(VideoItem video) {
+        return ThumbnailKey.of(video.getPath(), video.getLastModified(), video.getSizeBytes());
+    }
+}
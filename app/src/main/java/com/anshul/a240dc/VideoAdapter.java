@@ -2,26 +2,125 @@ package com.anshul.a240dc;
 
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.File;
-import java.util.List;
+import java.util.concurrent.Executor;
 
-public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHolder> {
+/**
+ * Binds rows of a {@link ClipTable}, in the order a query selected them. Text comes straight
+ * from the columns; a {@link VideoItem} is only made for a bound row's thumbnail and actions.
+ */
+public final class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHolder> {
+
+    public interface OnDeleteListener {
+        void onDelete(VideoItem video);
+    }
+
+    public interface OnExportListener {
+        void onExport(VideoItem video);
+    }
 
     private Context context; // Need context to start external player
-    private List<VideoItem> videoList;
+    private ThumbnailLoader thumbnailLoader;
+    private OnDeleteListener onDeleteListener;
+    private OnExportListener onExportListener;
+    private final Executor diffExecutor;
+    private final Executor mainExecutor;
 
-    public VideoAdapter(Context context, List<VideoItem> videoList) {
+    // Main thread only
+    private ClipTable table = ClipTable.EMPTY;
+    private int[] rows = new int[0];
+    private int generation;
+
+    public VideoAdapter(Context context, ThumbnailLoader thumbnailLoader, OnDeleteListener onDeleteListener,
+                        OnExportListener onExportListener, Executor diffExecutor) {
         this.context = context;
-        this.videoList = videoList;
+        this.thumbnailLoader = thumbnailLoader;
+        this.onDeleteListener = onDeleteListener;
+        this.onExportListener = onExportListener;
+        this.diffExecutor = diffExecutor;
+        this.mainExecutor = ContextCompat.getMainExecutor(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Shows {@code newRows} of {@code newTable}. Rows are matched by path on {@code diffExecutor}
+     * and only the ones whose displayed fields changed get rebound, as for a reload that keeps
+     * the order.
+     */
+    public void submit(ClipTable newTable, int[] newRows) {
+        int gen = ++generation;
+        ClipTable oldTable = table;
+        int[] oldRows = rows;
+        if (oldRows.length == 0 || newRows.length == 0) {
+            show(newTable, newRows);
+            if (oldRows.length > 0) notifyItemRangeRemoved(0, oldRows.length);
+            if (newRows.length > 0) notifyItemRangeInserted(0, newRows.length);
+            return;
+        }
+        diffExecutor.execute(() -> {
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldRows.length;
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return newRows.length;
+                }
+
+                @Override
+                public boolean areItemsTheSame(int o, int n) {
+                    return oldTable.id(oldRows[o]) == newTable.id(newRows[n]);
+                }
+
+                @Override
+                public boolean areContentsTheSame(int o, int n) {
+                    return oldTable.sameContents(oldRows[o], newTable, newRows[n]);
+                }
+            }, false);
+            mainExecutor.execute(() -> {
+                if (gen != generation) return;
+                show(newTable, newRows);
+                diff.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    /**
+     * Shows {@code newRows} of {@code newTable} straight away. For a new sort or filter, where
+     * a diff would find little in common; stable ids still keep the rows that stay.
+     */
+    public void replace(ClipTable newTable, int[] newRows) {
+        generation++;
+        show(newTable, newRows);
+        notifyDataSetChanged();
+    }
+
+    public ClipTable getTable() {
+        return table;
+    }
+
+    /** The clip at {@code position}, for the APIs that take a whole item. */
+    public VideoItem getItem(int position) {
+        int row = rows[position];
+        return new VideoItem(table.name(row), ClipFormat.formatDuration(table.durationMs(row)), table.fps(row),
+                table.iso(row), table.shutter(row), android.R.drawable.ic_media_play, table.path(row),
+                table.sizeBytes(row), table.lastModified(row));
+    }
+
+    private void show(ClipTable newTable, int[] newRows) {
+        table = newTable;
+        rows = newRows;
     }
 
     @NonNull
@@ -33,40 +132,51 @@ public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHol
 
     @Override
     public void onBindViewHolder(@NonNull VideoViewHolder holder, int position) {
-        VideoItem video = videoList.get(position);
+        int row = rows[position];
+        VideoItem video = getItem(position);
 
-        holder.tvName.setText(video.getName());
-        holder.tvDuration.setText("⏱ " + video.getDuration());
+        holder.tvName.setText(table.name(row));
+        holder.tvDuration.setText("⏱ " + ClipFormat.formatDuration(table.durationMs(row)));
 
-        // Format the technical specs cleanly
-        String specs = String.format("%d FPS  •  ISO %d  •  %s",
-                video.getFps(), video.getIso(), video.getShutterSpeed());
-        holder.tvSpecs.setText(specs);
+        holder.tvSpecs.setText(ClipFormat.formatSpecs(table.fps(row), table.iso(row), table.shutter(row)));
 
-        if (video.getThumbnailResId() != 0) {
-            holder.imgThumbnail.setImageResource(video.getThumbnailResId());
-        }
+        // Placeholder first, real frame once it is decoded off the main thread
+        thumbnailLoader.load(holder.imgThumbnail, video);
 
-        // --- NEW: Play video externally on click ---
+        // Frame-accurate stepping needs our own viewer; external players snap to keyframes
         holder.itemView.setOnClickListener(v -> {
-            File videoFile = new File(video.getPath());
-            Intent intent = new Intent(Intent.ACTION_VIEW);
-            Uri uri = Uri.fromFile(videoFile);
-            intent.setDataAndType(uri, "video/mp4");
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-
-            // Starts the device's default video player!
+            Intent intent = new Intent(context, ClipViewer.class);
+            intent.putExtra(ClipViewer.EXTRA_PATH, video.getPath());
             context.startActivity(intent);
         });
+
+        // Long-press offers slow-motion export and trimming
+        holder.itemView.setOnLongClickListener(v -> {
+            onExportListener.onExport(video);
+            return true;
+        });
+
+        holder.btnDelete.setOnClickListener(v -> onDeleteListener.onDelete(video));
     }
 
     @Override
     public int getItemCount() {
-        return videoList.size();
+        return rows.length;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return table.id(rows[position]);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull VideoViewHolder holder) {
+        super.onViewRecycled(holder);
+        thumbnailLoader.cancel(holder.imgThumbnail);
     }
 
     public static class VideoViewHolder extends RecyclerView.ViewHolder {
-        ImageView imgThumbnail;
+        ImageView imgThumbnail, btnDelete;
         TextView tvName, tvDuration, tvSpecs;
 
         public VideoViewHolder(@NonNull View itemView) {
@@ -75,6 +185,7 @@ public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHol
             tvName = itemView.findViewById(R.id.tv_video_name);
             tvDuration = itemView.findViewById(R.id.tv_duration);
             tvSpecs = itemView.findViewById(R.id.tv_specs);
+            btnDelete = itemView.findViewById(R.id.btn_delete);
         }
     }
 }
\ No newline at end of file
@@ -8,8 +8,15 @@ public class VideoItem {
     private String shutterSpeed;
     private int thumbnailResId;
     private String path; // NEW: The absolute path to the .mp4 file
+    private long sizeBytes;
+    private long lastModified;
 
     public VideoItem(String name, String duration, int fps, int iso, String shutterSpeed, int thumbnailResId, String path) {
+        this(name, duration, fps, iso, shutterSpeed, thumbnailResId, path, 0, 0);
+    }
+
+    public VideoItem(String name, String duration, int fps, int iso, String shutterSpeed, int thumbnailResId, String path,
+                     long sizeBytes, long lastModified) {
         this.name = name;
         this.duration = duration;
         this.fps = fps;
@@ -17,6 +24,8 @@ public class VideoItem {
         this.shutterSpeed = shutterSpeed;
         this.thumbnailResId = thumbnailResId;
         this.path = path;
+        this.sizeBytes = sizeBytes;
+        this.lastModified = lastModified;
     }
 
     public String getName() { return name; }
@@ -26,4 +35,28 @@ public class VideoItem {
     public String getShutterSpeed() { return shutterSpeed; }
     public int getThumbnailResId() { return thumbnailResId; }
     public String getPath() { return path; } // NEW
-}
\ No newline at end of file
+    public long getSizeBytes() { return sizeBytes; }
+    public long getLastModified() { return lastModified; }
+
+    /** Stable RecyclerView id: a 64-bit hash of the path, so it survives reloads. */
+    public long getId() {
+        return idOf(path);
+    }
+
+    /** FNV-1a over the path's chars; {@link ClipTable} stores the same id per row. */
+    public static long idOf(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            h = (h ^ path.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** True if every displayed field matches, i.e. the row does not need rebinding. */
+    public boolean hasSameContents(VideoItem other) {
+        return fps == other.fps && iso == other.iso && thumbnailResId == other.thumbnailResId
+                && sizeBytes == other.sizeBytes && lastModified == other.lastModified
+                && name.equals(other.name) && duration.equals(other.duration)
+                && shutterSpeed.equals(other.shutterSpeed) && path.equals(other.path);
+    }
+}
@@ -2,26 +2,62 @@ package com.anshul.a240dc;
 
 import android.content.SharedPreferences;
 import android.graphics.Color;
+import android.media.MediaScannerConnection;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.StrictMode;
+import android.provider.MediaStore;
+import android.text.Editable;
+import android.text.InputType;
+import android.text.TextWatcher;
 import android.view.Window;
 import android.view.WindowManager;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.Toast;
 
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 
 public class VideoList extends AppCompatActivity {
 
     private RecyclerView recyclerView;
     private VideoAdapter adapter;
-    private List<VideoItem> videoList;
+    private ThumbnailLoader thumbnailLoader;
+    private LibraryLoader libraryLoader;
+    private ExecutorService ioExecutor;
+    private ExecutorService exportExecutor; // Exports can take a while; the library keeps loading meanwhile
+    private ExecutorService diffExecutor;
+    private ClipIndex clipIndex; // Only touched on ioExecutor
+
+    // The latest snapshot and how it is shown; main thread only
+    private ClipTable clips = ClipTable.EMPTY;
+    private int sortChoice;
+    private int filterChoice;
+    private String search = "";
+
+    private static final int PREFETCH_ROWS = 6;
+    private static final double MAX_SLOWDOWN = 64;
+    private static final int HIGH_SPEED_FPS = 240;
+    private static final int SHORT_CLIP_MS = 5000;
+
+    private static final String[] SORTS = {"Newest first", "Oldest first", "Longest first", "Largest first",
+            "Highest frame rate first"};
+    private static final String[] FILTERS = {"All clips", HIGH_SPEED_FPS + " fps and up",
+            "Shorter than " + SHORT_CLIP_MS / 1000 + " s", HIGH_SPEED_FPS + " fps and up, shorter than "
+            + SHORT_CLIP_MS / 1000 + " s"};
 
     private void changeStatusBarColor(String colorHex) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -37,57 +73,388 @@ public class VideoList extends AppCompatActivity {
         setContentView(R.layout.activity_video_list);
         changeStatusBarColor("#ffffff");
 
-        // Bypass Android's strict FileUri restriction to easily launch external video players
-        StrictMode.VmPolicy.Builder builder = new StrictMode.VmPolicy.Builder();
-        StrictMode.setVmPolicy(builder.build());
-
         recyclerView = findViewById(R.id.recycler);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-        videoList = new ArrayList<>();
-
-        // Load real recorded videos from storage
-        loadVideosFromStorage();
+        // The scan and the index live on one background thread; results arrive on the main thread
+        ioExecutor = Executors.newSingleThreadExecutor();
+        libraryLoader = new LibraryLoader(ioExecutor, ContextCompat.getMainExecutor(this));
+        exportExecutor = Executors.newSingleThreadExecutor();
+        diffExecutor = Executors.newSingleThreadExecutor();
 
         // Pass 'this' context to adapter so it can start activities
-        adapter = new VideoAdapter(this, videoList);
+        thumbnailLoader = new ThumbnailLoader(this);
+        adapter = new VideoAdapter(this, thumbnailLoader, this::deleteVideo, this::showClipActions, diffExecutor);
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                prefetchThumbnails(dy);
+            }
+        });
+
+        EditText searchField = findViewById(R.id.et_search);
+        searchField.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search = s.toString().trim();
+                requery();
+            }
+        });
+        Button sortButton = findViewById(R.id.btn_sort);
+        sortButton.setOnClickListener(v -> new AlertDialog.Builder(this)
+                .setTitle("Sort")
+                .setSingleChoiceItems(SORTS, sortChoice, (dialog, which) -> {
+                    sortChoice = which;
+                    requery();
+                    dialog.dismiss();
+                })
+                .show());
+        Button filterButton = findViewById(R.id.btn_filter);
+        filterButton.setOnClickListener(v -> new AlertDialog.Builder(this)
+                .setTitle("Filter")
+                .setSingleChoiceItems(FILTERS, filterChoice, (dialog, which) -> {
+                    filterChoice = which;
+                    requery();
+                    dialog.dismiss();
+                })
+                .show());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Also picks up clips recorded while we were in the background; unchanged rows stay put
+        reload();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        libraryLoader.cancel();
+        ioExecutor.shutdown();
+        exportExecutor.shutdown();
+        diffExecutor.shutdown();
+        thumbnailLoader.shutdown();
+    }
+
+    private void reload() {
+        libraryLoader.load(this::loadVideosFromStorage, (table, complete) -> {
+            clips = table;
+            adapter.submit(table, table.select(query()));
+        });
+    }
+
+    // A changed sort, filter or search shares little with what is on screen, so it skips the diff
+    private void requery() {
+        adapter.replace(clips, clips.select(query()));
+    }
+
+    private ClipTable.Query query() {
+        ClipTable.Query q = new ClipTable.Query().namePrefix(search);
+        if (filterChoice == 1 || filterChoice == 3) q.atLeast(ClipTable.Column.FPS, HIGH_SPEED_FPS);
+        if (filterChoice == 2 || filterChoice == 3) q.below(ClipTable.Column.DURATION, SHORT_CLIP_MS);
+        // By modification time rather than scan order, which only follows untouched take names;
+        // exports, imported takes and renamed files have to fall into place too
+        switch (sortChoice) {
+            case 1: q.orderBy(ClipTable.Column.DATE, false).orderBy(ClipTable.Column.NAME, false); break;
+            case 2: q.orderBy(ClipTable.Column.DURATION, true).orderBy(ClipTable.Column.NAME, true); break;
+            case 3: q.orderBy(ClipTable.Column.SIZE, true).orderBy(ClipTable.Column.NAME, true); break;
+            case 4: q.orderBy(ClipTable.Column.FPS, true).orderBy(ClipTable.Column.NAME, true); break;
+            default: q.orderBy(ClipTable.Column.DATE, true).orderBy(ClipTable.Column.NAME, true); break;
+        }
+        return q;
+    }
+
+    private void deleteVideo(VideoItem video) {
+        ioExecutor.execute(() -> {
+            if (!deleteClip(video.getPath())) {
+                runOnUiThread(() -> Toast.makeText(this, "Could not delete " + video.getName(), Toast.LENGTH_SHORT).show());
+                return;
+            }
+            FrameTelemetry.sidecarFor(getFilesDir(), new File(video.getPath()).getName()).delete();
+        });
+        reload();
+    }
+
+    // Through MediaStore where the library comes from it, so the entry goes along with the file
+    @SuppressWarnings("deprecation")
+    private boolean deleteClip(String path) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                int rows = getContentResolver().delete(MediaStoreRecordingTarget.collection(),
+                        MediaStore.Video.Media.DATA + "=?", new String[]{path});
+                if (rows > 0) return true;
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // Someone else's clip; the file may still be ours to delete
+            }
+        }
+        return new File(path).delete();
+    }
+
+    private void showClipActions(VideoItem video) {
+        String[] choices = {"Slow motion 1/4", "Slow motion 1/8", "Slow motion custom...", "Trim...", "Export frames..."};
+        new AlertDialog.Builder(this)
+                .setTitle(video.getName())
+                .setItems(choices, (dialog, which) -> {
+                    if (which == 0) exportSlowMotion(video, 0.25);
+                    else if (which == 1) exportSlowMotion(video, 0.125);
+                    else if (which == 2) chooseCustomSpeed(video);
+                    else if (which == 3) chooseTrimRange(video);
+                    else chooseFrameExport(video);
+                })
+                .show();
+    }
+
+    private void chooseTrimRange(VideoItem video) {
+        chooseRange("Trim", "Starts at the keyframe just before the chosen time", "Trim", false,
+                (startUs, endUs) -> trim(video, startUs, endUs));
+    }
+
+    private void chooseFrameExport(VideoItem video) {
+        String[] kinds = {"PNG frames", "JPEG frames", "Contact sheet"};
+        new AlertDialog.Builder(this)
+                .setTitle("Export frames")
+                .setItems(kinds, (dialog, which) -> {
+                    FrameExport.Kind kind = FrameExport.Kind.values()[which];
+                    chooseRange(kinds[which], "Leave both empty for the whole clip", "Export", true,
+                            (startUs, endUs) -> exportFrames(video, kind, startUs, endUs));
+                })
+                .show();
+    }
+
+    // Asks for a range in seconds; with allowBlank, empty fields mean the clip's start or end (0)
+    private void chooseRange(String title, String message, String action, boolean allowBlank,
+                             BiConsumer<Long, Long> onRange) {
+        EditText start = new EditText(this);
+        EditText end = new EditText(this);
+        start.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        end.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        start.setHint("From (seconds)");
+        end.setHint("To (seconds)");
+        LinearLayout fields = new LinearLayout(this);
+        fields.setOrientation(LinearLayout.VERTICAL);
+        fields.addView(start);
+        fields.addView(end);
+        new AlertDialog.Builder(this)
+                .setTitle(title)
+                .setMessage(message)
+                .setView(fields)
+                .setPositiveButton(action, (dialog, which) -> {
+                    long startUs;
+                    long endUs;
+                    try {
+                        startUs = parseSeconds(start.getText().toString(), allowBlank);
+                        endUs = parseSeconds(end.getText().toString(), allowBlank);
+                    } catch (NumberFormatException e) {
+                        startUs = endUs = -1;
+                    }
+                    boolean toEnd = allowBlank && endUs == 0;
+                    if (startUs < 0 || (!toEnd && endUs <= startUs)) {
+                        Toast.makeText(this, "Enter a start before the end", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    onRange.accept(startUs, endUs);
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private static long parseSeconds(String text, boolean allowBlank) {
+        text = text.trim();
+        if (allowBlank && text.isEmpty()) return 0;
+        return Math.round(Double.parseDouble(text) * 1_000_000);
     }
 
-    private void loadVideosFromStorage() {
+    // Decodes in parallel inside FrameExport; this thread only waits for it
+    private void exportFrames(VideoItem video, FrameExport.Kind kind, long startUs, long endUs) {
+        Toast.makeText(this, "Exporting frames...", Toast.LENGTH_SHORT).show();
+        File source = new File(video.getPath());
+        File target = FrameExport.targetFor(source, kind, startUs, endUs);
+        exportExecutor.execute(() -> {
+            List<File> files;
+            try {
+                files = FrameExport.export(source, target, kind, startUs, endUs, null);
+            } catch (IOException e) {
+                e.printStackTrace();
+                runOnUiThread(() -> Toast.makeText(this, "Export failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
+                return;
+            }
+            String[] paths = new String[files.size()];
+            for (int i = 0; i < paths.length; i++) paths[i] = files.get(i).getAbsolutePath();
+            MediaScannerConnection.scanFile(this, paths, null, null);
+            String saved = kind == FrameExport.Kind.CONTACT_SHEET ? target.getName() : files.size() + " frames to " + target.getName();
+            runOnUiThread(() -> Toast.makeText(this, "Saved " + saved, Toast.LENGTH_SHORT).show());
+        });
+    }
+
+    // Copies only the selected samples; nothing is decoded
+    private void trim(VideoItem video, long startUs, long endUs) {
+        File source = new File(video.getPath());
+        File target = ClipTrimmer.targetFor(source, startUs, endUs);
+        exportExecutor.execute(() -> {
+            try {
+                ClipTrimmer.trim(source, target, startUs, endUs);
+            } catch (IOException e) {
+                e.printStackTrace();
+                runOnUiThread(() -> Toast.makeText(this, "Trim failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
+                return;
+            }
+            finishExport(source, target);
+        });
+    }
+
+    private void chooseCustomSpeed(VideoItem video) {
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        input.setHint("Slow down by, e.g. 10");
+        new AlertDialog.Builder(this)
+                .setTitle("Custom slow motion")
+                .setView(input)
+                .setPositiveButton("Export", (dialog, which) -> {
+                    double factor;
+                    try {
+                        factor = Double.parseDouble(input.getText().toString().trim());
+                    } catch (NumberFormatException e) {
+                        factor = 0;
+                    }
+                    if (factor <= 1 || factor > MAX_SLOWDOWN) {
+                        Toast.makeText(this, "Enter a number between 1 and " + (int) MAX_SLOWDOWN, Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    exportSlowMotion(video, 1 / factor);
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    // Only the timing tables are rewritten, so this runs at file-copy speed
+    private void exportSlowMotion(VideoItem video, double speed) {
+        Toast.makeText(this, "Exporting...", Toast.LENGTH_SHORT).show();
+        File source = new File(video.getPath());
+        File target = SlowMotionExporter.targetFor(source, speed);
+        exportExecutor.execute(() -> {
+            try {
+                SlowMotionExporter.export(source, target, speed);
+            } catch (IOException e) {
+                e.printStackTrace();
+                runOnUiThread(() -> Toast.makeText(this, "Export failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
+                return;
+            }
+            finishExport(source, target);
+        });
+    }
+
+    // Runs on exportExecutor once target is complete
+    private void finishExport(File source, File target) {
+        // ISO and shutter still describe the frames, so the copy keeps them
+        SharedPreferences prefs = getSharedPreferences("VideoMetadata", MODE_PRIVATE);
+        String metadata = prefs.getString(source.getName(), null);
+        if (metadata != null) {
+            prefs.edit().putString(target.getName(), metadata).apply();
+        }
+        MediaScannerConnection.scanFile(this, new String[]{target.getAbsolutePath()}, null, null);
+        runOnUiThread(() -> {
+            Toast.makeText(this, "Saved " + target.getName(), Toast.LENGTH_SHORT).show();
+            reload();
+        });
+    }
+
+    // Warm the thumbnail caches for the rows about to scroll into view
+    private void prefetchThumbnails(int dy) {
+        if (dy == 0) return;
+        LinearLayoutManager lm = (LinearLayoutManager) recyclerView.getLayoutManager();
+        if (lm == null) return;
+        int edge = dy > 0 ? lm.findLastVisibleItemPosition() : lm.findFirstVisibleItemPosition();
+        if (edge == RecyclerView.NO_POSITION) return;
+        int step = dy > 0 ? 1 : -1;
+        for (int i = 1; i <= PREFETCH_ROWS; i++) {
+            int position = edge + i * step;
+            if (position < 0 || position >= adapter.getItemCount()) break;
+            thumbnailLoader.prefetch(adapter.getItem(position));
+        }
+    }
+
+    // Runs on ioExecutor
+    private void loadVideosFromStorage(LibraryLoader.Sink sink) throws IOException {
         File dcimFolder = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM);
         File videoFolder = new File(dcimFolder, "ProCamera");
+        // From Q on, takes are published straight into MediaStore, which is also where they are listed from
+        boolean mediaStore = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
 
-        if (!videoFolder.exists() || !videoFolder.isDirectory()) {
+        if (!mediaStore && !videoFolder.isDirectory()) {
             return; // No videos recorded yet
         }
 
-        File[] files = videoFolder.listFiles();
-        if (files == null) return;
-
         SharedPreferences prefs = getSharedPreferences("VideoMetadata", MODE_PRIVATE);
+        if (clipIndex == null) {
+            // The first library visit of the process gets the index loaded at startup
+            clipIndex = CaptureApp.startup(this).takeClipIndex();
+            if (clipIndex == null) clipIndex = ClipIndex.open(new File(getFilesDir(), "clips.idx"));
+        }
 
-        for (File file : files) {
-            if (file.getName().endsWith(".mp4")) {
-                String fileName = file.getName();
-
-                // Lookup the metadata using the file name
-                String metadata = prefs.getString(fileName, null);
+        File filesDir = getFilesDir();
+        try {
+            ClipIndex.Resolver resolver = f -> resolveClip(f, prefs, filesDir);
+            if (mediaStore) {
+                MediaStoreLibrary.scan(getContentResolver(), clipIndex, resolver, sink);
+            } else {
+                LibraryLoader.scanFolder(videoFolder, clipIndex, resolver, sink);
+            }
+        } finally {
+            clipIndex.flush();
+        }
+    }
 
-                if (metadata != null) {
-                    // Split the saved string (duration,fps,iso,shutter)
-                    String[] data = metadata.split(",");
-                    if (data.length == 4) {
-                        String duration = data[0];
-                        int fps = Integer.parseInt(data[1]);
-                        int iso = Integer.parseInt(data[2]);
-                        String shutter = data[3];
+    /**
+     * Reads duration, real frame rate and resolution from the MP4 itself. ISO and shutter are
+     * not stored in the container, so they still come from the "duration,fps,iso,shutter"
+     * string in SharedPreferences when one was saved for the clip.
+     *
+     * Clips recorded with frame telemetry report the rate the sensor actually delivered
+     * instead, which is what shows thermal throttling or frames lost to slow storage.
+     */
+    private static ClipIndex.Entry resolveClip(File file, SharedPreferences prefs, File filesDir) {
+        Mp4Info info;
+        try {
+            info = Mp4Parser.parse(file);
+        } catch (IOException e) {
+            return null; // Still being written, or not a playable MP4
+        }
 
-                        // Add the actual recorded video to the list
-                        videoList.add(new VideoItem(fileName, duration, fps, iso, shutter, android.R.drawable.ic_media_play, file.getAbsolutePath()));
-                    }
+        int iso = 0;
+        String shutter = "";
+        String metadata = prefs.getString(file.getName(), null);
+        if (metadata != null) {
+            String[] data = metadata.split(",");
+            if (data.length == 4) {
+                try {
+                    iso = Integer.parseInt(data[2].trim());
+                    shutter = data[3];
+                } catch (NumberFormatException ignored) {
                 }
             }
         }
+
+        int fps = info.roundedFps();
+        File sidecar = FrameTelemetry.sidecarFor(filesDir, file.getName());
+        if (sidecar.isFile()) {
+            try {
+                FrameTelemetry.Stats measured = FrameTelemetry.read(sidecar);
+                if (measured.frames > 1) fps = measured.roundedFps();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return new ClipIndex.Entry(file.getName(), file.length(), file.lastModified(),
+                info.durationMs(), fps, iso, shutter,
+                info.width, info.height, (int) Math.min(Integer.MAX_VALUE, info.bitrate));
     }
-}
\ No newline at end of file
+}
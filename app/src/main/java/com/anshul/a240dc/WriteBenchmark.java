@@ -0,0 +1,162 @@
+package com.anshul.a240dc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures how fast a volume takes a sustained sequential write, the way the sample writer
+ * uses it: fixed-size chunks of incompressible data, synced to the device every few chunks so
+ * the page cache cannot hide a slow card. The slowest sync interval is kept as well, since a
+ * single long stall is what overflows the sample queue.
+ *
+ * Results are cached per volume in a small tab-separated file by {@link Cache}.
+ */
+public final class WriteBenchmark {
+
+    public static final long DEFAULT_BYTES = 48L << 20;
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+    public static final int DEFAULT_SYNC_CHUNKS = 4;
+
+    public static final class Result {
+        public final long bytesPerSecond;
+        /** Longest time one sync interval took, in milliseconds. */
+        public final long worstIntervalMs;
+        /** Wall-clock time of the measurement. */
+        public final long measuredAtMs;
+
+        public Result(long bytesPerSecond, long worstIntervalMs, long measuredAtMs) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.worstIntervalMs = worstIntervalMs;
+            this.measuredAtMs = measuredAtMs;
+        }
+
+        /** True if the volume keeps up with {@code bytesPerSecond} with {@code headroom} to spare, e.g. 1.5. */
+        public boolean sustains(long bytesPerSecond, double headroom) {
+            return this.bytesPerSecond >= bytesPerSecond * headroom;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f MB/s, slowest sync interval %d ms", bytesPerSecond / 1e6,
+                    worstIntervalMs);
+        }
+    }
+
+    private WriteBenchmark() {}
+
+    public static Result measure(File dir) throws IOException {
+        return measure(dir, DEFAULT_BYTES, DEFAULT_CHUNK_BYTES, DEFAULT_SYNC_CHUNKS);
+    }
+
+    /** Writes {@code bytes} to a scratch file in {@code dir}, which is deleted again afterwards. */
+    public static Result measure(File dir, long bytes, int chunkBytes, int syncChunks) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(chunkBytes);
+        // xorshift, so neither compression nor deduplication in the storage stack helps
+        long x = 0x9E3779B97F4A7C15L;
+        while (chunk.remaining() >= 8) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            chunk.putLong(x);
+        }
+        chunk.clear();
+
+        File scratch = File.createTempFile("writebench", ".tmp", dir);
+        try (RandomAccessFile raf = new RandomAccessFile(scratch, "rw")) {
+            FileChannel channel = raf.getChannel();
+            long start = System.nanoTime();
+            long intervalStart = start;
+            long worst = 0;
+            long written = 0;
+            int chunks = 0;
+            while (written < bytes) {
+                chunk.clear();
+                if (bytes - written < chunkBytes) chunk.limit((int) (bytes - written));
+                while (chunk.hasRemaining()) written += channel.write(chunk);
+                if (++chunks % syncChunks == 0 || written >= bytes) {
+                    channel.force(false);
+                    long now = System.nanoTime();
+                    worst = Math.max(worst, now - intervalStart);
+                    intervalStart = now;
+                }
+            }
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            return new Result(written * 1_000_000_000L / elapsed, worst / 1_000_000, System.currentTimeMillis());
+        } finally {
+            scratch.delete();
+        }
+    }
+
+    /**
+     * The latest result per volume, kept in a tab-separated file. Results older than
+     * {@code maxAgeMs} count as missing, since cards slow down as they fill and wear.
+     */
+    public static final class Cache {
+        private final File file;
+        private final long maxAgeMs;
+        private final Map<String, Result> results = new LinkedHashMap<>();
+
+        public Cache(File file, long maxAgeMs) {
+            this.file = file;
+            this.maxAgeMs = maxAgeMs;
+            load();
+        }
+
+        /** The cached result for {@code volume}, or null if there is none recent enough. */
+        public synchronized Result get(String volume, long nowMs) {
+            Result r = results.get(volume);
+            if (r == null || nowMs - r.measuredAtMs > maxAgeMs || r.measuredAtMs > nowMs) return null;
+            return r;
+        }
+
+        public synchronized void put(String volume, Result result) throws IOException {
+            results.put(volume, result);
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Result> e : results.entrySet()) {
+                    Result r = e.getValue();
+                    out.write(e.getKey() + '\t' + r.bytesPerSecond + '\t' + r.worstIntervalMs + '\t' + r.measuredAtMs + '\n');
+                }
+            }
+        }
+
+        /** The cached result for {@code volume}, measuring in {@code dir} first when there is none. */
+        public Result getOrMeasure(String volume, File dir) throws IOException {
+            Result r = get(volume, System.currentTimeMillis());
+            if (r != null) return r;
+            r = measure(dir);
+            put(volume, r);
+            return r;
+        }
+
+        private void load() {
+            if (!file.isFile()) return;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts.length != 4) continue;
+                    try {
+                        results.put(parts[0], new Result(Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                                Long.parseLong(parts[3])));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnnexBTest {
+
+    private static byte[] convert(byte[] annexB) {
+        ByteBuffer dst = ByteBuffer.allocate(AnnexB.maxLengthPrefixedSize(annexB.length));
+        ByteBuffer src = ByteBuffer.wrap(annexB);
+        int n = AnnexB.toLengthPrefixed(src, dst);
+        assertEquals(0, src.position());
+        assertEquals(n, dst.position());
+        byte[] out = new byte[n];
+        dst.flip();
+        dst.get(out);
+        return out;
+    }
+
+    @Test
+    public void replacesThreeAndFourByteStartCodes() {
+        byte[] in = {0, 0, 0, 1, 0x67, 1, 2, 0, 0, 1, 0x68, 3, 0, 0, 0, 1, 0x65, 4, 5, 6};
+        byte[] expected = {0, 0, 0, 3, 0x67, 1, 2, 0, 0, 0, 2, 0x68, 3, 0, 0, 0, 4, 0x65, 4, 5, 6};
+        assertArrayEquals(expected, convert(in));
+    }
+
+    @Test
+    public void dataWithoutStartCodeIsOneNalUnit() {
+        assertArrayEquals(new byte[]{0, 0, 0, 2, 0x41, 9}, convert(new byte[]{0x41, 9}));
+    }
+
+    @Test
+    public void trailingZerosAndEmptyUnitsAreDropped() {
+        byte[] in = {0, 0, 1, 0, 0, 1, 0x41, 7, 0, 0};
+        assertArrayEquals(new byte[]{0, 0, 0, 2, 0x41, 7}, convert(in));
+    }
+
+    @Test
+    public void respectsBufferPositionAndLimit() {
+        byte[] in = {9, 9, 0, 0, 1, 0x41, 1, 2, 9};
+        ByteBuffer src = ByteBuffer.wrap(in);
+        src.position(2).limit(8);
+        ByteBuffer dst = ByteBuffer.allocate(32);
+        assertEquals(7, AnnexB.toLengthPrefixed(src, dst));
+        assertEquals(2, src.position());
+        assertEquals(8, src.limit());
+        assertEquals(3, dst.getInt(0));
+    }
+
+    @Test
+    public void worstCaseFitsTheBound() {
+        byte[] in = new byte[400];
+        for (int i = 0; i < in.length; i += 4) {
+            in[i + 2] = 1;
+            in[i + 3] = 0x41;
+        }
+        assertEquals(100 * 5, convert(in).length);
+    }
+
+    @Test
+    public void splitsCodecConfig() {
+        byte[] csd = {0, 0, 0, 1, 0x40, 1, 0, 0, 0, 1, 0x42, 1, 2, 0, 0, 0, 1, 0x44, 1};
+        List<byte[]> units = AnnexB.nalUnits(csd);
+        assertEquals(3, units.size());
+        assertEquals(32, AnnexB.hevcType(units.get(0)));
+        assertEquals(33, AnnexB.hevcType(units.get(1)));
+        assertEquals(34, AnnexB.hevcType(units.get(2)));
+        assertArrayEquals(new byte[]{0x42, 1, 2}, units.get(1));
+        assertEquals(7, AnnexB.avcType(new byte[]{0x67}));
+    }
+
+    @Test
+    public void unescapeRemovesEmulationPrevention() {
+        byte[] nal = {0x42, 0x01, 0, 0, 3, 1, 0, 0, 3, 0, 5};
+        assertArrayEquals(new byte[]{0, 0, 1, 0, 0, 0, 5}, AnnexB.unescape(nal, 2, 20));
+        assertArrayEquals(new byte[]{0, 0, 1}, AnnexB.unescape(nal, 2, 3));
+    }
+
+    @Test
+    public void startCodesRoundTripInPlace() {
+        byte[] annexB = {0, 0, 0, 1, 0x67, 1, 2, 0, 0, 0, 1, 0x65, 4, 5, 6};
+        ByteBuffer buf = ByteBuffer.wrap(convert(annexB));
+        assertTrue(AnnexB.toStartCodes(buf));
+        assertArrayEquals(annexB, buf.array());
+
+        ByteBuffer torn = ByteBuffer.wrap(new byte[]{0, 0, 0, 2, 0x41, 7, 0, 0, 0, 9, 1});
+        assertFalse(AnnexB.toStartCodes(torn));
+        assertEquals(1, torn.get(3));
+        assertEquals(9, torn.get(9));
+    }
+}
@@ -0,0 +1,183 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CapabilityProbeTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** A characteristics table: camera id to "WxH" to fps ranges, plus which cameras face back. */
+    static final class FakeSource implements CapabilityProbe.Source {
+        final Map<String, Map<String, List<int[]>>> cameras = new LinkedHashMap<>();
+        final Map<String, Boolean> back = new HashMap<>();
+        int calls;
+        boolean broken;
+
+        FakeSource camera(String id, boolean backFacing) {
+            cameras.put(id, new LinkedHashMap<>());
+            back.put(id, backFacing);
+            return this;
+        }
+
+        FakeSource mode(String id, int width, int height, int... lowerUpper) {
+            List<int[]> ranges = new ArrayList<>();
+            for (int i = 0; i < lowerUpper.length; i += 2) ranges.add(new int[]{lowerUpper[i], lowerUpper[i + 1]});
+            cameras.get(id).put(width + "x" + height, ranges);
+            return this;
+        }
+
+        @Override
+        public List<String> cameraIds() throws IOException {
+            if (broken) throw new IOException("camera service died");
+            calls++;
+            return new ArrayList<>(cameras.keySet());
+        }
+
+        @Override
+        public boolean hasHighSpeed(String cameraId) {
+            calls++;
+            return !cameras.get(cameraId).isEmpty();
+        }
+
+        @Override
+        public boolean isBackFacing(String cameraId) {
+            calls++;
+            return back.get(cameraId);
+        }
+
+        @Override
+        public List<int[]> highSpeedSizes(String cameraId) {
+            calls++;
+            List<int[]> sizes = new ArrayList<>();
+            for (String s : cameras.get(cameraId).keySet()) {
+                String[] wh = s.split("x");
+                sizes.add(new int[]{Integer.parseInt(wh[0]), Integer.parseInt(wh[1])});
+            }
+            return sizes;
+        }
+
+        @Override
+        public List<int[]> fpsRanges(String cameraId, int width, int height) {
+            calls++;
+            return cameras.get(cameraId).get(width + "x" + height);
+        }
+    }
+
+    // A typical phone: a back camera with 240 fps at 720p only, a front camera without high speed
+    // and a second back camera that matches the first one's best mode
+    private static FakeSource phone() {
+        return new FakeSource()
+                .camera("0", true)
+                .mode("0", 1920, 1080, 30, 120, 120, 120)
+                .mode("0", 1280, 720, 30, 240, 120, 120, 240, 240)
+                .camera("1", false)
+                .camera("2", true)
+                .mode("2", 1280, 720, 30, 240, 240, 240);
+    }
+
+    @Test
+    public void ranksByFrameRateThenResolution() throws IOException {
+        List<HighSpeedMode> modes = CapabilityProbe.probe(phone());
+        assertEquals(Arrays.asList(
+                new HighSpeedMode("0", 1280, 720, 240, true),
+                new HighSpeedMode("2", 1280, 720, 240, true),
+                new HighSpeedMode("0", 1920, 1080, 120, true),
+                new HighSpeedMode("0", 1280, 720, 120, true)), modes);
+    }
+
+    @Test
+    public void onlyFixedRangesAreRecordingModes() throws IOException {
+        FakeSource source = new FakeSource().camera("0", true).mode("0", 1280, 720, 30, 240, 30, 120);
+        assertTrue(CapabilityProbe.probe(source).isEmpty());
+    }
+
+    @Test
+    public void backCameraWinsATie() throws IOException {
+        FakeSource source = new FakeSource()
+                .camera("0", false).mode("0", 1280, 720, 240, 240)
+                .camera("1", true).mode("1", 1280, 720, 240, 240);
+        assertEquals("1", CapabilityProbe.probe(source).get(0).cameraId);
+    }
+
+    @Test
+    public void secondLaunchReadsTheCacheInsteadOfTheCameras() throws IOException {
+        File cache = new File(tmp.getRoot(), "modes.tsv");
+        FakeSource source = phone();
+        HighSpeedMode best = new CapabilityProbe(source, cache, "brand/device:14/1").best();
+        assertEquals(new HighSpeedMode("0", 1280, 720, 240, true), best);
+        assertTrue(source.calls > 0);
+
+        FakeSource untouched = phone();
+        List<HighSpeedMode> again = new CapabilityProbe(untouched, cache, "brand/device:14/1").modes();
+        assertEquals(0, untouched.calls);
+        assertEquals(CapabilityProbe.probe(phone()), again);
+    }
+
+    @Test
+    public void newFingerprintProbesAgain() throws IOException {
+        File cache = new File(tmp.getRoot(), "modes.tsv");
+        new CapabilityProbe(phone(), cache, "build-1").modes();
+
+        // The OS update unlocked 1080p at 240 fps
+        FakeSource updated = phone().mode("0", 1920, 1080, 240, 240);
+        HighSpeedMode best = new CapabilityProbe(updated, cache, "build-2").best();
+        assertTrue(updated.calls > 0);
+        assertEquals(new HighSpeedMode("0", 1920, 1080, 240, true), best);
+        assertEquals(best, CapabilityProbe.load(cache, "build-2").get(0));
+        assertNull(CapabilityProbe.load(cache, "build-1"));
+    }
+
+    @Test
+    public void unsupportedDeviceIsCachedToo() throws IOException {
+        File cache = new File(tmp.getRoot(), "modes.tsv");
+        FakeSource none = new FakeSource().camera("0", true).camera("1", false);
+        assertNull(new CapabilityProbe(none, cache, "fp").best());
+
+        FakeSource untouched = new FakeSource();
+        assertNull(new CapabilityProbe(untouched, cache, "fp").best());
+        assertEquals(0, untouched.calls);
+    }
+
+    @Test
+    public void otherVersionsAndDamagedCachesAreIgnored() throws IOException {
+        File cache = new File(tmp.getRoot(), "modes.tsv");
+        Files.write(cache.toPath(), ("HSMODES\t0\tfp\n0\t1280\t720\t240\tback\n").getBytes(StandardCharsets.UTF_8));
+        assertNull(CapabilityProbe.load(cache, "fp"));
+
+        Files.write(cache.toPath(), ("HSMODES\t" + CapabilityProbe.VERSION + "\tfp\n0\t1280\t72").getBytes(StandardCharsets.UTF_8));
+        assertNull(CapabilityProbe.load(cache, "fp"));
+
+        FakeSource source = phone();
+        assertEquals(240, new CapabilityProbe(source, cache, "fp").best().fps);
+        assertTrue(source.calls > 0);
+    }
+
+    @Test
+    public void failedProbeIsNotCached() {
+        File cache = new File(tmp.getRoot(), "modes.tsv");
+        FakeSource broken = phone();
+        broken.broken = true;
+        try {
+            new CapabilityProbe(broken, cache, "fp").modes();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(cache.exists());
+    }
+}
@@ -0,0 +1,369 @@
+package com.anshul.a240dc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.anshul.a240dc.CaptureEngine.State.*;
+import static org.junit.Assert.*;
+
+public class CaptureEngineTest {
+
+    /** Runs queued tasks only when the test says so, like a HandlerThread we can single-step. */
+    static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable r) {
+            queue.add(r);
+        }
+
+        void drain() {
+            Runnable r;
+            while ((r = queue.poll()) != null) r.run();
+        }
+    }
+
+    /** Records what the engine asked for; the test decides how the "camera" answers. */
+    static final class FakeBackend implements CameraBackend {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<String> calls = new ArrayList<>();
+        Callback callback;
+        boolean released;
+
+        @Override public Executor executor() { return executor; }
+        @Override public boolean isPrewarmed() { return true; }
+        @Override public void open(Callback cb) { calls.add("open"); callback = cb; }
+        @Override public void startRecording(Callback cb) { calls.add("start"); callback = cb; }
+        @Override public void stopRecording(Callback cb) { calls.add("stop"); callback = cb; }
+        @Override public void watch(MotionDetector.Settings s, Callback cb) { calls.add("watch"); callback = cb; }
+        @Override public void stopWatching(Callback cb) { calls.add("unwatch"); callback = cb; }
+        @Override public void close() { calls.add("close"); }
+        @Override public void release() { calls.add("release"); released = true; }
+    }
+
+    private FakeBackend backend;
+    private List<CaptureEngine.Event> events;
+    private CaptureEngine engine;
+
+    @Before
+    public void setUp() {
+        backend = new FakeBackend();
+        events = new ArrayList<>();
+        engine = new CaptureEngine(backend, events::add, Runnable::run);
+    }
+
+    private void openAndReady() {
+        engine.open();
+        backend.executor.drain();
+        backend.callback.onOpened();
+        backend.executor.drain();
+    }
+
+    private List<CaptureEngine.State> states() {
+        List<CaptureEngine.State> states = new ArrayList<>();
+        for (CaptureEngine.Event e : events) states.add(e.state);
+        return states;
+    }
+
+    @Test
+    public void fullRecordingCycle() {
+        openAndReady();
+        engine.startRecording();
+        backend.executor.drain();
+        backend.callback.onRecordingStarted("/DCIM/a.mp4", System.nanoTime());
+        backend.executor.drain();
+        engine.stopRecording();
+        backend.executor.drain();
+        backend.callback.onRecordingStopped("/DCIM/a.mp4");
+        backend.executor.drain();
+
+        assertEquals(List.of(OPENING, READY, CONFIGURING, RECORDING, STOPPING, READY), states());
+        assertEquals(List.of("open", "start", "stop"), backend.calls);
+        CaptureEngine.Event last = events.get(events.size() - 1);
+        assertEquals(STOPPING, last.previous);
+        assertEquals("/DCIM/a.mp4", last.outputPath);
+        assertNull(last.error);
+        assertEquals(READY, engine.getState());
+    }
+
+    @Test
+    public void storageReadingsReachTheUiAndAFullVolumeStopsTheTake() {
+        openAndReady();
+        engine.startRecording();
+        backend.executor.drain();
+        backend.callback.onRecordingStarted("/DCIM/d.mp4", System.nanoTime());
+        backend.executor.drain();
+
+        // 1 MB/s expected: 100 MB free is plenty, 1 MB is less than two seconds
+        backend.callback.onStorage(new StorageMonitor(1_000_000, 0, 0).update(0, 0, 100_000_000, 0));
+        backend.executor.drain();
+        CaptureEngine.Event reading = events.get(events.size() - 1);
+        assertEquals(RECORDING, reading.previous);
+        assertEquals(RECORDING, reading.state);
+        assertEquals(100, reading.storage.remainingSeconds);
+        assertEquals(List.of("open", "start"), backend.calls);
+
+        backend.callback.onStorage(new StorageMonitor(1_000_000, 0, 0).update(0, 0, 1_000_000, 0));
+        backend.executor.drain();
+        assertEquals(STOPPING, engine.getState());
+        assertNotNull(events.get(events.size() - 1).error);
+        assertEquals(List.of("open", "start", "stop"), backend.calls);
+
+        // A reading still in flight after the stop changes nothing
+        backend.callback.onStorage(new StorageMonitor(1_000_000, 0, 0).update(0, 0, 1_000_000, 0));
+        backend.executor.drain();
+        backend.callback.onRecordingStopped("/DCIM/d.mp4");
+        backend.executor.drain();
+        assertEquals(List.of(OPENING, READY, CONFIGURING, RECORDING, RECORDING, STOPPING, READY), states());
+    }
+
+    @Test
+    public void closeWhileOpeningIgnoresTheLateCamera() {
+        engine.open();
+        backend.executor.drain();
+        engine.close();
+        backend.executor.drain();
+        assertEquals(List.of("open", "close"), backend.calls);
+
+        // The camera finishes opening after the close went through
+        backend.callback.onOpened();
+        backend.executor.drain();
+        assertEquals(CLOSED, engine.getState());
+        assertEquals(List.of(OPENING, CLOSED), states());
+        engine.startRecording();
+        backend.executor.drain();
+        assertEquals(List.of("open", "close"), backend.calls);
+    }
+
+    @Test
+    public void releaseWhileOpeningIgnoresTheLateCamera() {
+        engine.open();
+        backend.executor.drain();
+        engine.release();
+        backend.executor.drain();
+        backend.callback.onOpened();
+        backend.executor.drain();
+
+        assertTrue(backend.released);
+        assertEquals(CLOSED, engine.getState());
+        assertEquals(List.of(OPENING, CLOSED), states());
+        assertEquals(List.of("open", "release"), backend.calls);
+    }
+
+    @Test
+    public void nothingRunsUntilTheEngineThreadDoes() {
+        engine.open();
+        assertTrue(backend.calls.isEmpty());
+        assertEquals(CLOSED, engine.getState());
+        backend.executor.drain();
+        assertEquals(List.of("open"), backend.calls);
+    }
+
+    @Test
+    public void commandsInTheWrongStateAreIgnored() {
+        engine.startRecording(); // camera not open yet
+        engine.stopRecording();
+        backend.executor.drain();
+        assertTrue(backend.calls.isEmpty());
+        assertTrue(events.isEmpty());
+
+        openAndReady();
+        engine.startRecording();
+        engine.startRecording(); // double tap while configuring
+        engine.open();
+        backend.executor.drain();
+        assertEquals(List.of("open", "start"), backend.calls);
+        assertEquals(CONFIGURING, engine.getState());
+    }
+
+    @Test
+    public void toggleStartsAndStops() {
+        openAndReady();
+        engine.toggleRecording();
+        backend.executor.drain();
+        assertEquals(CONFIGURING, engine.getState());
+
+        engine.toggleRecording(); // ignored until the session is up
+        backend.executor.drain();
+        backend.callback.onRecordingStarted("/DCIM/b.mp4", System.nanoTime());
+        engine.toggleRecording();
+        backend.executor.drain();
+        assertEquals(STOPPING, engine.getState());
+        assertEquals(List.of("open", "start", "stop"), backend.calls);
+    }
+
+    @Test
+    public void configureFailureReturnsToReady() {
+        openAndReady();
+        engine.startRecording();
+        backend.executor.drain();
+        backend.callback.onError("Failed to configure camera", false);
+        backend.executor.drain();
+
+        assertEquals(READY, engine.getState());
+        assertEquals("Failed to configure camera", events.get(events.size() - 1).error);
+
+        // And the next attempt goes through
+        engine.startRecording();
+        backend.executor.drain();
+        assertEquals(CONFIGURING, engine.getState());
+    }
+
+    @Test
+    public void fatalErrorWhileRecordingClosesEverything() {
+        openAndReady();
+        engine.startRecording();
+        backend.executor.drain();
+        backend.callback.onRecordingStarted("/DCIM/c.mp4", System.nanoTime());
+        backend.executor.drain();
+        backend.callback.onError("Camera disconnected", true);
+        backend.executor.drain();
+
+        assertEquals(CLOSED, engine.getState());
+        assertEquals(List.of("open", "start", "close"), backend.calls);
+        assertEquals(RECORDING, events.get(events.size() - 1).previous);
+
+        // Reopening starts the cycle again
+        openAndReady();
+        assertEquals(READY, engine.getState());
+    }
+
+    @Test
+    public void failedOpenGoesBackToClosed() {
+        engine.open();
+        backend.executor.drain();
+        backend.callback.onError("no permission", false);
+        backend.executor.drain();
+        assertEquals(List.of(OPENING, CLOSED), states());
+    }
+
+    @Test
+    public void lateCallbacksAfterCloseAreDropped() {
+        openAndReady();
+        engine.startRecording();
+        backend.executor.drain();
+        engine.close();
+        backend.executor.drain();
+        backend.callback.onRecordingStarted("/DCIM/late.mp4", System.nanoTime());
+        backend.callback.onError("late", true);
+        backend.executor.drain();
+
+        assertEquals(CLOSED, engine.getState());
+        assertEquals(List.of(OPENING, READY, CONFIGURING, CLOSED), states());
+    }
+
+    @Test
+    public void releaseShutsTheBackendDown() {
+        openAndReady();
+        engine.release();
+        backend.executor.drain();
+        assertTrue(backend.released);
+        assertEquals(CLOSED, engine.getState());
+    }
+
+    @Test
+    public void reportsTapToFirstFrameLatency() throws Exception {
+        java.io.File log = java.io.File.createTempFile("latency", ".tsv");
+        log.deleteOnExit();
+        LatencyRecorder recorder = new LatencyRecorder(log, "1.0(1)");
+        engine = new CaptureEngine(backend, events::add, Runnable::run, recorder);
+        openAndReady();
+
+        long before = System.nanoTime();
+        engine.startRecording();
+        backend.executor.drain();
+        backend.callback.onRecordingStarted("/DCIM/d.mp4", before + 40_000_000L);
+        backend.executor.drain();
+
+        CaptureEngine.Event recording = events.get(events.size() - 1);
+        assertEquals(RECORDING, recording.state);
+        assertTrue(recording.startLatencyNanos > 0 && recording.startLatencyNanos <= 40_000_000L);
+        assertEquals(1, recorder.count("prewarmed"));
+        for (CaptureEngine.Event e : events.subList(0, events.size() - 1)) {
+            assertEquals(-1, e.startLatencyNanos);
+        }
+
+        // Persisted once the take is done
+        engine.stopRecording();
+        backend.executor.drain();
+        backend.callback.onRecordingStopped("/DCIM/d.mp4");
+        backend.executor.drain();
+        assertEquals(1, new LatencyRecorder(log, "1.0(1)").count("prewarmed"));
+    }
+
+    @Test
+    public void motionStartsATakeFromWatching() {
+        openAndReady();
+        engine.watch(new MotionDetector.Settings.Builder().build());
+        backend.executor.drain();
+        assertEquals(WATCHING, engine.getState());
+
+        backend.callback.onMotion();
+        backend.executor.drain();
+        assertEquals(CONFIGURING, engine.getState());
+        backend.callback.onRecordingStarted("/DCIM/m.mp4", System.nanoTime());
+        backend.executor.drain();
+
+        assertEquals(List.of(OPENING, READY, WATCHING, CONFIGURING, RECORDING), states());
+        assertEquals(List.of("open", "watch", "start"), backend.calls);
+    }
+
+    @Test
+    public void stoppingTheWatchGoesBackToReady() {
+        openAndReady();
+        engine.stopWatching(); // not watching: ignored
+        engine.watch(new MotionDetector.Settings.Builder().build());
+        engine.watch(new MotionDetector.Settings.Builder().build());
+        backend.executor.drain();
+        engine.stopWatching();
+        backend.executor.drain();
+
+        // Motion reported as the watch was being torn down does not start anything
+        backend.callback.onMotion();
+        backend.executor.drain();
+        assertEquals(READY, engine.getState());
+        assertEquals(List.of("open", "watch", "unwatch"), backend.calls);
+    }
+
+    @Test
+    public void tapWhileWatchingRecordsAndWatchErrorsReturnToReady() {
+        openAndReady();
+        engine.watch(new MotionDetector.Settings.Builder().build());
+        backend.executor.drain();
+        engine.toggleRecording();
+        backend.executor.drain();
+        assertEquals(CONFIGURING, engine.getState());
+
+        backend.callback.onError("Failed to configure camera", false);
+        backend.executor.drain();
+        engine.watch(new MotionDetector.Settings.Builder().build());
+        backend.executor.drain();
+        backend.callback.onError("Failed to start motion watch", false);
+        backend.executor.drain();
+        assertEquals(READY, engine.getState());
+        assertEquals(WATCHING, events.get(events.size() - 1).previous);
+    }
+
+    @Test
+    public void motionTakesAreLoggedSeparately() throws Exception {
+        java.io.File log = java.io.File.createTempFile("latency", ".tsv");
+        log.deleteOnExit();
+        LatencyRecorder recorder = new LatencyRecorder(log, "1.0(1)");
+        engine = new CaptureEngine(backend, events::add, Runnable::run, recorder);
+        openAndReady();
+        engine.watch(new MotionDetector.Settings.Builder().build());
+        backend.executor.drain();
+        backend.callback.onMotion();
+        backend.executor.drain();
+        backend.callback.onRecordingStarted("/DCIM/n.mp4", System.nanoTime());
+        backend.executor.drain();
+
+        assertEquals(1, recorder.count("motion"));
+        assertEquals(0, recorder.count("prewarmed"));
+    }
+}
@@ -0,0 +1,24 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClipFormatTest {
+
+    @Test
+    public void durationsRollOverToHours() {
+        assertEquals("0:00", ClipFormat.formatDuration(-5));
+        assertEquals("0:02", ClipFormat.formatDuration(2999));
+        assertEquals("10:05", ClipFormat.formatDuration(605_000));
+        assertEquals("1:00:01", ClipFormat.formatDuration(3_601_000));
+    }
+
+    @Test
+    public void specsLeaveOutWhatWasNotRecorded() {
+        assertEquals("240 FPS  •  ISO 800  •  1/500s", ClipFormat.formatSpecs(240, 800, "1/500s"));
+        assertEquals("30 FPS  •  1/60s", ClipFormat.formatSpecs(30, 0, "1/60s"));
+        assertEquals("120 FPS  •  ISO 100", ClipFormat.formatSpecs(120, 100, ""));
+        assertEquals("960 FPS", ClipFormat.formatSpecs(960, 0, null));
+    }
+}
@@ -0,0 +1,194 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ClipIndexTest {
+
+    private static final int SYNTHETIC_CLIPS = 100_000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static ClipIndex.Entry synthetic(int i) {
+        return new ClipIndex.Entry("HighSpeed_" + i + ".mp4", 1_000_000L + i, 1_700_000_000_000L + i * 1000L,
+                i % 60_000, i % 2 == 0 ? 240 : 120, 100 + (i % 8) * 100, "1/" + (240 + i % 4 * 240) + "s");
+    }
+
+    @Test
+    public void buildAndReload100kEntries() throws IOException {
+        File file = new File(tmp.getRoot(), "clips.idx");
+
+        ClipIndex index = ClipIndex.open(file);
+        for (int i = 0; i < SYNTHETIC_CLIPS; i++) {
+            index.put(synthetic(i));
+        }
+        index.flush();
+        assertEquals(SYNTHETIC_CLIPS, index.size());
+
+        // Shutter labels are interned, so each record costs a fixed width plus its name
+        long maxBytes = ClipIndex.HEADER_SIZE + (long) SYNTHETIC_CLIPS * (ClipIndex.RECORD_SIZE + 3 + 24) + 1024;
+        assertTrue("index is " + file.length() + " bytes", file.length() < maxBytes);
+
+        ClipIndex reloaded = ClipIndex.open(file);
+        assertEquals(SYNTHETIC_CLIPS, reloaded.size());
+        for (int i = 0; i < SYNTHETIC_CLIPS; i += 997) {
+            assertEquals(synthetic(i), reloaded.get("HighSpeed_" + i + ".mp4"));
+        }
+    }
+
+    @Test
+    public void appendsOnlyChangesToExisting100kIndex() throws IOException {
+        File file = new File(tmp.getRoot(), "clips.idx");
+        ClipIndex index = ClipIndex.open(file);
+        for (int i = 0; i < SYNTHETIC_CLIPS; i++) {
+            index.put(synthetic(i));
+        }
+        index.flush();
+        long before = file.length();
+
+        ClipIndex reopened = ClipIndex.open(file);
+        reopened.put(synthetic(5)); // unchanged, must not be re-appended
+        ClipIndex.Entry changed = new ClipIndex.Entry("HighSpeed_7.mp4", 42, 43, 1000, 240, 800, "1/480s");
+        reopened.put(changed);
+        reopened.remove("HighSpeed_9.mp4");
+        reopened.flush();
+
+        assertEquals(before + ClipIndex.RECORD_SIZE + ClipIndex.TOMBSTONE_SIZE, file.length());
+
+        ClipIndex reloaded = ClipIndex.open(file);
+        assertEquals(SYNTHETIC_CLIPS - 1, reloaded.size());
+        assertEquals(changed, reloaded.get("HighSpeed_7.mp4"));
+        assertNull(reloaded.get("HighSpeed_9.mp4"));
+    }
+
+    @Test
+    public void syncOnlyResolvesNewOrChangedFiles() throws IOException {
+        File dir = tmp.newFolder("ProCamera");
+        for (int i = 0; i < 20; i++) {
+            writeBytes(new File(dir, "clip" + i + ".mp4"), 100 + i);
+        }
+        writeBytes(new File(dir, "notes.txt"), 10);
+        File indexFile = new File(tmp.getRoot(), "clips.idx");
+
+        AtomicInteger resolved = new AtomicInteger();
+        ClipIndex.Resolver resolver = f -> {
+            resolved.incrementAndGet();
+            return new ClipIndex.Entry(f.getName(), f.length(), f.lastModified(), 1000, 240, 400, "1/500s");
+        };
+
+        ClipIndex first = ClipIndex.open(indexFile);
+        assertEquals(20, first.sync(dir.listFiles(), resolver).size());
+        first.flush();
+        assertEquals(20, resolved.get());
+
+        // Grow one clip, delete another, add a third
+        writeBytes(new File(dir, "clip3.mp4"), 5000);
+        assertTrue(new File(dir, "clip4.mp4").delete());
+        writeBytes(new File(dir, "clip20.mp4"), 77);
+
+        resolved.set(0);
+        ClipIndex second = ClipIndex.open(indexFile);
+        List<ClipIndex.Entry> listed = second.sync(dir.listFiles(), resolver);
+        second.flush();
+        assertEquals(2, resolved.get());
+        assertEquals(20, listed.size());
+        assertNull(second.get("clip4.mp4"));
+        assertEquals(5000, second.get("clip3.mp4").sizeBytes);
+
+        resolved.set(0);
+        ClipIndex third = ClipIndex.open(indexFile);
+        assertEquals(20, third.sync(dir.listFiles(), resolver).size());
+        assertEquals(0, resolved.get());
+    }
+
+    @Test
+    public void unresolvableClipsAreNotListed() throws IOException {
+        File dir = tmp.newFolder("ProCamera");
+        writeBytes(new File(dir, "a.mp4"), 10);
+        writeBytes(new File(dir, "b.mp4"), 10);
+
+        ClipIndex index = ClipIndex.open(new File(tmp.getRoot(), "clips.idx"));
+        List<ClipIndex.Entry> listed = index.sync(dir.listFiles(), f -> f.getName().startsWith("a")
+                ? new ClipIndex.Entry(f.getName(), f.length(), f.lastModified(), 0, 240, 0, "") : null);
+        assertEquals(1, listed.size());
+        assertEquals("a.mp4", listed.get(0).name);
+    }
+
+    @Test
+    public void tornTailIsDroppedOnReload() throws IOException {
+        File file = new File(tmp.getRoot(), "clips.idx");
+        ClipIndex index = ClipIndex.open(file);
+        List<ClipIndex.Entry> written = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            written.add(synthetic(i));
+            index.put(written.get(i));
+        }
+        index.flush();
+
+        // Simulate a crash halfway through the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - ClipIndex.RECORD_SIZE / 2);
+        }
+
+        ClipIndex reloaded = ClipIndex.open(file);
+        assertEquals(99, reloaded.size());
+        reloaded.put(synthetic(100));
+        reloaded.flush();
+
+        ClipIndex again = ClipIndex.open(file);
+        assertEquals(100, again.size());
+        assertEquals(synthetic(100), again.get("HighSpeed_100.mp4"));
+        assertEquals(written.get(98), again.get("HighSpeed_98.mp4"));
+    }
+
+    @Test
+    public void compactsWhenMostRecordsAreDead() throws IOException {
+        File file = new File(tmp.getRoot(), "clips.idx");
+        ClipIndex index = ClipIndex.open(file);
+        for (int i = 0; i < 5000; i++) {
+            index.put(synthetic(i));
+        }
+        index.flush();
+        long full = file.length();
+
+        for (int i = 10; i < 5000; i++) {
+            index.remove("HighSpeed_" + i + ".mp4");
+        }
+        index.flush();
+        assertTrue(file.length() < full / 100);
+
+        ClipIndex reloaded = ClipIndex.open(file);
+        assertEquals(10, reloaded.size());
+        assertEquals(synthetic(3), reloaded.get("HighSpeed_3.mp4"));
+    }
+
+    @Test
+    public void foreignFileStartsEmpty() throws IOException {
+        File file = new File(tmp.getRoot(), "clips.idx");
+        writeBytes(file, 64);
+
+        ClipIndex index = ClipIndex.open(file);
+        assertEquals(0, index.size());
+        index.put(synthetic(1));
+        index.flush();
+        assertEquals(synthetic(1), ClipIndex.open(file).get("HighSpeed_1.mp4"));
+    }
+
+    private static void writeBytes(File f, int count) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(new byte[count]);
+        }
+    }
+}
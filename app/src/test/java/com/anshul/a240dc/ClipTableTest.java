@@ -0,0 +1,180 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.*;
+
+public class ClipTableTest {
+
+    private static final String[] SHUTTERS = {"", "1/250s", "1/500s", "1/1000s"};
+    private static final int[] RATES = {30, 60, 120, 240, 480, 960};
+
+    // Random clips with plenty of repeated values, so ties matter
+    static ClipTable randomTable(int clips, long seed) {
+        Random random = new Random(seed);
+        ClipTable.Builder b = new ClipTable.Builder();
+        for (int i = 0; i < clips; i++) {
+            String name = (random.nextBoolean() ? "HighSpeed_" : "highspeed_") + random.nextInt(clips) + ".mp4";
+            b.add("/DCIM/ProCamera/" + name, new ClipIndex.Entry(name, 1_000_000L + random.nextInt(5000),
+                    1_700_000_000_000L + random.nextInt(100_000), random.nextInt(20_000),
+                    RATES[random.nextInt(RATES.length)], 100 * random.nextInt(32),
+                    SHUTTERS[random.nextInt(SHUTTERS.length)]));
+        }
+        return b.build();
+    }
+
+    private static List<Integer> bruteForce(ClipTable t, IntPredicate keep,
+                                            Comparator<Integer> order) {
+        List<Integer> rows = new ArrayList<>();
+        for (int r = 0; r < t.size(); r++) if (keep.test(r)) rows.add(r);
+        if (order != null) rows.sort(order.thenComparing(Comparator.naturalOrder()));
+        return rows;
+    }
+
+    private static List<Integer> list(int[] rows) {
+        List<Integer> out = new ArrayList<>();
+        for (int r : rows) out.add(r);
+        return out;
+    }
+
+    @Test
+    public void rowsReadBackFromTheColumns() {
+        ClipTable t = new ClipTable.Builder()
+                .add("/DCIM/ProCamera/a.mp4", new ClipIndex.Entry("a.mp4", 10, 20, 1500, 240, 800, "1/500s"))
+                .add("b.mp4", new ClipIndex.Entry("b.mp4", 11, 21, 61_000, 30, 0, null))
+                .build();
+
+        assertEquals(2, t.size());
+        assertEquals("a.mp4", t.name(0));
+        assertEquals("/DCIM/ProCamera/a.mp4", t.path(0));
+        assertEquals("1/500s", t.shutter(0));
+        assertEquals(10, t.sizeBytes(0));
+        assertEquals(20, t.lastModified(0));
+        assertEquals(1500, t.durationMs(0));
+        assertEquals(240, t.fps(0));
+        assertEquals(800, t.iso(0));
+        assertEquals("b.mp4", t.path(1));
+        assertEquals("", t.shutter(1));
+        assertEquals(VideoItem.idOf("/DCIM/ProCamera/a.mp4"), t.id(0));
+    }
+
+    @Test
+    public void compoundFilterKeepsRowOrder() {
+        ClipTable t = randomTable(5000, 1);
+        int[] rows = t.select(new ClipTable.Query()
+                .atLeast(ClipTable.Column.FPS, 240)
+                .below(ClipTable.Column.DURATION, 5000));
+
+        List<Integer> expected = bruteForce(t, r -> t.fps(r) >= 240 && t.durationMs(r) < 5000, null);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, list(rows));
+    }
+
+    @Test
+    public void multiKeySortMatchesAComparator() {
+        ClipTable t = randomTable(5000, 2);
+        int[] rows = t.select(new ClipTable.Query()
+                .orderBy(ClipTable.Column.FPS, true)
+                .orderBy(ClipTable.Column.ISO, false)
+                .orderBy(ClipTable.Column.DATE, true));
+
+        Comparator<Integer> order = Comparator.<Integer>comparingInt(t::fps).reversed()
+                .thenComparingInt(t::iso)
+                .thenComparing(Comparator.<Integer>comparingLong(t::lastModified).reversed());
+        assertEquals(bruteForce(t, r -> true, order), list(rows));
+    }
+
+    @Test
+    public void nameSortIgnoresCaseFirst() {
+        ClipTable.Builder b = new ClipTable.Builder();
+        for (String name : new String[]{"b.mp4", "B.mp4", "a.mp4", "C.mp4"}) {
+            b.add("/x/" + name, new ClipIndex.Entry(name, 1, 1, 1, 30, 0, ""));
+        }
+        ClipTable t = b.build();
+        int[] rows = t.select(new ClipTable.Query().orderBy(ClipTable.Column.NAME, false));
+        String[] names = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) names[i] = t.name(rows[i]);
+        assertArrayEquals(new String[]{"a.mp4", "B.mp4", "b.mp4", "C.mp4"}, names);
+    }
+
+    @Test
+    public void prefixSearchIgnoresCase() {
+        ClipTable.Builder b = new ClipTable.Builder();
+        String[] names = {"Clip_a.mp4", "clip_B.mp4", "Clap.mp4", "cl", "CLIP", "other.mp4"};
+        for (String name : names) b.add("/x/" + name, new ClipIndex.Entry(name, 1, 1, 1, 30, 0, ""));
+        ClipTable t = b.build();
+
+        assertEquals(list(new int[]{0, 1, 4}), list(t.select(new ClipTable.Query().namePrefix("cLI"))));
+        assertEquals(list(new int[]{0, 1, 2, 3, 4}), list(t.select(new ClipTable.Query().namePrefix("CL"))));
+        assertEquals(6, t.select(new ClipTable.Query().namePrefix("")).length);
+        assertEquals(0, t.select(new ClipTable.Query().namePrefix("clip_a.mp4.old")).length);
+        assertEquals(0, t.select(new ClipTable.Query().namePrefix("zz")).length);
+        // Folder and shutter strings share the dictionary but are never matched as names
+        assertEquals(0, t.select(new ClipTable.Query().namePrefix("/x")).length);
+    }
+
+    @Test
+    public void randomQueriesMatchBruteForce() {
+        ClipTable t = randomTable(3000, 3);
+        Random random = new Random(4);
+        for (int q = 0; q < 50; q++) {
+            int minFps = RATES[random.nextInt(RATES.length)];
+            int maxMs = random.nextInt(20_000);
+            String prefix = random.nextBoolean() ? "HIGHSPEED_" + random.nextInt(30) : "";
+            boolean bySize = random.nextBoolean();
+            int[] rows = t.select(new ClipTable.Query()
+                    .atLeast(ClipTable.Column.FPS, minFps)
+                    .below(ClipTable.Column.DURATION, maxMs)
+                    .namePrefix(prefix)
+                    .orderBy(bySize ? ClipTable.Column.SIZE : ClipTable.Column.NAME, true));
+
+            Comparator<Integer> order = bySize
+                    ? Comparator.<Integer>comparingLong(t::sizeBytes).reversed()
+                    : Comparator.<Integer, String>comparing(t::name, String.CASE_INSENSITIVE_ORDER
+                            .thenComparing(Comparator.naturalOrder())).reversed();
+            List<Integer> expected = bruteForce(t, r -> t.fps(r) >= minFps && t.durationMs(r) < maxMs
+                    && t.name(r).regionMatches(true, 0, prefix, 0, prefix.length()), order);
+            assertEquals("query " + q, expected, list(rows));
+        }
+    }
+
+    @Test
+    public void snapshotsOfOneBuilderAreIndependent() {
+        ClipTable.Builder b = new ClipTable.Builder();
+        for (int i = 0; i < 10; i++) b.add(LibraryLoaderTest.path(i), LibraryLoaderTest.entry(i));
+        ClipTable first = b.build();
+        for (int i = 10; i < 100; i++) b.add(LibraryLoaderTest.path(i), LibraryLoaderTest.entry(i));
+        ClipTable second = b.build();
+
+        assertEquals(10, first.size());
+        assertEquals(100, second.size());
+        assertEquals(10, first.select(new ClipTable.Query().orderBy(ClipTable.Column.SIZE, true)).length);
+        assertTrue(first.sameContents(3, second, 3));
+        assertFalse(first.sameContents(3, second, 4));
+    }
+
+    @Test
+    public void sameContentsNoticesChangedFields() {
+        ClipTable a = new ClipTable.Builder().add("/x/a.mp4", new ClipIndex.Entry("a.mp4", 10, 20, 1500, 240, 800, "")).build();
+        ClipTable resized = new ClipTable.Builder().add("/x/a.mp4", new ClipIndex.Entry("a.mp4", 11, 20, 1500, 240, 800, "")).build();
+        assertEquals(a.id(0), resized.id(0));
+        assertFalse(a.sameContents(0, resized, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void namesHaveNoRange() {
+        new ClipTable.Query().atLeast(ClipTable.Column.NAME, 0);
+    }
+
+    @Test
+    public void emptyTableSelectsNothing() {
+        assertEquals(0, ClipTable.EMPTY.select(new ClipTable.Query()
+                .namePrefix("a").atLeast(ClipTable.Column.FPS, 240).orderBy(ClipTable.Column.NAME, false)).length);
+    }
+}
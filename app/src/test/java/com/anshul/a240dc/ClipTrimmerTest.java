@@ -0,0 +1,212 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClipTrimmerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File trimmed(File source, long startUs, long endUs, ClipTrimmer.Result[] result) throws IOException {
+        File target = ClipTrimmer.targetFor(source, startUs, endUs);
+        ClipTrimmer.Result r = ClipTrimmer.trim(source, target, startUs, endUs);
+        if (result != null) result[0] = r;
+        assertEquals(target.length(), r.bytes);
+        return target;
+    }
+
+    // Output sample i of track t must be source sample first + i of the same fixture track
+    private static void assertSamplesFrom(File out, int outTrack, int fixtureTrack, int first) throws IOException {
+        SampleTable t = SampleTableTest.read(out).get(outTrack);
+        for (int i = 0; i < t.size(); i++) {
+            assertArrayEquals("sample " + i, new int[]{fixtureTrack, first + i}, SampleTableTest.tagAt(out, t.offset(i)));
+        }
+    }
+
+    private static long[] edit(File f, int track) throws IOException {
+        ByteBuffer moov;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            moov = Mp4Parser.mapMoov(raf.getChannel());
+        }
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+        int pos = (int) root.bodyOffset();
+        int seen = 0;
+        while (pos < root.end()) {
+            Mp4Box trak = Mp4Box.read(moov, pos, (int) root.end());
+            pos = (int) trak.end();
+            if (trak.type != Mp4Box.TRAK || seen++ != track) continue;
+            Mp4Box elst = Mp4Box.find(moov, trak, Mp4Box.EDTS, Mp4Box.ELST);
+            int p = (int) elst.bodyOffset();
+            assertEquals(1, moov.getInt(p + 4));
+            return new long[]{moov.getInt(p + 8) & 0xFFFFFFFFL, moov.getInt(p + 12)};
+        }
+        throw new AssertionError("no track " + track);
+    }
+
+    @Test
+    public void startSnapsBackToTheKeyframe() throws IOException {
+        // 4 s at 240 fps, keyframe every 30 frames
+        File source = new Mp4Fixture()
+                .add(Mp4Fixture.video(960, 240, 2000, 30))
+                .write(tmp.newFile("clip.mp4"));
+        ClipTrimmer.Result[] r = new ClipTrimmer.Result[1];
+        // Frame 250 is not a keyframe; 240 is
+        File out = trimmed(source, 250 * 1_000_000L / 240, 1_500_000, r);
+
+        assertEquals(1_000_000, r[0].startUs);
+        assertEquals(1_500_000, r[0].endUs);
+        Mp4Info info = Mp4Parser.parse(out);
+        assertEquals(120, info.sampleCount);
+        assertEquals(500, info.durationMs());
+        assertEquals(240, info.roundedFps());
+        assertSamplesFrom(out, 0, 0, 240);
+
+        SampleTable v = SampleTableTest.read(out).get(0);
+        assertTrue(v.isSync(0));
+        assertTrue(v.isSync(30));
+        assertFalse(v.isSync(31));
+        assertEquals(0, v.decodeTime(0));
+        assertArrayEquals(new long[]{500, 0}, edit(out, 0));
+    }
+
+    @Test
+    public void keepsAudioForTheSameSpanAndInterleaving() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture()
+                .add(Mp4Fixture.video(480, 240, 1500, 60))
+                .add(Mp4Fixture.audio(94, 200));
+        fixture.moovFirst = true;
+        File source = fixture.write(tmp.newFile("clip.mp4"));
+        File out = trimmed(source, 500_000, 1_000_000, null);
+
+        List<SampleTable> tables = SampleTableTest.read(out);
+        assertEquals(2, tables.size());
+        SampleTable audio = tables.get(1);
+        // 0.5 s .. 1.0 s at 48 kHz: frames 23 (starts 0.491 s) through 46 (starts 0.981 s)
+        assertEquals(24, audio.size());
+        assertSamplesFrom(out, 1, 1, 23);
+        assertSamplesFrom(out, 0, 0, 120);
+        // Audio starts 0.5 s - 23 * 1024 / 48000 s into its first frame
+        assertEquals(500, edit(out, 1)[0]);
+        assertEquals(24_000 - 23 * 1024, edit(out, 1)[1]);
+        // Video and audio chunks stay in source order, so the output is interleaved
+        assertTrue(audio.offset(0) < tables.get(0).offset(tables.get(0).size() - 1));
+        assertTrue(Mp4Parser.parse(out).hasAudio);
+    }
+
+    @Test
+    public void bFramesKeepTheirReferencesAndLeadingFramesAreHidden() throws IOException {
+        // Shown order I B B P B B P ...; a sync reference every 12 frames after the first
+        int d = 375;
+        File source = new Mp4Fixture()
+                .add(Mp4Fixture.videoWithBFrames(241, 240, 500, 12))
+                .write(tmp.newFile("clip.mp4"));
+        SampleTable src = SampleTableTest.read(source).get(0);
+        long origin = src.firstPresentationTime();
+
+        // Presentation time 40d is shown by a B-frame; the sync before it in decode order is 37
+        int[] range = ClipTrimmer.selectVideo(src, origin + 40 * d, origin + 60 * d);
+        assertEquals(37, range[0]);
+        // Everything shown before 60d, plus the references those B-frames need
+        for (int i = 0; i < src.size(); i++) {
+            long pts = src.presentationTime(i);
+            boolean needed = pts >= src.presentationTime(37) && pts < origin + 60 * d;
+            if (needed) assertTrue("sample " + i, i >= range[0] && i < range[1]);
+        }
+        // Every kept B-frame that is shown has both its references kept
+        long shownFrom = src.presentationTime(range[0]);
+        for (int i = range[0]; i < range[1]; i++) {
+            boolean bFrame = i > 0 && (i - 1) % 3 != 0;
+            if (!bFrame || src.presentationTime(i) < shownFrom) continue;
+            int forward = i - 1 - (i - 2) % 3;
+            int backward = Math.max(0, forward - 3);
+            assertTrue("sample " + i, forward >= range[0] && backward >= range[0]);
+        }
+
+        ClipTrimmer.Result[] r = new ClipTrimmer.Result[1];
+        File out = trimmed(source, 40L * d * 1_000_000 / 90_000, 60L * d * 1_000_000 / 90_000, r);
+        SampleTable v = SampleTableTest.read(out).get(0);
+        assertEquals(range[1] - range[0], v.size());
+        assertTrue(v.isSync(0));
+        assertSamplesFrom(out, 0, 0, 37);
+        for (int i = 0; i < v.size(); i++) {
+            assertEquals(src.compositionOffset(37 + i), v.compositionOffset(i));
+        }
+        // The edit starts at the sync frame's presentation time, hiding nothing decodable
+        long[] edit = edit(out, 0);
+        assertEquals(3 * d, edit[1]);
+        assertEquals(r[0].startUs, (src.presentationTime(37) - origin) * 1_000_000 / 90_000);
+        assertTrue(r[0].endUs >= 60L * d * 1_000_000 / 90_000 - 1);
+    }
+
+    @Test
+    public void trimOfAFragmentedRecording() throws IOException {
+        File source = tmp.newFile("frag.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+            FragmentedMp4Writer w = new FragmentedMp4Writer(raf.getChannel(),
+                    FragmentedMp4WriterTest.avcAndAac(), 0, 250_000);
+            FragmentedMp4WriterTest.feed(w, 720, 60, null);
+            w.close();
+        }
+        ClipTrimmer.Result[] r = new ClipTrimmer.Result[1];
+        File out = trimmed(source, 1_100_000, 2_000_000, r);
+
+        assertEquals(1_000_000, r[0].startUs);
+        Mp4Info info = Mp4Parser.parse(out);
+        assertEquals(240, info.sampleCount);
+        assertEquals(240, info.roundedFps());
+        assertTrue(info.hasAudio);
+
+        SampleTable in = SampleTableTest.read(source).get(0);
+        SampleTable v = SampleTableTest.read(out).get(0);
+        try (RandomAccessFile a = new RandomAccessFile(source, "r"); RandomAccessFile b = new RandomAccessFile(out, "r")) {
+            for (int i = 0; i < v.size(); i++) {
+                assertEquals(in.sampleSize(240 + i), v.sampleSize(i));
+                byte[] x = new byte[v.sampleSize(i)];
+                byte[] y = new byte[v.sampleSize(i)];
+                a.seek(in.offset(240 + i));
+                a.readFully(x);
+                b.seek(v.offset(i));
+                b.readFully(y);
+                assertArrayEquals("sample " + i, x, y);
+            }
+        }
+    }
+
+    @Test
+    public void sourceBeyondFourGigabytesTrimsToASmallFile() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture().add(Mp4Fixture.video(240, 240, 1000, 24));
+        fixture.gap = 5L * 1024 * 1024 * 1024; // sparse, never written
+        File source = fixture.write(tmp.newFile("big.mp4"));
+
+        File out = trimmed(source, 500_000, 600_000, null);
+        assertTrue(out.length() < 100_000);
+        assertSamplesFrom(out, 0, 0, 120);
+        assertEquals(24, Mp4Parser.parse(out).sampleCount);
+    }
+
+    @Test
+    public void endPastTheClipIsClamped() throws IOException {
+        File source = new Mp4Fixture().add(Mp4Fixture.video(240, 240, 100, 24)).write(tmp.newFile("clip.mp4"));
+        ClipTrimmer.Result[] r = new ClipTrimmer.Result[1];
+        File out = trimmed(source, 900_000, 5_000_000, r);
+        assertEquals(900_000, r[0].startUs);
+        assertEquals(1_000_000, r[0].endUs);
+        assertEquals(24, Mp4Parser.parse(out).sampleCount);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRangeIsRejected() throws IOException {
+        File source = new Mp4Fixture().add(Mp4Fixture.video(24, 240, 100)).write(tmp.newFile("clip.mp4"));
+        ClipTrimmer.trim(source, new File(tmp.getRoot(), "out.mp4"), 500, 500);
+    }
+}
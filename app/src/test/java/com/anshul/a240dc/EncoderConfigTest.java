@@ -0,0 +1,68 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncoderConfigTest {
+
+    @Test
+    public void defaultsMatchTheHighSpeedSession() {
+        EncoderConfig config = new EncoderConfig.Builder().build();
+        assertEquals(EncoderConfig.Codec.AVC, config.codec);
+        assertEquals(1920, config.width);
+        assertEquals(1080, config.height);
+        assertEquals(120, config.fps);
+        assertEquals("operating rate follows fps", 120, config.operatingRate);
+        assertEquals(0, config.priority);
+        assertEquals(EncoderConfig.Codec.AVC.bitsPerPixel * 1920 * 1080 * 120, config.bitrate, 1);
+    }
+
+    @Test
+    public void hevcNeedsLessBitrateThanAvc() {
+        int avc = EncoderConfig.suggestedBitrate(EncoderConfig.Codec.AVC, 1920, 1080, 240);
+        int hevc = EncoderConfig.suggestedBitrate(EncoderConfig.Codec.HEVC, 1920, 1080, 240);
+        assertTrue(hevc < avc);
+        assertTrue("below what MediaRecorder was asked for", avc < 100_000_000);
+        assertEquals(2_000_000, EncoderConfig.suggestedBitrate(EncoderConfig.Codec.HEVC, 16, 16, 1));
+    }
+
+    @Test
+    public void explicitValuesWin() {
+        EncoderConfig config = new EncoderConfig.Builder()
+                .codec(EncoderConfig.Codec.HEVC).bitrateMode(EncoderConfig.BitrateMode.CBR)
+                .size(1280, 720).fps(240).bitrate(30_000_000).iFrameInterval(0.5f)
+                .operatingRate(0).priority(1).quality(60).build();
+        assertEquals("video/hevc", config.codec.mime);
+        assertEquals(30_000_000, config.bitrate);
+        assertEquals(0.5f, config.iFrameIntervalSeconds, 0);
+        assertEquals(0, config.operatingRate);
+        assertEquals(1, config.priority);
+        assertEquals(60, config.quality);
+        assertEquals(30_000_000 / 8 / 240, config.averageFrameBytes());
+
+        EncoderConfig copy = config.buildUpon().fps(120).build();
+        assertEquals(120, copy.fps);
+        assertEquals(EncoderConfig.BitrateMode.CBR, copy.bitrateMode);
+        assertEquals(30_000_000, copy.bitrate);
+    }
+
+    @Test
+    public void rejectsNonsense() {
+        assertInvalid(new EncoderConfig.Builder().size(1921, 1080));
+        assertInvalid(new EncoderConfig.Builder().size(0, 1080));
+        assertInvalid(new EncoderConfig.Builder().fps(0));
+        assertInvalid(new EncoderConfig.Builder().bitrate(-1));
+        assertInvalid(new EncoderConfig.Builder().iFrameInterval(-1f));
+        assertInvalid(new EncoderConfig.Builder().priority(2));
+        assertInvalid(new EncoderConfig.Builder().quality(101));
+    }
+
+    private static void assertInvalid(EncoderConfig.Builder builder) {
+        try {
+            builder.build();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.anshul.a240dc.FragmentedMp4WriterTest.accessUnit;
+import static com.anshul.a240dc.FragmentedMp4WriterTest.avcAndAac;
+import static com.anshul.a240dc.FragmentedMp4WriterTest.ptsUs;
+import static org.junit.Assert.*;
+
+public class FallbackRecordingTargetTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Stands in for MediaStore: files in a folder, made visible only on publish, able to refuse opens. */
+    static final class FakeStore implements RecordingTarget {
+        final FileRecordingTarget files;
+        final List<String> published = new ArrayList<>();
+        final List<Long> durations = new ArrayList<>();
+        int opens;
+        boolean refuse;
+
+        FakeStore(File first) {
+            files = new FileRecordingTarget(first);
+        }
+
+        @Override
+        public Segment open(int index) throws IOException {
+            opens++;
+            if (refuse) throw new IOException("refused");
+            Segment s = files.open(index);
+            return new Segment() {
+                @Override
+                public FileChannel channel() {
+                    return s.channel();
+                }
+
+                @Override
+                public String location() {
+                    return s.location();
+                }
+
+                @Override
+                public void preallocate(long length) throws IOException {
+                    s.preallocate(length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    s.close();
+                }
+
+                @Override
+                public String publish(long durationMs) {
+                    published.add(s.location());
+                    durations.add(durationMs);
+                    return s.location();
+                }
+
+                @Override
+                public void discard() {
+                    s.discard();
+                }
+            };
+        }
+    }
+
+    // 4 s at 240 fps, cut every second, with a keyframe every quarter second
+    private static SegmentedMp4Writer writeTake(RecordingTarget target, Runnable afterFirstSegment) throws IOException {
+        SegmentedMp4Writer w = new SegmentedMp4Writer(target, avcAndAac(), 30, 0, 0, 1_000_000);
+        for (int i = 0; i < 960; i++) {
+            boolean key = i % 60 == 0;
+            w.writeSample(0, accessUnit(i, key, 100), ptsUs(i, 240), key ? EncodedSampleSink.FLAG_KEY_FRAME : 0);
+            if (i == 200) afterFirstSegment.run();
+        }
+        return w;
+    }
+
+    @Test
+    public void publishesEverySegmentWithItsDuration() throws IOException {
+        FakeStore store = new FakeStore(new File(tmp.newFolder("store"), "take.mp4"));
+        File local = tmp.newFolder("local");
+        FallbackRecordingTarget target = new FallbackRecordingTarget(store, new FileRecordingTarget(new File(local, "take.mp4")));
+
+        List<String> published = writeTake(target, () -> {}).publish();
+
+        assertFalse(target.switched());
+        assertEquals(store.published, published);
+        assertTrue(published.size() >= 4);
+        assertTrue(published.get(0).endsWith("take.mp4"));
+        long total = 0;
+        for (int i = 0; i < published.size(); i++) {
+            Mp4Info info = Mp4Parser.parse(new File(published.get(i)));
+            assertEquals(info.durationMs(), store.durations.get(i), 10);
+            total += info.sampleCount;
+        }
+        assertEquals(960, total);
+        assertEquals(0, local.list().length);
+    }
+
+    @Test
+    public void switchesMidTakeAndCopiesIntoTheStoreAtPublish() throws IOException {
+        File storeDir = tmp.newFolder("store");
+        FakeStore store = new FakeStore(new File(storeDir, "take.mp4"));
+        File local = tmp.newFolder("local");
+        FallbackRecordingTarget target = new FallbackRecordingTarget(store, new FileRecordingTarget(new File(local, "take.mp4")));
+
+        SegmentedMp4Writer w = writeTake(target, () -> store.refuse = true);
+        assertTrue(target.switched());
+        // One refused open, after which later segments no longer ask the store
+        assertEquals(2, store.opens);
+        assertTrue(w.files().get(1).getPath().startsWith(local.getPath()));
+
+        store.refuse = false;
+        List<String> published = w.publish();
+
+        assertEquals(store.published, published);
+        long total = 0;
+        for (String path : published) {
+            assertEquals(storeDir.getAbsoluteFile(), new File(path).getParentFile());
+            total += Mp4Parser.parse(new File(path)).sampleCount;
+        }
+        assertEquals(960, total);
+        assertEquals(0, local.list().length);
+    }
+
+    @Test
+    public void keepsTheLocalFileWhenTheStoreStillRefuses() throws IOException {
+        FakeStore store = new FakeStore(new File(tmp.newFolder("store"), "take.mp4"));
+        File local = tmp.newFolder("local");
+        FallbackRecordingTarget target = new FallbackRecordingTarget(store, new FileRecordingTarget(new File(local, "take.mp4")));
+        store.refuse = true;
+
+        List<String> published = writeTake(target, () -> {}).publish();
+
+        assertTrue(store.published.isEmpty());
+        assertEquals(new File(local, "take.mp4").getAbsolutePath(), published.get(0));
+        long total = 0;
+        for (String path : published) total += Mp4Parser.parse(new File(path)).sampleCount;
+        assertEquals(960, total);
+    }
+
+    @Test
+    public void strandedTakesMoveIntoTheStoreOnALaterStart() throws IOException {
+        File storeDir = tmp.newFolder("store");
+        FakeStore store = new FakeStore(new File(storeDir, "take.mp4"));
+        File local = tmp.newFolder("local");
+        store.refuse = true;
+        List<String> stranded = writeTake(new FallbackRecordingTarget(store,
+                new FileRecordingTarget(new File(local, "take.mp4"))), () -> {}).publish();
+        assertTrue(stranded.size() >= 4);
+        Files.write(new File(local, "notes.txt").toPath(), new byte[]{1});
+        Files.write(new File(local, "broken.mp4").toPath(), new byte[]{1, 2, 3});
+
+        // Still refused: everything stays for the next try
+        FallbackRecordingTarget.Importer refusing = (file, info) -> {
+            throw new IOException("refused");
+        };
+        assertTrue(FallbackRecordingTarget.importStranded(local, refusing).isEmpty());
+        assertEquals(stranded.size() + 2, local.list().length);
+
+        List<Long> durations = new ArrayList<>();
+        List<String> moved = FallbackRecordingTarget.importStranded(local, (file, info) -> {
+            RecordingTarget.Segment s = new FileRecordingTarget(new File(storeDir, file.getName())).open(1);
+            return new RecordingTarget.Segment() {
+                @Override public FileChannel channel() { return s.channel(); }
+                @Override public String location() { return s.location(); }
+                @Override public void preallocate(long length) throws IOException { s.preallocate(length); }
+                @Override public void close() throws IOException { s.close(); }
+                @Override public void discard() { s.discard(); }
+
+                @Override
+                public String publish(long durationMs) {
+                    durations.add(durationMs);
+                    return s.location();
+                }
+            };
+        });
+
+        assertEquals(stranded.size() + 1, moved.size());
+        assertEquals(Arrays.asList("notes.txt"), Arrays.asList(local.list()));
+        long total = 0;
+        for (int i = 0; i < moved.size(); i++) {
+            File file = new File(moved.get(i));
+            assertEquals(storeDir.getAbsoluteFile(), file.getParentFile());
+            if (file.getName().equals("broken.mp4")) {
+                assertEquals(0, (long) durations.get(i)); // Unparseable, but a take all the same
+                continue;
+            }
+            Mp4Info info = Mp4Parser.parse(file);
+            assertEquals(info.durationMs(), durations.get(i), 10);
+            total += info.sampleCount;
+        }
+        assertEquals(960, total);
+    }
+
+    @Test
+    public void discardRemovesBothSides() throws IOException {
+        File storeDir = tmp.newFolder("store");
+        FakeStore store = new FakeStore(new File(storeDir, "take.mp4"));
+        File local = tmp.newFolder("local");
+        FallbackRecordingTarget target = new FallbackRecordingTarget(store, new FileRecordingTarget(new File(local, "take.mp4")));
+
+        writeTake(target, () -> store.refuse = true).discard();
+
+        assertTrue(store.published.isEmpty());
+        assertEquals(0, storeDir.list().length);
+        assertEquals(0, local.list().length);
+    }
+}
@@ -0,0 +1,348 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FragmentedMp4WriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static final byte[] SPS = {0x67, 0x64, 0x00, 0x28, (byte) 0xAC, 0x2B, 0x40};
+    static final byte[] PPS = {0x68, (byte) 0xEE, 0x3C, (byte) 0x80};
+
+    /** An Annex-B access unit: an SEI with a 3-byte start code, then the slice with a 4-byte one. */
+    static ByteBuffer accessUnit(int index, boolean key, int payload) {
+        ByteBuffer b = ByteBuffer.allocate(payload + 16);
+        b.put(new byte[]{0, 0, 1, 0x06, 0x05, (byte) (index | 0x80)});
+        b.put(new byte[]{0, 0, 0, 1, (byte) (key ? 0x65 : 0x41)});
+        for (int i = 0; i < payload; i++) b.put((byte) (0x10 + (index + i) % 0x60));
+        b.flip();
+        return b;
+    }
+
+    /** Length-prefixed size of {@link #accessUnit}: two NAL units of 3 and payload+1 bytes. */
+    static int mp4Size(int payload) {
+        return 4 + 3 + 4 + 1 + payload;
+    }
+
+    static long ptsUs(int frame, int fps) {
+        return Math.round(frame * 1_000_000.0 / fps);
+    }
+
+    static List<FragmentedMp4Writer.Track> avcAndAac() {
+        return Arrays.asList(
+                FragmentedMp4Writer.Track.avc(1920, 1080, SPS, PPS),
+                FragmentedMp4Writer.Track.aac(48_000, 1, new byte[]{0x11, (byte) 0x88}));
+    }
+
+    /** Records (bytes on disk, video samples on disk) every time a fragment lands. */
+    private static final class Progress {
+        final List<long[]> points = new ArrayList<>();
+
+        void note(FragmentedMp4Writer w) {
+            long[] last = points.isEmpty() ? null : points.get(points.size() - 1);
+            if (last == null || last[0] != w.bytesWritten()) {
+                points.add(new long[]{w.bytesWritten(), w.videoSamplesWritten()});
+            }
+        }
+
+        long samplesWithin(long length) {
+            long samples = -1;
+            for (long[] p : points) {
+                if (p[0] <= length) samples = p[1];
+            }
+            return samples;
+        }
+    }
+
+    /** Interleaves 240 fps video (keyframe every {@code gop}) with 48 kHz AAC frames, by time. */
+    static void feed(FragmentedMp4Writer w, int frames, int gop, Progress progress) throws IOException {
+        ByteBuffer audio = ByteBuffer.allocate(200);
+        long nextAudioUs = 0;
+        int audioFrame = 0;
+        for (int i = 0; i < frames; i++) {
+            long pts = ptsUs(i, 240);
+            while (nextAudioUs <= pts) {
+                audio.clear();
+                audio.put((byte) audioFrame).limit(180).position(0);
+                w.writeSample(1, audio, nextAudioUs, 0);
+                audioFrame++;
+                nextAudioUs = audioFrame * 1024L * 1_000_000L / 48_000;
+            }
+            ByteBuffer au = accessUnit(i, i % gop == 0, 300 + i % 50);
+            int before = au.remaining();
+            w.writeSample(0, au, pts, i % gop == 0 ? EncodedSampleSink.FLAG_KEY_FRAME : 0);
+            assertEquals(before, au.remaining());
+            if (progress != null) progress.note(w);
+        }
+    }
+
+    private File write(String name, int frames, int fragmentFrames, long fragmentUs, Progress progress) throws IOException {
+        File f = tmp.newFile(name);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            FragmentedMp4Writer w = new FragmentedMp4Writer(raf.getChannel(), avcAndAac(), fragmentFrames, fragmentUs);
+            if (progress != null) progress.note(w);
+            feed(w, frames, 60, progress);
+            w.close();
+            if (progress != null) progress.note(w);
+            assertEquals(raf.length(), w.bytesWritten());
+        }
+        return f;
+    }
+
+    private static List<Mp4Box> topLevel(File f) throws IOException {
+        List<Mp4Box> boxes = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel()) {
+            ByteBuffer scratch = ByteBuffer.allocate(16);
+            long pos = 0;
+            while (pos < ch.size()) {
+                Mp4Box box = Mp4Box.read(ch, pos, ch.size(), scratch);
+                boxes.add(box);
+                pos = box.end();
+            }
+        }
+        return boxes;
+    }
+
+    @Test
+    public void completeFileParsesWithEverySample() throws IOException {
+        File f = write("full.mp4", 480, 30, 0, null);
+        Mp4Info info = Mp4Parser.parse(f);
+
+        assertEquals("avc1", info.codec);
+        assertEquals(1920, info.width);
+        assertEquals(1080, info.height);
+        assertEquals(480, info.sampleCount);
+        assertEquals(240, info.roundedFps());
+        assertTrue(info.hasAudio);
+        assertEquals(2000, info.durationMs(), 10);
+        long bytes = 0;
+        for (int i = 0; i < 480; i++) bytes += mp4Size(300 + i % 50);
+        assertEquals(bytes, info.videoBytes);
+    }
+
+    @Test
+    public void fragmentsAreCutByFrameCountOrTime() throws IOException {
+        int byFrames = 0;
+        for (Mp4Box b : topLevel(write("frames.mp4", 480, 30, 0, null))) {
+            if (b.type == Mp4Box.MOOF) byFrames++;
+        }
+        assertEquals(16, byFrames);
+
+        List<Mp4Box> boxes = topLevel(write("time.mp4", 480, 0, 100_000, null));
+        int byTime = 0;
+        for (Mp4Box b : boxes) {
+            if (b.type == Mp4Box.MOOF) byTime++;
+        }
+        assertEquals(20, byTime);
+        assertEquals(Mp4Box.FTYP, boxes.get(0).type);
+        assertEquals(Mp4Box.MOOV, boxes.get(1).type);
+        for (int i = 2; i < boxes.size(); i += 2) {
+            assertEquals(Mp4Box.MOOF, boxes.get(i).type);
+            assertEquals(Mp4Box.MDAT, boxes.get(i + 1).type);
+        }
+    }
+
+    @Test
+    public void fileCutAtAnyPointAfterTheHeaderStillParses() throws IOException {
+        Progress progress = new Progress();
+        File full = write("cut.mp4", 600, 24, 0, progress);
+        byte[] bytes = Files.readAllBytes(full.toPath());
+        long initSize = progress.points.get(0)[0];
+
+        Random random = new Random(240);
+        File cut = tmp.newFile("truncated.mp4");
+        long previous = -1;
+        int[] lengths = new int[300];
+        for (int i = 0; i < lengths.length; i++) lengths[i] = random.nextInt(bytes.length + 1);
+        // Make sure some cuts land in the header and right at its end
+        lengths[0] = 0;
+        lengths[1] = 12;
+        lengths[2] = (int) initSize / 2;
+        lengths[3] = (int) initSize - 1;
+        lengths[4] = (int) initSize;
+        Arrays.sort(lengths);
+        for (int length : lengths) {
+            Files.write(cut.toPath(), Arrays.copyOf(bytes, length));
+            if (length < initSize) {
+                try {
+                    Mp4Parser.parse(cut);
+                    fail("parsed a file cut inside its header at " + length);
+                } catch (IOException expected) {
+                }
+                continue;
+            }
+            Mp4Info info = Mp4Parser.parse(cut);
+            assertEquals("samples in a file cut at " + length, progress.samplesWithin(length), info.sampleCount);
+            assertTrue(info.sampleCount >= previous);
+            previous = info.sampleCount;
+        }
+        assertEquals(600, Mp4Parser.parse(full).sampleCount);
+    }
+
+    @Test
+    public void lostDataIsBoundedByOneFragment() throws IOException {
+        Progress progress = new Progress();
+        File f = write("bound.mp4", 600, 24, 0, progress);
+        long size = f.length();
+        // Losing the last byte loses exactly the last fragment, never more
+        assertTrue(600 - progress.samplesWithin(size - 1) <= 24);
+    }
+
+    @Test
+    public void rollsOverIntoNumberedSegmentsOnKeyframes() throws IOException {
+        File first = new File(tmp.getRoot(), "HighSpeed_20240101_120000.mp4");
+        SegmentedMp4Writer w = new SegmentedMp4Writer(first, avcAndAac(), 30, 0, 0, 500_000);
+        try {
+            ByteBuffer audio = ByteBuffer.allocate(64);
+            for (int i = 0; i < 960; i++) {
+                boolean key = i % 60 == 0;
+                if (i % 5 == 0) {
+                    audio.clear();
+                    w.writeSample(1, audio, ptsUs(i, 240), 0);
+                }
+                w.writeSample(0, accessUnit(i, key, 200), ptsUs(i, 240), key ? EncodedSampleSink.FLAG_KEY_FRAME : 0);
+            }
+        } finally {
+            w.close();
+        }
+        List<File> files = new ArrayList<>(w.files());
+        assertTrue(w.bytesWritten() > 0);
+
+        assertEquals(first, files.get(0));
+        assertEquals("HighSpeed_20240101_120000_002.mp4", files.get(1).getName());
+        assertEquals(SegmentedMp4Writer.segmentFile(first, 3), files.get(2));
+        assertTrue(files.size() >= 3);
+
+        long total = 0;
+        for (File f : files) {
+            Mp4Info info = Mp4Parser.parse(f);
+            total += info.sampleCount;
+            assertEquals(0, info.sampleCount % 60); // every segment starts on a keyframe
+            assertTrue(info.durationMs() <= 750);
+        }
+        assertEquals(960, total);
+    }
+
+    @Test
+    public void singleSegmentWhenLimitsAreOff() throws IOException {
+        File first = new File(tmp.getRoot(), "one.mp4");
+        SegmentedMp4Writer w = new SegmentedMp4Writer(first, avcAndAac(), 30, 0, 0, 0);
+        try {
+            for (int i = 0; i < 300; i++) {
+                w.writeSample(0, accessUnit(i, i % 30 == 0, 100), ptsUs(i, 240), i % 30 == 0 ? 1 : 0);
+            }
+        } finally {
+            w.close();
+        }
+        assertEquals(1, w.files().size());
+        assertEquals(300, Mp4Parser.parse(first).sampleCount);
+    }
+
+    @Test
+    public void preallocatedSegmentsAreTrimmedToWhatWasWritten() throws IOException {
+        File first = new File(tmp.getRoot(), "prealloc.mp4");
+        long[] reserved = {0};
+        // Stands in for fallocate: grows the file with zeros without moving the writer's position
+        RecordingTarget.Preallocator zeros = (fd, length) -> {
+            // Not closed: that would close the segment's descriptor too
+            FileChannel ch = new java.io.FileOutputStream(fd).getChannel();
+            if (ch.size() < length) ch.write(ByteBuffer.wrap(new byte[1]), length - 1);
+            reserved[0] = Math.max(reserved[0], length);
+        };
+        SegmentedMp4Writer w = new SegmentedMp4Writer(new FileRecordingTarget(first, zeros), avcAndAac(),
+                30, 0, 0, 0);
+        try {
+            w.setPreallocation(64 * 1024);
+            for (int i = 0; i < 300; i++) {
+                w.writeSample(0, accessUnit(i, i % 30 == 0, 100), ptsUs(i, 240), i % 30 == 0 ? 1 : 0);
+                if (i == 100) {
+                    assertTrue(first.length() > w.bytesWritten());
+                    assertTrue(w.preallocatedUnused() > 0);
+                    // A crash now leaves a zero-padded file, which still reads up to the padding
+                    assertEquals(90, Mp4Parser.parse(first).sampleCount);
+                }
+            }
+        } finally {
+            w.close();
+        }
+        long size = w.bytesWritten();
+        assertEquals(0, w.preallocatedUnused());
+        assertTrue(reserved[0] > size);
+        assertEquals(size, first.length());
+        assertEquals(300, Mp4Parser.parse(first).sampleCount);
+    }
+
+    @Test
+    public void hevcTrackCarriesProfileFromSps() throws IOException {
+        byte[] vps = {0x40, 0x01, 0x0C, 0x01};
+        // NAL header, then vps id / max_sub_layers_minus1=0 / nesting=1, then 12 PTL bytes with
+        // an emulation-prevention byte inside the constraint flags
+        byte[] sps = {0x42, 0x01, 0x01, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, (byte) 0x90, 0x00, 0x00, 0x03, 0x00, 0x00, 0x00, 0x5D, 0x00};
+        byte[] pps = {0x44, 0x01, (byte) 0xC1};
+        FragmentedMp4Writer.Track track = FragmentedMp4Writer.Track.hevc(1280, 720, vps, sps, pps);
+        assertEquals(1, track.codecConfig[0]);
+        assertEquals(0x01, track.codecConfig[1]);        // Main profile
+        assertEquals(0x60, track.codecConfig[2] & 0xFF); // compatibility flags, unescaped
+        assertEquals(0x5D, track.codecConfig[12]);       // level 3.1
+        assertEquals(3, track.codecConfig[22]);          // VPS, SPS, PPS arrays
+
+        File f = tmp.newFile("hevc.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            FragmentedMp4Writer w = new FragmentedMp4Writer(raf.getChannel(), Arrays.asList(track), 10, 0);
+            for (int i = 0; i < 40; i++) {
+                w.writeSample(0, accessUnit(i, i % 10 == 0, 50), ptsUs(i, 120), i % 10 == 0 ? 1 : 0);
+            }
+            w.close();
+        }
+        Mp4Info info = Mp4Parser.parse(f);
+        assertEquals("hvc1", info.codec);
+        assertEquals(40, info.sampleCount);
+        assertEquals(120, info.roundedFps());
+        assertFalse(info.hasAudio);
+    }
+
+    @Test
+    public void samplesAreStoredLengthPrefixed() throws IOException {
+        File f = write("payload.mp4", 48, 24, 0, null);
+        List<Mp4Box> boxes = topLevel(f);
+        Mp4Box mdat = boxes.get(3);
+        assertEquals(Mp4Box.MDAT, mdat.type);
+        ByteBuffer expected = ByteBuffer.allocate(1024);
+        AnnexB.toLengthPrefixed(accessUnit(0, true, 300), expected);
+        expected.flip();
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            // Video comes first in the mdat, ahead of the audio
+            byte[] first = new byte[expected.remaining()];
+            raf.seek(mdat.bodyOffset());
+            raf.readFully(first);
+            assertArrayEquals(Arrays.copyOf(expected.array(), expected.limit()), first);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void closedWriterRejectsSamples() throws IOException {
+        File f = tmp.newFile("closed.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            FragmentedMp4Writer w = new FragmentedMp4Writer(raf.getChannel(), avcAndAac(), 10, 0);
+            w.close();
+            w.writeSample(0, accessUnit(0, true, 10), 0, 1);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameCachePolicyTest {
+
+    private static final long FRAME = 100;
+
+    // Units of gop consecutive frames each
+    private static int[] units(int frames, int gop) {
+        int[] unitOf = new int[frames];
+        for (int f = 0; f < frames; f++) unitOf[f] = f / gop;
+        return unitOf;
+    }
+
+    private static FrameCachePolicy policy(int frames, int gop, int capacity) {
+        return new FrameCachePolicy(units(frames, gop), capacity * FRAME, FRAME);
+    }
+
+    // What the viewer's decoder thread does with one unit
+    private static void decode(FrameCachePolicy p, int unit) {
+        p.decodeStarted(unit);
+        for (int f = 0; f < p.frames(); f++) {
+            if (p.unitOf(f) == unit && p.wants(f)) p.admit(f);
+            assertTrue(p.cachedCount() <= p.capacity());
+        }
+        p.decodeFinished(unit);
+    }
+
+    private static int warm(FrameCachePolicy p) {
+        int decodes = 0;
+        for (int u; (u = p.nextUnit()) >= 0; decodes++) decode(p, u);
+        return decodes;
+    }
+
+    @Test
+    public void capacityComesFromTheBudget() {
+        assertEquals(10, new FrameCachePolicy(units(1000, 10), 10 * FRAME + 99, FRAME).capacity());
+        assertEquals(1, new FrameCachePolicy(units(1000, 10), 0, FRAME).capacity());
+        assertEquals(50, new FrameCachePolicy(units(50, 10), Long.MAX_VALUE, FRAME).capacity());
+    }
+
+    @Test
+    public void windowReachesFurtherInTheDirectionOfTravel() {
+        FrameCachePolicy p = policy(1000, 10, 20);
+        p.moveTo(100);
+        assertEquals(1, p.direction());
+        assertEquals(96, p.windowStart());
+        assertEquals(116, p.windowEnd());
+
+        p.moveTo(99);
+        assertEquals(-1, p.direction());
+        assertEquals(84, p.windowStart());
+        assertEquals(104, p.windowEnd());
+
+        // Staying put keeps the direction
+        p.moveTo(99);
+        assertEquals(-1, p.direction());
+    }
+
+    @Test
+    public void windowKeepsItsSizeAtTheEnds() {
+        FrameCachePolicy p = policy(1000, 10, 20);
+        assertEquals(0, p.windowStart());
+        assertEquals(20, p.windowEnd());
+        p.moveTo(5000);
+        assertEquals(999, p.playhead());
+        assertEquals(980, p.windowStart());
+        assertEquals(1000, p.windowEnd());
+    }
+
+    @Test
+    public void prefetchLooksAheadBeforeBehind() {
+        FrameCachePolicy p = policy(1000, 10, 20);
+        p.moveTo(100);
+        assertEquals(10, p.nextUnit());
+        decode(p, 10);
+        assertEquals(11, p.nextUnit());
+        decode(p, 11);
+        // Ahead is complete up to 115, so the frames behind come next
+        assertEquals(9, p.nextUnit());
+        decode(p, 9);
+        assertEquals(-1, p.nextUnit());
+
+        // Turning back wants the rest of unit 9, which was only partly in the window
+        p.moveTo(99);
+        assertEquals(9, p.nextUnit());
+        decode(p, 9);
+        assertEquals(8, p.nextUnit());
+    }
+
+    @Test
+    public void evictsFurthestOutsideTheWindowThenFurthestBehind() {
+        FrameCachePolicy p = policy(100, 10, 10);
+        for (int f = 0; f < 10; f++) assertEquals(-1, p.admit(f));
+
+        p.moveTo(5); // window [3, 13)
+        assertEquals(0, p.admit(10));
+        assertEquals(1, p.admit(11));
+        assertEquals(2, p.admit(12));
+
+        p.moveTo(4); // backwards: window [0, 10)
+        assertEquals(12, p.admit(2));
+        assertFalse(p.isCached(12));
+        assertTrue(p.isCached(2));
+        assertEquals(10, p.cachedCount());
+    }
+
+    @Test
+    public void victimIsNeverThePlayhead() {
+        FrameCachePolicy p = policy(100, 10, 1);
+        p.moveTo(50);
+        assertEquals(-1, p.admit(50));
+        p.moveTo(51);
+        assertEquals(50, p.admit(51));
+        assertTrue(p.isCached(51));
+    }
+
+    @Test
+    public void framesOutsideTheWindowAreNotWanted() {
+        FrameCachePolicy p = policy(1000, 10, 20);
+        p.moveTo(100);
+        assertTrue(p.wants(96));
+        assertFalse(p.wants(95));
+        assertFalse(p.wants(116));
+        p.admit(100);
+        assertFalse(p.wants(100));
+        assertTrue(p.isUseful(9));
+        assertTrue(p.isUseful(11));
+        assertFalse(p.isUseful(12));
+        assertFalse(p.isUseful(8));
+    }
+
+    @Test
+    public void everyStepAfterWarmUpLandsOnACachedFrame() {
+        FrameCachePolicy p = policy(2400, 30, 24);
+        p.moveTo(300);
+        assertTrue(warm(p) > 0);
+        for (int f = 301; f < 600; f++) {
+            p.moveTo(f);
+            assertTrue("forward " + f, p.isCached(f));
+            warm(p);
+        }
+        for (int f = 598; f > 200; f--) {
+            p.moveTo(f);
+            assertTrue("back " + f, p.isCached(f));
+            warm(p);
+        }
+    }
+
+    @Test
+    public void unitThatYieldsNothingIsNotRetriedUntilTheNextMove() {
+        FrameCachePolicy p = policy(100, 10, 10);
+        int u = p.nextUnit();
+        p.decodeStarted(u);
+        p.decodeFinished(u);
+        // Unit 0 holds the whole window, so nothing is left to decode
+        assertEquals(-1, p.nextUnit());
+
+        p.moveTo(1);
+        assertEquals(0, p.nextUnit());
+    }
+
+    @Test
+    public void unitsFollowTheShards() {
+        List<GopSharder.Shard> shards = new ArrayList<>();
+        shards.add(new GopSharder.Shard(0, 0, 3, new int[]{0, 2, 1}, new int[]{0, 1, 2}));
+        shards.add(new GopSharder.Shard(1, 3, 5, new int[]{3, 4}, new int[]{3, 4}));
+        assertArrayEquals(new int[]{0, 0, 0, 1, 1}, FrameCachePolicy.unitsOf(shards));
+    }
+}
@@ -0,0 +1,163 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class FrameExtractorTest {
+
+    // Shards of `perShard` frames each, numbered consecutively; the frame is its sample index
+    private static List<GopSharder.Shard> shards(int count, int perShard) {
+        List<GopSharder.Shard> shards = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            int[] samples = new int[perShard];
+            int[] numbers = new int[perShard];
+            for (int j = 0; j < perShard; j++) {
+                samples[j] = k * perShard + j;
+                numbers[j] = k * perShard + j;
+            }
+            shards.add(new GopSharder.Shard(k, k * perShard, (k + 1) * perShard, samples, numbers));
+        }
+        return shards;
+    }
+
+    private static FrameExtractor.Decoder<Integer> decoder(long sleepMs) {
+        return (shard, out) -> {
+            for (int j = 0; j < shard.frames(); j++) {
+                if (sleepMs > 0) Thread.sleep(sleepMs);
+                out.frame(shard.frameNumbers[j], shard.samples[j]);
+            }
+        };
+    }
+
+    @Test(timeout = 10_000)
+    public void everyFrameIsWrittenOnceWithItsNumber() throws IOException {
+        AtomicIntegerArray written = new AtomicIntegerArray(200);
+        AtomicInteger lastProgress = new AtomicInteger();
+        int n = new FrameExtractor<Integer>(4, 3, 2).run(shards(20, 10), decoder(0), (number, frame) -> {
+            assertEquals(number, (int) frame);
+            written.incrementAndGet(number);
+        }, (done, total) -> {
+            assertEquals(200, total);
+            lastProgress.accumulateAndGet(done, Math::max);
+        });
+
+        assertEquals(200, n);
+        assertEquals(200, lastProgress.get());
+        for (int i = 0; i < 200; i++) assertEquals("frame " + i, 1, written.get(i));
+    }
+
+    @Test(timeout = 10_000)
+    public void decodersStayWithinThePool() throws IOException {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        FrameExtractor.Decoder<Integer> counting = (shard, out) -> {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                decoder(2).decode(shard, out);
+            } finally {
+                active.decrementAndGet();
+            }
+        };
+        new FrameExtractor<Integer>(3, 2, 8).run(shards(12, 4), counting, (number, frame) -> {}, null);
+
+        assertTrue("peak " + peak.get(), peak.get() <= 3);
+        assertTrue("peak " + peak.get(), peak.get() >= 2);
+    }
+
+    @Test(timeout = 10_000)
+    public void slowEncodersHoldTheDecodersBack() throws IOException {
+        int capacity = 3;
+        int decoders = 2;
+        AtomicInteger produced = new AtomicInteger();
+        AtomicInteger encoded = new AtomicInteger();
+        AtomicInteger peakBacklog = new AtomicInteger();
+        FrameExtractor.Decoder<Integer> eager = (shard, out) -> {
+            for (int j = 0; j < shard.frames(); j++) {
+                peakBacklog.accumulateAndGet(produced.incrementAndGet() - encoded.get(), Math::max);
+                out.frame(shard.frameNumbers[j], shard.samples[j]);
+            }
+        };
+        new FrameExtractor<Integer>(decoders, 1, capacity).run(shards(4, 20), eager, (number, frame) -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            encoded.incrementAndGet();
+        }, null);
+
+        assertEquals(80, encoded.get());
+        // Queued, plus one being encoded, plus one waiting in each decoder
+        assertTrue("backlog " + peakBacklog.get(), peakBacklog.get() <= capacity + 1 + decoders);
+    }
+
+    @Test(timeout = 10_000)
+    public void decoderFailureStopsTheExportAndFreesQueuedFrames() {
+        AtomicInteger discarded = new AtomicInteger();
+        AtomicInteger encoded = new AtomicInteger();
+        FrameExtractor.Decoder<Integer> failing = (shard, out) -> {
+            if (shard.index == 3) throw new IOException("corrupt sample");
+            decoder(1).decode(shard, out);
+        };
+        FrameExtractor.Encoder<Integer> encoder = new FrameExtractor.Encoder<Integer>() {
+            @Override
+            public void encode(int frameNumber, Integer frame) {
+                encoded.incrementAndGet();
+            }
+
+            @Override
+            public void discard(Integer frame) {
+                discarded.incrementAndGet();
+            }
+        };
+        try {
+            new FrameExtractor<Integer>(2, 1, 4).run(shards(40, 10), failing, encoder, null);
+            fail();
+        } catch (IOException e) {
+            assertEquals("corrupt sample", e.getMessage());
+        }
+        assertTrue(encoded.get() + discarded.get() < 400);
+    }
+
+    @Test(timeout = 10_000)
+    public void encoderFailureIsRethrown() {
+        try {
+            new FrameExtractor<Integer>(2, 2, 2).run(shards(10, 10), decoder(0), (number, frame) -> {
+                if (number == 42) throw new IOException("disk full");
+            }, null);
+            fail();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void aShardThatDropsAFrameFails() {
+        FrameExtractor.Decoder<Integer> dropping = (shard, out) -> {
+            for (int j = 0; j < shard.frames(); j++) {
+                if (shard.frameNumbers[j] != 17) out.frame(shard.frameNumbers[j], shard.samples[j]);
+            }
+        };
+        try {
+            new FrameExtractor<Integer>(2, 1, 4).run(shards(4, 10), dropping, (number, frame) -> {}, null);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("frame 17"));
+        }
+    }
+
+    @Test
+    public void threadsFollowTheCores() {
+        assertArrayEquals(new int[]{1, 1}, FrameExtractor.threadsFor(1));
+        assertArrayEquals(new int[]{1, 1}, FrameExtractor.threadsFor(2));
+        assertArrayEquals(new int[]{4, 4}, FrameExtractor.threadsFor(8));
+        assertArrayEquals(new int[]{4, 4}, FrameExtractor.threadsFor(16));
+    }
+}
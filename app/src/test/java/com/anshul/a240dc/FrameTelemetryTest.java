@@ -0,0 +1,152 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameTelemetryTest {
+
+    private static final long INTERVAL = 1_000_000_000L / 240;
+    private static final long START = 123_456_789_000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void steadyStreamHoldsTheNominalRate() {
+        FrameTelemetry t = new FrameTelemetry(240, 1024);
+        for (int i = 0; i < 2400; i++) t.onFrame(START + i * INTERVAL);
+
+        FrameTelemetry.Stats s = t.stats();
+        assertEquals(2400, s.frames);
+        assertEquals(0, s.dropped);
+        assertEquals(240, s.roundedFps());
+        assertEquals(240, t.liveFps(), 0.1);
+        assertEquals(0, s.jitterP99Ns);
+        assertEquals(INTERVAL, s.maxIntervalNs);
+    }
+
+    @Test
+    public void gapsCountTheFramesThatNeverArrived() {
+        FrameTelemetry t = new FrameTelemetry(240, 1024);
+        long ts = START;
+        for (int i = 0; i < 1000; i++) {
+            // One missing frame at 100, three at 500
+            if (i == 100) ts += INTERVAL;
+            if (i == 500) ts += 3 * INTERVAL;
+            t.onFrame(ts);
+            ts += INTERVAL;
+        }
+
+        FrameTelemetry.Stats s = t.stats();
+        assertEquals(1000, s.frames);
+        assertEquals(4, s.dropped);
+        assertEquals(4 * INTERVAL, s.maxIntervalNs);
+        // 1000 frames over the time of 1004
+        assertEquals(999 * 240.0 / 1003, s.effectiveFps(), 0.01);
+    }
+
+    @Test
+    public void throttledSensorShowsInLiveAndEffectiveRate() {
+        FrameTelemetry t = new FrameTelemetry(240, 4096);
+        long ts = START;
+        for (int i = 0; i < 480; i++, ts += INTERVAL) t.onFrame(ts);
+        // Then a slow slide to 200 fps: longer intervals, but not long enough to be drops
+        long slow = 1_000_000_000L / 200;
+        for (int i = 0; i < 400; i++, ts += slow) t.onFrame(ts);
+
+        assertEquals(200, t.liveFps(), 1);
+        FrameTelemetry.Stats s = t.stats();
+        assertEquals(0, s.dropped);
+        assertTrue(s.roundedFps() < 240 && s.roundedFps() > 200);
+        // Almost half the intervals are 0.83 ms late
+        long late = slow - INTERVAL;
+        assertEquals(late / FrameTelemetry.BUCKET_NS * FrameTelemetry.BUCKET_NS, s.jitterP95Ns);
+        assertEquals(0, s.jitterP50Ns);
+    }
+
+    @Test
+    public void jitterPercentilesFollowTheDeviations() {
+        FrameTelemetry t = new FrameTelemetry(240, 512);
+        Random random = new Random(7);
+        long ts = START;
+        for (int i = 0; i < 10_000; i++) {
+            t.onFrame(ts);
+            // Uniform +-400 µs around the nominal interval
+            ts += INTERVAL + random.nextInt(800_001) - 400_000;
+        }
+
+        FrameTelemetry.Stats s = t.stats();
+        assertEquals(0, s.dropped);
+        // |U(-400, 400)| is U(0, 400): p50 near 200 µs, p99 near 396 µs
+        assertEquals(200_000, s.jitterP50Ns, 15_000);
+        assertEquals(380_000, s.jitterP95Ns, 15_000);
+        assertEquals(396_000, s.jitterP99Ns, 15_000);
+        assertEquals(240, s.roundedFps());
+    }
+
+    @Test
+    public void repeatedAndBackwardTimestampsAreIgnored() {
+        FrameTelemetry t = new FrameTelemetry(240, 64);
+        t.onFrame(START);
+        t.onFrame(START + INTERVAL);
+        t.onFrame(START + INTERVAL);
+        t.onFrame(START);
+        t.onFrame(START + 2 * INTERVAL);
+        assertEquals(3, t.frames());
+        assertEquals(0, t.stats().dropped);
+    }
+
+    @Test
+    public void resetStartsAFreshTake() {
+        FrameTelemetry t = new FrameTelemetry(240, 64);
+        for (int i = 0; i < 100; i++) t.onFrame(START + i * 3 * INTERVAL);
+        t.reset();
+        assertEquals(0, t.stats().frames);
+        assertEquals(0, t.stats().effectiveFps(), 0);
+        for (int i = 0; i < 100; i++) t.onFrame(START + i * INTERVAL);
+        assertEquals(0, t.stats().dropped);
+        assertEquals(0, t.stats().maxIntervalNs - INTERVAL);
+    }
+
+    @Test
+    public void sidecarKeepsTheSummaryAndTheNewestTimestamps() throws IOException {
+        FrameTelemetry t = new FrameTelemetry(240, 100);
+        long ts = START;
+        for (int i = 0; i < 250; i++) {
+            if (i == 200) ts += INTERVAL;
+            t.onFrame(ts);
+            ts += INTERVAL + (i % 2) * 20_000;
+        }
+        File f = FrameTelemetry.sidecarFor(tmp.getRoot(), "HighSpeed_1.mp4");
+        t.write(f);
+
+        FrameTelemetry.Stats s = FrameTelemetry.read(f);
+        FrameTelemetry.Stats expected = t.stats();
+        assertEquals(expected.toString(), s.toString());
+        assertEquals(250, s.frames);
+        assertEquals(1, s.dropped);
+
+        // The ring wrapped: only the last 100 frames are in the file
+        long[] stored = FrameTelemetry.readTimestamps(f);
+        assertEquals(100, stored.length);
+        assertEquals(ts - INTERVAL - (249 % 2) * 20_000, stored[99]);
+        for (int i = 1; i < stored.length; i++) assertTrue(stored[i] > stored[i - 1]);
+        // Header, one absolute timestamp, then 4 bytes a frame
+        assertEquals(4 * 3 + 8 * 7 + 4 + 8 + 99 * 4, f.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        File f = tmp.newFile("clip.ftel");
+        Files.write(f.toPath(), new byte[64]);
+        FrameTelemetry.read(f);
+    }
+}
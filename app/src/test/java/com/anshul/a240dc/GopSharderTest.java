@@ -0,0 +1,128 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GopSharderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private SampleTable table(Mp4Fixture.Track track) throws IOException {
+        File f = new Mp4Fixture().add(track).write(tmp.newFile());
+        return SampleTableTest.read(f).get(0);
+    }
+
+    // Microseconds from the first frame to frame n at 240 fps
+    private static long frameUs(int n) {
+        return n * 1_000_000L / 240;
+    }
+
+    // Shards start on sync samples, never overlap and number every frame once in presentation order
+    private static void assertWellFormed(SampleTable v, List<GopSharder.Shard> shards, int frames) {
+        int[] sampleOf = new int[frames];
+        boolean[] seen = new boolean[frames];
+        int previousEnd = 0;
+        for (int k = 0; k < shards.size(); k++) {
+            GopSharder.Shard s = shards.get(k);
+            assertEquals(k, s.index);
+            assertTrue(s + " starts on a sync sample", v.isSync(s.firstSample));
+            assertTrue(s + " overlaps the shard before", s.firstSample >= previousEnd);
+            previousEnd = s.endSample;
+            for (int j = 0; j < s.frames(); j++) {
+                assertTrue(s.samples[j] >= s.firstSample && s.samples[j] < s.endSample);
+                int n = s.frameNumbers[j];
+                assertFalse("frame " + n + " twice", seen[n]);
+                seen[n] = true;
+                sampleOf[n] = s.samples[j];
+            }
+        }
+        assertEquals(frames, GopSharder.frameCount(shards));
+        for (int n = 1; n < frames; n++) {
+            assertTrue(v.presentationTime(sampleOf[n]) > v.presentationTime(sampleOf[n - 1]));
+        }
+    }
+
+    @Test
+    public void wholeClipSplitsAtEveryGop() throws IOException {
+        SampleTable v = table(Mp4Fixture.video(120, 240, 100, 30));
+        List<GopSharder.Shard> shards = GopSharder.shard(v, 0, 0, 0, 1);
+
+        assertEquals(4, shards.size());
+        for (int k = 0; k < 4; k++) {
+            assertEquals(30 * k, shards.get(k).firstSample);
+            assertEquals(30 * k + 30, shards.get(k).endSample);
+            assertEquals(30 * k, shards.get(k).frameNumbers[0]);
+        }
+        assertWellFormed(v, shards, 120);
+    }
+
+    @Test
+    public void rangeStartsAtTheSyncSampleBeforeIt() throws IOException {
+        SampleTable v = table(Mp4Fixture.video(120, 240, 100, 30));
+        List<GopSharder.Shard> shards = GopSharder.shard(v, frameUs(45), frameUs(75), 0, 1);
+
+        assertEquals(2, shards.size());
+        assertEquals(30, shards.get(0).firstSample);
+        assertEquals(45, shards.get(0).samples[0]);
+        assertEquals(0, shards.get(0).frameNumbers[0]);
+        assertEquals(60, shards.get(1).firstSample);
+        assertEquals(75, shards.get(1).endSample);
+        assertEquals(15, shards.get(1).decodeLength());
+        assertWellFormed(v, shards, 30);
+    }
+
+    @Test
+    public void shortGopsAreMergedAndTheTailJoinsTheLastShard() throws IOException {
+        SampleTable v = table(Mp4Fixture.video(42, 240, 100, 1));
+        List<GopSharder.Shard> shards = GopSharder.shard(v, 0, 0, 0, 8);
+
+        assertEquals(5, shards.size());
+        for (int k = 0; k < 4; k++) assertEquals(8, shards.get(k).frames());
+        assertEquals(10, shards.get(4).frames());
+        assertEquals(42, shards.get(4).endSample);
+        assertWellFormed(v, shards, 42);
+    }
+
+    @Test
+    public void maxFramesPicksEvenlySpreadFrames() throws IOException {
+        SampleTable v = table(Mp4Fixture.video(120, 240, 100, 30));
+        List<GopSharder.Shard> shards = GopSharder.shard(v, 0, 0, 12, 1);
+
+        assertWellFormed(v, shards, 12);
+        int k = 0;
+        for (GopSharder.Shard s : shards) {
+            for (int sample : s.samples) assertEquals(10 * k++, sample);
+        }
+        // The last shard stops decoding after its last picked frame
+        assertEquals(111, shards.get(shards.size() - 1).endSample);
+    }
+
+    @Test
+    public void openGopsAreNotCutAndLeadingFramesDecodeFromTheGopBefore() throws IOException {
+        // Syncs at 0, 13 and 25; the B-frames right after 13 and 25 are shown before them
+        SampleTable v = table(Mp4Fixture.videoWithBFrames(37, 240, 100, 12));
+        List<GopSharder.Shard> whole = GopSharder.shard(v, 0, 0, 0, 1);
+        assertEquals(1, whole.size());
+        assertWellFormed(v, whole, 37);
+
+        // Sample 14 is shown first, but references the GOP starting at 0
+        List<GopSharder.Shard> shards = GopSharder.shard(v, frameUs(13), 0, 0, 1);
+        assertEquals(0, shards.get(0).firstSample);
+        assertEquals(14, shards.get(0).samples[0]);
+        assertWellFormed(v, shards, 24);
+    }
+
+    @Test
+    public void emptyRangeHasNoShards() throws IOException {
+        SampleTable v = table(Mp4Fixture.video(30, 240, 100, 10));
+        assertTrue(GopSharder.shard(v, frameUs(40), frameUs(50), 0, 1).isEmpty());
+    }
+}
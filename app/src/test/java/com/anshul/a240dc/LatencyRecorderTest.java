@@ -0,0 +1,69 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class LatencyRecorderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void percentilesOverRecordedTakes() {
+        LatencyRecorder r = new LatencyRecorder(new File(tmp.getRoot(), "l.tsv"), "1.0");
+        for (int ms = 1; ms <= 100; ms++) {
+            r.record("prewarmed", ms * 1_000_000L);
+        }
+        assertEquals(100, r.count("prewarmed"));
+        assertEquals(50_000_000L, r.percentile("prewarmed", 50));
+        assertEquals(90_000_000L, r.percentile("prewarmed", 90));
+        assertEquals(100_000_000L, r.percentile("prewarmed", 100));
+        assertEquals(-1, r.percentile("cold", 50));
+        assertTrue(r.summary("prewarmed").contains("p50=50.0ms"));
+    }
+
+    @Test
+    public void keepsOnlyTheMostRecentSamples() {
+        LatencyRecorder r = new LatencyRecorder(new File(tmp.getRoot(), "l.tsv"), "1.0");
+        for (int i = 0; i < LatencyRecorder.CAPACITY; i++) r.record("cold", 500_000_000L);
+        for (int i = 0; i < LatencyRecorder.CAPACITY; i++) r.record("cold", 20_000_000L);
+        assertEquals(LatencyRecorder.CAPACITY, r.count("cold"));
+        assertEquals(20_000_000L, r.percentile("cold", 100));
+    }
+
+    @Test
+    public void persistsPerBuildAcrossSessions() throws IOException {
+        File file = new File(tmp.getRoot(), "l.tsv");
+        LatencyRecorder v1 = new LatencyRecorder(file, "1.0");
+        v1.record("cold", 400_000_000L);
+        v1.record("cold", 300_000_000L);
+        v1.flush();
+
+        LatencyRecorder v2 = new LatencyRecorder(file, "1.1");
+        assertEquals(0, v2.count("cold"));
+        v2.record("prewarmed", 30_000_000L);
+        v2.flush();
+
+        assertEquals(2, new LatencyRecorder(file, "1.0").count("cold"));
+        assertEquals(1, new LatencyRecorder(file, "1.1").count("prewarmed"));
+        assertEquals(3, Files.readAllLines(file.toPath()).size());
+    }
+
+    @Test
+    public void logIsBounded() throws IOException {
+        File file = new File(tmp.getRoot(), "l.tsv");
+        LatencyRecorder r = new LatencyRecorder(file, "1.0");
+        for (int i = 0; i < LatencyRecorder.MAX_LINES + 10; i++) {
+            r.record("cold", i * 1000L);
+        }
+        r.flush();
+        assertEquals(LatencyRecorder.MAX_LINES / 2, Files.readAllLines(file.toPath()).size());
+    }
+}
@@ -0,0 +1,203 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LibraryLoaderTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static String path(int i) {
+        return "/DCIM/ProCamera/HighSpeed_" + i + ".mp4";
+    }
+
+    static ClipIndex.Entry entry(int i) {
+        return new ClipIndex.Entry("HighSpeed_" + i + ".mp4", 1_000_000L + i, 1_700_000_000_000L + i,
+                2000, 240, 400, "1/500s");
+    }
+
+    static VideoItem item(int i) {
+        return new VideoItem("HighSpeed_" + i + ".mp4", "0:02", 240, 400, "1/500s", 0,
+                path(i), 1_000_000L + i, 1_700_000_000_000L + i);
+    }
+
+    static LibraryLoader.Source items(int count) {
+        return sink -> {
+            for (int i = 0; i < count; i++) {
+                if (!sink.accept(path(i), entry(i))) return;
+            }
+        };
+    }
+
+    @Test
+    public void firstScreenArrivesFirstThenBatchesGrow() {
+        List<Integer> sizes = new ArrayList<>();
+        List<Boolean> complete = new ArrayList<>();
+        new LibraryLoader(DIRECT, DIRECT).load(items(5000), (list, done) -> {
+            sizes.add(list.size());
+            complete.add(done);
+        });
+
+        assertEquals(LibraryLoader.FIRST_BATCH, (int) sizes.get(0));
+        for (int i = 1; i < sizes.size(); i++) {
+            assertTrue(sizes.get(i) >= sizes.get(i - 1));
+            int growth = sizes.get(i) - sizes.get(i - 1);
+            assertTrue("batch of " + growth, growth <= LibraryLoader.MAX_BATCH);
+        }
+        assertEquals(5000, (int) sizes.get(sizes.size() - 1));
+        assertTrue(complete.get(complete.size() - 1));
+        assertFalse(complete.get(0));
+        // Doubling batches keep the number of list diffs logarithmic-ish
+        assertTrue(sizes.size() < 16);
+    }
+
+    @Test
+    public void firstScreenArrivesWhileTheScanIsStillRunning() throws InterruptedException {
+        ExecutorService background = Executors.newSingleThreadExecutor();
+        ExecutorService main = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch firstShown = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            boolean[] sawFirstMidScan = {false};
+            List<ClipTable> batches = new ArrayList<>();
+            List<Boolean> complete = new ArrayList<>();
+            new LibraryLoader(background, main).load(sink -> {
+                for (int i = 0; i < 10_000; i++) {
+                    // The rest of the library is held back until the first screen is on show
+                    if (i == LibraryLoader.FIRST_BATCH) sawFirstMidScan[0] = firstShown.await(10, TimeUnit.SECONDS);
+                    if (!sink.accept(path(i), entry(i))) return;
+                }
+            }, (clips, last) -> {
+                batches.add(clips);
+                complete.add(last);
+                firstShown.countDown();
+                if (last) done.countDown();
+            });
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(sawFirstMidScan[0]);
+            assertEquals(LibraryLoader.FIRST_BATCH, batches.get(0).size());
+            assertFalse(complete.get(0));
+            assertEquals(10_000, batches.get(batches.size() - 1).size());
+        } finally {
+            background.shutdownNow();
+            main.shutdownNow();
+        }
+    }
+
+    @Test
+    public void snapshotsAreIndependent() {
+        List<ClipTable> snapshots = new ArrayList<>();
+        new LibraryLoader(DIRECT, DIRECT).load(items(100), (table, done) -> snapshots.add(table));
+
+        // Later rows went into later snapshots only
+        ClipTable first = snapshots.get(0);
+        assertEquals(LibraryLoader.FIRST_BATCH, first.size());
+        assertEquals(100, snapshots.get(snapshots.size() - 1).size());
+        for (int r = 0; r < first.size(); r++) {
+            assertEquals(path(r), first.path(r));
+            assertEquals(item(r).getId(), first.id(r));
+        }
+    }
+
+    @Test
+    public void emptyLibraryStillCompletes() {
+        List<Boolean> complete = new ArrayList<>();
+        new LibraryLoader(DIRECT, DIRECT).load(items(0), (list, done) -> {
+            assertEquals(0, list.size());
+            complete.add(done);
+        });
+        assertEquals(1, complete.size());
+        assertTrue(complete.get(0));
+    }
+
+    @Test
+    public void supersededLoadStopsAndDeliversNothingMore() {
+        List<Runnable> main = new ArrayList<>();
+        LibraryLoader loader = new LibraryLoader(DIRECT, main::add);
+        List<Integer> firstLoad = new ArrayList<>();
+        int[] scanned = {0};
+
+        loader.load(sink -> {
+            for (int i = 0; i < 1000; i++) {
+                scanned[0]++;
+                if (i == 50) loader.cancel(); // a refresh came in mid-scan
+                if (!sink.accept(path(i), entry(i))) return;
+            }
+        }, (list, done) -> firstLoad.add(list.size()));
+
+        List<Integer> secondLoad = new ArrayList<>();
+        loader.load(items(20), (list, done) -> secondLoad.add(list.size()));
+        for (Runnable r : main) r.run();
+
+        assertEquals(51, scanned[0]);
+        assertTrue(firstLoad.isEmpty());
+        assertEquals(20, (int) secondLoad.get(secondLoad.size() - 1));
+    }
+
+    @Test
+    public void stableIdsAndContentEquality() {
+        VideoItem a = item(1);
+        VideoItem same = item(1);
+        VideoItem resized = new VideoItem(a.getName(), a.getDuration(), a.getFps(), a.getIso(), a.getShutterSpeed(),
+                0, a.getPath(), a.getSizeBytes() + 1, a.getLastModified());
+
+        assertEquals(a.getId(), same.getId());
+        assertEquals(a.getId(), resized.getId());
+        assertNotEquals(a.getId(), item(2).getId());
+        assertTrue(a.hasSameContents(same));
+        assertFalse(a.hasSameContents(resized));
+    }
+
+    @Test
+    public void folderScanListsClipsNewestFirstAndOnlyResolvesChanges() throws IOException {
+        File folder = tmp.newFolder("ProCamera");
+        for (String name : new String[]{"HighSpeed_1.mp4", "HighSpeed_3.mp4", "HighSpeed_2.mp4", "notes.txt"}) {
+            new File(folder, name).createNewFile();
+        }
+        ClipIndex index = ClipIndex.open(tmp.newFile("clips.idx"));
+        List<String> resolved = new ArrayList<>();
+        ClipIndex.Resolver resolver = f -> {
+            resolved.add(f.getName());
+            return new ClipIndex.Entry(f.getName(), f.length(), f.lastModified(), 1000, 240, 0, "");
+        };
+
+        List<String> listed = new ArrayList<>();
+        LibraryLoader.scanFolder(folder, index, resolver, (path, e) -> listed.add(new File(path).getName()));
+        assertEquals(List.of("HighSpeed_3.mp4", "HighSpeed_2.mp4", "HighSpeed_1.mp4"), listed);
+        assertEquals(3, resolved.size());
+
+        // A second visit is served from the index, and a deleted clip leaves it
+        new File(folder, "HighSpeed_2.mp4").delete();
+        listed.clear();
+        LibraryLoader.scanFolder(folder, index, resolver, (path, e) -> listed.add(new File(path).getName()));
+        assertEquals(List.of("HighSpeed_3.mp4", "HighSpeed_1.mp4"), listed);
+        assertEquals(3, resolved.size());
+        assertNull(index.get("HighSpeed_2.mp4"));
+    }
+
+    @Test
+    public void missingFolderScansNothing() throws IOException {
+        ClipIndex index = ClipIndex.open(tmp.newFile("clips.idx"));
+        LibraryLoader.scanFolder(new File(tmp.getRoot(), "absent"), index, f -> null, (path, e) -> {
+            fail("nothing to list");
+            return false;
+        });
+    }
+}
@@ -0,0 +1,233 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class MotionDetectorTest {
+
+    static final int W = 320;
+    static final int H = 240;
+
+    /** Synthetic luma frames: a textured, noisy scene with an optional bright square on top. */
+    static final class Scene {
+        final int stride;
+        final byte[] frame;
+        final int[] base;
+        final Random random = new Random(42);
+        int noise = 3;
+        int brightness;
+
+        Scene(int stride) {
+            this.stride = stride;
+            frame = new byte[stride * H];
+            base = new int[W * H];
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) base[y * W + x] = 60 + (x * 7 + y * 3) % 90;
+            }
+        }
+
+        /** Renders the next frame; {@code size} 0 draws no square. */
+        byte[] next(int squareX, int squareY, int size, int delta) {
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) {
+                    int v = base[y * W + x] + brightness + random.nextInt(2 * noise + 1) - noise;
+                    if (size > 0 && x >= squareX && x < squareX + size && y >= squareY && y < squareY + size) v += delta;
+                    frame[y * stride + x] = (byte) Math.max(0, Math.min(255, v));
+                }
+            }
+            return frame;
+        }
+
+        byte[] next() {
+            return next(0, 0, 0, 0);
+        }
+    }
+
+    private static MotionDetector detector(MotionDetector.Settings.Builder builder) {
+        return new MotionDetector(W, H, builder.build());
+    }
+
+    private static void warmUp(MotionDetector d, Scene scene) {
+        for (int i = 0; i < 20; i++) assertFalse(d.process(scene.next(), 0, scene.stride));
+    }
+
+    @Test
+    public void noisyStillSceneNeverTriggers() {
+        Scene scene = new Scene(W);
+        scene.noise = 6;
+        MotionDetector d = detector(new MotionDetector.Settings.Builder().sensitivity(0.9f));
+        for (int i = 0; i < 500; i++) {
+            assertFalse("frame " + i, d.process(scene.next(), 0, scene.stride));
+        }
+        assertEquals(0, d.changedBlocks());
+        assertEquals(20 * 15, d.blocks());
+    }
+
+    @Test
+    public void movingObjectTriggersAfterTheConfirmFrames() {
+        Scene scene = new Scene(W);
+        MotionDetector d = detector(new MotionDetector.Settings.Builder().confirmFrames(3));
+        warmUp(d, scene);
+
+        // A 40 px object crossing the frame, 6 px a frame
+        assertFalse(d.process(scene.next(40, 100, 40, 80), 0, scene.stride));
+        assertTrue(d.changedBlocks() >= 4);
+        assertFalse(d.process(scene.next(46, 100, 40, 80), 0, scene.stride));
+        assertTrue(d.process(scene.next(52, 100, 40, 80), 0, scene.stride));
+        assertTrue(d.isMotion());
+
+        // Gone again
+        for (int i = 0; i < 3; i++) d.process(scene.next(), 0, scene.stride);
+        assertFalse(d.isMotion());
+    }
+
+    @Test
+    public void motionOutsideTheRegionIsIgnored() {
+        Scene scene = new Scene(W);
+        MotionDetector d = detector(new MotionDetector.Settings.Builder().roi(0, 0, 0.5f, 1).confirmFrames(1));
+        warmUp(d, scene);
+        assertEquals(10 * 15, d.blocks());
+
+        for (int x = 200; x < 280; x += 8) {
+            assertFalse(d.process(scene.next(x, 60, 32, 100), 0, scene.stride));
+        }
+        assertTrue(d.process(scene.next(60, 60, 32, 100), 0, scene.stride));
+    }
+
+    @Test
+    public void sensitivitySetsHowFaintAChangeCounts() {
+        Scene scene = new Scene(W);
+        MotionDetector keen = detector(new MotionDetector.Settings.Builder().sensitivity(1).confirmFrames(1));
+        MotionDetector dull = detector(new MotionDetector.Settings.Builder().sensitivity(0.3f).confirmFrames(1));
+        for (int i = 0; i < 20; i++) {
+            byte[] f = scene.next();
+            keen.process(f, 0, scene.stride);
+            dull.process(f, 0, scene.stride);
+        }
+        // A faint shadow, 16 levels darker
+        byte[] shadow = scene.next(100, 80, 64, -16);
+        assertTrue(keen.process(shadow, 0, scene.stride));
+        assertFalse(dull.process(shadow, 0, scene.stride));
+    }
+
+    @Test
+    public void objectThatStopsFadesIntoTheBackground() {
+        Scene scene = new Scene(W);
+        MotionDetector d = detector(new MotionDetector.Settings.Builder().learnShift(3));
+        warmUp(d, scene);
+        boolean seen = false;
+        for (int i = 0; i < 10; i++) seen |= d.process(scene.next(100, 100, 48, 90), 0, scene.stride);
+        assertTrue(seen);
+        for (int i = 0; i < 60; i++) d.process(scene.next(100, 100, 48, 90), 0, scene.stride);
+        assertFalse(d.isMotion());
+        assertEquals(0, d.changedBlocks());
+    }
+
+    @Test
+    public void slowLightingDriftIsNotMotion() {
+        Scene scene = new Scene(W);
+        MotionDetector d = detector(new MotionDetector.Settings.Builder().sensitivity(0.9f));
+        warmUp(d, scene);
+        for (int i = 0; i < 200; i++) {
+            scene.brightness = i / 4;
+            assertFalse("frame " + i, d.process(scene.next(), 0, scene.stride));
+        }
+    }
+
+    @Test
+    public void nothingIsReportedDuringWarmUp() {
+        Scene scene = new Scene(W);
+        MotionDetector d = detector(new MotionDetector.Settings.Builder().warmupFrames(8).confirmFrames(1));
+        d.process(scene.next(), 0, scene.stride);
+        for (int i = 0; i < 7; i++) {
+            assertFalse(d.process(scene.next(i * 20, 50, 40, 100), 0, scene.stride));
+            assertTrue(d.changedBlocks() > 0);
+        }
+        assertTrue(d.process(scene.next(200, 50, 40, 100), 0, scene.stride));
+
+        d.reset();
+        assertFalse(d.isMotion());
+        assertFalse(d.process(scene.next(), 0, scene.stride));
+        assertEquals(1, d.frames());
+    }
+
+    @Test
+    public void paddedBufferAndArrayGiveTheSameResult() {
+        Scene scene = new Scene(W + 64);
+        MotionDetector.Settings settings = new MotionDetector.Settings.Builder().roi(0.1f, 0.1f, 0.9f, 0.9f).build();
+        MotionDetector fromArray = new MotionDetector(W, H, settings);
+        MotionDetector fromBuffer = new MotionDetector(W, H, settings);
+        ByteBuffer direct = ByteBuffer.allocateDirect(scene.frame.length + 16);
+        boolean seen = false;
+
+        for (int i = 0; i < 40; i++) {
+            byte[] f = i < 20 ? scene.next() : scene.next(i * 6, 90, 40, 70);
+            direct.clear();
+            direct.position(16);
+            direct.put(f);
+            direct.position(16);
+            ByteBuffer plane = direct.slice();
+            plane.position(0);
+
+            boolean a = fromArray.process(f, 0, scene.stride);
+            boolean b = fromBuffer.process(plane, scene.stride);
+            assertEquals("frame " + i, a, b);
+            assertEquals("frame " + i, fromArray.changedBlocks(), fromBuffer.changedBlocks());
+            assertEquals(0, plane.position());
+            seen |= a;
+        }
+        assertTrue(seen);
+    }
+
+    @Test
+    public void processingFramesDoesNotAllocate() {
+        // The counter is HotSpot's; other JVMs have nothing to check against
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+
+        Scene scene = new Scene(W);
+        byte[][] frames = new byte[48][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = (i % 16 < 8 ? scene.next() : scene.next(i * 6, 80, 48, 90)).clone();
+        }
+        ByteBuffer plane = ByteBuffer.allocateDirect(frames[0].length);
+        MotionDetector d = detector(new MotionDetector.Settings.Builder().blockSize(8));
+        boolean[] motion = {false};
+        Runnable frameRun = () -> {
+            for (int i = 0; i < 2400; i++) {
+                byte[] f = frames[i % frames.length];
+                motion[0] |= d.process(f, 0, W);
+                plane.clear();
+                plane.put(f).flip();
+                motion[0] |= d.process(plane, W);
+            }
+        };
+        // Once through first, so what gets counted is the detector and not class loading
+        frameRun.run();
+        long id = Thread.currentThread().getId();
+        long before = counting.getThreadAllocatedBytes(id);
+        frameRun.run();
+        // The counter call itself allocates a little on some JVMs; anything per frame would be far more
+        long allocated = Math.max(0, counting.getThreadAllocatedBytes(id) - before - 1024);
+        assertEquals("bytes allocated over 4800 frames", 0, allocated);
+        assertTrue(motion[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void regionSmallerThanABlockIsRejected() {
+        new MotionDetector(W, H, new MotionDetector.Settings.Builder().roi(0.5f, 0.5f, 0.52f, 0.52f).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invertedRegionIsRejected() {
+        new MotionDetector.Settings.Builder().roi(0.6f, 0, 0.4f, 1).build();
+    }
+}
@@ -0,0 +1,323 @@
+package com.anshul.a240dc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes small but structurally complete MP4 files for JVM tests.
+ *
+ * Every sample starts with its track and sample index so tests can check which bytes ended
+ * up where. A sparse gap can be placed in front of the samples to produce 4 GB+ files
+ * without actually writing them.
+ */
+final class Mp4Fixture {
+
+    static final class Track {
+        String handler = "vide";
+        String codec = "avc1";
+        int width = 1920;
+        int height = 1080;
+        long timescale = 90_000;
+        int[] sampleSizes;
+        int[] durations;
+        /** Composition offsets per sample, or null for no ctts. */
+        int[] ctsOffsets;
+        /** Sync flags per sample, or null when every sample is a sync sample. */
+        boolean[] sync;
+        int samplesPerChunk = 8;
+
+        int sampleCount() { return sampleSizes.length; }
+
+        long totalDuration() {
+            long total = 0;
+            for (int d : durations) total += d;
+            return total;
+        }
+    }
+
+    final List<Track> tracks = new ArrayList<>();
+    boolean moovFirst;
+    int version;
+    long movieTimescale = 1000;
+    /** Unwritten bytes between the mdat header and the first sample. */
+    long gap;
+    boolean largeMdat;
+    /** Adds an edts/elst with one edit covering each track. */
+    boolean editList;
+
+    /** A constant-rate video track of {@code count} samples at {@code fps}. */
+    static Track video(int count, int fps, int sampleSize) {
+        Track t = new Track();
+        t.sampleSizes = new int[count];
+        t.durations = new int[count];
+        Arrays.fill(t.sampleSizes, sampleSize);
+        Arrays.fill(t.durations, (int) (t.timescale / fps));
+        return t;
+    }
+
+    /** Same as {@link #video} with a sync sample every {@code gop} frames. */
+    static Track video(int count, int fps, int sampleSize, int gop) {
+        Track t = video(count, fps, sampleSize);
+        t.sync = new boolean[count];
+        for (int i = 0; i < count; i += gop) t.sync[i] = true;
+        return t;
+    }
+
+    /**
+     * Decode order I P B B P B B ..., shown as I B B P B B P ...: every third frame after the
+     * first is a reference shown after the two B-frames decoded behind it. Sync samples are
+     * the first frame and every {@code gop}-th reference after it.
+     */
+    static Track videoWithBFrames(int count, int fps, int sampleSize, int gop) {
+        Track t = video(count, fps, sampleSize);
+        int d = t.durations[0];
+        t.ctsOffsets = new int[count];
+        t.sync = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            boolean reference = i == 0 || (i - 1) % 3 == 0;
+            t.ctsOffsets[i] = i == 0 ? d : reference ? 3 * d : 0;
+            t.sync[i] = i == 0 || (i > 1 && (i - 1) % gop == 0);
+        }
+        return t;
+    }
+
+    static Track audio(int count, int sampleSize) {
+        Track t = new Track();
+        t.handler = "soun";
+        t.codec = "mp4a";
+        t.width = 0;
+        t.height = 0;
+        t.timescale = 48_000;
+        t.sampleSizes = new int[count];
+        t.durations = new int[count];
+        Arrays.fill(t.sampleSizes, sampleSize);
+        Arrays.fill(t.durations, 1024);
+        return t;
+    }
+
+    Mp4Fixture add(Track track) {
+        tracks.add(track);
+        return this;
+    }
+
+    static byte[] sampleBytes(int track, int index, int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) b[i] = (byte) (index * 7 + track * 13 + i);
+        if (size >= 8) {
+            b[0] = (byte) track;
+            b[1] = (byte) (index >>> 16);
+            b[2] = (byte) (index >>> 8);
+            b[3] = (byte) index;
+        }
+        return b;
+    }
+
+    File write(File file) throws IOException {
+        byte[] ftyp = box("ftyp", concat("isom".getBytes(StandardCharsets.US_ASCII), u32(512),
+                "isomiso2avc1mp41".getBytes(StandardCharsets.US_ASCII)));
+
+        // Chunk layout, relative to the first sample byte
+        long[][] chunkOffsets = new long[tracks.size()][];
+        int[] chunkCounts = new int[tracks.size()];
+        int maxChunks = 0;
+        for (int t = 0; t < tracks.size(); t++) {
+            Track tr = tracks.get(t);
+            chunkCounts[t] = (tr.sampleCount() + tr.samplesPerChunk - 1) / tr.samplesPerChunk;
+            chunkOffsets[t] = new long[chunkCounts[t]];
+            maxChunks = Math.max(maxChunks, chunkCounts[t]);
+        }
+        long rel = 0;
+        for (int c = 0; c < maxChunks; c++) {
+            for (int t = 0; t < tracks.size(); t++) {
+                if (c >= chunkCounts[t]) continue;
+                Track tr = tracks.get(t);
+                chunkOffsets[t][c] = rel;
+                int end = Math.min(tr.sampleCount(), (c + 1) * tr.samplesPerChunk);
+                for (int s = c * tr.samplesPerChunk; s < end; s++) rel += tr.sampleSizes[s];
+            }
+        }
+        long payload = rel;
+        boolean large = largeMdat || gap + payload + 16 > 0xFFFFFFFFL;
+        int mdatHeader = large ? 16 : 8;
+
+        long dataStart;
+        byte[] moov;
+        if (moovFirst) {
+            byte[] sizing = moov(chunkOffsets, 0, large);
+            dataStart = ftyp.length + sizing.length + mdatHeader + gap;
+            moov = moov(chunkOffsets, dataStart, large);
+        } else {
+            dataStart = ftyp.length + mdatHeader + gap;
+            moov = moov(chunkOffsets, dataStart, large);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.write(ftyp);
+            if (moovFirst) raf.write(moov);
+            long mdatSize = mdatHeader + gap + payload;
+            if (large) {
+                raf.writeInt(1);
+                raf.write("mdat".getBytes(StandardCharsets.US_ASCII));
+                raf.writeLong(mdatSize);
+            } else {
+                raf.writeInt((int) mdatSize);
+                raf.write("mdat".getBytes(StandardCharsets.US_ASCII));
+            }
+            raf.seek(raf.getFilePointer() + gap);
+            for (int c = 0; c < maxChunks; c++) {
+                for (int t = 0; t < tracks.size(); t++) {
+                    if (c >= chunkCounts[t]) continue;
+                    Track tr = tracks.get(t);
+                    int end = Math.min(tr.sampleCount(), (c + 1) * tr.samplesPerChunk);
+                    for (int s = c * tr.samplesPerChunk; s < end; s++) {
+                        raf.write(sampleBytes(t, s, tr.sampleSizes[s]));
+                    }
+                }
+            }
+            if (!moovFirst) raf.write(moov);
+        }
+        return file;
+    }
+
+    private byte[] moov(long[][] chunkOffsets, long dataStart, boolean co64) throws IOException {
+        long movieDuration = 0;
+        for (Track t : tracks) {
+            movieDuration = Math.max(movieDuration, t.totalDuration() * movieTimescale / t.timescale);
+        }
+        List<byte[]> children = new ArrayList<>();
+        children.add(fullBox("mvhd", version, 0, version == 1
+                ? concat(u64(0), u64(0), u32(movieTimescale), u64(movieDuration), mvhdTail())
+                : concat(u32(0), u32(0), u32(movieTimescale), u32(movieDuration), mvhdTail())));
+        for (int t = 0; t < tracks.size(); t++) {
+            children.add(trak(t, chunkOffsets[t], dataStart, co64, movieDuration));
+        }
+        return box("moov", concat(children.toArray(new byte[0][])));
+    }
+
+    private byte[] trak(int index, long[] chunkOffsets, long dataStart, boolean co64, long movieDuration)
+            throws IOException {
+        Track t = tracks.get(index);
+        long trackDuration = t.totalDuration() * movieTimescale / t.timescale;
+        byte[] tkhdTail = concat(new byte[8], new byte[8], matrix(), u32((long) t.width << 16), u32((long) t.height << 16));
+        byte[] tkhd = fullBox("tkhd", version, 3, version == 1
+                ? concat(u64(0), u64(0), u32(index + 1), u32(0), u64(trackDuration), tkhdTail)
+                : concat(u32(0), u32(0), u32(index + 1), u32(0), u32(trackDuration), tkhdTail));
+        byte[] mdhd = fullBox("mdhd", version, 0, version == 1
+                ? concat(u64(0), u64(0), u32(t.timescale), u64(t.totalDuration()), u32(0x55C40000L))
+                : concat(u32(0), u32(0), u32(t.timescale), u32(t.totalDuration()), u32(0x55C40000L)));
+        byte[] hdlr = fullBox("hdlr", 0, 0, concat(u32(0), t.handler.getBytes(StandardCharsets.US_ASCII),
+                new byte[12], "Fixture\0".getBytes(StandardCharsets.US_ASCII)));
+
+        byte[] sampleEntry;
+        if ("vide".equals(t.handler)) {
+            sampleEntry = box(t.codec, concat(new byte[6], u16(1), new byte[16], u16(t.width), u16(t.height),
+                    u32(0x00480000L), u32(0x00480000L), u32(0), u16(1), new byte[32], u16(0x18), u16(0xFFFF),
+                    box("avcC", new byte[]{1, 0x64, 0, 0x28, (byte) 0xFF, (byte) 0xE0, 0})));
+        } else {
+            sampleEntry = box(t.codec, concat(new byte[6], u16(1), new byte[8], u16(2), u16(16), u32(0),
+                    u32(t.timescale << 16)));
+        }
+        byte[] stsd = fullBox("stsd", 0, 0, concat(u32(1), sampleEntry));
+
+        List<byte[]> stbl = new ArrayList<>();
+        stbl.add(stsd);
+        stbl.add(fullBox("stts", 0, 0, runs(t.durations)));
+        if (t.ctsOffsets != null) stbl.add(fullBox("ctts", 0, 0, runs(t.ctsOffsets)));
+        if (t.sync != null) {
+            ByteArrayOutputStream ss = new ByteArrayOutputStream();
+            int n = 0;
+            for (int i = 0; i < t.sync.length; i++) {
+                if (t.sync[i]) {
+                    ss.write(u32(i + 1));
+                    n++;
+                }
+            }
+            stbl.add(fullBox("stss", 0, 0, concat(u32(n), ss.toByteArray())));
+        }
+        int lastChunk = t.sampleCount() % t.samplesPerChunk;
+        byte[] stsc = lastChunk == 0 || chunkOffsets.length == 1
+                ? concat(u32(1), u32(1), u32(chunkOffsets.length == 1 ? t.sampleCount() : t.samplesPerChunk), u32(1))
+                : concat(u32(2), u32(1), u32(t.samplesPerChunk), u32(1), u32(chunkOffsets.length), u32(lastChunk), u32(1));
+        stbl.add(fullBox("stsc", 0, 0, stsc));
+        ByteArrayOutputStream sizes = new ByteArrayOutputStream();
+        for (int s : t.sampleSizes) sizes.write(u32(s));
+        stbl.add(fullBox("stsz", 0, 0, concat(u32(0), u32(t.sampleCount()), sizes.toByteArray())));
+        ByteArrayOutputStream offsets = new ByteArrayOutputStream();
+        for (long o : chunkOffsets) offsets.write(co64 ? u64(dataStart + o) : u32(dataStart + o));
+        stbl.add(fullBox(co64 ? "co64" : "stco", 0, 0, concat(u32(chunkOffsets.length), offsets.toByteArray())));
+
+        byte[] header = "vide".equals(t.handler)
+                ? fullBox("vmhd", 0, 1, new byte[8])
+                : fullBox("smhd", 0, 0, new byte[4]);
+        byte[] dinf = box("dinf", fullBox("dref", 0, 0, concat(u32(1), fullBox("url ", 0, 1, new byte[0]))));
+        byte[] minf = box("minf", concat(header, dinf, box("stbl", concat(stbl.toArray(new byte[0][])))));
+        byte[] edts = new byte[0];
+        if (editList) {
+            edts = box("edts", fullBox("elst", version, 0, version == 1
+                    ? concat(u32(1), u64(trackDuration), u64(0), u32(0x00010000))
+                    : concat(u32(1), u32(trackDuration), u32(0), u32(0x00010000))));
+        }
+        return box("trak", concat(tkhd, edts, box("mdia", concat(mdhd, hdlr, minf))));
+    }
+
+    private static byte[] runs(int[] values) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int entries = 0;
+        for (int i = 0; i < values.length; ) {
+            int j = i;
+            while (j < values.length && values[j] == values[i]) j++;
+            out.write(u32(j - i));
+            out.write(u32(values[i] & 0xFFFFFFFFL));
+            entries++;
+            i = j;
+        }
+        return concat(u32(entries), out.toByteArray());
+    }
+
+    private static byte[] mvhdTail() {
+        return concat(u32(0x00010000), u16(0x0100), new byte[10], matrix(), new byte[24], u32(0xFFFFFFFFL));
+    }
+
+    private static byte[] matrix() {
+        return concat(u32(0x00010000), u32(0), u32(0), u32(0), u32(0x00010000), u32(0), u32(0), u32(0),
+                u32(0x40000000));
+    }
+
+    static byte[] box(String type, byte[] payload) {
+        return concat(u32(8L + payload.length), type.getBytes(StandardCharsets.US_ASCII), payload);
+    }
+
+    static byte[] fullBox(String type, int version, int flags, byte[] payload) {
+        return box(type, concat(u32(((long) version << 24) | flags), payload));
+    }
+
+    static byte[] u16(int v) {
+        return new byte[]{(byte) (v >>> 8), (byte) v};
+    }
+
+    static byte[] u32(long v) {
+        return new byte[]{(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v};
+    }
+
+    static byte[] u64(long v) {
+        return concat(u32(v >>> 32), u32(v));
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(out)) {
+            for (byte[] p : parts) data.write(p);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,125 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Mp4ParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void readsHighSpeedClip() throws IOException {
+        // 2 seconds at 240 fps, 1080p, 50 KB per frame
+        File f = new Mp4Fixture()
+                .add(Mp4Fixture.video(480, 240, 50_000))
+                .write(tmp.newFile("clip.mp4"));
+
+        Mp4Info info = Mp4Parser.parse(f);
+        assertEquals(1920, info.width);
+        assertEquals(1080, info.height);
+        assertEquals(240.0, info.frameRate, 0.01);
+        assertEquals(240, info.roundedFps());
+        assertEquals(480, info.sampleCount);
+        assertEquals(480L * 50_000, info.videoBytes);
+        assertEquals(2000, info.durationMs());
+        assertEquals(480L * 50_000 * 8 / 2, info.bitrate);
+        assertEquals("avc1", info.codec);
+        assertFalse(info.hasAudio);
+    }
+
+    @Test
+    public void frameRateComesFromTimestampsNotNominalRate() throws IOException {
+        // Encoder was told 120 fps but the sensor delivered frames 1/240 s apart
+        Mp4Fixture.Track video = Mp4Fixture.video(240, 240, 1000);
+        Arrays.fill(video.durations, 375);
+        video.durations[100] = 750; // one dropped frame
+        File f = new Mp4Fixture().add(video).write(tmp.newFile("clip.mp4"));
+
+        Mp4Info info = Mp4Parser.parse(f);
+        assertEquals(240 * 90_000.0 / (241 * 375), info.frameRate, 1e-9);
+        assertEquals(239, info.roundedFps());
+    }
+
+    @Test
+    public void handlesVersion1BoxesMoovFirstAndAudio() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture()
+                .add(Mp4Fixture.audio(200, 300))
+                .add(Mp4Fixture.video(120, 120, 2000));
+        fixture.version = 1;
+        fixture.moovFirst = true;
+        File f = fixture.write(tmp.newFile("clip.mp4"));
+
+        Mp4Info info = Mp4Parser.parse(f);
+        assertTrue(info.hasAudio);
+        assertEquals(120, info.sampleCount);
+        assertEquals(120.0, info.frameRate, 0.01);
+        assertEquals(1920, info.width);
+    }
+
+    @Test
+    public void readsClipLargerThan4GbWith64BitMdat() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture().add(Mp4Fixture.video(240, 240, 4096));
+        fixture.gap = 5L * 1024 * 1024 * 1024; // sparse, never written
+        File f = fixture.write(tmp.newFile("big.mp4"));
+        assertTrue(f.length() > 0xFFFFFFFFL);
+
+        Mp4Info info = Mp4Parser.parse(f);
+        assertEquals(240, info.sampleCount);
+        assertEquals(1000, info.durationMs());
+        assertEquals(240.0, info.frameRate, 0.01);
+    }
+
+    @Test
+    public void fallsBackToSampleEntryForResolution() throws IOException {
+        Mp4Fixture.Track video = Mp4Fixture.video(10, 240, 100);
+        video.codec = "hvc1";
+        File f = new Mp4Fixture().add(video).write(tmp.newFile("clip.mp4"));
+        // Zero the tkhd width/height in place
+        byte[] bytes = java.nio.file.Files.readAllBytes(f.toPath());
+        int tkhd = indexOf(bytes, "tkhd");
+        Arrays.fill(bytes, tkhd + 4 + 76, tkhd + 4 + 84, (byte) 0);
+        java.nio.file.Files.write(f.toPath(), bytes);
+
+        Mp4Info info = Mp4Parser.parse(f);
+        assertEquals("hvc1", info.codec);
+        assertEquals(1920, info.width);
+        assertEquals(1080, info.height);
+    }
+
+    @Test(expected = IOException.class)
+    public void unfinishedRecordingWithoutMoovIsRejected() throws IOException {
+        File f = new Mp4Fixture().add(Mp4Fixture.video(100, 240, 1000)).write(tmp.newFile("clip.mp4"));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 500); // moov is last; cut into it
+        }
+        Mp4Parser.parse(f);
+    }
+
+    @Test(expected = IOException.class)
+    public void garbageIsRejected() throws IOException {
+        File f = tmp.newFile("garbage.mp4");
+        java.nio.file.Files.write(f.toPath(), new byte[]{0, 0, 0, 2, 'x', 'x', 'x', 'x', 1, 2, 3});
+        Mp4Parser.parse(f);
+    }
+
+    private static int indexOf(byte[] haystack, String type) {
+        byte[] needle = type.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,176 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreRollBufferTest {
+
+    private static final long FRAME_US = 1_000_000 / 240;
+
+    /** Collects what a drain hands out, checking each payload against {@link #fill}. */
+    static final class Collector implements EncodedSampleSink {
+        final List<Long> pts = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+
+        @Override
+        public void writeSample(ByteBuffer data, long presentationTimeUs, int sampleFlags) {
+            int index = data.getInt(data.position());
+            assertEquals("payload of sample at " + presentationTimeUs, presentationTimeUs / FRAME_US, index);
+            for (int i = 4; i < data.remaining(); i++) {
+                assertEquals((byte) (index + i), data.get(data.position() + i));
+            }
+            pts.add(presentationTimeUs);
+            flags.add(sampleFlags);
+        }
+    }
+
+    // Sample i: 4-byte index followed by a recognisable pattern
+    private static void fill(ByteBuffer scratch, int index, int size) {
+        scratch.clear();
+        scratch.putInt(index);
+        for (int i = 4; i < size; i++) scratch.put((byte) (index + i));
+        scratch.flip();
+    }
+
+    /** Writes {@code count} frames at 240 fps with a keyframe every {@code gop} frames. */
+    private static void feed(PreRollBuffer buffer, int from, int count, int gop, int size, long trimUs) {
+        ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+        for (int i = from; i < from + count; i++) {
+            int sampleSize = i % gop == 0 ? size * 4 : size;
+            fill(scratch, i, sampleSize);
+            assertTrue(buffer.write(scratch, i * FRAME_US, i % gop == 0 ? EncodedSampleSink.FLAG_KEY_FRAME : 0));
+            assertEquals("write must not consume the caller's buffer", sampleSize, scratch.remaining());
+            if (trimUs >= 0) buffer.trimTo(trimUs);
+        }
+    }
+
+    @Test
+    public void drainStartsAtNewestKeyframeAtLeastPreRollBack() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(4 << 20, 4096);
+        feed(buffer, 0, 1000, 240, 1000, -1);   // keyframes at 0, 240, 480, 720, 960
+
+        long newest = 999 * FRAME_US;
+        long preRoll = 1_000_000;               // newest - 1 s lands just after frame 759
+        assertEquals(720 * FRAME_US, buffer.flushStartPtsUs(preRoll));
+
+        Collector out = new Collector();
+        assertEquals(280, buffer.drainTo(out, preRoll));
+        assertEquals(720 * FRAME_US, (long) out.pts.get(0));
+        assertEquals(EncodedSampleSink.FLAG_KEY_FRAME, (int) out.flags.get(0));
+        assertEquals(newest, (long) out.pts.get(out.pts.size() - 1));
+        for (int i = 1; i < out.pts.size(); i++) {
+            assertTrue(out.pts.get(i) > out.pts.get(i - 1));
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void keyframeExactlyOnTheBoundaryIsUsed() {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 1024);
+        feed(buffer, 0, 500, 100, 200, -1);
+        // Newest is 499; 99 frames back is frame 400, a keyframe
+        assertEquals(400 * FRAME_US, buffer.flushStartPtsUs(99 * FRAME_US));
+        assertEquals(300 * FRAME_US, buffer.flushStartPtsUs(99 * FRAME_US + 1));
+    }
+
+    @Test
+    public void shortHistoryFallsBackToOldestKeyframe() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 1024);
+        feed(buffer, 0, 50, 20, 200, -1);
+        // Asked for far more than we have: start at the very first keyframe
+        assertEquals(0, buffer.flushStartPtsUs(10_000_000));
+
+        Collector out = new Collector();
+        assertEquals(50, buffer.drainTo(out, 10_000_000));
+    }
+
+    @Test
+    public void leadingNonKeyframesAreNeverFlushed() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 1024);
+        // Stream joined mid-GOP: frames 5..39, keyframes at 10, 20, 30
+        feed(buffer, 5, 35, 10, 200, -1);
+        assertEquals(10 * FRAME_US, buffer.flushStartPtsUs(10_000_000));
+
+        PreRollBuffer noKeys = new PreRollBuffer(1 << 20, 1024);
+        feed(noKeys, 1, 9, 10, 200, -1);
+        assertEquals(-1, noKeys.flushStartPtsUs(0));
+        assertEquals(0, noKeys.drainTo(new Collector(), 0));
+    }
+
+    @Test
+    public void trimmingKeepsOnlyWhatTheWindowNeeds() {
+        PreRollBuffer buffer = new PreRollBuffer(8 << 20, 8192);
+        long window = 240 * FRAME_US;           // one second
+        feed(buffer, 0, 2400, 60, 500, window); // ten seconds, quarter-second GOPs
+
+        // Everything from the newest keyframe at least a second back, and nothing before it
+        long start = buffer.oldestPtsUs();
+        assertEquals(start, buffer.flushStartPtsUs(window));
+        assertTrue(buffer.newestPtsUs() - start >= window);
+        assertTrue(buffer.newestPtsUs() - start < window + 60 * FRAME_US);
+        assertEquals(0, buffer.droppedForSpace());
+    }
+
+    @Test
+    public void arenaWrapsAndEvictsOldestUnderMemoryPressure() throws Exception {
+        // Room for roughly 100 frames; write ten times that
+        PreRollBuffer buffer = new PreRollBuffer(100 * 1000, 4096);
+        feed(buffer, 0, 1000, 30, 1000, -1);
+        assertTrue(buffer.droppedForSpace() > 0);
+        assertTrue(buffer.sampleCount() < 100);
+
+        Collector out = new Collector();
+        int n = buffer.drainTo(out, 0);
+        assertTrue(n > 0);
+        // Whatever survived is intact, contiguous and ends at the newest frame
+        assertEquals(999 * FRAME_US, (long) out.pts.get(out.pts.size() - 1));
+        for (int i = 1; i < out.pts.size(); i++) {
+            assertEquals(FRAME_US, out.pts.get(i) - out.pts.get(i - 1));
+        }
+    }
+
+    @Test
+    public void metadataRingBoundsSampleCount() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 64);
+        feed(buffer, 0, 500, 16, 100, -1);
+        assertEquals(64, buffer.sampleCount());
+        assertEquals(436 * FRAME_US, buffer.oldestPtsUs());
+
+        Collector out = new Collector();
+        buffer.drainTo(out, 10_000_000);
+        assertEquals(448 * FRAME_US, (long) out.pts.get(0)); // first keyframe still held
+    }
+
+    @Test
+    public void oversizedSampleIsRejectedAndClearsHistory() {
+        PreRollBuffer buffer = new PreRollBuffer(4096, 64);
+        feed(buffer, 0, 10, 5, 100, -1);
+        assertFalse(buffer.write(ByteBuffer.allocate(8192), 10 * FRAME_US, EncodedSampleSink.FLAG_KEY_FRAME));
+        assertTrue(buffer.isEmpty());
+        feed(buffer, 20, 5, 5, 100, -1);
+        assertEquals(5, buffer.sampleCount());
+    }
+
+    @Test
+    public void reusableAfterDrain() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(256 * 1024, 512);
+        for (int take = 0; take < 5; take++) {
+            feed(buffer, take * 1000, 300, 50, 300, 100 * FRAME_US);
+            Collector out = new Collector();
+            assertTrue(buffer.drainTo(out, 100 * FRAME_US) > 100);
+            assertEquals(EncodedSampleSink.FLAG_KEY_FRAME, (int) out.flags.get(0));
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void sizingCoversPreRollPlusAGop() {
+        PreRollBuffer buffer = PreRollBuffer.forStream(100_000_000, 240, 2.0, 1.0);
+        assertTrue(buffer.capacityBytes() >= 100_000_000 / 8 * 3);
+    }
+}
@@ -0,0 +1,252 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.anshul.a240dc.RecordingGovernor.Action.*;
+import static com.anshul.a240dc.RecordingGovernor.THERMAL_LIGHT;
+import static com.anshul.a240dc.RecordingGovernor.THERMAL_MODERATE;
+import static com.anshul.a240dc.RecordingGovernor.THERMAL_NONE;
+import static com.anshul.a240dc.RecordingGovernor.THERMAL_SEVERE;
+import static org.junit.Assert.*;
+
+public class RecordingGovernorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final HighSpeedMode FHD_240 = new HighSpeedMode("0", 1920, 1080, 240, true);
+    private static final HighSpeedMode FHD_120 = new HighSpeedMode("0", 1920, 1080, 120, true);
+    private static final HighSpeedMode HD_240 = new HighSpeedMode("0", 1280, 720, 240, true);
+    private static final HighSpeedMode HD_120 = new HighSpeedMode("0", 1280, 720, 120, true);
+    private static final List<HighSpeedMode> MODES = Arrays.asList(FHD_240, HD_240, FHD_120, HD_120,
+            new HighSpeedMode("0", 1280, 720, 480, true), new HighSpeedMode("0", 640, 480, 60, true),
+            new HighSpeedMode("1", 1280, 720, 120, false));
+
+    private static final long TICK_MS = 500;
+
+    private final RecordingGovernor.Policy policy = new RecordingGovernor.Policy.Builder().build();
+    private final EncoderConfig base = FHD_240.encoderConfig();
+
+    /** Feeds readings every {@link #TICK_MS} and keeps the decisions with the time they came. */
+    private static final class Trace {
+        final RecordingGovernor governor;
+        final List<RecordingGovernor.Decision> decisions = new ArrayList<>();
+        long nowMs = 10_000;
+        long dropped;
+
+        Trace(RecordingGovernor governor) {
+            this.governor = governor;
+            governor.beginTake(nowMs);
+        }
+
+        Trace hold(long ms, int thermal, float backlog, float fps) {
+            return hold(ms, thermal, backlog, fps, 0);
+        }
+
+        /** {@code dropsPerTick} more samples dropped at every reading. */
+        Trace hold(long ms, int thermal, float backlog, float fps, int dropsPerTick) {
+            for (long t = 0; t < ms; t += TICK_MS) {
+                nowMs += TICK_MS;
+                dropped += dropsPerTick;
+                RecordingGovernor.Decision d = governor.update(nowMs,
+                        new RecordingGovernor.Conditions(thermal, backlog, fps, dropped));
+                if (d != null) decisions.add(d);
+            }
+            return this;
+        }
+
+        List<RecordingGovernor.Action> actions() {
+            List<RecordingGovernor.Action> actions = new ArrayList<>();
+            for (RecordingGovernor.Decision d : decisions) actions.add(d.action);
+            return actions;
+        }
+
+        List<RecordingGovernor.Decision> end() {
+            return governor.endTake(nowMs);
+        }
+    }
+
+    private RecordingGovernor governor() {
+        return new RecordingGovernor(policy, base, RecordingGovernor.ladder(MODES, FHD_240, policy.minFps));
+    }
+
+    @Test
+    public void ladderStepsDownWithinTheCameraAndTheFrameRateFloor() {
+        assertEquals(Arrays.asList(FHD_240, FHD_120, HD_240, HD_120), RecordingGovernor.ladder(MODES, FHD_240, 120));
+        assertEquals(Arrays.asList(HD_240, HD_120), RecordingGovernor.ladder(MODES, HD_240, 120));
+        assertEquals(Arrays.asList(HD_120), RecordingGovernor.ladder(MODES, HD_120, 120));
+        assertEquals(Arrays.asList(FHD_240), RecordingGovernor.ladder(Arrays.asList(), FHD_240, 120));
+    }
+
+    @Test
+    public void sustainedHeatStepsTheBitrateDownToTheFloor() {
+        RecordingGovernor g = governor();
+        Trace trace = new Trace(g).hold(5_000, THERMAL_NONE, 0.05f, 240).hold(60_000, THERMAL_MODERATE, 0.05f, 240);
+
+        // 0.8^3 is the last step above half the bitrate, the fourth lands on the floor
+        assertEquals(Arrays.asList(BITRATE_DOWN, BITRATE_DOWN, BITRATE_DOWN, BITRATE_DOWN), trace.actions());
+        assertEquals(base.bitrate / 2, g.bitrate());
+        RecordingGovernor.Decision first = trace.decisions.get(0);
+        // Pressure counts from the first hot reading, half a second in
+        assertEquals(5_000 + TICK_MS + policy.stepDownAfterMs, first.atMs);
+        assertEquals("thermal 2", first.reason);
+        assertEquals(String.format(java.util.Locale.US, "%.1fMbps", base.bitrate * 0.8 / 1e6), first.setting);
+        assertEquals(policy.stepDownAfterMs, trace.decisions.get(1).atMs - first.atMs);
+    }
+
+    @Test
+    public void shortSpikesAndTheMiddleBandChangeNothing() {
+        Trace trace = new Trace(governor())
+                .hold(1_000, THERMAL_SEVERE, 0.9f, 100)
+                .hold(1_000, THERMAL_NONE, 0.05f, 240)
+                .hold(1_000, THERMAL_MODERATE, 0.05f, 240)
+                .hold(500, THERMAL_NONE, 0.3f, 236) // Neither pressure nor calm
+                .hold(1_000, THERMAL_NONE, 0.6f, 240);
+        assertTrue(trace.decisions.isEmpty());
+    }
+
+    @Test
+    public void backlogFrameRateAndDropsEachCountAsPressure() {
+        Trace backlog = new Trace(governor()).hold(2_000, THERMAL_NONE, 0.7f, 240);
+        assertEquals(Arrays.asList(BITRATE_DOWN), backlog.actions());
+        assertEquals("backlog 70%", backlog.decisions.get(0).reason);
+
+        Trace fps = new Trace(governor()).hold(2_000, THERMAL_NONE, 0.05f, 200);
+        assertEquals("200 of 240 fps", fps.decisions.get(0).reason);
+
+        // The first reading only sets the baseline for drops
+        Trace drops = new Trace(governor()).hold(3_000, THERMAL_NONE, 0.05f, 240, 3);
+        assertEquals("3 samples dropped", drops.decisions.get(0).reason);
+
+        // No frame rate measured yet is not a slow frame rate
+        assertTrue(new Trace(governor()).hold(5_000, THERMAL_NONE, 0.05f, 0).decisions.isEmpty());
+    }
+
+    @Test
+    public void recoveryStepsBackUpSlowlyAndPressureRestartsTheWait() {
+        RecordingGovernor g = governor();
+        Trace trace = new Trace(g).hold(3_500, THERMAL_MODERATE, 0.05f, 240);
+        assertEquals(Arrays.asList(BITRATE_DOWN, BITRATE_DOWN), trace.actions());
+
+        trace.hold(14_000, THERMAL_LIGHT, 0.05f, 240)
+                .hold(500, THERMAL_NONE, 0.3f, 240) // Not calm: the wait starts over
+                .hold(14_500, THERMAL_NONE, 0.05f, 240);
+        assertEquals(2, trace.decisions.size());
+
+        trace.hold(1_000, THERMAL_NONE, 0.05f, 240);
+        assertEquals(BITRATE_UP, trace.decisions.get(2).action);
+        trace.hold(policy.stepUpAfterMs, THERMAL_NONE, 0.05f, 240);
+        assertEquals(Arrays.asList(BITRATE_DOWN, BITRATE_DOWN, BITRATE_UP, BITRATE_UP), trace.actions());
+        assertEquals(base.bitrate, g.bitrate());
+
+        // Back at full bitrate nothing more happens however calm it stays
+        trace.hold(60_000, THERMAL_NONE, 0f, 240);
+        assertEquals(4, trace.decisions.size());
+    }
+
+    @Test
+    public void theSameTraceGivesTheSameDecisions() {
+        List<String> runs = new ArrayList<>();
+        for (int run = 0; run < 2; run++) {
+            Trace trace = new Trace(governor());
+            for (int i = 0; i < 40; i++) {
+                trace.hold(750 * (i % 7), i % 5 < 2 ? THERMAL_MODERATE : THERMAL_NONE, (i * 37 % 100) / 100f,
+                        i % 3 == 0 ? 220 : 240, i % 11 == 0 ? 1 : 0);
+            }
+            runs.add(trace.decisions.toString());
+        }
+        assertFalse(runs.get(0).equals("[]"));
+        assertEquals(runs.get(0), runs.get(1));
+    }
+
+    @Test
+    public void aTakeThatRanOutOfBitrateMovesTheNextOneDownTheLadder() {
+        RecordingGovernor g = governor();
+        new Trace(g).hold(30_000, THERMAL_SEVERE, 0.05f, 240).end();
+        assertNull(g.update(100_000, new RecordingGovernor.Conditions(THERMAL_SEVERE, 1f, 0, 0))); // Between takes
+
+        RecordingGovernor.Decision d = g.nextTake(THERMAL_LIGHT);
+        assertEquals(MODE_DOWN, d.action);
+        assertEquals("1920x1080@120", d.setting);
+        assertEquals(1920, g.config().width);
+        assertEquals(120, g.config().fps);
+        assertEquals(120, g.config().operatingRate);
+        assertEquals(EncoderConfig.suggestedBitrate(base.codec, 1920, 1080, 120), g.config().bitrate);
+        assertNull(g.nextTake(THERMAL_LIGHT)); // One rung per take
+
+        // The next take starts at the new mode's full bitrate and its log starts with the change
+        Trace next = new Trace(g).hold(20_000, THERMAL_NONE, 0.05f, 120);
+        assertEquals(g.config().bitrate, g.bitrate());
+        List<RecordingGovernor.Decision> log = next.end();
+        assertEquals(1, log.size());
+        assertSame(d, log.get(0));
+        assertEquals(0, log.get(0).atMs);
+    }
+
+    @Test
+    public void heatBetweenTakesStepsDownUntilTheLadderEnds() {
+        RecordingGovernor g = governor();
+        List<String> settings = new ArrayList<>();
+        for (int take = 0; take < 5; take++) {
+            new Trace(g).hold(2_000, THERMAL_NONE, 0.05f, g.config().fps).end();
+            RecordingGovernor.Decision d = g.nextTake(THERMAL_MODERATE);
+            if (d != null) settings.add(d.setting);
+        }
+        assertEquals(Arrays.asList("1920x1080@120", "1280x720@240", "1280x720@120"), settings);
+    }
+
+    @Test
+    public void aLongCalmTakeOnACoolDeviceStepsBackUp() {
+        RecordingGovernor g = governor();
+        new Trace(g).end();
+        assertEquals(MODE_DOWN, g.nextTake(THERMAL_MODERATE).action);
+
+        // Calm, but too short to vouch for the bigger mode
+        new Trace(g).hold(5_000, THERMAL_NONE, 0.05f, 120).end();
+        assertNull(g.nextTake(THERMAL_NONE));
+
+        // Long and calm, but the device heated up again before the next tap
+        new Trace(g).hold(20_000, THERMAL_LIGHT, 0.05f, 120).end();
+        assertEquals(MODE_DOWN, g.nextTake(THERMAL_MODERATE).action);
+        assertEquals("1280x720@240", g.config().width + "x" + g.config().height + "@" + g.config().fps);
+
+        new Trace(g).hold(20_000, THERMAL_LIGHT, 0.05f, 240).end();
+        RecordingGovernor.Decision up = g.nextTake(THERMAL_NONE);
+        assertEquals(MODE_UP, up.action);
+        assertEquals("1920x1080@120", up.setting);
+        new Trace(g).hold(20_000, THERMAL_NONE, 0.05f, 120).end();
+        assertEquals(MODE_UP, g.nextTake(THERMAL_NONE).action);
+        assertSame(base, g.config());
+    }
+
+    @Test
+    public void decisionLogRoundTripsNextToTheTelemetry() throws IOException {
+        File file = RecordingGovernor.sidecarFor(tmp.getRoot(), "HighSpeed_20240101_120000.mp4");
+        assertEquals(FrameTelemetry.sidecarFor(tmp.getRoot(), "x").getParentFile(), file.getParentFile());
+        List<RecordingGovernor.Decision> decisions = Arrays.asList(
+                new RecordingGovernor.Decision(0, MODE_DOWN, "1280x720@240", "thermal 3"),
+                new RecordingGovernor.Decision(4500, BITRATE_DOWN, "14.2Mbps", "backlog 60%, 3 samples dropped"));
+        RecordingGovernor.write(file, decisions);
+
+        List<RecordingGovernor.Decision> read = RecordingGovernor.read(file);
+        assertEquals(decisions.toString(), read.toString());
+        assertEquals(BITRATE_DOWN, read.get(1).action);
+        assertEquals("backlog 60%, 3 samples dropped", read.get(1).reason);
+
+        RecordingGovernor.write(file, new ArrayList<>());
+        assertTrue(RecordingGovernor.read(file).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void policyRejectsAnEmptyHysteresisBand() {
+        new RecordingGovernor.Policy.Builder().backlog(0.3f, 0.3f).build();
+    }
+}
@@ -0,0 +1,124 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SampleQueueTest {
+
+    private static ByteBuffer payload(int index, int size) {
+        ByteBuffer b = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) b.put((byte) (index * 31 + i));
+        b.flip();
+        return b;
+    }
+
+    private static void check(SampleQueue.Sample s, int index, int size) {
+        assertEquals(size, s.data.remaining());
+        for (int i = 0; i < size; i++) {
+            assertEquals((byte) (index * 31 + i), s.data.get(s.data.position() + i));
+        }
+    }
+
+    @Test
+    public void deliversInOrderWithMetadata() throws Exception {
+        SampleQueue queue = new SampleQueue(8, 256);
+        for (int i = 0; i < 5; i++) {
+            ByteBuffer data = payload(i, 100 + i);
+            assertTrue(queue.put(i % 2, data, i * 1000L, i == 0 ? 1 : 0, 0));
+            assertEquals("caller's buffer untouched", 100 + i, data.remaining());
+        }
+        assertEquals(5, queue.depth());
+        for (int i = 0; i < 5; i++) {
+            SampleQueue.Sample s = queue.take();
+            assertEquals(i % 2, s.track);
+            assertEquals(i * 1000L, s.presentationTimeUs);
+            assertEquals(i == 0 ? 1 : 0, s.flags);
+            assertFalse(s.endOfStream);
+            check(s, i, 100 + i);
+            queue.recycle(s);
+        }
+    }
+
+    @Test
+    public void fullQueueTimesOutAndCountsTheDrop() throws Exception {
+        SampleQueue queue = new SampleQueue(2, 64);
+        assertTrue(queue.put(0, payload(0, 10), 0, 0, 0));
+        assertTrue(queue.put(0, payload(1, 10), 1, 0, 0));
+
+        long start = System.nanoTime();
+        assertFalse(queue.put(0, payload(2, 10), 2, 0, 20_000_000L));
+        assertTrue(System.nanoTime() - start >= 15_000_000L);
+        assertEquals(1, queue.dropped());
+        assertEquals(1, queue.waits());
+        assertEquals(2, queue.highWater());
+    }
+
+    @Test
+    public void producerBlocksUntilWriterCatchesUp() throws Exception {
+        SampleQueue queue = new SampleQueue(4, 64);
+        int total = 2000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; ; i++) {
+                    SampleQueue.Sample s = queue.take();
+                    if (s.endOfStream) {
+                        assertEquals(total, i);
+                        queue.recycle(s);
+                        return;
+                    }
+                    check(s, i, 1 + i % 200);
+                    assertEquals(i, s.presentationTimeUs);
+                    queue.recycle(s);
+                    if (i % 100 == 0) Thread.sleep(1); // a slow flash write now and then
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+
+        for (int i = 0; i < total; i++) {
+            assertTrue(queue.put(0, payload(i, 1 + i % 200), i, 0, 5_000_000_000L));
+        }
+        queue.putEndOfStream();
+        writer.join(10_000);
+
+        assertNull(failure.get());
+        assertEquals(0, queue.dropped());
+        assertTrue(queue.waits() > 0);
+        assertTrue(queue.highWater() <= 4);
+    }
+
+    @Test
+    public void slotsGrowForOversizedSamples() throws Exception {
+        SampleQueue queue = new SampleQueue(1, 16);
+        assertTrue(queue.put(0, payload(7, 5000), 0, 1, 0));
+        SampleQueue.Sample s = queue.take();
+        check(s, 7, 5000);
+        assertTrue(s.data.isDirect());
+        queue.recycle(s);
+
+        // The grown buffer is reused for smaller samples
+        ByteBuffer grown = s.data;
+        assertTrue(queue.put(0, payload(8, 100), 0, 0, 0));
+        SampleQueue.Sample again = queue.take();
+        assertSame(grown, again.data);
+        check(again, 8, 100);
+    }
+
+    @Test
+    public void clearReturnsSlots() throws Exception {
+        SampleQueue queue = new SampleQueue(3, 16);
+        for (int i = 0; i < 3; i++) queue.put(0, payload(i, 8), i, 0, 0);
+        assertFalse(queue.put(0, payload(3, 8), 3, 0, 0));
+        queue.clear();
+        assertEquals(0, queue.depth());
+        for (int i = 0; i < 3; i++) assertTrue(queue.put(0, payload(i, 8), i, 0, 0));
+        assertNull(new SampleQueue(1, 8).poll(1_000_000L));
+    }
+}
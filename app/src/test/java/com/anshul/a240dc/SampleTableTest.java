@@ -0,0 +1,136 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleTableTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static List<SampleTable> read(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            return SampleTable.read(raf.getChannel(), Mp4Parser.mapMoov(raf.getChannel()));
+        }
+    }
+
+    /** The (track, index) tag {@link Mp4Fixture} put at the start of a sample. */
+    static int[] tagAt(File f, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek(offset);
+            int track = raf.readByte();
+            int index = (raf.readByte() & 0xFF) << 16 | (raf.readByte() & 0xFF) << 8 | (raf.readByte() & 0xFF);
+            return new int[]{track, index};
+        }
+    }
+
+    @Test
+    public void expandsInterleavedChunksWithAPartialLastChunk() throws IOException {
+        Mp4Fixture.Track video = Mp4Fixture.video(100, 240, 900, 30);
+        video.samplesPerChunk = 7;
+        Mp4Fixture.Track audio = Mp4Fixture.audio(23, 120);
+        audio.samplesPerChunk = 5;
+        File f = new Mp4Fixture().add(video).add(audio).write(tmp.newFile("clip.mp4"));
+
+        List<SampleTable> tables = read(f);
+        assertEquals(2, tables.size());
+        SampleTable v = tables.get(0);
+        SampleTable a = tables.get(1);
+        assertTrue(v.isVideo());
+        assertEquals(Mp4Box.SOUN, a.handler);
+        assertEquals(100, v.size());
+        assertEquals(23, a.size());
+        assertEquals(90_000, v.timescale);
+        for (int i = 0; i < v.size(); i++) {
+            assertArrayEquals("video " + i, new int[]{0, i}, tagAt(f, v.offset(i)));
+            assertEquals(i * 375L, v.decodeTime(i));
+            assertEquals(i % 30 == 0, v.isSync(i));
+        }
+        for (int i = 0; i < a.size(); i++) {
+            assertArrayEquals("audio " + i, new int[]{1, i}, tagAt(f, a.offset(i)));
+        }
+        assertTrue(a.allSync());
+        assertEquals(23 * 1024, a.endTime());
+    }
+
+    @Test
+    public void syncLookupAndBFramePresentationOrder() throws IOException {
+        int d = 375;
+        File f = new Mp4Fixture().add(Mp4Fixture.videoWithBFrames(37, 240, 100, 12)).write(tmp.newFile("clip.mp4"));
+
+        SampleTable v = read(f).get(0);
+        assertTrue(v.hasCompositionOffsets());
+        assertEquals(d, v.firstPresentationTime());
+        assertEquals(1 * d + 3 * d, v.presentationTime(1));
+        assertEquals(2 * d, v.presentationTime(2));
+        assertEquals(2, v.sampleAtPresentation(2 * d + 10));
+        assertEquals(1, v.sampleAtPresentation(4 * d));
+        assertEquals(-1, v.sampleAtPresentation(d - 1));
+
+        assertEquals(0, v.syncAtOrBefore(0));
+        assertEquals(0, v.syncAtOrBefore(12));
+        assertEquals(13, v.syncAtOrBefore(13));
+        assertEquals(25, v.syncAtOrBefore(36));
+    }
+
+    @Test
+    public void readsFragmentsUpToTheTornTail() throws IOException {
+        File f = tmp.newFile("frag.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            FragmentedMp4Writer w = new FragmentedMp4Writer(raf.getChannel(),
+                    FragmentedMp4WriterTest.avcAndAac(), 48, 0);
+            FragmentedMp4WriterTest.feed(w, 480, 60, null);
+            w.close();
+            raf.setLength(raf.length() - 10);
+        }
+
+        List<SampleTable> tables = read(f);
+        SampleTable v = tables.get(0);
+        assertEquals(432, v.size());
+        assertEquals(Mp4Parser.parse(f).sampleCount, v.size());
+        assertFalse(v.allSync());
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            for (int i = 0; i < v.size(); i++) {
+                assertEquals(i % 60 == 0, v.isSync(i));
+                assertEquals(FragmentedMp4WriterTest.mp4Size(300 + i % 50), v.sampleSize(i));
+                raf.seek(v.offset(i));
+                assertEquals(3, raf.readInt());       // SEI, length-prefixed
+                assertEquals(0x06, raf.readByte());
+            }
+        }
+        assertEquals(0, v.decodeTime(0));
+        assertEquals(v.endTimeOf(100), v.decodeTime(101));
+        assertTrue(tables.get(1).size() > 0);
+        assertTrue(tables.get(1).allSync());
+    }
+
+    @Test(expected = IOException.class)
+    public void samplesPastTheEndOfTheFileAreRejected() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture().add(Mp4Fixture.video(50, 240, 1000));
+        fixture.moovFirst = true;
+        File f = fixture.write(tmp.newFile("clip.mp4"));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 500);
+        }
+        read(f);
+    }
+
+    @Test
+    public void offsetsBeyondFourGigabytesComeFromCo64() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture().add(Mp4Fixture.video(20, 240, 1000));
+        fixture.gap = 5L * 1024 * 1024 * 1024; // sparse, never written
+        File f = fixture.write(tmp.newFile("big.mp4"));
+
+        SampleTable v = read(f).get(0);
+        assertTrue(v.offset(0) > 0xFFFFFFFFL);
+        assertArrayEquals(new int[]{0, 19}, tagAt(f, v.offset(19)));
+    }
+}
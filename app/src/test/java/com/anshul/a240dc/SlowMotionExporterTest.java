@@ -0,0 +1,227 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SlowMotionExporterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File export(File source, double speed) throws IOException {
+        File target = SlowMotionExporter.targetFor(source, speed);
+        SlowMotionExporter.export(source, target, speed);
+        return target;
+    }
+
+    private static ByteBuffer moov(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            return Mp4Parser.mapMoov(raf.getChannel());
+        }
+    }
+
+    /** stco/co64 entries of the first track in the moov. */
+    private static long[] chunkOffsets(ByteBuffer moov) throws IOException {
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+        Mp4Box stbl = Mp4Box.find(moov, root, Mp4Box.TRAK, Mp4Box.MDIA, Mp4Box.MINF, Mp4Box.STBL);
+        Mp4Box stco = Mp4Box.find(moov, stbl, Mp4Box.STCO);
+        boolean wide = stco == null;
+        if (wide) stco = Mp4Box.find(moov, stbl, Mp4Box.CO64);
+        int p = (int) stco.bodyOffset() + 4;
+        long[] offsets = new long[moov.getInt(p)];
+        p += 4;
+        for (int i = 0; i < offsets.length; i++, p += wide ? 8 : 4) {
+            offsets[i] = wide ? moov.getLong(p) : moov.getInt(p) & 0xFFFFFFFFL;
+        }
+        return offsets;
+    }
+
+    // Every chunk must still start with the (track, sample index) tag the fixture wrote
+    private static void assertChunksPointAtSamples(File f, int fixtureTrack, int samplesPerChunk) throws IOException {
+        long[] offsets = chunkOffsets(moov(f));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            for (int c = 0; c < offsets.length; c++) {
+                raf.seek(offsets[c]);
+                assertEquals("chunk " + c, fixtureTrack, raf.readByte());
+                int index = (raf.readByte() & 0xFF) << 16 | (raf.readByte() & 0xFF) << 8 | (raf.readByte() & 0xFF);
+                assertEquals("chunk " + c, c * samplesPerChunk, index);
+            }
+        }
+    }
+
+    @Test
+    public void quarterSpeedStretchesDurationAndKeepsFrames() throws IOException {
+        File source = new Mp4Fixture()
+                .add(Mp4Fixture.video(480, 240, 5000))
+                .write(tmp.newFile("clip.mp4"));
+        File target = export(source, 0.25);
+
+        assertEquals("clip_slow4x.mp4", target.getName());
+        Mp4Info before = Mp4Parser.parse(source);
+        Mp4Info after = Mp4Parser.parse(target);
+        assertEquals(8000, after.durationMs());
+        assertEquals(60.0, after.frameRate, 1e-9);
+        assertEquals(before.sampleCount, after.sampleCount);
+        assertEquals(before.videoBytes, after.videoBytes);
+        assertEquals(source.length(), target.length());
+        assertChunksPointAtSamples(target, 0, 8);
+    }
+
+    @Test
+    public void dropsAudioAndShiftsOffsetsWhenMoovComesFirst() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture()
+                .add(Mp4Fixture.video(240, 240, 3000))
+                .add(Mp4Fixture.audio(50, 300));
+        fixture.moovFirst = true;
+        File source = fixture.write(tmp.newFile("clip.mp4"));
+        assertTrue(Mp4Parser.parse(source).hasAudio);
+
+        File target = export(source, 0.125);
+        Mp4Info after = Mp4Parser.parse(target);
+        assertFalse(after.hasAudio);
+        assertEquals(8000, after.durationMs());
+        assertEquals(30.0, after.frameRate, 1e-9);
+        assertTrue(target.length() < source.length());
+        assertChunksPointAtSamples(target, 0, 8);
+    }
+
+    @Test
+    public void handlesVersion1BoxesEditListsAndCo64() throws IOException {
+        Mp4Fixture fixture = new Mp4Fixture().add(Mp4Fixture.video(120, 120, 2000)).add(Mp4Fixture.audio(20, 100));
+        fixture.version = 1;
+        fixture.moovFirst = true;
+        fixture.largeMdat = true;
+        fixture.editList = true;
+        File source = fixture.write(tmp.newFile("clip.mp4"));
+
+        File target = export(source, 0.25);
+        Mp4Info after = Mp4Parser.parse(target);
+        assertEquals(4000, after.durationMs());
+        assertEquals(30.0, after.frameRate, 1e-9);
+        assertChunksPointAtSamples(target, 0, 8);
+
+        ByteBuffer moov = moov(target);
+        Mp4Box root = Mp4Box.read(moov, 0, moov.limit());
+        Mp4Box elst = Mp4Box.find(moov, root, Mp4Box.TRAK, Mp4Box.EDTS, Mp4Box.ELST);
+        // One second at the 1000 movie timescale, stretched 4x
+        assertEquals(4000, moov.getLong((int) elst.bodyOffset() + 8));
+        assertEquals(0, moov.getLong((int) elst.bodyOffset() + 16));
+    }
+
+    @Test
+    public void customSpeedRoundsTheTimescale() throws IOException {
+        File source = new Mp4Fixture()
+                .add(Mp4Fixture.video(240, 240, 1000))
+                .write(tmp.newFile("clip.mp4"));
+        File target = export(source, 1 / 7.0);
+
+        assertEquals("clip_slow7x.mp4", target.getName());
+        Mp4Info after = Mp4Parser.parse(target);
+        assertEquals(240 / 7.0, after.frameRate, 0.01);
+        assertEquals(7000, after.durationMs());
+        assertEquals("clip_slow2.5x.mp4", SlowMotionExporter.targetFor(source, 0.4).getName());
+    }
+
+    @Test
+    public void fragmentedRecordingLosesAudioButKeepsEveryFrame() throws IOException {
+        File source = tmp.newFile("frag.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+            FragmentedMp4Writer w = new FragmentedMp4Writer(raf.getChannel(),
+                    FragmentedMp4WriterTest.avcAndAac(), 0, 250_000);
+            FragmentedMp4WriterTest.feed(w, 480, 60, null);
+            w.close();
+        }
+        // Crash mid-fragment: the torn tail must not end up in the export
+        long full = source.length();
+        try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+            raf.setLength(full - 100);
+        }
+
+        Mp4Info before = Mp4Parser.parse(source);
+        File target = export(source, 0.25);
+        Mp4Info after = Mp4Parser.parse(target);
+        assertTrue(before.hasAudio);
+        assertFalse(after.hasAudio);
+        assertEquals(before.sampleCount, after.sampleCount);
+        assertEquals(before.videoBytes, after.videoBytes);
+        assertEquals(before.frameRate / 4, after.frameRate, 1e-9);
+        assertEquals(before.durationMs() * 4, after.durationMs(), 4);
+
+        List<byte[]> sourceFirsts = firstVideoSamples(source);
+        List<byte[]> targetFirsts = firstVideoSamples(target);
+        assertEquals(sourceFirsts.size(), targetFirsts.size());
+        for (int i = 0; i < sourceFirsts.size(); i++) {
+            assertArrayEquals("fragment " + i, sourceFirsts.get(i), targetFirsts.get(i));
+            // SEI behind a 4-byte length
+            assertEquals(0x06, targetFirsts.get(i)[4]);
+        }
+    }
+
+    // First 12 bytes of each fragment's video data, found through tfhd/trun as a player would
+    private static List<byte[]> firstVideoSamples(File f) throws IOException {
+        List<byte[]> out = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel()) {
+            ByteBuffer scratch = ByteBuffer.allocate(16);
+            long pos = 0;
+            while (pos + 8 <= ch.size()) {
+                Mp4Box box = Mp4Parser.readTopLevel(ch, pos, ch.size(), scratch);
+                if (box == null) break;
+                pos = box.end();
+                if (box.type != Mp4Box.MOOF || pos + 8 > ch.size()
+                        || Mp4Parser.readTopLevel(ch, pos, ch.size(), scratch) == null) {
+                    continue;
+                }
+                ByteBuffer moof = ByteBuffer.allocate((int) box.size).order(ByteOrder.BIG_ENDIAN);
+                ch.read(moof, box.offset);
+                moof.flip();
+                Mp4Box root = Mp4Box.read(moof, 0, moof.limit());
+                int q = (int) root.bodyOffset();
+                while (q < root.end()) {
+                    Mp4Box traf = Mp4Box.read(moof, q, (int) root.end());
+                    q = (int) traf.end();
+                    if (traf.type != Mp4Box.TRAF) continue;
+                    Mp4Box tfhd = Mp4Box.find(moof, traf, Mp4Box.TFHD);
+                    if (moof.getInt((int) tfhd.bodyOffset() + 4) != 1) continue;
+                    Mp4Box trun = Mp4Box.find(moof, traf, Mp4Box.TRUN);
+                    int dataOffset = moof.getInt((int) trun.bodyOffset() + 8);
+                    byte[] first = new byte[12];
+                    raf.seek(box.offset + dataOffset);
+                    raf.readFully(first);
+                    out.add(first);
+                }
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void failedExportLeavesNoFile() throws IOException {
+        File source = tmp.newFile("audio-only.mp4");
+        new Mp4Fixture().add(Mp4Fixture.audio(10, 100)).write(source);
+        File target = new File(tmp.getRoot(), "out.mp4");
+        try {
+            SlowMotionExporter.export(source, target, 0.25);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(target.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveSpeed() throws IOException {
+        File source = new Mp4Fixture().add(Mp4Fixture.video(10, 240, 100)).write(tmp.newFile("clip.mp4"));
+        SlowMotionExporter.export(source, new File(tmp.getRoot(), "out.mp4"), 0);
+    }
+}
@@ -0,0 +1,69 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class StartupTraceTest {
+
+    private static final long MS = 1_000_000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void overlappingPhasesAreTimedFromProcessStart() {
+        StartupTrace trace = new StartupTrace(1000 * MS);
+        trace.begin("probe", 1050 * MS);
+        trace.begin("library", 1051 * MS);
+        trace.end("library", 1060 * MS);
+        trace.end("probe", 1120 * MS);
+
+        assertEquals(70 * MS, trace.durationNanos("probe"));
+        assertEquals(120 * MS, trace.finishedAtNanos("probe"));
+        assertEquals(9 * MS, trace.durationNanos("library"));
+        assertEquals(60 * MS, trace.finishedAtNanos("library"));
+        assertEquals("startup probe=70.0ms (done at 120.0ms) library=9.0ms (done at 60.0ms)", trace.summary());
+    }
+
+    @Test
+    public void onlyTheFirstBeginAndEndCount() {
+        StartupTrace trace = new StartupTrace(0);
+        trace.begin("camera", 10 * MS);
+        trace.begin("camera", 20 * MS);
+        trace.end("camera", 50 * MS);
+        trace.end("camera", 90 * MS);
+        assertEquals(40 * MS, trace.durationNanos("camera"));
+
+        trace.end("never", 5 * MS);
+        assertFalse(trace.isFinished("never"));
+        assertEquals(-1, trace.durationNanos("never"));
+    }
+
+    @Test
+    public void runningPhasesAreReportedAsSuch() {
+        StartupTrace trace = new StartupTrace(0);
+        trace.begin("camera", 30 * MS);
+        assertFalse(trace.isFinished("camera"));
+        assertEquals(-1, trace.finishedAtNanos("camera"));
+        assertEquals("startup camera=running since 30.0ms", trace.summary());
+    }
+
+    @Test
+    public void finishedPhasesGoToTheLatencyLog() {
+        StartupTrace trace = new StartupTrace(0);
+        trace.begin("probe", 0);
+        trace.end("probe", 40 * MS);
+        trace.begin("camera", 40 * MS);
+
+        LatencyRecorder recorder = new LatencyRecorder(new File(tmp.getRoot(), "startup.tsv"), "1.0");
+        trace.report(recorder);
+        assertEquals(1, recorder.count("startup:probe"));
+        assertEquals(40 * MS, recorder.percentile("startup:probe", 50));
+        assertEquals(0, recorder.count("startup:camera"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.anshul.a240dc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StorageMonitorTest {
+
+    private static final long MB = 1_000_000;
+    private static final long SECOND = 1_000_000_000L;
+
+    // Feeds a steady rate for the given seconds, two readings a second, and returns the last
+    private static StorageMonitor.Reading run(StorageMonitor m, long[] state, long bytesPerSecond, double seconds,
+                                              long free) {
+        StorageMonitor.Reading r = null;
+        for (int i = 0; i < seconds * 2; i++) {
+            state[0] += SECOND / 2;
+            state[1] += bytesPerSecond / 2;
+            assertTrue(m.due(state[0]));
+            r = m.update(state[0], state[1], free - state[1], 0);
+        }
+        return r;
+    }
+
+    @Test
+    public void remainingTimeFollowsTheMeasuredRate() {
+        // Asked for 12.5 MB/s, but the scene only needs 5 MB/s
+        StorageMonitor m = new StorageMonitor(12_500_000, 0, 0);
+        long[] state = {0, 0};
+        StorageMonitor.Reading first = m.update(0, 0, 1000 * MB, 0);
+        assertEquals(80, first.remainingSeconds); // Expected rate until there is a measurement
+
+        StorageMonitor.Reading r = run(m, state, 5 * MB, 20, 1000 * MB);
+        assertEquals(5 * MB, r.bytesPerSecond, MB / 10);
+        long left = (1000 * MB - state[1]) / (5 * MB);
+        assertEquals(left, r.remainingSeconds, 2);
+        assertEquals(StorageMonitor.Status.OK, r.status);
+        assertEquals("2:59 left", new StorageMonitor(1, 0, 0).update(0, 0, 179, 0).remaining());
+    }
+
+    @Test
+    public void stopsWhileTheLastSecondsStillFit() {
+        StorageMonitor m = new StorageMonitor(10 * MB, 0, 50 * MB);
+        long[] state = {0, 0};
+        m.update(0, 0, 400 * MB, 0);
+        StorageMonitor.Reading r = null;
+        while (state[1] < 400 * MB) {
+            r = run(m, state, 10 * MB, 0.5, 400 * MB);
+            if (r.status == StorageMonitor.Status.FULL) break;
+        }
+        assertEquals(StorageMonitor.Status.FULL, r.status);
+        // Stopped with the reserve intact and room for what is still in flight
+        long free = 400 * MB - state[1];
+        assertTrue(free > 50 * MB);
+        assertTrue(free - 50 * MB <= 2 * 10 * MB);
+    }
+
+    @Test
+    public void aBurstRaisesTheStopMargin() {
+        StorageMonitor calm = new StorageMonitor(10 * MB, 0, 0);
+        StorageMonitor busy = new StorageMonitor(10 * MB, 0, 0);
+        long[] c = {0, 0};
+        long[] b = {0, 0};
+        calm.update(0, 0, 1000 * MB, 0);
+        busy.update(0, 0, 1000 * MB, 0);
+        run(calm, c, 10 * MB, 2, 1000 * MB);
+        run(busy, b, 40 * MB, 1, 1000 * MB);
+        run(busy, b, 10 * MB, 1, 1000 * MB);
+
+        // 50 MB left is 5 s at the usual rate, but not after seeing 40 MB/s
+        assertEquals(StorageMonitor.Status.LOW, calm.update(c[0] + SECOND, c[1], 50 * MB, 0).status);
+        assertEquals(StorageMonitor.Status.FULL, busy.update(b[0] + SECOND, b[1], 50 * MB, 0).status);
+    }
+
+    @Test
+    public void slowWhenTheBenchmarkOrTheWriterSaysSo() {
+        StorageMonitor tooSlow = new StorageMonitor(12 * MB, 13 * MB, 0);
+        assertEquals(StorageMonitor.Status.SLOW, tooSlow.update(0, 0, 100_000 * MB, 0).status);
+
+        StorageMonitor fast = new StorageMonitor(12 * MB, 100 * MB, 0);
+        assertEquals(StorageMonitor.Status.OK, fast.update(0, 0, 100_000 * MB, 3).status);
+        assertEquals(StorageMonitor.Status.OK, fast.update(SECOND, 12 * MB, 100_000 * MB, 3).status);
+        assertEquals(StorageMonitor.Status.SLOW, fast.update(2 * SECOND, 24 * MB, 100_000 * MB, 5).status);
+        assertEquals(StorageMonitor.Status.OK, fast.update(3 * SECOND, 36 * MB, 100_000 * MB, 5).status);
+    }
+
+    @Test
+    public void readingsAreRateLimited() {
+        StorageMonitor m = new StorageMonitor(MB, 0, 0);
+        assertTrue(m.due(5));
+        m.update(5, 0, MB * 100, 0);
+        assertFalse(m.due(5 + StorageMonitor.INTERVAL_NANOS - 1));
+        assertTrue(m.due(5 + StorageMonitor.INTERVAL_NANOS));
+    }
+}
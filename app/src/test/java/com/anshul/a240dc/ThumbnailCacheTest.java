@@ -0,0 +1,121 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void keyChangesWithMtimeAndSize() {
+        String path = "/storage/emulated/0/DCIM/ProCamera/HighSpeed_20260101_120000.mp4";
+        String key = ThumbnailKey.of(path, 1_700_000_000_000L, 123_456_789L);
+
+        assertEquals(16, key.length());
+        assertTrue(key.matches("[0-9a-f]{16}"));
+        assertEquals(key, ThumbnailKey.of(path, 1_700_000_000_000L, 123_456_789L));
+        assertNotEquals(key, ThumbnailKey.of(path, 1_700_000_000_001L, 123_456_789L));
+        assertNotEquals(key, ThumbnailKey.of(path, 1_700_000_000_000L, 123_456_788L));
+        assertNotEquals(key, ThumbnailKey.of(path.replace("120000", "120001"), 1_700_000_000_000L, 123_456_789L));
+    }
+
+    @Test
+    public void keysDoNotCollideAcrossALargeLibrary() {
+        java.util.Set<String> keys = new java.util.HashSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            keys.add(ThumbnailKey.of("/DCIM/ProCamera/HighSpeed_" + i + ".mp4", 1_700_000_000_000L + i, 50_000_000L));
+        }
+        assertEquals(20_000, keys.size());
+    }
+
+    @Test
+    public void memoryCacheEvictsLeastRecentlyUsedByBytes() {
+        List<String> evicted = new ArrayList<>();
+        LruByteCache<String, byte[]> cache = new LruByteCache<String, byte[]>(1000, v -> v.length) {
+            @Override
+            protected void onEvicted(String key, byte[] value) {
+                evicted.add(key);
+            }
+        };
+
+        cache.put("a", new byte[400]);
+        cache.put("b", new byte[400]);
+        assertNotNull(cache.get("a")); // a is now more recent than b
+        cache.put("c", new byte[400]);
+
+        assertEquals(1, evicted.size());
+        assertEquals("b", evicted.get(0));
+        assertNull(cache.get("b"));
+        assertEquals(800, cache.bytes());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void memoryCacheNeverExceedsBudget() {
+        LruByteCache<Integer, byte[]> cache = new LruByteCache<>(64 * 1024, v -> v.length);
+        for (int i = 0; i < 5000; i++) {
+            cache.put(i, new byte[100 + (i * 37) % 4000]);
+            assertTrue(cache.bytes() <= cache.maxBytes());
+        }
+        assertTrue(cache.evictions() > 0);
+    }
+
+    @Test
+    public void memoryCacheSkipsOversizedValuesAndReplacesInPlace() {
+        LruByteCache<String, byte[]> cache = new LruByteCache<>(100, v -> v.length);
+        cache.put("small", new byte[60]);
+        cache.put("huge", new byte[101]);
+        assertNull(cache.get("huge"));
+        assertNotNull(cache.get("small"));
+
+        cache.put("small", new byte[30]);
+        assertEquals(30, cache.bytes());
+        assertEquals(1, cache.size());
+        cache.remove("small");
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void diskCacheRoundTripsAndTrimsOldestFirst() {
+        File dir = new File(tmp.getRoot(), "thumbs");
+        DiskThumbnailCache cache = new DiskThumbnailCache(dir, 10_000);
+
+        for (int i = 0; i < 4; i++) {
+            cache.put("k" + i, new byte[2000]);
+            new File(dir, "k" + i + ".thumb").setLastModified(1_000_000L * (i + 1));
+        }
+        assertEquals(8000, cache.bytes());
+        assertArrayEquals(new byte[2000], cache.get("k0")); // read bumps k0 to most recent
+
+        // Going over budget trims down to three quarters of it
+        cache.put("k4", new byte[4000]);
+        assertTrue(cache.bytes() <= 7500);
+        assertTrue(cache.contains("k0"));
+        assertTrue(cache.contains("k4"));
+        assertFalse(cache.contains("k1"));
+        assertFalse(cache.contains("k2"));
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void diskCacheCountsExistingFilesAfterRestart() {
+        File dir = new File(tmp.getRoot(), "thumbs");
+        DiskThumbnailCache first = new DiskThumbnailCache(dir, 1_000_000);
+        first.put("a", new byte[1234]);
+        first.put("b", new byte[766]);
+
+        DiskThumbnailCache second = new DiskThumbnailCache(dir, 1_000_000);
+        assertEquals(2000, second.bytes());
+        second.put("a", new byte[34]); // overwrite shrinks the total
+        assertEquals(800, second.bytes());
+    }
+}
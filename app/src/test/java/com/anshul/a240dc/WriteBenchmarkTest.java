@@ -0,0 +1,70 @@
+package com.anshul.a240dc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class WriteBenchmarkTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void measuresAndCleansUp() throws IOException {
+        File dir = tmp.newFolder("volume");
+        WriteBenchmark.Result r = WriteBenchmark.measure(dir, 4 << 20, 256 << 10, 4);
+        assertTrue(r.bytesPerSecond > 0);
+        assertTrue(r.worstIntervalMs >= 0);
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void sustainsWithHeadroom() {
+        WriteBenchmark.Result r = new WriteBenchmark.Result(25_000_000, 40, 0);
+        assertTrue(r.sustains(20_000_000, 1.25));
+        assertFalse(r.sustains(20_000_001, 1.25));
+    }
+
+    @Test
+    public void cacheIsPerVolumeAndSurvivesRestarts() throws IOException {
+        File file = new File(tmp.getRoot(), "bench.tsv");
+        WriteBenchmark.Cache cache = new WriteBenchmark.Cache(file, 1000);
+        cache.put("primary", new WriteBenchmark.Result(90_000_000, 12, 5000));
+        cache.put("1234-ABCD", new WriteBenchmark.Result(15_000_000, 300, 5500));
+
+        WriteBenchmark.Cache reloaded = new WriteBenchmark.Cache(file, 1000);
+        assertEquals(90_000_000, reloaded.get("primary", 5600).bytesPerSecond);
+        assertEquals(300, reloaded.get("1234-ABCD", 5600).worstIntervalMs);
+        assertNull(reloaded.get("other", 5600));
+        // Too old, and from the future after a clock change
+        assertNull(reloaded.get("primary", 6001));
+        assertNull(reloaded.get("1234-ABCD", 5000));
+    }
+
+    @Test
+    public void measuresOnlyWhenNothingRecentIsCached() throws IOException {
+        File dir = tmp.newFolder("volume");
+        WriteBenchmark.Cache cache = new WriteBenchmark.Cache(new File(tmp.getRoot(), "bench.tsv"), 60_000);
+        WriteBenchmark.Result cached = new WriteBenchmark.Result(1, 2, System.currentTimeMillis());
+        cache.put("primary", cached);
+        assertSame(cached, cache.getOrMeasure("primary", dir));
+
+        WriteBenchmark.Result measured = cache.getOrMeasure("card", dir);
+        assertTrue(measured.bytesPerSecond > 0);
+        assertSame(measured, cache.get("card", System.currentTimeMillis()));
+    }
+
+    @Test
+    public void unreadableCacheLinesAreSkipped() throws IOException {
+        File file = tmp.newFile("bench.tsv");
+        java.nio.file.Files.write(file.toPath(), "primary\tfast\t1\t2\nbroken\ncard\t10\t1\t100\n".getBytes());
+        WriteBenchmark.Cache cache = new WriteBenchmark.Cache(file, 1000);
+        assertNull(cache.get("primary", 100));
+        assertEquals(10, cache.get("card", 100).bytesPerSecond);
+    }
+}
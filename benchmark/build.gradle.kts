@@ -0,0 +1,83 @@
+// JMH benchmarks for the app's pure-Java hot paths, run on the development machine.
+//
+//   ./gradlew :benchmark:jmh                  runs everything into build/results/jmh/results.json
+//   ./gradlew :benchmark:compareWithBaseline  runs, then fails on a regression past the threshold
+//   ./gradlew :benchmark:recordBaseline       runs, then makes the results the committed baseline
+//
+// Pass -PjmhIncludes=<regex> to run a subset and -PregressionThreshold=<percent> to override
+// the threshold below.
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// :app is an Android module, so the classes under test are compiled here from its sources.
+// Only files that do not touch the Android framework can be listed.
+val appSources = file("../app/src/main/java")
+val appClasses = setOf(
+    "ClipFormat", "ClipIndex", "ClipTable", "LibraryLoader", "MotionDetector", "Mp4Box", "Mp4Info",
+    "Mp4Parser", "SampleTable", "VideoItem"
+)
+val appTests = file("../app/src/test/java")
+val appFixtures = setOf("Mp4Fixture")
+
+sourceSets {
+    main {
+        java.srcDir(appSources)
+        java.exclude {
+            !it.isDirectory && it.file.startsWith(appSources) && it.file.nameWithoutExtension !in appClasses
+        }
+    }
+    named("jmh") {
+        java.srcDir(appTests)
+        java.exclude {
+            !it.isDirectory && it.file.startsWith(appTests) && it.file.nameWithoutExtension !in appFixtures
+        }
+    }
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+val baseline = file("baselines/jmh-baseline.json")
+val results = layout.buildDirectory.file("results/jmh/results.json")
+val regressionThreshold = providers.gradleProperty("regressionThreshold").orElse("10")
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // Fixed settings and fixed seeds in every benchmark keep runs comparable with the baseline
+    warmupIterations.set(3)
+    warmup.set("1s")
+    iterations.set(5)
+    timeOnIteration.set("1s")
+    fork.set(2)
+    resultFormat.set("JSON")
+    resultsFile.set(results)
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes.set(listOf(it)) }
+}
+
+tasks.register<JavaExec>("compareWithBaseline") {
+    group = "verification"
+    description = "Fails if a benchmark got slower than the committed baseline by more than the threshold."
+    dependsOn("jmh")
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.anshul.a240dc.benchmark.BaselineCompare")
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(baseline.path, results.get().asFile.path, regressionThreshold.get())
+    })
+}
+
+tasks.register<Copy>("recordBaseline") {
+    group = "verification"
+    description = "Runs the benchmarks and stores the results as the baseline to commit."
+    dependsOn("jmh")
+    from(results)
+    into(baseline.parentFile)
+    rename { baseline.name }
+}
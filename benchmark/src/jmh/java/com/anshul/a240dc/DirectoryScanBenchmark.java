@@ -0,0 +1,76 @@
+package com.anshul.a240dc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The library screen's scan of DCIM/ProCamera, as {@code VideoList.loadVideosFromStorage} runs
+ * it, over a synthetic folder of empty clips with a few non-clip files mixed in. Every clip is
+ * already indexed, which is the common case of coming back to the library.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DirectoryScanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int files;
+
+    private File folder;
+    private File indexFile;
+    private ClipIndex index;
+
+    private static final ClipIndex.Resolver RESOLVER =
+            f -> new ClipIndex.Entry(f.getName(), f.length(), f.lastModified(), 2000, 240, 400, "1/500s");
+
+    @Setup(Level.Trial)
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("scan-bench").toFile();
+        for (int i = 0; i < files; i++) {
+            String stamp = String.format(Locale.US, "HighSpeed_20240101_%06d", i);
+            new File(folder, stamp + ".mp4").createNewFile();
+            // Thumbnails and exports end up in the same folder
+            if (i % 10 == 0) new File(folder, stamp + "_sheet_0_1000.jpg").createNewFile();
+        }
+        indexFile = new File(folder, "clips.idx");
+        index = ClipIndex.open(indexFile);
+        LibraryLoader.scanFolder(folder, index, RESOLVER, (path, entry) -> true);
+        index.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() {
+        File[] all = folder.listFiles();
+        if (all != null) for (File f : all) f.delete();
+        folder.delete();
+    }
+
+    @Benchmark
+    public ClipTable scanIndexedFolder() {
+        ClipTable.Builder clips = new ClipTable.Builder();
+        LibraryLoader.scanFolder(folder, index, RESOLVER, (path, entry) -> {
+            clips.add(path, entry);
+            return true;
+        });
+        return clips.build();
+    }
+
+    @Benchmark
+    public File[] listFolder() {
+        return folder.listFiles();
+    }
+}
@@ -0,0 +1,94 @@
+package com.anshul.a240dc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to the first screenful and to the complete table when {@link LibraryLoader} streams a
+ * 10k clip library, with a per-clip cost roughly matching an index hit (stat, entry lookup and
+ * one table row).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LibraryLoaderBenchmark {
+
+    private static final int CLIPS = 10_000;
+
+    private ExecutorService background;
+    private ExecutorService main;
+    private LibraryLoader loader;
+    private String[] paths;
+    private ClipIndex.Entry[] entries;
+
+    @Setup(Level.Trial)
+    public void library() {
+        background = Executors.newSingleThreadExecutor();
+        main = Executors.newSingleThreadExecutor();
+        loader = new LibraryLoader(background, main);
+        paths = new String[CLIPS];
+        entries = new ClipIndex.Entry[CLIPS];
+        for (int i = 0; i < CLIPS; i++) {
+            String name = "HighSpeed_" + i + ".mp4";
+            paths[i] = "/DCIM/ProCamera/" + name;
+            entries[i] = new ClipIndex.Entry(name, 1_000_000L + i, 1_700_000_000_000L + i, 2000, 240, 400, "1/500s");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        background.shutdownNow();
+        main.shutdownNow();
+    }
+
+    @Benchmark
+    public ClipTable firstBatch() throws InterruptedException {
+        ClipTable first = load(false);
+        // Stops the rest of the scan before the next invocation starts
+        loader.cancel();
+        return first;
+    }
+
+    @Benchmark
+    public ClipTable complete() throws InterruptedException {
+        return load(true);
+    }
+
+    private ClipTable load(boolean untilComplete) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        ClipTable[] result = new ClipTable[1];
+        loader.load(sink -> {
+            for (int i = 0; i < CLIPS; i++) {
+                simulatedLookupCost();
+                if (!sink.accept(paths[i], entries[i])) return;
+            }
+        }, (clips, complete) -> {
+            if (result[0] == null && (complete || !untilComplete)) {
+                result[0] = clips;
+                done.countDown();
+            }
+        });
+        if (!done.await(30, TimeUnit.SECONDS)) throw new IllegalStateException("Load did not finish");
+        return result[0];
+    }
+
+    // Spins for about a microsecond; unlike arithmetic, the JIT cannot optimise this away
+    private static void simulatedLookupCost() {
+        long until = System.nanoTime() + 1000;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+    }
+}
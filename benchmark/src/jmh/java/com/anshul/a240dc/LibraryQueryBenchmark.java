@@ -0,0 +1,122 @@
+package com.anshul.a240dc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filter, multi-key sort and prefix search on a {@link ClipTable}, and the same on the list of
+ * {@link VideoItem}s the library used to keep, where the duration is only there as text. The
+ * queries run on ranked columns; building those ranks is the one-off cost measured on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LibraryQueryBenchmark {
+
+    private static final String PREFIX = "highspeed_20241";
+
+    @Param({"10000", "100000"})
+    public int clips;
+
+    private ClipTable.Builder builder;
+    private ClipTable table;
+    private List<VideoItem> items;
+    private final ClipTable.Query filter = new ClipTable.Query()
+            .atLeast(ClipTable.Column.FPS, 240).below(ClipTable.Column.DURATION, 5000);
+    private final ClipTable.Query sort = new ClipTable.Query()
+            .orderBy(ClipTable.Column.FPS, true).orderBy(ClipTable.Column.DATE, true);
+    private final ClipTable.Query search = new ClipTable.Query()
+            .namePrefix(PREFIX).orderBy(ClipTable.Column.NAME, false);
+
+    @Setup(Level.Trial)
+    public void library() {
+        Random random = new Random(7);
+        int[] rates = {30, 60, 120, 240, 480};
+        builder = new ClipTable.Builder();
+        items = new ArrayList<>(clips);
+        for (int i = 0; i < clips; i++) {
+            String name = String.format(Locale.US, "HighSpeed_2024%04d_%06d.mp4", random.nextInt(10_000), i);
+            String path = "/storage/emulated/0/DCIM/ProCamera/" + name;
+            ClipIndex.Entry e = new ClipIndex.Entry(name, 1_000_000L + random.nextInt(1 << 30),
+                    1_700_000_000_000L + random.nextInt(1 << 30), random.nextInt(60_000),
+                    rates[random.nextInt(rates.length)], 100 * random.nextInt(32), "1/500s");
+            builder.add(path, e);
+            items.add(new VideoItem(e.name, ClipFormat.formatDuration(e.durationMs), e.fps, e.iso, e.shutter, 0,
+                    path, e.sizeBytes, e.lastModified));
+        }
+        table = builder.build();
+        // As the library loader does for the complete snapshot
+        table.rankAll();
+    }
+
+    // A fresh snapshot each time, as the loader builds and ranks the complete one
+    @Benchmark
+    public ClipTable tableRank() {
+        ClipTable snapshot = builder.build();
+        snapshot.rankAll();
+        return snapshot;
+    }
+
+    @Benchmark
+    public int[] tableFilter() {
+        return table.select(filter);
+    }
+
+    @Benchmark
+    public int[] tableSort() {
+        return table.select(sort);
+    }
+
+    @Benchmark
+    public int[] tableSearch() {
+        return table.select(search);
+    }
+
+    @Benchmark
+    public List<VideoItem> listFilter() {
+        List<VideoItem> out = new ArrayList<>();
+        for (VideoItem v : items) {
+            if (v.getFps() >= 240 && parseDurationMs(v.getDuration()) < 5000) out.add(v);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public List<VideoItem> listSort() {
+        List<VideoItem> out = new ArrayList<>(items);
+        out.sort(Comparator.comparingInt(VideoItem::getFps).reversed()
+                .thenComparing(Comparator.comparingLong(VideoItem::getLastModified).reversed()));
+        return out;
+    }
+
+    @Benchmark
+    public List<VideoItem> listSearch() {
+        List<VideoItem> out = new ArrayList<>();
+        for (VideoItem v : items) {
+            if (v.getName().regionMatches(true, 0, PREFIX, 0, PREFIX.length())) out.add(v);
+        }
+        out.sort(Comparator.comparing(VideoItem::getName, String.CASE_INSENSITIVE_ORDER));
+        return out;
+    }
+
+    // The list only has "m:ss", so a duration filter means parsing it back
+    private static long parseDurationMs(String text) {
+        long seconds = 0;
+        for (String part : text.split(":")) seconds = seconds * 60 + Integer.parseInt(part);
+        return seconds * 1000;
+    }
+}
@@ -0,0 +1,57 @@
+package com.anshul.a240dc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the clip index written by earlier visits, which is what a warm library start reads
+ * instead of parsing every MP4.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataDecodeBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int clips;
+
+    private File indexFile;
+
+    @Setup(Level.Trial)
+    public void writeIndex() throws IOException {
+        indexFile = File.createTempFile("clips", ".idx");
+        indexFile.delete();
+        Random random = new Random(clips);
+        String[] shutters = {"", "1/250s", "1/500s", "1/1000s"};
+        ClipIndex index = ClipIndex.open(indexFile);
+        for (int i = 0; i < clips; i++) {
+            index.put(new ClipIndex.Entry("HighSpeed_" + i + ".mp4", 1_000_000L + random.nextInt(1 << 30),
+                    1_700_000_000_000L + i, random.nextInt(60_000), 240, 100 * random.nextInt(32),
+                    shutters[random.nextInt(shutters.length)], 1280, 720, 40_000_000));
+        }
+        index.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteIndex() {
+        indexFile.delete();
+    }
+
+    @Benchmark
+    public ClipIndex openIndex() throws IOException {
+        return ClipIndex.open(indexFile);
+    }
+}
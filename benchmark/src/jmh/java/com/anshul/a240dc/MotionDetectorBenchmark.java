@@ -0,0 +1,72 @@
+package com.anshul.a240dc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Motion detection on one 320x240 luma plane, from an array and from a direct buffer as an
+ * {@code Image} plane hands it out. A frame lasts 4.17 ms at 240 fps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MotionDetectorBenchmark {
+
+    private static final int W = 320;
+    private static final int H = 240;
+
+    // Pre-rendered so the benchmark measures the detector, not the scene
+    private final byte[][] frames = new byte[48][];
+    private final ByteBuffer[] planes = new ByteBuffer[frames.length];
+    private MotionDetector fromArray;
+    private MotionDetector fromBuffer;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void scene() {
+        // A textured, noisy scene with a bright square moving through half of the frames
+        Random random = new Random(42);
+        for (int i = 0; i < frames.length; i++) {
+            boolean square = i % 16 >= 8;
+            int squareX = i * 6;
+            byte[] frame = new byte[W * H];
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) {
+                    int v = 60 + (x * 7 + y * 3) % 90 + random.nextInt(7) - 3;
+                    if (square && x >= squareX && x < squareX + 80 && y >= 48 && y < 128) v += 90;
+                    frame[y * W + x] = (byte) Math.max(0, Math.min(255, v));
+                }
+            }
+            frames[i] = frame;
+            planes[i] = ByteBuffer.allocateDirect(frame.length).put(frame);
+            planes[i].flip();
+        }
+        MotionDetector.Settings settings = new MotionDetector.Settings.Builder().blockSize(8).build();
+        fromArray = new MotionDetector(W, H, settings);
+        fromBuffer = new MotionDetector(W, H, settings);
+    }
+
+    @Benchmark
+    public boolean arrayFrame() {
+        int i = next;
+        next = (i + 1) % frames.length;
+        return fromArray.process(frames[i], 0, W);
+    }
+
+    @Benchmark
+    public boolean directBufferFrame() {
+        int i = next;
+        next = (i + 1) % planes.length;
+        return fromBuffer.process(planes[i], W);
+    }
+}
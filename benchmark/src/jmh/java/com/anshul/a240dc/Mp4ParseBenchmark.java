@@ -0,0 +1,61 @@
+package com.anshul.a240dc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a new clip's metadata and sample tables, for a 240 fps video with AAC audio. The
+ * clips come from the app's test fixture, so they have the structure the camera writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Mp4ParseBenchmark {
+
+    @Param({"10", "60"})
+    public int seconds;
+
+    private File clip;
+
+    @Setup(Level.Trial)
+    public void writeClip() throws IOException {
+        clip = File.createTempFile("clip", ".mp4");
+        new Mp4Fixture()
+                .add(Mp4Fixture.video(240 * seconds, 240, 64, 240))
+                .add(Mp4Fixture.audio(47 * seconds, 16))
+                .write(clip);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteClip() {
+        clip.delete();
+    }
+
+    @Benchmark
+    public Mp4Info parseInfo() throws IOException {
+        return Mp4Parser.parse(clip);
+    }
+
+    @Benchmark
+    public List<SampleTable> readSampleTables() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(clip, "r")) {
+            FileChannel channel = raf.getChannel();
+            return SampleTable.read(channel, Mp4Parser.mapMoov(channel));
+        }
+    }
+}
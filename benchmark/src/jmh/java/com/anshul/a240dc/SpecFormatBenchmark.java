@@ -0,0 +1,72 @@
+package com.anshul.a240dc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text {@link VideoAdapter} sets on every bind: the spec line, against the
+ * {@code String.format} version it used to build, and the duration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpecFormatBenchmark {
+
+    private static final int ROWS = 1024;
+
+    private final int[] fps = new int[ROWS];
+    private final int[] iso = new int[ROWS];
+    private final String[] shutter = new String[ROWS];
+    private final int[] durationMs = new int[ROWS];
+    private int row;
+
+    @Setup
+    public void rows() {
+        Random random = new Random(1);
+        int[] rates = {30, 60, 120, 240, 480};
+        String[] shutters = {"", "1/250s", "1/500s", "1/1000s"};
+        for (int i = 0; i < ROWS; i++) {
+            fps[i] = rates[random.nextInt(rates.length)];
+            iso[i] = random.nextInt(4) == 0 ? 0 : 100 * (1 + random.nextInt(32));
+            shutter[i] = shutters[random.nextInt(shutters.length)];
+            durationMs[i] = random.nextInt(600_000);
+        }
+    }
+
+    @Benchmark
+    public String formatSpecs() {
+        int r = next();
+        return ClipFormat.formatSpecs(fps[r], iso[r], shutter[r]);
+    }
+
+    @Benchmark
+    public String formatSpecsWithStringFormat() {
+        int r = next();
+        String specs = String.format("%d FPS", fps[r]);
+        if (iso[r] > 0) {
+            specs += String.format("  •  ISO %d", iso[r]);
+        }
+        if (!shutter[r].isEmpty()) {
+            specs += "  •  " + shutter[r];
+        }
+        return specs;
+    }
+
+    @Benchmark
+    public String formatDuration() {
+        return ClipFormat.formatDuration(durationMs[next()]);
+    }
+
+    private int next() {
+        row = (row + 1) & (ROWS - 1);
+        return row;
+    }
+}
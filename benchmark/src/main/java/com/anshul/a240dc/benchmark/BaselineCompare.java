@@ -0,0 +1,269 @@
+package com.anshul.a240dc.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file with a committed baseline and fails on regressions.
+ *
+ * Benchmarks are matched by name and parameters. A benchmark regresses when its score moved
+ * the wrong way (up for time per operation, down for throughput) by more than the threshold,
+ * after allowing for the error margins JMH reports for both runs, so noise alone does not
+ * fail the build. Benchmarks missing from the baseline are listed but never fail; a baseline
+ * with no benchmarks at all fails, since nothing could ever regress against it. Baseline entries
+ * without a positive score cannot give a relative change and are skipped with a warning.
+ */
+public final class BaselineCompare {
+
+    /** One benchmark's score from a result file. */
+    static final class Score {
+        final String key;
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Score(String key, String mode, double score, double error, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /** Throughput modes get better as the score goes up; the time modes as it goes down. */
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    private BaselineCompare() {}
+
+    /** Arguments: baseline file, results file, threshold in percent. Exits 1 on a regression. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: BaselineCompare <baseline.json> <results.json> <threshold %>");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        if (!baselineFile.isFile()) {
+            System.err.println("No baseline at " + baselineFile + "; record one with :benchmark:recordBaseline");
+            System.exit(2);
+        }
+        Map<String, Score> baseline = read(baselineFile);
+        Map<String, Score> current = read(new File(args[1]));
+        int regressions;
+        try {
+            regressions = compare(baseline, current, Double.parseDouble(args[2]), System.out);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (regressions > 0) {
+            System.err.println(regressions + " benchmark(s) regressed past " + args[2] + "%");
+            System.exit(1);
+        }
+    }
+
+    static Map<String, Score> read(File file) throws IOException {
+        return parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /** Scores by benchmark key, e.g. {@code ...DirectoryScanBenchmark.scan[files=1000]}. */
+    @SuppressWarnings("unchecked")
+    static Map<String, Score> parse(String json) {
+        Map<String, Score> scores = new TreeMap<>();
+        for (Object o : (List<Object>) new Json(json).value()) {
+            Map<String, Object> run = (Map<String, Object>) o;
+            StringBuilder key = new StringBuilder((String) run.get("benchmark"));
+            Object params = run.get("params");
+            if (params instanceof Map) {
+                // Sorted, so the key does not depend on the order JMH wrote them in
+                key.append(new TreeMap<>((Map<String, Object>) params).toString());
+            }
+            Map<String, Object> metric = (Map<String, Object>) run.get("primaryMetric");
+            scores.put(key.toString(), new Score(key.toString(), (String) run.get("mode"),
+                    number(metric.get("score")), number(metric.get("scoreError")), (String) metric.get("scoreUnit")));
+        }
+        return scores;
+    }
+
+    /**
+     * Prints one line per benchmark to {@code out} and returns how many regressed.
+     *
+     * @throws IllegalArgumentException if the baseline has no benchmarks
+     */
+    static int compare(Map<String, Score> baseline, Map<String, Score> current, double thresholdPercent,
+                       PrintStream out) {
+        if (baseline.isEmpty()) {
+            throw new IllegalArgumentException("The baseline has no benchmarks; record one with :benchmark:recordBaseline");
+        }
+        int regressions = 0;
+        for (Score now : current.values()) {
+            Score before = baseline.get(now.key);
+            if (before == null) {
+                out.printf(Locale.US, "NEW        %s: %.3f %s%n", now.key, now.score, now.unit);
+                continue;
+            }
+            if (!(before.score > 0) || Double.isInfinite(before.score)) {
+                out.printf(Locale.US, "SKIPPED    %s: baseline score %s cannot be compared%n", now.key, before.score);
+                continue;
+            }
+            double change = (now.score - before.score) / before.score * 100;
+            double worse = now.higherIsBetter() ? -change : change;
+            // The part of the change that the two error margins cannot explain
+            double margin = (before.error + now.error) / before.score * 100;
+            boolean regressed = worse - margin > thresholdPercent;
+            if (regressed) regressions++;
+            out.printf(Locale.US, "%-10s %s: %.3f -> %.3f %s (%+.1f%%, ±%.1f%%)%n",
+                    regressed ? "REGRESSED" : worse < -margin ? "IMPROVED" : "OK",
+                    now.key, before.score, now.score, now.unit, change, margin);
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) out.println("NOT RUN    " + key);
+        }
+        return regressions;
+    }
+
+    // JMH writes "NaN" as a string when a run has too few iterations for an error margin
+    private static double number(Object value) {
+        if (value instanceof Double) return (Double) value;
+        return 0;
+    }
+
+    /** Just enough of a JSON reader for JMH's result files. */
+    static final class Json {
+        private final String s;
+        private int pos;
+
+        Json(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            skipSpace();
+            if (pos >= s.length()) throw error("Unexpected end");
+            char c = s.charAt(pos);
+            switch (c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default: return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipSpace();
+                String key = string();
+                skipSpace();
+                expect(':');
+                map.put(key, value());
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipSpace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= s.length()) throw error("Unterminated string");
+                char c = s.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e); break;
+                }
+            }
+        }
+
+        private Double number() {
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+            if (start == pos) throw error("Unexpected '" + s.charAt(pos) + "'");
+            return Double.parseDouble(s.substring(start, pos));
+        }
+
+        private Object literal(String word, Object value) {
+            if (!s.startsWith(word, pos)) throw error("Expected " + word);
+            pos += word.length();
+            return value;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) throw error("Expected '" + c + "'");
+            pos++;
+        }
+
+        private char peek() {
+            return pos < s.length() ? s.charAt(pos) : '\0';
+        }
+
+        private void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + pos);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.anshul.a240dc.benchmark;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BaselineCompareTest {
+
+    // The shape of a JMH JSON result entry, trimmed to what the comparison reads
+    private static String run(String benchmark, String mode, String params, double score, String error) {
+        return "{\"jmhVersion\":\"1.37\",\"benchmark\":\"" + benchmark + "\",\"mode\":\"" + mode + "\","
+                + (params == null ? "" : "\"params\":" + params + ",")
+                + "\"primaryMetric\":{\"score\":" + score + ",\"scoreError\":" + error
+                + ",\"scoreConfidence\":[1.0,2.0],\"scoreUnit\":\"us/op\",\"rawData\":[[1.5,1.6]]},"
+                + "\"secondaryMetrics\":{}}";
+    }
+
+    private static String results(String... runs) {
+        return "[\n" + String.join(",\n", runs) + "\n]";
+    }
+
+    private static int compare(String baseline, String current, double threshold) {
+        return BaselineCompare.compare(BaselineCompare.parse(baseline), BaselineCompare.parse(current), threshold,
+                new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void keysIncludeSortedParams() {
+        Map<String, BaselineCompare.Score> scores = BaselineCompare.parse(results(
+                run("a.Scan.scan", "avgt", "{\"files\":\"1000\",\"depth\":\"2\"}", 12.5, "0.25"),
+                run("a.Scan.list", "avgt", null, 3, "\"NaN\"")));
+
+        assertEquals(2, scores.size());
+        BaselineCompare.Score scan = scores.get("a.Scan.scan{depth=2, files=1000}");
+        assertEquals(12.5, scan.score, 0);
+        assertEquals(0.25, scan.error, 0);
+        assertEquals("us/op", scan.unit);
+        assertEquals(0, scores.get("a.Scan.list").error, 0);
+    }
+
+    @Test
+    public void slowerPastTheThresholdAndErrorsRegresses() {
+        String before = results(run("a.B.x", "avgt", null, 100, "2"));
+        assertEquals(0, compare(before, results(run("a.B.x", "avgt", null, 113, "2")), 10));
+        assertEquals(1, compare(before, results(run("a.B.x", "avgt", null, 115, "2")), 10));
+        // A noisy run needs a bigger change before it counts
+        assertEquals(0, compare(before, results(run("a.B.x", "avgt", null, 115, "10")), 10));
+    }
+
+    @Test
+    public void throughputRegressesWhenItDrops() {
+        String before = results(run("a.B.x", "thrpt", null, 1000, "0"));
+        assertEquals(0, compare(before, results(run("a.B.x", "thrpt", null, 2000, "0")), 10));
+        assertEquals(1, compare(before, results(run("a.B.x", "thrpt", null, 850, "0")), 10));
+    }
+
+    @Test
+    public void newAndMissingBenchmarksNeverFail() {
+        assertEquals(0, compare(results(run("a.B.y", "avgt", null, 100, "0")),
+                results(run("a.B.x", "avgt", null, 100, "0")), 10));
+        assertEquals(0, compare(results(run("a.B.x", "avgt", null, 100, "0")), "[]", 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anEmptyBaselineFails() {
+        compare("[]", results(run("a.B.x", "avgt", null, 100, "0")), 10);
+    }
+
+    @Test
+    public void zeroScoresInTheBaselineAreSkipped() {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        int regressions = BaselineCompare.compare(
+                BaselineCompare.parse(results(run("a.B.x", "avgt", null, 0, "0"), run("a.B.y", "thrpt", null, 0, "0"))),
+                BaselineCompare.parse(results(run("a.B.x", "avgt", null, 100, "0"), run("a.B.y", "thrpt", null, 0, "0"))),
+                10, new PrintStream(printed));
+        assertEquals(0, regressions);
+        String out = printed.toString();
+        assertTrue(out.contains("SKIPPED    a.B.x"));
+        assertTrue(out.contains("SKIPPED    a.B.y"));
+        assertFalse(out.contains("NaN"));
+    }
+
+    @Test
+    public void readsEscapesAndExponents() {
+        Map<String, BaselineCompare.Score> scores = BaselineCompare.parse(
+                results(run("a.B.\\u0078\\\"q\\\"", "avgt", null, 1.5e-3, "2E-4")));
+        BaselineCompare.Score s = scores.get("a.B.x\"q\"");
+        assertEquals(1.5e-3, s.score, 0);
+        assertEquals(2e-4, s.error, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedFiles() {
+        BaselineCompare.parse("[{\"benchmark\":\"a\"");
+    }
+}
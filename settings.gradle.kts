@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "240dc"
 include(":app")
+include(":benchmark")